@@ -35,16 +35,23 @@ import com.riiablo.audio.MusicVolumeController;
 import com.riiablo.audio.SoundVolumeController;
 import com.riiablo.audio.VolumeControlledMusicLoader;
 import com.riiablo.audio.VolumeControlledSoundLoader;
+import com.riiablo.codec.CompositeCache;
 import com.riiablo.codec.DC6;
 import com.riiablo.codec.DCC;
+import com.riiablo.codec.DecodeService;
 import com.riiablo.codec.FontTBL;
+import com.riiablo.codec.FrameAtlas;
+import com.riiablo.codec.FrameCache;
 import com.riiablo.codec.Index;
 import com.riiablo.codec.Palette;
 import com.riiablo.codec.StringTBLs;
 import com.riiablo.codec.TXT;
+import com.riiablo.codec.TransformCache;
+import com.riiablo.codec.excel.ExcelCache;
 import com.riiablo.console.RenderedConsole;
 import com.riiablo.cvar.Cvar;
 import com.riiablo.cvar.CvarStateAdapter;
+import com.riiablo.entity.AnimationRegistry;
 import com.riiablo.entity.Engine;
 import com.riiablo.graphics.PaletteIndexedBatch;
 import com.riiablo.loader.BitmapFontLoader;
@@ -59,7 +66,9 @@ import com.riiablo.map.DT1;
 import com.riiablo.map.DT1Loader;
 import com.riiablo.map.Map;
 import com.riiablo.map.MapLoader;
+import com.riiablo.mpq.DiskCache;
 import com.riiablo.mpq.MPQFileHandleResolver;
+import com.riiablo.mpq.SectorCache;
 import com.riiablo.screen.AudioUnpackerScreen;
 import com.riiablo.screen.SplashScreen;
 
@@ -92,6 +101,13 @@ public class Client extends Game {
   private ShapeRenderer         shapes;
   private MPQFileHandleResolver mpqs;
   private AssetManager          assets;
+  private DecodeService         decoder;
+  private FrameAtlas            atlas;
+  private CompositeCache        composites;
+  private TransformCache        transforms;
+  private AnimationRegistry     animations;
+  private DC6Loader             dc6Loader;
+  private DCCLoader             dccLoader;
   private InputProcessor        input;
   private RenderedConsole       console;
   private GdxCommandManager     commands;
@@ -238,11 +254,28 @@ public class Client extends Game {
       throw new GdxRuntimeException("home does not refer to a valid D2 installation. Copy MPQs to " + home);
     }
 
-    Riiablo.mpqs = mpqs = new MPQFileHandleResolver();
+    // cvars are loaded before any files, since some configure how files are loaded
+    Collection<Throwable> throwables;
+    Riiablo.cvars = cvars = new GdxCvarManager();
+    throwables = Cvars.addTo(cvars);
+    for (Throwable t : throwables) {
+      Gdx.app.error(TAG, t.getMessage(), t);
+    }
+
+    // Android address space is too limited to map every archive
+    boolean mapMpqs = Gdx.app.getType() != Application.ApplicationType.Android;
+    Riiablo.mpqs = mpqs = new MPQFileHandleResolver(home, mapMpqs);
+    mpqs.setSectorCache(new SectorCache((long) Cvars.Client.MPQ.SectorCacheSize.getDefault() << 20));
     Riiablo.string = string = new StringTBLs(mpqs);
 
     Riiablo.assets = assets = new AssetManager();
     Texture.setAssetManager(assets);
+    Riiablo.decoder = decoder = new DecodeService(Cvars.Client.Display.UploadBudget.getDefault());
+    Riiablo.atlas = atlas = new FrameAtlas((long) Cvars.Client.Display.AtlasBudget.getDefault() << 20);
+    decoder.setAtlas(atlas);
+    Riiablo.composites = composites = new CompositeCache((long) Cvars.Client.Display.CompositeBudget.getDefault() << 20, 2);
+    Riiablo.transforms = transforms = new TransformCache((long) Cvars.Client.Display.TransformBudget.getDefault() << 20, 8);
+    Riiablo.animations = animations = new AnimationRegistry(assets, 300);
     console.create();
 
     FileHandleResolver soundResolver = Gdx.app.getType() == Application.ApplicationType.Android
@@ -250,8 +283,8 @@ public class Client extends Game {
         : mpqs;
     assets.setLoader(Sound.class, new VolumeControlledSoundLoader(soundResolver, new SoundVolumeController()));
     assets.setLoader(Music.class, new VolumeControlledMusicLoader(soundResolver, new MusicVolumeController()));
-    assets.setLoader(DC6.class, new DC6Loader(mpqs));
-    assets.setLoader(DCC.class, new DCCLoader(mpqs));
+    assets.setLoader(DC6.class, dc6Loader = new DC6Loader(mpqs));
+    assets.setLoader(DCC.class, dccLoader = new DCCLoader(mpqs));
     assets.setLoader(Palette.class, new PaletteLoader(mpqs));
     assets.setLoader(Index.class, new IndexLoader(mpqs));
     assets.setLoader(FontTBL.BitmapFont.class, new BitmapFontLoader(mpqs));
@@ -263,7 +296,10 @@ public class Client extends Game {
     Riiablo.palettes = palettes = new Palettes(assets);
     Riiablo.colormaps = colormaps = new Colormaps(assets);
     Riiablo.fonts = fonts = new Fonts(assets);
-    Riiablo.files = files = new Files(assets);
+    ExcelCache excelCache = Cvars.Client.Excel.Cache.get()
+        ? new ExcelCache(home.child("cache").child("excel"))
+        : null;
+    Riiablo.files = files = new Files(assets, null, excelCache);
     Riiablo.cofs = cofs = new COFs(assets);
     Riiablo.audio = audio = new Audio(assets);
     Riiablo.music = music = new MusicController(assets);
@@ -275,19 +311,12 @@ public class Client extends Game {
     Riiablo.charData = charData = new CharData();
     Riiablo.engine = engine = new Engine();
 
-    Collection<Throwable> throwables;
     Riiablo.commands = commands = new GdxCommandManager();
     throwables = Commands.addTo(commands);
     for (Throwable t : throwables) {
       Gdx.app.error(TAG, t.getMessage(), t);
     }
 
-    Riiablo.cvars = cvars = new GdxCvarManager();
-    throwables = Cvars.addTo(cvars);
-    for (Throwable t : throwables) {
-      Gdx.app.error(TAG, t.getMessage(), t);
-    }
-
     Riiablo.keys = keys = new GdxKeyMapper();
     throwables = Keys.addTo(keys);
     for (Throwable t : throwables) {
@@ -352,6 +381,57 @@ public class Client extends Game {
       }
     });
 
+    Cvars.Client.Display.UploadBudget.addStateListener(new CvarStateAdapter<Integer>() {
+      @Override
+      public void onChanged(Cvar<Integer> cvar, Integer from, Integer to) {
+        decoder.setUploadBudget(to);
+      }
+    });
+
+    Cvars.Client.Display.AtlasBudget.addStateListener(new CvarStateAdapter<Integer>() {
+      @Override
+      public void onChanged(Cvar<Integer> cvar, Integer from, Integer to) {
+        atlas.setBudget((long) to << 20);
+      }
+    });
+
+    Cvars.Client.Display.CompositeBudget.addStateListener(new CvarStateAdapter<Integer>() {
+      @Override
+      public void onChanged(Cvar<Integer> cvar, Integer from, Integer to) {
+        composites.setBudget((long) to << 20);
+      }
+    });
+
+    Cvars.Client.Display.TransformBudget.addStateListener(new CvarStateAdapter<Integer>() {
+      @Override
+      public void onChanged(Cvar<Integer> cvar, Integer from, Integer to) {
+        transforms.setBudget((long) to << 20);
+      }
+    });
+
+    Cvars.Client.Display.FrameCache.addStateListener(new CvarStateAdapter<Boolean>() {
+      @Override
+      public void onChanged(Cvar<Boolean> cvar, Boolean from, Boolean to) {
+        FrameCache frameCache = to ? new FrameCache(home.child("cache").child("frames")) : null;
+        dc6Loader.setFrameCache(frameCache);
+        dccLoader.setFrameCache(frameCache);
+      }
+    });
+
+    Cvars.Client.MPQ.SectorCacheSize.addStateListener(new CvarStateAdapter<Integer>() {
+      @Override
+      public void onChanged(Cvar<Integer> cvar, Integer from, Integer to) {
+        mpqs.getSectorCache().setBudget((long) to << 20);
+      }
+    });
+
+    Cvars.Client.MPQ.DiskCache.addStateListener(new CvarStateAdapter<Boolean>() {
+      @Override
+      public void onChanged(Cvar<Boolean> cvar, Boolean from, Boolean to) {
+        mpqs.setDiskCache(to ? new DiskCache(home.child("cache").child("mpq")) : null);
+      }
+    });
+
     Cvars.Client.Realm.addStateListener(new CvarStateAdapter<String>() {
       @Override
       public void onChanged(Cvar<String> cvar, String from, String to) {
@@ -404,6 +484,12 @@ public class Client extends Game {
       shapes.end();
     }
 
+    // uploads still belong to the last frame, so they never evict the pages it has drawn
+    decoder.update();
+    atlas.update();
+    composites.update();
+    transforms.update();
+    animations.update();
     super.render();
     cursor.act(Gdx.graphics.getDeltaTime());
     cursor.render(batch);
@@ -485,6 +571,11 @@ public class Client extends Game {
     Riiablo.shapes = shapes;
     Riiablo.mpqs = mpqs;
     Riiablo.assets = assets;
+    Riiablo.decoder = decoder;
+    Riiablo.atlas = atlas;
+    Riiablo.composites = composites;
+    Riiablo.transforms = transforms;
+    Riiablo.animations = animations;
     Riiablo.input = input;
     Riiablo.console = console;
     Riiablo.commands = commands;
@@ -537,8 +628,15 @@ public class Client extends Game {
     palettes.dispose();
     colormaps.dispose();
     textures.dispose();
+    decoder.dispose();
+    atlas.dispose();
+    composites.dispose();
+    transforms.dispose();
     assets.dispose();
 
+    Gdx.app.debug(TAG, "Disposing MPQs...");
+    mpqs.dispose();
+
     try {
       Gdx.app.debug(TAG, "Resetting stdout...");
       System.setOut(System.out);
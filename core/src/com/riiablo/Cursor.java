@@ -3,6 +3,7 @@ package com.riiablo;
 import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.graphics.Color;
 import com.badlogic.gdx.graphics.Pixmap;
+import com.badlogic.gdx.graphics.g2d.TextureRegion;
 import com.badlogic.gdx.graphics.glutils.ShapeRenderer;
 import com.badlogic.gdx.math.Vector2;
 import com.riiablo.codec.DC;
@@ -101,9 +102,12 @@ public class Cursor {
       coords.sub(box.width / 2f, box.height / 2f);
 
       batch.begin();
-      batch.setColormap(transform, transformColor);
+      TextureRegion variant = Riiablo.transforms != null
+          ? Riiablo.transforms.get(dc, 0, 0, transform, transformColor)
+          : null;
+      if (variant == null) batch.setColormap(transform, transformColor);
       if (item.isEthereal()) batch.setAlpha(Item.ETHEREAL_ALPHA);
-      batch.draw(dc.getTexture(), coords.x, coords.y);
+      batch.draw(variant != null ? variant : dc.getTexture(), coords.x, coords.y);
       if (item.isEthereal()) batch.resetColor();
       batch.resetColormap();
       batch.end();
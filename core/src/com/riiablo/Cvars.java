@@ -182,6 +182,85 @@ public class Cvars {
           .defaultValue(Boolean.FALSE)
           .validator(Validator.ACCEPT_NON_NULL)
           .build();
+
+      Cvar<Integer> UploadBudget = Cvar.builder(Integer.class)
+          .alias("Client.Display.UploadBudget")
+          .description(
+              "Maximum number of decoded animation frames uploaded as textures each frame. " +
+              "0=Unlimited")
+          .defaultValue(64)
+          .validator(NumberRangeValidator.of(Integer.class, 0, null))
+          .build();
+
+      Cvar<Integer> AtlasBudget = Cvar.builder(Integer.class)
+          .alias("Client.Display.AtlasBudget")
+          .description(
+              "Maximum texture memory in MB used to pack animation frames into shared pages, " +
+              "the least recently drawn animations are evicted once it has been spent. " +
+              "0=Disabled")
+          .defaultValue(32)
+          .validator(NumberRangeValidator.of(Integer.class, 0, 1024))
+          .build();
+
+      Cvar<Integer> CompositeBudget = Cvar.builder(Integer.class)
+          .alias("Client.Display.CompositeBudget")
+          .description(
+              "Maximum texture memory in MB used to cache characters with all of their layers " +
+              "composited into a single frame, so each is drawn with a single call. " +
+              "0=Disabled")
+          .defaultValue(0)
+          .validator(NumberRangeValidator.of(Integer.class, 0, 1024))
+          .build();
+
+      Cvar<Integer> TransformBudget = Cvar.builder(Integer.class)
+          .alias("Client.Display.TransformBudget")
+          .description(
+              "Maximum texture memory in MB used to cache frames with their colormap applied " +
+              "on the CPU, so tinted items and monsters do not break batches. " +
+              "0=Disabled")
+          .defaultValue(0)
+          .validator(NumberRangeValidator.of(Integer.class, 0, 1024))
+          .build();
+
+      Cvar<Boolean> FrameCache = Cvar.builder(Boolean.class)
+          .alias("Client.Display.FrameCache")
+          .description(
+              "Whether or not decoded animation frames are cached under home/cache/frames " +
+              "and read back from there on later runs")
+          .defaultValue(Boolean.FALSE)
+          .validator(Validator.ACCEPT_NON_NULL)
+          .build();
+    }
+
+    interface MPQ {
+      Cvar<Integer> SectorCacheSize = Cvar.builder(Integer.class)
+          .alias("Client.MPQ.SectorCacheSize")
+          .description(
+              "Size of the cache of decompressed MPQ sectors in MB. " +
+              "0=Disabled")
+          .defaultValue(32)
+          .validator(NumberRangeValidator.of(Integer.class, 0, 1024))
+          .build();
+
+      Cvar<Boolean> DiskCache = Cvar.builder(Boolean.class)
+          .alias("Client.MPQ.DiskCache")
+          .description(
+              "Whether or not decompressed MPQ files are cached under home/cache/mpq " +
+              "and read back from there on later runs")
+          .defaultValue(Boolean.FALSE)
+          .validator(Validator.ACCEPT_NON_NULL)
+          .build();
+    }
+
+    interface Excel {
+      Cvar<Boolean> Cache = Cvar.builder(Boolean.class)
+          .alias("Client.Excel.Cache")
+          .description(
+              "Whether or not parsed excel tables are cached under home/cache/excel " +
+              "and read back from there on later runs")
+          .defaultValue(Boolean.FALSE)
+          .validator(Validator.ACCEPT_NON_NULL)
+          .build();
     }
 
     interface Input {
@@ -4,7 +4,6 @@ import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.assets.AssetManager;
 import com.badlogic.gdx.files.FileHandle;
 import com.badlogic.gdx.utils.ObjectSet;
-import com.riiablo.codec.TXT;
 import com.riiablo.codec.excel.ArmType;
 import com.riiablo.codec.excel.Armor;
 import com.riiablo.codec.excel.BodyLocs;
@@ -14,6 +13,8 @@ import com.riiablo.codec.excel.CompCode;
 import com.riiablo.codec.excel.Composit;
 import com.riiablo.codec.excel.DifficultyLevels;
 import com.riiablo.codec.excel.Excel;
+import com.riiablo.codec.excel.ExcelCache;
+import com.riiablo.codec.excel.ExcelLoader;
 import com.riiablo.codec.excel.Gems;
 import com.riiablo.codec.excel.Inventory;
 import com.riiablo.codec.excel.ItemStatCost;
@@ -53,7 +54,13 @@ import com.riiablo.codec.excel.UniqueItems;
 import com.riiablo.codec.excel.WeaponClass;
 import com.riiablo.codec.excel.Weapons;
 
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
 public class Files {
+  private static final String TAG = "Files";
+  private static final boolean DEBUG = !true;
+
   public final Obj    obj;
   public final Speech speech;
   public final Quests quests;
@@ -104,81 +111,162 @@ public class Files {
   public final WeaponClass      WeaponClass;
   public final Weapons          weapons;
 
+  /** tables in the order they were loaded with their load times */
+  private final ExcelLoader loader;
+
   public Files(AssetManager assets) {
-    obj    = loadInternal(Obj.class);
-    speech = loadInternal(Speech.class);
-    quests = loadInternal(Quests.class);
-
-    armor            = load(assets, Armor.class, Excel.EXPANSION);
-    ArmType          = load(assets, ArmType.class);
-    bodylocs         = load(assets, BodyLocs.class);
-    CharStats        = load(assets, CharStats.class, Excel.EXPANSION);
-    colors           = load(assets, Colors.class);
-    Composit         = load(assets, Composit.class);
-    compcode         = load(assets, CompCode.class);
-    DifficultyLevels = load(assets, DifficultyLevels.class);
-    Gems             = load(assets, Gems.class, Excel.EXPANSION);
-    inventory        = load(assets, Inventory.class);
-    ItemStatCost     = load(assets, ItemStatCost.class);
-    ItemTypes        = load(assets, ItemTypes.class);
-    Levels           = load(assets, Levels.class, Excel.EXPANSION);
-    LowQualityItems  = load(assets, LowQualityItems.class);
-    LvlPrest         = load(assets, LvlPrest.class);
-    LvlTypes         = load(assets, LvlTypes.class);
-    LvlWarp          = load(assets, LvlWarp.class, Excel.EXPANSION);
-    misc             = load(assets, Misc.class, Excel.EXPANSION);
-    Missiles         = load(assets, Missiles.class);
-    MagicPrefix      = load(assets, MagicPrefix.class, Excel.EXPANSION);
-    MagicSuffix      = load(assets, MagicSuffix.class, Excel.EXPANSION);
-    MonAI            = load(assets, MonAI.class);
-    MonMode          = load(assets, MonMode.class);
-    monstats         = load(assets, MonStats.class, Excel.EXPANSION);
-    monstats2        = load(assets, MonStats2.class, Excel.EXPANSION);
-    RarePrefix       = load(assets, RarePrefix.class, Excel.EXPANSION);
-    RareSuffix       = load(assets, RareSuffix.class, Excel.EXPANSION);
-    Runes            = load(assets, Runes.class);
-    objects          = load(assets, Objects.class);
-    ObjMode          = load(assets, ObjMode.class);
-    Overlay          = load(assets, Overlay.class, Excel.EXPANSION);
-    PlrMode          = load(assets, PlrMode.class);
-    PlrType          = load(assets, PlrType.class);
-    Properties       = load(assets, Properties.class, Excel.EXPANSION);
-    QualityItems     = load(assets, QualityItems.class);
-    Sets             = load(assets, Sets.class, Excel.EXPANSION);
-    SetItems         = load(assets, SetItems.class, Excel.EXPANSION);
-    skills           = load(assets, Skills.class);
-    skilldesc        = load(assets, SkillDesc.class);
-    Sounds           = load(assets, Sounds.class);
-    UniqueItems      = load(assets, UniqueItems.class, Excel.EXPANSION);
-    //UniquePrefix   = load(assets, UniquePrefix.class);
-    //UniqueSuffix   = load(assets, UniqueSuffix.class);
-    WeaponClass      = load(assets, WeaponClass.class);
-    weapons          = load(assets, Weapons.class, Excel.EXPANSION);
-
-    Sets.index(SetItems);
+    this(assets, null, null);
+  }
+
+  /**
+   * Loads every table in parallel on {@code pool}, or on a pool created for the duration of the
+   * constructor if it is {@code null}. Tables are loaded from their snapshots in {@code cache}
+   * when they are cached, see {@link ExcelCache}.
+   *
+   * @param cache cache of table snapshots, or {@code null} to always parse tables
+   */
+  public Files(AssetManager assets, ForkJoinPool pool, ExcelCache cache) {
+    final boolean ownsPool = pool == null;
+    if (ownsPool) pool = new ForkJoinPool();
+    try {
+      loader = new ExcelLoader(pool, cache);
+      ExcelLoader.Table<Obj>    obj    = loader.add(Obj.class, internal(Obj.class));
+      ExcelLoader.Table<Speech> speech = loader.add(Speech.class, internal(Speech.class));
+      ExcelLoader.Table<Quests> quests = loader.add(Quests.class, internal(Quests.class));
+
+      ExcelLoader.Table<Armor>            armor            = load(Armor.class, Excel.EXPANSION);
+      ExcelLoader.Table<ArmType>          ArmType          = load(ArmType.class);
+      ExcelLoader.Table<BodyLocs>         bodylocs         = load(BodyLocs.class);
+      ExcelLoader.Table<CharStats>        CharStats        = load(CharStats.class, Excel.EXPANSION);
+      ExcelLoader.Table<Colors>           colors           = load(Colors.class);
+      ExcelLoader.Table<Composit>         Composit         = load(Composit.class);
+      ExcelLoader.Table<CompCode>         compcode         = load(CompCode.class);
+      ExcelLoader.Table<DifficultyLevels> DifficultyLevels = load(DifficultyLevels.class);
+      ExcelLoader.Table<Gems>             Gems             = load(Gems.class, Excel.EXPANSION);
+      ExcelLoader.Table<Inventory>        inventory        = load(Inventory.class);
+      ExcelLoader.Table<ItemStatCost>     ItemStatCost     = load(ItemStatCost.class);
+      ExcelLoader.Table<ItemTypes>        ItemTypes        = load(ItemTypes.class);
+      ExcelLoader.Table<Levels>           Levels           = load(Levels.class, Excel.EXPANSION);
+      ExcelLoader.Table<LowQualityItems>  LowQualityItems  = load(LowQualityItems.class);
+      ExcelLoader.Table<LvlPrest>         LvlPrest         = load(LvlPrest.class);
+      ExcelLoader.Table<LvlTypes>         LvlTypes         = load(LvlTypes.class);
+      ExcelLoader.Table<LvlWarp>          LvlWarp          = load(LvlWarp.class, Excel.EXPANSION);
+      ExcelLoader.Table<Misc>             misc             = load(Misc.class, Excel.EXPANSION);
+      ExcelLoader.Table<Missiles>         Missiles         = load(Missiles.class);
+      ExcelLoader.Table<MagicPrefix>      MagicPrefix      = load(MagicPrefix.class, Excel.EXPANSION);
+      ExcelLoader.Table<MagicSuffix>      MagicSuffix      = load(MagicSuffix.class, Excel.EXPANSION);
+      ExcelLoader.Table<MonAI>            MonAI            = load(MonAI.class);
+      ExcelLoader.Table<MonMode>          MonMode          = load(MonMode.class);
+      ExcelLoader.Table<MonStats>         monstats         = load(MonStats.class, Excel.EXPANSION);
+      ExcelLoader.Table<MonStats2>        monstats2        = load(MonStats2.class, Excel.EXPANSION);
+      ExcelLoader.Table<RarePrefix>       RarePrefix       = load(RarePrefix.class, Excel.EXPANSION);
+      ExcelLoader.Table<RareSuffix>       RareSuffix       = load(RareSuffix.class, Excel.EXPANSION);
+      ExcelLoader.Table<Runes>            Runes            = load(Runes.class);
+      ExcelLoader.Table<Objects>          objects          = load(Objects.class);
+      ExcelLoader.Table<ObjMode>          ObjMode          = load(ObjMode.class);
+      ExcelLoader.Table<Overlay>          Overlay          = load(Overlay.class, Excel.EXPANSION);
+      ExcelLoader.Table<PlrMode>          PlrMode          = load(PlrMode.class);
+      ExcelLoader.Table<PlrType>          PlrType          = load(PlrType.class);
+      ExcelLoader.Table<Properties>       Properties       = load(Properties.class, Excel.EXPANSION);
+      ExcelLoader.Table<QualityItems>     QualityItems     = load(QualityItems.class);
+      final ExcelLoader.Table<SetItems>   SetItems         = load(SetItems.class, Excel.EXPANSION);
+      ExcelLoader.Table<Sets>             Sets             = loader.add(new ExcelLoader.Table<Sets>(
+          Sets.class, mpq(Sets.class), Excel.EXPANSION, SetItems) {
+        @Override
+        protected void link(Sets excel) {
+          excel.index(SetItems.excel());
+        }
+      });
+      ExcelLoader.Table<Skills>           skills           = load(Skills.class);
+      ExcelLoader.Table<SkillDesc>        skilldesc        = load(SkillDesc.class);
+      ExcelLoader.Table<Sounds>           Sounds           = load(Sounds.class);
+      ExcelLoader.Table<UniqueItems>      UniqueItems      = load(UniqueItems.class, Excel.EXPANSION);
+      //ExcelLoader.Table<UniquePrefix>   UniquePrefix     = load(UniquePrefix.class);
+      //ExcelLoader.Table<UniqueSuffix>   UniqueSuffix     = load(UniqueSuffix.class);
+      ExcelLoader.Table<WeaponClass>      WeaponClass      = load(WeaponClass.class);
+      ExcelLoader.Table<Weapons>          weapons          = load(Weapons.class, Excel.EXPANSION);
+
+      loader.start().finish();
+
+      this.obj    = obj.excel();
+      this.speech = speech.excel();
+      this.quests = quests.excel();
+
+      this.armor            = armor.excel();
+      this.ArmType          = ArmType.excel();
+      this.bodylocs         = bodylocs.excel();
+      this.CharStats        = CharStats.excel();
+      this.colors           = colors.excel();
+      this.Composit         = Composit.excel();
+      this.compcode         = compcode.excel();
+      this.DifficultyLevels = DifficultyLevels.excel();
+      this.Gems             = Gems.excel();
+      this.inventory        = inventory.excel();
+      this.ItemStatCost     = ItemStatCost.excel();
+      this.ItemTypes        = ItemTypes.excel();
+      this.Levels           = Levels.excel();
+      this.LowQualityItems  = LowQualityItems.excel();
+      this.LvlPrest         = LvlPrest.excel();
+      this.LvlTypes         = LvlTypes.excel();
+      this.LvlWarp          = LvlWarp.excel();
+      this.misc             = misc.excel();
+      this.Missiles         = Missiles.excel();
+      this.MagicPrefix      = MagicPrefix.excel();
+      this.MagicSuffix      = MagicSuffix.excel();
+      this.MonAI            = MonAI.excel();
+      this.MonMode          = MonMode.excel();
+      this.monstats         = monstats.excel();
+      this.monstats2        = monstats2.excel();
+      this.RarePrefix       = RarePrefix.excel();
+      this.RareSuffix       = RareSuffix.excel();
+      this.Runes            = Runes.excel();
+      this.objects          = objects.excel();
+      this.ObjMode          = ObjMode.excel();
+      this.Overlay          = Overlay.excel();
+      this.PlrMode          = PlrMode.excel();
+      this.PlrType          = PlrType.excel();
+      this.Properties       = Properties.excel();
+      this.QualityItems     = QualityItems.excel();
+      this.Sets             = Sets.excel();
+      this.SetItems         = SetItems.excel();
+      this.skills           = skills.excel();
+      this.skilldesc        = skilldesc.excel();
+      this.Sounds           = Sounds.excel();
+      this.UniqueItems      = UniqueItems.excel();
+      //this.UniquePrefix   = UniquePrefix.excel();
+      //this.UniqueSuffix   = UniqueSuffix.excel();
+      this.WeaponClass      = WeaponClass.excel();
+      this.weapons          = weapons.excel();
+    } finally {
+      if (ownsPool) pool.shutdown();
+    }
+
+    Gdx.app.log(TAG, "Loaded " + loader.tables().size + " tables in "
+        + TimeUnit.NANOSECONDS.toMillis(loader.time()) + " ms"
+        + (cache != null ? " (" + cache.hits() + " from snapshots)" : ""));
+    if (DEBUG) Gdx.app.debug(TAG, loader.toString());
   }
 
-  private <T extends Excel> T loadInternal(Class<T> clazz) {
-    return loadInternal(clazz, clazz.getSimpleName().toLowerCase());
+  /**
+   * Returns the loader which loaded the tables, e.g., for their load times.
+   */
+  public ExcelLoader loader() {
+    return loader;
   }
 
-  private <T extends Excel> T loadInternal(Class<T> clazz, String filename) {
-    FileHandle handle = Gdx.files.internal("data/" + filename + ".txt");
-    TXT txt = TXT.loadFromFile(handle);
-    return Excel.parse(txt, clazz);
+  private static FileHandle internal(Class<? extends Excel<?>> clazz) {
+    return Gdx.files.internal("data/" + clazz.getSimpleName().toLowerCase() + ".txt");
   }
 
-  private <T extends Excel> T load(AssetManager assets, Class<T> clazz, ObjectSet<String> ignore) {
-    return load(assets, clazz, clazz.getSimpleName(), ignore);
+  private static FileHandle mpq(Class<? extends Excel<?>> clazz) {
+    return Riiablo.mpqs.resolve("data\\global\\excel\\" + clazz.getSimpleName() + ".txt");
   }
 
-  private <T extends Excel> T load(AssetManager assets, Class<T> clazz) {
-    return load(assets, clazz, clazz.getSimpleName(), Excel.<String>emptySet());
+  private <T extends Excel<?>> ExcelLoader.Table<T> load(Class<T> clazz, ObjectSet<String> ignore) {
+    return loader.add(clazz, mpq(clazz), ignore);
   }
 
-  private <T extends Excel> T load(AssetManager assets, Class<T> clazz, String tableName, ObjectSet<String> ignore) {
-    FileHandle handle = Riiablo.mpqs.resolve("data\\global\\excel\\" + tableName + ".txt");
-    TXT txt = TXT.loadFromFile(handle);
-    return Excel.parse(txt, clazz, ignore);
+  private <T extends Excel<?>> ExcelLoader.Table<T> load(Class<T> clazz) {
+    return loader.add(clazz, mpq(clazz));
   }
 }
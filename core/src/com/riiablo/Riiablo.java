@@ -10,8 +10,13 @@ import com.badlogic.gdx.utils.viewport.ScalingViewport;
 import com.badlogic.gdx.utils.viewport.Viewport;
 import com.riiablo.audio.Audio;
 import com.riiablo.audio.MusicController;
+import com.riiablo.codec.CompositeCache;
+import com.riiablo.codec.DecodeService;
+import com.riiablo.codec.FrameAtlas;
 import com.riiablo.codec.StringTBLs;
+import com.riiablo.codec.TransformCache;
 import com.riiablo.console.RenderedConsole;
+import com.riiablo.entity.AnimationRegistry;
 import com.riiablo.entity.Engine;
 import com.riiablo.graphics.PaletteIndexedBatch;
 import com.riiablo.mpq.MPQFileHandleResolver;
@@ -34,6 +39,11 @@ public class Riiablo {
   public static ShapeRenderer         shapes;
   public static MPQFileHandleResolver mpqs;
   public static AssetManager          assets;
+  public static DecodeService         decoder;
+  public static FrameAtlas            atlas;
+  public static CompositeCache        composites;
+  public static TransformCache        transforms;
+  public static AnimationRegistry     animations;
   public static Client.InputProcessor input;
   public static RenderedConsole       console;
   public static GdxCommandManager     commands;
@@ -13,6 +13,7 @@ import com.badlogic.gdx.utils.Bits;
 import com.badlogic.gdx.utils.IntMap;
 import com.riiablo.Riiablo;
 import com.riiablo.codec.util.BBox;
+import com.riiablo.codec.util.Spans;
 import com.riiablo.graphics.BlendMode;
 import com.riiablo.graphics.PaletteIndexedBatch;
 
@@ -350,6 +351,11 @@ public class Animation extends BaseDrawable {
     } else if (frame < numFrames) {
       int d = DC.Direction.toReadDir(direction, cof.getNumDirections());
       int f = frame;
+      if (Riiablo.composites != null && Riiablo.composites.draw(batch, cof, layers, direction, d, f, x, y)) {
+        batch.resetBlendMode();
+        return;
+      }
+
       // TODO: Layer blend modes should correspond with the cof trans levels
       for (int l = 0; l < cof.getNumLayers(); l++) {
         int component = cof.getLayerOrder(d, f, l);
@@ -402,13 +408,19 @@ public class Animation extends BaseDrawable {
     DC dc    = layer.dc;
     BBox box = dc.getBox(d, f);
 
+    layer.touch(d);
+    if (layer.regions[d] == null) {
+      // skip the shadow until the direction is decoded, as the layer itself is
+      if (Riiablo.decoder != null && !Riiablo.decoder.request(dc, d)) return;
+      layer.load(d);
+    }
+
     SHADOW_TRANSFORM.idt();
     SHADOW_TRANSFORM.preTranslate(box.xMin, -(box.yMax / 2));
     SHADOW_TRANSFORM.preShear(-1.0f, 0);
     SHADOW_TRANSFORM.preTranslate(x, y);
     SHADOW_TRANSFORM.scale(1, 0.5f);
 
-    if (layer.regions[d] == null) layer.load(d);
     TextureRegion region = layer.regions[d][f];
     batch.draw(region, region.getRegionWidth(), region.getRegionHeight(), SHADOW_TRANSFORM);
   }
@@ -417,6 +429,28 @@ public class Animation extends BaseDrawable {
     layer.draw(batch, direction, frame, x, y);
   }
 
+  /**
+   * Returns whether or not the current frame has an opaque pixel at {@code (x, y)}, relative to
+   * the position the animation is drawn at.
+   */
+  public boolean hit(float x, float y) {
+    if (frame >= numFrames) return false;
+    if (cof == null) {
+      for (Layer layer : layers) {
+        if (layer == null) continue;
+        if (layer.hit(direction, frame, x, y)) return true;
+      }
+    } else {
+      int d = DC.Direction.toReadDir(direction, cof.getNumDirections());
+      for (int l = 0; l < cof.getNumLayers(); l++) {
+        Layer layer = layers[cof.getLayerOrder(d, frame, l)];
+        if (layer != null && layer.hit(direction, frame, x, y)) return true;
+      }
+    }
+
+    return false;
+  }
+
   public void updateBox() {
     if (cof == null) {
       box.reset();
@@ -503,6 +537,9 @@ public class Animation extends BaseDrawable {
     final DC            dc;
     final TextureRegion regions[][];
 
+    /** directions packed into Riiablo.atlas, if they were packed */
+    final FrameAtlas.Direction packed[];
+
     final int numDirections;
     final int numFrames;
 
@@ -522,6 +559,7 @@ public class Animation extends BaseDrawable {
       numDirections  = dc.getNumDirections();
       numFrames      = dc.getNumFramesPerDir();
       regions        = new TextureRegion[numDirections][];
+      packed         = new FrameAtlas.Direction[numDirections];
       transform      = null;
       transformColor = 0;
     }
@@ -536,6 +574,14 @@ public class Animation extends BaseDrawable {
 
     protected Layer load(int d) {
       if (regions[d] != null) return this;
+      if (!dc.isLoaded(d) && Riiablo.atlas != null) {
+        FrameAtlas.Direction dir = packed[d] = Riiablo.atlas.load(dc, d);
+        if (dir != null) {
+          regions[d] = dir.regions();
+          return this;
+        }
+      }
+
       dc.loadDirection(d);
       regions[d] = new TextureRegion[numFrames];
       for (int f = 0; f < numFrames; f++) {
@@ -545,6 +591,17 @@ public class Animation extends BaseDrawable {
       return this;
     }
 
+    /**
+     * Marks direction {@code d} as drawn if it was packed into the atlas, or drops it if it has
+     * been evicted since so that it is loaded again.
+     */
+    protected void touch(int d) {
+      if (packed[d] != null && !Riiablo.atlas.touch(packed[d])) {
+        packed[d] = null;
+        regions[d] = null;
+      }
+    }
+
     public DC getDC() {
       return dc;
     }
@@ -584,11 +641,42 @@ public class Animation extends BaseDrawable {
       BBox box = dc.getBox(d, f);
       x += box.xMin;
       y -= box.yMax;
-      if (regions[d] == null) load(d);
+      touch(d);
+      if (regions[d] == null) {
+        // skip the layer until the direction is decoded rather than decoding it in place
+        if (Riiablo.decoder != null && !Riiablo.decoder.request(dc, d)) return;
+        load(d);
+      }
+
       PaletteIndexedBatch b = (PaletteIndexedBatch) batch;
       b.setBlendMode(blendMode, tint, true);
-      b.setColormap(transform, transformColor);
-      b.draw(regions[d][f], x, y);
+      TextureRegion variant = Riiablo.transforms != null && transformColor > 0
+          ? Riiablo.transforms.get(dc, d, f, transform, transformColor)
+          : null;
+      if (variant != null) {
+        b.resetColormap();
+        b.draw(variant, x, y);
+      } else {
+        b.setColormap(transform, transformColor);
+        b.draw(regions[d][f], x, y);
+      }
+    }
+
+    /**
+     * Returns whether or not frame {@code f} of direction {@code d} has an opaque pixel at
+     * {@code (x, y)}, relative to the position the layer is drawn at. Frames which have not been
+     * decoded yet are only tested against their box.
+     */
+    protected boolean hit(int d, int f, float x, float y) {
+      if (f >= numFrames) return false;
+      BBox box = dc.getBox(d, f);
+      // frames are drawn with their bottom edge at -box.yMax and their rows are stored top-down
+      int col = MathUtils.floor(x) - box.xMin;
+      int row = box.height - 1 - (MathUtils.floor(y) + box.yMax);
+      DC.Frame frame = dc.getFrame(d, f);
+      Spans spans = frame != null ? frame.spans : null;
+      if (spans == null) return 0 <= col && col < box.width && 0 <= row && row < box.height;
+      return spans.contains(col, row);
     }
 
     protected void drawDebug(ShapeRenderer shapeRenderer, int d, int f, float x, float y) {
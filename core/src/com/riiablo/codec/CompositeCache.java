@@ -0,0 +1,375 @@
+package com.riiablo.codec;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.graphics.Texture;
+import com.badlogic.gdx.graphics.g2d.TextureRegion;
+import com.badlogic.gdx.graphics.glutils.PixmapTextureData;
+import com.badlogic.gdx.utils.Disposable;
+import com.badlogic.gdx.utils.ObjectMap;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import com.riiablo.codec.util.BBox;
+import com.riiablo.graphics.BlendMode;
+import com.riiablo.graphics.PaletteIndexedBatch;
+import com.riiablo.graphics.PaletteIndexedPixmap;
+
+/**
+ * Cache of {@link COF} animations with every layer of a direction composited into a single
+ * palette-indexed frame, so that a character is drawn with one call instead of one per layer.
+ * Composites are keyed by the COF, the {@link DC} and colormap transform of each component and
+ * the direction, so characters wearing the same items share them, and an entity whose
+ * {@link com.riiablo.entity.Entity.Dirty dirty} components are reloaded simply stops matching its
+ * old composite.
+ * <p>
+ * Layers are composited in the order given by {@link COF#getLayerOrder(int, int, int)}, each
+ * non-zero index overwriting what is below it, with transforms applied on the CPU. This is only
+ * equivalent to drawing the layers separately when every layer is drawn opaque with the same
+ * blend mode, so other animations, e.g., with translucent layers, are never composited.
+ * <p>
+ * Composites are evicted least recently drawn first once the memory budget has been spent, never
+ * while they are being drawn in the current frame. At most {@link #getBuildBudget()} composites
+ * are built per frame, animations are drawn layer by layer until theirs has been built. All
+ * methods must be called from the render thread.
+ */
+public class CompositeCache implements Disposable {
+  private static final String TAG = "CompositeCache";
+  private static final boolean DEBUG = !true;
+
+  /** maximum width of a composite sheet */
+  static final int MAX_SHEET_WIDTH = 2048;
+
+  private final ObjectMap<Key, Composite> composites = new ObjectMap<>();
+  private final Key key = new Key();
+
+  private long budget;
+  private long used;
+  private int  buildBudget;
+  private int  built;
+  private long tick;
+
+  private int hits;
+  private int misses;
+
+  /**
+   * @param budget      maximum number of bytes of texture memory used by composites
+   * @param buildBudget maximum number of composites built per {@link #update()}
+   */
+  public CompositeCache(long budget, int buildBudget) {
+    this.budget = budget;
+    this.buildBudget = buildBudget;
+  }
+
+  public long getBudget() {
+    return budget;
+  }
+
+  public void setBudget(long budget) {
+    this.budget = budget;
+    trim(Long.MAX_VALUE);
+  }
+
+  public int getBuildBudget() {
+    return buildBudget;
+  }
+
+  public void setBuildBudget(int buildBudget) {
+    this.buildBudget = buildBudget;
+  }
+
+  /**
+   * Marks the start of a new frame.
+   */
+  public void update() {
+    tick++;
+    built = 0;
+  }
+
+  /**
+   * Draws frame {@code f} of direction {@code d} of the animation made of {@code cof} and
+   * {@code layers} as a single composite, building it if needed. Frames are read from direction
+   * {@code d} of each {@link DC}, while their layers are ordered by direction {@code readDir} of
+   * {@code cof}, see {@link DC.Direction#toReadDir(int, int)}.
+   *
+   * @return whether or not the frame was drawn, otherwise the layers should be drawn separately
+   */
+  boolean draw(PaletteIndexedBatch batch, COF cof, Animation.Layer[] layers, int d, int readDir, int f, float x, float y) {
+    if (budget <= 0) return false;
+    Animation.Layer first = composable(cof, layers, d);
+    if (first == null) return false;
+    Composite composite = get(cof, layers, d, readDir);
+    if (composite == null) return false;
+
+    BBox box = composite.box;
+    batch.setBlendMode(first.blendMode, first.tint, true);
+    batch.resetColormap();
+    batch.draw(composite.regions[f], x + box.xMin, y - box.yMax);
+    return true;
+  }
+
+  /**
+   * Returns the composite of direction {@code d}, building it if the build budget of the current
+   * frame has not been spent yet, and marks it as drawn.
+   *
+   * @return the composite, or {@code null} if it has not been built
+   */
+  Composite get(COF cof, Animation.Layer[] layers, int d, int readDir) {
+    key.set(cof, layers, d);
+    Composite composite = composites.get(key);
+    if (composite == null) {
+      misses++;
+      if (built >= buildBudget) return null;
+      composite = build(cof, layers, d, readDir);
+      if (composite == null) return null;
+      built++;
+      composite.lastUsed = tick;
+      composites.put(composite.key, composite);
+      used += composite.size;
+      trim(tick);
+    } else {
+      hits++;
+      composite.lastUsed = tick;
+    }
+
+    return composite;
+  }
+
+  /**
+   * Returns a layer of {@code layers} if direction {@code d} can be composited, otherwise
+   * {@code null}.
+   */
+  static Animation.Layer composable(COF cof, Animation.Layer[] layers, int d) {
+    Animation.Layer first = null;
+    for (int l = 0, s = cof.getNumLayers(); l < s; l++) {
+      Animation.Layer layer = layers[cof.getLayer(l).component];
+      if (layer == null) continue;
+      // only decoded directions are composited, so building never stalls on decoding
+      if (layer.regions[d] == null) return null;
+      if (layer.numFrames < cof.getNumFramesPerDir()) return null;
+      if (layer.blendMode != BlendMode.ID && layer.blendMode != BlendMode.BRIGHTEN) return null;
+      if (layer.tint.a != 1) return null;
+      if (first == null) {
+        first = layer;
+      } else if (layer.blendMode != first.blendMode || !layer.tint.equals(first.tint)) {
+        return null;
+      }
+    }
+
+    return first;
+  }
+
+  Composite build(COF cof, Animation.Layer[] layers, int d, int readDir) {
+    final int numFrames = cof.getNumFramesPerDir();
+    final BBox box = bounds(cof, layers, d);
+    if (box == null || box.width > MAX_SHEET_WIDTH) return null;
+
+    final int columns = Math.min(numFrames, MAX_SHEET_WIDTH / box.width);
+    final int rows = (numFrames + columns - 1) / columns;
+    final int sheetWidth = columns * box.width;
+    final int sheetHeight = rows * box.height;
+
+    final byte[] frame = new byte[box.width * box.height];
+    PaletteIndexedPixmap sheet = new PaletteIndexedPixmap(sheetWidth, sheetHeight);
+    ByteBuffer pixels = sheet.getPixels();
+    for (int f = 0; f < numFrames; f++) {
+      compose(cof, layers, d, readDir, f, box, frame);
+      int x = (f % columns) * box.width, y = (f / columns) * box.height;
+      for (int row = 0; row < box.height; row++) {
+        pixels.position((y + row) * sheetWidth + x);
+        pixels.put(frame, row * box.width, box.width);
+      }
+    }
+
+    pixels.rewind();
+    Texture texture = new Texture(new PixmapTextureData(sheet, null, false, true, false));
+    texture.setWrap(Texture.TextureWrap.ClampToEdge, Texture.TextureWrap.ClampToEdge);
+
+    Composite composite = new Composite(new Key().set(cof, layers, d), texture, box, numFrames);
+    for (int f = 0; f < numFrames; f++) {
+      int x = (f % columns) * box.width, y = (f / columns) * box.height;
+      composite.regions[f] = new TextureRegion(texture, x, y, box.width, box.height);
+    }
+
+    if (DEBUG) Gdx.app.debug(TAG, "Built " + composite);
+    return composite;
+  }
+
+  /**
+   * Returns the union of the boxes of every frame of direction {@code d} of {@code layers}, or
+   * {@code null} if none of them has any.
+   */
+  static BBox bounds(COF cof, Animation.Layer[] layers, int d) {
+    final int numFrames = cof.getNumFramesPerDir();
+    BBox box = new BBox();
+    box.xMin = box.yMin = Integer.MAX_VALUE;
+    box.xMax = box.yMax = Integer.MIN_VALUE;
+    for (int l = 0, s = cof.getNumLayers(); l < s; l++) {
+      Animation.Layer layer = layers[cof.getLayer(l).component];
+      if (layer == null) continue;
+      for (int f = 0; f < numFrames; f++) {
+        BBox frame = layer.dc.getBox(d, f);
+        if (frame.xMin < box.xMin) box.xMin = frame.xMin;
+        if (frame.yMin < box.yMin) box.yMin = frame.yMin;
+        if (frame.xMax > box.xMax) box.xMax = frame.xMax;
+        if (frame.yMax > box.yMax) box.yMax = frame.yMax;
+      }
+    }
+
+    if (box.xMin > box.xMax || box.yMin > box.yMax) return null;
+    box.width  = box.xMax - box.xMin + 1;
+    box.height = box.yMax - box.yMin + 1;
+    return box;
+  }
+
+  /**
+   * Composites frame {@code f} of direction {@code d} of {@code layers} into {@code dst}, an image
+   * of the size of {@code box}, in the layer order of direction {@code readDir} of {@code cof}.
+   */
+  static void compose(COF cof, Animation.Layer[] layers, int d, int readDir, int f, BBox box, byte[] dst) {
+    Arrays.fill(dst, (byte) 0);
+    for (int l = 0, s = cof.getNumLayers(); l < s; l++) {
+      Animation.Layer layer = layers[cof.getLayerOrder(readDir, f, l)];
+      if (layer == null) continue;
+      DC.Frame src = layer.dc.getFrame(d, f);
+      BBox srcBox = layer.dc.getBox(d, f);
+      byte[] transform = layer.transform != null && layer.transformColor > 0
+          ? layer.transform.get(layer.transformColor)
+          : null;
+      src.spans.blit(dst, box.width, srcBox.xMin - box.xMin, srcBox.yMin - box.yMin, transform);
+    }
+  }
+
+  /**
+   * Evicts the least recently drawn composites which were not drawn since {@code before} until
+   * the budget is no longer exceeded.
+   */
+  void trim(long before) {
+    while (used > budget) {
+      Composite coldest = null;
+      for (Composite composite : composites.values()) {
+        if (composite.lastUsed < before && (coldest == null || composite.lastUsed < coldest.lastUsed)) {
+          coldest = composite;
+        }
+      }
+
+      if (coldest == null) break;
+      composites.remove(coldest.key);
+      used -= coldest.size;
+      coldest.dispose();
+    }
+  }
+
+  public int size() {
+    return composites.size;
+  }
+
+  /**
+   * Number of bytes of texture memory used by composites.
+   */
+  public long used() {
+    return used;
+  }
+
+  @Override
+  public void dispose() {
+    for (Composite composite : composites.values()) composite.dispose();
+    composites.clear();
+    used = 0;
+  }
+
+  @Override
+  public String toString() {
+    return new ToStringBuilder(this)
+        .append("composites", composites.size)
+        .append("used", used)
+        .append("budget", budget)
+        .append("hits", hits)
+        .append("misses", misses)
+        .toString();
+  }
+
+  static final class Key {
+    COF     cof;
+    int     d;
+    DC[]    dcs = new DC[COF.Component.NUM_COMPONENTS];
+    Index[] transforms = new Index[COF.Component.NUM_COMPONENTS];
+    int[]   transformColors = new int[COF.Component.NUM_COMPONENTS];
+    int     hash;
+
+    Key set(COF cof, Animation.Layer[] layers, int d) {
+      this.cof = cof;
+      this.d = d;
+      int hash = 31 * System.identityHashCode(cof) + d;
+      for (int c = 0; c < COF.Component.NUM_COMPONENTS; c++) {
+        Animation.Layer layer = layers[c];
+        DC dc = layer != null ? layer.dc : null;
+        Index transform = layer != null && layer.transformColor > 0 ? layer.transform : null;
+        int transformColor = transform != null ? layer.transformColor : 0;
+        dcs[c] = dc;
+        transforms[c] = transform;
+        transformColors[c] = transformColor;
+        hash = 31 * hash + System.identityHashCode(dc);
+        hash = 31 * hash + System.identityHashCode(transform);
+        hash = 31 * hash + transformColor;
+      }
+
+      this.hash = hash;
+      return this;
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (obj == this) return true;
+      if (!(obj instanceof Key)) return false;
+      Key other = (Key) obj;
+      if (hash != other.hash || cof != other.cof || d != other.d) return false;
+      for (int c = 0; c < COF.Component.NUM_COMPONENTS; c++) {
+        if (dcs[c] != other.dcs[c]) return false;
+        if (transforms[c] != other.transforms[c]) return false;
+        if (transformColors[c] != other.transformColors[c]) return false;
+      }
+
+      return true;
+    }
+  }
+
+  static final class Composite implements Disposable {
+    final Key             key;
+    final Texture         texture;
+    final BBox            box;
+    final TextureRegion[] regions;
+    final long            size;
+    long lastUsed;
+
+    Composite(Key key, Texture texture, BBox box, int numFrames) {
+      this.key = key;
+      this.texture = texture;
+      this.box = box;
+      this.regions = new TextureRegion[numFrames];
+      this.size = (long) texture.getWidth() * texture.getHeight();
+    }
+
+    @Override
+    public void dispose() {
+      texture.dispose();
+    }
+
+    @Override
+    public String toString() {
+      return new ToStringBuilder(this)
+          .append("cof", key.cof)
+          .append("d", key.d)
+          .append("box", box)
+          .append("size", size)
+          .toString();
+    }
+  }
+}
@@ -5,6 +5,7 @@ import com.badlogic.gdx.graphics.g2d.TextureRegion;
 import com.badlogic.gdx.utils.Disposable;
 
 import com.riiablo.codec.util.BBox;
+import com.riiablo.codec.util.Spans;
 import com.riiablo.graphics.PaletteIndexedBatch;
 
 public abstract class DC implements Disposable {
@@ -52,6 +53,12 @@ public abstract class DC implements Disposable {
   public abstract void preloadDirections(boolean combineFrames);
   public abstract Pixmap getPixmap(int d, int f);
 
+  /**
+   * Releases the pixmaps of direction {@code d} which can be recreated from its decoded frames,
+   * e.g., once they have been uploaded.
+   */
+  public void releasePixmaps(int d) {}
+
   public void draw(PaletteIndexedBatch batch, float x, float y) {
     draw(batch, 0, 0, x, y);
   }
@@ -168,8 +175,8 @@ public abstract class DC implements Disposable {
     int xOffset;
     int yOffset;
 
-    BBox box;
-    byte colormap[];
+    BBox  box;
+    Spans spans;
 
     /**
      * read-only workaround for mpq viewer
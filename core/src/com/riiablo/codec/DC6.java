@@ -18,10 +18,14 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.Arrays;
 
+import com.riiablo.Riiablo;
 import com.riiablo.codec.DC;
 import com.riiablo.codec.util.BBox;
+import com.riiablo.codec.util.Spans;
 import com.riiablo.graphics.PaletteIndexedPixmap;
+import com.riiablo.mpq.MPQFileHandle;
 import com.riiablo.util.BufferUtils;
+import com.riiablo.util.ByteBufferInputStream;
 
 public class DC6 extends com.riiablo.codec.DC {
   private static final String TAG = "DC6";
@@ -42,6 +46,15 @@ public class DC6 extends com.riiablo.codec.DC {
   Pixmap    pixmaps[][];
   Texture   textures[][];
 
+  /**
+   * guards the frames and pixmaps of each direction, so that a worker preloading one direction
+   * never blocks the render thread on another
+   */
+  Object    locks[];
+
+  /** set by {@link #dispose()} under the lock of each direction before it is disposed */
+  boolean   disposed;
+
   private static DC6 obtain(Header header, Direction[] directions, Frame[][] frames, BBox box) {
     return new DC6().set(header, directions, frames, box);
   }
@@ -53,38 +66,43 @@ public class DC6 extends com.riiablo.codec.DC {
     this.directions = directions;
     this.frames     = frames;
     this.box        = box;
+    pixmaps = new Pixmap[header.directions][];
+    locks = new Object[header.directions];
+    for (int d = 0; d < header.directions; d++) locks[d] = new Object();
     return this;
   }
 
   @Override
   public void dispose() {
-    disposeFrames();
+    // requested directions would otherwise be uploaded from this after it has been disposed
+    if (Riiablo.decoder != null) Riiablo.decoder.cancel(this);
+    // packed directions and variants would otherwise keep this reachable until they are evicted
+    if (Riiablo.atlas != null) Riiablo.atlas.remove(this);
+    if (Riiablo.transforms != null) Riiablo.transforms.remove(this);
     disposePixmaps();
     disposeTextures();
   }
 
-  private void disposeFrames() {
-    final int numDirections = header.directions;
-    for (int d = 0; d < numDirections; d++) {
-      Frame[] frames = this.frames[d];
-      if (frames != null) for (Frame frame : frames) {
-        frame.pixmap.dispose();
-      }
-    }
-  }
-
   private void disposePixmaps() {
-    if (pixmaps == null) return;
     final int numDirections = header.directions;
     for (int d = 0; d < numDirections; d++) {
-      Frame[] frames = this.frames[d];
-      Pixmap[] pixmaps = this.pixmaps[d];
-      if (pixmaps != null && (frames == null || frames.length != pixmaps.length)) {
-        for (Pixmap pixmap : pixmaps) pixmap.dispose();
+      synchronized (locks[d]) {
+        // a worker still preloading d must not create pixmaps once they have been disposed
+        disposed = true;
+        Frame[] frames = this.frames[d];
+        Pixmap[] pixmaps = this.pixmaps[d];
+        if (pixmaps != null && (frames == null || frames.length != pixmaps.length)) {
+          for (Pixmap pixmap : pixmaps) pixmap.dispose();
+        }
+
+        this.pixmaps[d] = null;
+        if (frames != null) for (Frame frame : frames) {
+          if (frame.pixmap == null) continue;
+          frame.pixmap.dispose();
+          frame.pixmap = null;
+        }
       }
     }
-
-    pixmaps = null;
   }
 
   private void disposeTextures() {
@@ -105,7 +123,48 @@ public class DC6 extends com.riiablo.codec.DC {
 
   @Override
   public Pixmap getPixmap(int d, int f) {
-    return frames[d][f].pixmap;
+    return pixmap(d, f);
+  }
+
+  /**
+   * Pixmaps are only expanded from the spans of the frames when requested, so that only the
+   * directions which are being uploaded take up native memory, and are released once uploaded.
+   */
+  private Pixmap pixmap(int d, int f) {
+    synchronized (locks[d]) {
+      if (disposed) throw new GdxRuntimeException("DC6 has been disposed");
+      Frame frame = frames[d][f];
+      if (frame.pixmap == null) {
+        PaletteIndexedPixmap pixmap = new PaletteIndexedPixmap(frame.width, frame.height);
+        frame.spans.expand(pixmap.getPixels());
+        frame.pixmap = pixmap;
+      }
+
+      return frame.pixmap;
+    }
+  }
+
+  /**
+   * Disposes the pixmaps and combined pages of direction {@code d}, which are created again from
+   * the spans of its frames if they are needed, e.g., when the direction is evicted from a
+   * {@link FrameAtlas} and packed again.
+   */
+  @Override
+  public void releasePixmaps(int d) {
+    synchronized (locks[d]) {
+      Frame[] frames = this.frames[d];
+      Pixmap[] pixmaps = this.pixmaps[d];
+      if (pixmaps != null) {
+        if (frames.length != pixmaps.length) for (Pixmap pixmap : pixmaps) pixmap.dispose();
+        this.pixmaps[d] = null;
+      }
+
+      for (Frame frame : frames) {
+        if (frame.pixmap == null) continue;
+        frame.pixmap.dispose();
+        frame.pixmap = null;
+      }
+    }
   }
 
   // TODO: This is a workaround until texture regions are stored properly
@@ -113,15 +172,18 @@ public class DC6 extends com.riiablo.codec.DC {
 
   @Override
   public TextureRegion getTexture(int d, int i) {
-    if (regions == null) regions = new TextureRegion[header.directions][pixmaps[d].length];
+    if (regions == null) regions = new TextureRegion[header.directions][textures[d].length];
     TextureRegion region = regions[d][i];
     if (region == null) region = regions[d][i] = new TextureRegion(textures[d][i]);
     return region;
   }
 
+  /**
+   * Returns {@code true}, the frames of every direction are decoded when a DC6 is loaded.
+   */
   @Override
   public boolean isPreloaded(int d) {
-    return pixmaps != null && pixmaps[d] != null;
+    return true;
   }
 
   @Override
@@ -132,12 +194,18 @@ public class DC6 extends com.riiablo.codec.DC {
 
   @Override
   public void preloadDirection(int d, boolean combineFrames) {
-    if (pixmaps == null) pixmaps = new Pixmap[header.directions][];
-    else if (pixmaps[d] != null) return;
+    synchronized (locks[d]) {
+      preloadDirectionLocked(d, combineFrames);
+    }
+  }
+
+  private void preloadDirectionLocked(int d, boolean combineFrames) {
+    if (disposed) throw new GdxRuntimeException("DC6 has been disposed");
+    if (pixmaps[d] != null) return;
 
     if (!combineFrames) {
       pixmaps[d] = new Pixmap[header.framesPerDir];
-      for (int f = 0; f < header.framesPerDir; f++) pixmaps[d][f] = frames[d][f].pixmap;
+      for (int f = 0; f < header.framesPerDir; f++) pixmaps[d][f] = pixmap(d, f);
       return;
     }
 
@@ -169,7 +237,7 @@ public class DC6 extends com.riiablo.codec.DC {
     final int numPages = numFrames / (rows * columns);
     Pixmap[] pixmaps = this.pixmaps[d] = new Pixmap[numPages];
     if (numPages == numFrames) {
-      for (int f = 0; f < numFrames; f++) pixmaps[f] = frames[f].pixmap;
+      for (int f = 0; f < numFrames; f++) pixmaps[f] = pixmap(d, f);
       return;
     }
 
@@ -179,8 +247,11 @@ public class DC6 extends com.riiablo.codec.DC {
       Pixmap pixmap = pixmaps[p] = new PaletteIndexedPixmap(width, height);
       for (int r = 0; r < rows; r++, x = 0) {
         for (int c = 0; c < columns; c++) {
-          frame = frames[f++];
-          pixmap.drawPixmap(frame.pixmap, x, y);
+          frame = frames[f];
+          pixmap.drawPixmap(pixmap(d, f++), x, y);
+          // only the combined pages are kept
+          frame.pixmap.dispose();
+          frame.pixmap = null;
           x += frame.width;
         }
 
@@ -215,6 +286,8 @@ public class DC6 extends com.riiablo.codec.DC {
       texture.setWrap(Texture.TextureWrap.ClampToEdge, Texture.TextureWrap.ClampToEdge);
       textures[d][p] = texture;
     }
+
+    releasePixmaps(d);
   }
 
   @Override
@@ -253,10 +326,33 @@ public class DC6 extends com.riiablo.codec.DC {
   }
 
   public static DC6 loadFromFile(FileHandle handle) {
-    return loadFromStream(handle.read());
+    return loadFromFile(handle, null);
+  }
+
+  /**
+   * Loads {@code handle} with its directions read from {@code cache} instead of being decoded
+   * whenever they have been decoded before. Files which cannot be cached are loaded as usual.
+   */
+  public static DC6 loadFromFile(FileHandle handle, FrameCache cache) {
+    String key = cache != null ? cache.key(handle) : null;
+    InputStream in = handle instanceof MPQFileHandle
+        ? new ByteBufferInputStream(((MPQFileHandle) handle).readIntoThreadLocal())
+        : handle.read();
+    return loadFromStream(in, key != null ? cache : null, key);
+  }
+
+  /**
+   * Loads from the remaining bytes of {@code buffer}, which is not retained.
+   */
+  public static DC6 loadFromBuffer(ByteBuffer buffer) {
+    return loadFromStream(new ByteBufferInputStream(buffer));
   }
 
   public static DC6 loadFromStream(InputStream in) {
+    return loadFromStream(in, null, null);
+  }
+
+  static DC6 loadFromStream(InputStream in, FrameCache cache, String key) {
     try {
       final int fileSize = in.available();
 
@@ -292,6 +388,13 @@ public class DC6 extends com.riiablo.codec.DC {
 
       Direction[] directions = new Direction[header.directions];
       for (int d = 0; d < header.directions; d++) {
+        if (cache == null || !cache.read(key, d, frames[d], null)) {
+          for (Frame frame : frames[d]) frame.decompress();
+          if (cache != null) cache.write(key, d, frames[d]);
+        }
+
+        for (Frame frame : frames[d]) frame.data = null;
+
         Direction dir = directions[d] = Direction.obtain(frames[d]);
         if (DEBUG_DIRECTIONS) Gdx.app.debug(TAG, dir.toString());
         if (dir.box.xMin < box.xMin) box.xMin = dir.box.xMin;
@@ -395,10 +498,14 @@ public class DC6 extends com.riiablo.codec.DC {
     int length;
 
     //BBox box;
-    //byte colormap[];
+    //Spans spans;
 
+    /** expanded from spans when requested, see DC6#pixmap(Frame) */
     Pixmap pixmap;
 
+    /** compressed frame data, kept until decompressed, see decompress() */
+    ByteBuffer data;
+
     static Frame obtain(InputStream in, int size) throws IOException {
       return new Frame().read(in, size);
     }
@@ -428,13 +535,21 @@ public class DC6 extends com.riiablo.codec.DC {
       box.width = box.xMax - box.xMin + 1;
       box.height = box.yMax - box.yMin + 1;
 
-      colormap = new byte[width * height];
-      decompress(buffer);
-      pixmap = new PaletteIndexedPixmap(width, height, colormap);
+      data = buffer;
       return this;
     }
 
-    void decompress(ByteBuffer in) throws IOException {
+    /**
+     * Decompresses {@link #data} into {@link #spans} and releases it.
+     */
+    void decompress() {
+      byte[] colormap = new byte[width * height];
+      decompress(data, colormap);
+      spans = Spans.encode(colormap, width, height);
+      data = null;
+    }
+
+    void decompress(ByteBuffer in, byte[] colormap) {
       assert width > 0 && height > 0;
       // TODO: Support flipping?
 
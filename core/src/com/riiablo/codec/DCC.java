@@ -8,10 +8,14 @@ import com.badlogic.gdx.graphics.g2d.TextureRegion;
 import com.badlogic.gdx.graphics.glutils.PixmapTextureData;
 import com.badlogic.gdx.utils.GdxRuntimeException;
 import com.badlogic.gdx.utils.StreamUtils;
+import com.riiablo.Riiablo;
 import com.riiablo.codec.util.BBox;
 import com.riiablo.codec.util.BitStream;
+import com.riiablo.codec.util.Spans;
 import com.riiablo.graphics.PaletteIndexedPixmap;
+import com.riiablo.mpq.MPQFileHandle;
 import com.riiablo.util.BufferUtils;
+import com.riiablo.util.ByteBufferInputStream;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.ArrayUtils;
@@ -38,15 +42,35 @@ public class DCC extends com.riiablo.codec.DC {
 
   Texture   textures[][];
 
+  /** decoded directions are read from and written to this cache under cacheKey, if set */
+  FrameCache frameCache;
+  String     cacheKey;
+
+  /**
+   * guards the frames and pixmaps of each direction, so that a worker decoding one direction
+   * never blocks the render thread on another
+   */
+  final Object locks[];
+
+  /** set by {@link #dispose()} under the lock of each direction before it is disposed */
+  boolean disposed;
+
   private DCC(Header header, Direction[] directions, Frame[][] frames, BBox box) {
     this.header     = header;
     this.directions = directions;
     this.frames     = frames;
     this.box        = box;
+    locks = new Object[header.directions];
+    for (int d = 0; d < header.directions; d++) locks[d] = new Object();
   }
 
   @Override
   public void dispose() {
+    // requested directions would otherwise be uploaded from this after it has been disposed
+    if (Riiablo.decoder != null) Riiablo.decoder.cancel(this);
+    // packed directions and variants would otherwise keep this reachable until they are evicted
+    if (Riiablo.atlas != null) Riiablo.atlas.remove(this);
+    if (Riiablo.transforms != null) Riiablo.transforms.remove(this);
     disposeFrames();
     disposeTextures();
   }
@@ -54,11 +78,17 @@ public class DCC extends com.riiablo.codec.DC {
   private void disposeFrames() {
     final int numDirections = header.directions;
     for (int d = 0; d < numDirections; d++) {
-      Frame[] frames = this.frames[d];
-      if (frames != null) for (Frame frame : frames) {
-        if (frame.pixmap == null) continue;
-        frame.pixmap.dispose();
-        frame.pixmap = null;
+      synchronized (locks[d]) {
+        // a worker still decoding d must not create pixmaps once they have been disposed
+        disposed = true;
+        Frame[] frames = this.frames[d];
+        if (frames != null) for (Frame frame : frames) {
+          if (frame.pixmap == null) continue;
+          frame.pixmap.dispose();
+          frame.pixmap = null;
+        }
+
+        directions[d].releaseBitStreams();
       }
     }
   }
@@ -76,27 +106,92 @@ public class DCC extends com.riiablo.codec.DC {
 
   @Override
   public Pixmap getPixmap(int d, int f) {
-    return frames[d][f].pixmap;
+    synchronized (locks[d]) {
+      if (!directions[d].decoded) preloadDirection(d);
+      return pixmap(d, f);
+    }
+  }
+
+  /**
+   * Pixmaps are only expanded from the spans of the decoded frames when requested, so that
+   * decoding never needs to allocate native memory, and are released once uploaded.
+   */
+  private Pixmap pixmap(int d, int f) {
+    synchronized (locks[d]) {
+      if (disposed) throw new GdxRuntimeException("DCC has been disposed");
+      Frame frame = frames[d][f];
+      if (frame.pixmap == null) {
+        BBox box = directions[d].box;
+        PaletteIndexedPixmap pixmap = new PaletteIndexedPixmap(box.width, box.height);
+        frame.spans.expand(pixmap.getPixels());
+        frame.pixmap = pixmap;
+      }
+
+      return frame.pixmap;
+    }
+  }
+
+  /**
+   * Disposes the pixmaps of direction {@code d}, which are expanded again from the spans of its
+   * frames if they are needed, e.g., when the direction is evicted from a
+   * {@link FrameAtlas} and packed again.
+   */
+  @Override
+  public void releasePixmaps(int d) {
+    synchronized (locks[d]) {
+      Frame[] frames = this.frames[d];
+      for (Frame frame : frames) {
+        if (frame.pixmap == null) continue;
+        frame.pixmap.dispose();
+        frame.pixmap = null;
+      }
+    }
   }
 
   @Override
   public TextureRegion getTexture(int d, int i) {
+    if (!isLoaded(d)) loadDirection(d);
     return new TextureRegion(textures[d][i]);
   }
 
+  /**
+   * Returns whether or not the frames of direction {@code d} have been decoded.
+   */
   @Override
   public boolean isPreloaded(int d) {
-    return true;
+    return directions[d].decoded;
   }
 
   @Override
   public void preloadDirections(boolean combineFrames) {
-    assert !combineFrames;
+    final int numDirections = header.directions;
+    for (int d = 0; d < numDirections; d++) preloadDirection(d, combineFrames);
   }
 
+  /**
+   * Decodes the frames of direction {@code d} if they have not been decoded yet. Directions are
+   * only decoded on demand, since most entities only ever show a few of their directions.
+   */
   @Override
   public void preloadDirection(int d, boolean combineFrames) {
     assert !combineFrames;
+    synchronized (locks[d]) {
+      if (disposed) throw new GdxRuntimeException("DCC has been disposed");
+      Direction dir = directions[d];
+      if (dir.decoded) return;
+      try {
+        if (frameCache != null && frameCache.read(cacheKey, d, frames[d], dir.box)) {
+          dir.releaseBitStreams();
+        } else {
+          decode(dir, frames[d]);
+          if (frameCache != null) frameCache.write(cacheKey, d, frames[d]);
+        }
+      } catch (Throwable t) {
+        throw new GdxRuntimeException("Couldn't decode direction " + d + " of DCC.", t);
+      }
+
+      dir.decoded = true;
+    }
   }
 
   @Override
@@ -118,12 +213,14 @@ public class DCC extends com.riiablo.codec.DC {
 
     textures[d] = new Texture[header.framesPerDir];
     for (int f = 0; f < header.framesPerDir; f++) {
-      Pixmap pixmap = frames[d][f].pixmap;
+      Pixmap pixmap = getPixmap(d, f);
       Texture texture = new Texture(new PixmapTextureData(pixmap, null, false, false, false));
       //texture.setFilter(Texture.TextureFilter.Linear, Texture.TextureFilter.Linear);
       texture.setWrap(Texture.TextureWrap.ClampToEdge, Texture.TextureWrap.ClampToEdge);
       textures[d][f] = texture;
     }
+
+    releasePixmaps(d);
   }
 
   public int getVersion() {
@@ -280,9 +377,35 @@ public class DCC extends com.riiablo.codec.DC {
   }*/
 
   public static DCC loadFromFile(FileHandle handle) {
+    if (handle instanceof MPQFileHandle) {
+      return loadFromBuffer(((MPQFileHandle) handle).readIntoThreadLocal());
+    }
+
     return loadFromStream(handle.read());
   }
 
+  /**
+   * Loads {@code handle} with its directions read from {@code cache} instead of being decoded
+   * whenever they have been decoded before. Files which cannot be cached are loaded as usual.
+   */
+  public static DCC loadFromFile(FileHandle handle, FrameCache cache) {
+    DCC dcc = loadFromFile(handle);
+    if (cache != null) dcc.setFrameCache(cache, cache.key(handle));
+    return dcc;
+  }
+
+  void setFrameCache(FrameCache cache, String key) {
+    frameCache = key != null ? cache : null;
+    cacheKey   = key;
+  }
+
+  /**
+   * Loads from the remaining bytes of {@code buffer}, which is not retained.
+   */
+  public static DCC loadFromBuffer(ByteBuffer buffer) {
+    return loadFromStream(new ByteBufferInputStream(buffer));
+  }
+
   public static DCC loadFromStream(InputStream in) {
     try {
       final int fileSize = in.available();
@@ -305,6 +428,8 @@ public class DCC extends com.riiablo.codec.DC {
       box.xMin = box.yMin = Integer.MAX_VALUE;
       box.xMax = box.yMax = Integer.MIN_VALUE;
 
+      // Only the direction and frame headers are read here, the compressed bit streams of each
+      // direction are kept until that direction is decoded, see preloadDirection(int, boolean)
       Direction[] directions = new Direction[numDirections];
       Frame[][]   frames     = new Frame    [numDirections][numFrames];
       int start = dirOffsets[0], end;
@@ -314,19 +439,8 @@ public class DCC extends com.riiablo.codec.DC {
         if (DEBUG_DIRECTIONS) Gdx.app.debug(TAG, dir.toString());
         if (DEBUG_FRAMES) for (Frame frame : frames[d]) Gdx.app.debug(TAG, frame.toString());
 
-        Cache cache = new Cache(header);
-        fillPixelBuffer(cache, dir, frames[d]);
-        makeFrames(cache, dir, frames[d]);
-        if (DEBUG_PB_SIZE) Gdx.app.debug(TAG, "pixelBuffer.size = " + cache.numEntries);
-
         start = end;
 
-        assert dir.equalCellBitStream.tell() == dir.equalCellBitStream.sizeInBits();
-        assert dir.pixelMaskBitStream.tell() == dir.pixelMaskBitStream.sizeInBits();
-        assert dir.encodingTypeBitStream.tell() == dir.encodingTypeBitStream.sizeInBits();
-        assert dir.rawPixelCodesBitStream.tell() == dir.rawPixelCodesBitStream.sizeInBits();
-        assert dir.pixelCodeAndDisplacementBitStream.tell() + 7 >= dir.pixelCodeAndDisplacementBitStream.sizeInBits();
-
         if (dir.box.xMin < box.xMin) box.xMin = dir.box.xMin;
         if (dir.box.yMin < box.yMin) box.yMin = dir.box.yMin;
         if (dir.box.xMax > box.xMax) box.xMax = dir.box.xMax;
@@ -344,330 +458,17 @@ public class DCC extends com.riiablo.codec.DC {
     }
   }
 
-  private static void fillPixelBuffer(Cache cache, Direction dir, Frame[] frames) {
-    cache.pixelBuffer = new PixelBuffer[PixelBuffer.MAX_VALUE];
-    cache.frameBuffer = Bitmap.create(dir.box.width, dir.box.height);
-    prepareBufferCells(cache, dir);
-
-    final int frameBufferCellsW = cache.frameBufferCellsW;
-    final int frameBufferCellsH = cache.frameBufferCellsH;
-    final int numCells = frameBufferCellsW * frameBufferCellsH;
-    PixelBuffer[] cellBuffer = new PixelBuffer[numCells];
-
-    int cellsW, cellsH;
-    int cellX, cellY;
-
-    int tmp, pixelMask = 0;
-    int lastPixel, pixels, decodedPixels;
-    int[] readPixel = new int[4];
-    int encodingType, pixelDisplacement;
-
-    PixelBuffer oldEntry, newEntry;
-    int curId, pixelBufferId = 0;
-
-    int curCX, curCY, curCell;
-    for (int f = 0; f < frames.length; f++) {
-      Frame frame = frames[f];
-      Cache.FrameCache frameCache = cache.frame[f] = new Cache.FrameCache();
-      prepareFrameCells(cache, frameCache, dir, frame);
-
-      cellsW = frameCache.cellsW;
-      cellsH = frameCache.cellsH;
-      cellX  = (frame.box.xMin - dir.box.xMin) / 4;
-      cellY  = (frame.box.yMin - dir.box.yMin) / 4;
-
-      for (int cy = 0; cy < cellsH; cy++) {
-        curCY = cellY + cy;
-        for (int cx = 0; cx < cellsW; cx++) {
-          curCX = cellX + cx;
-          curCell = curCY * frameBufferCellsW + curCX;
-          assert curCell < numCells;
-
-          boolean nextCell = false;
-          if (cellBuffer[curCell] != null) {
-            if (dir.equalCellBitStreamSize > 0) {
-              tmp = dir.equalCellBitStream.readBit();
-            } else {
-              tmp = 0;
-            }
-
-            if (tmp == 0) {
-              pixelMask = dir.pixelMaskBitStream.readUnsigned8OrLess(4);
-              assert pixelMask >= 0;
-            } else {
-              nextCell = true;
-            }
-          } else {
-            pixelMask = 0xF;
-          }
-
-          if (!nextCell) {
-            Arrays.fill(readPixel, 0);
-            pixels = PixelBuffer.PIXEL_TABLE[pixelMask];
-            if (pixels > 0 && dir.encodingTypeBitStreamSize > 0) {
-              encodingType = dir.encodingTypeBitStream.readBit();
-              assert encodingType >= 0;
-            } else {
-              encodingType = 0;
-            }
-
-            lastPixel = 0;
-            decodedPixels = 0;
-            for (int i = 0; i < pixels; i++) {
-              if (encodingType > 0) {
-                readPixel[i] = dir.rawPixelCodesBitStream.readUnsigned8OrLess(8);
-              } else {
-                readPixel[i] = lastPixel;
-                do {
-                  pixelDisplacement = dir.pixelCodeAndDisplacementBitStream.readUnsigned8OrLess(4);
-                  readPixel[i] += pixelDisplacement;
-                } while (pixelDisplacement == 0xF);
-              }
-
-              if (readPixel[i] == lastPixel) {
-                readPixel[i] = 0;
-                break;
-              } else {
-                lastPixel = readPixel[i];
-                decodedPixels++;
-              }
-            }
-
-            oldEntry = cellBuffer[curCell];
-            if (pixelBufferId >= PixelBuffer.MAX_VALUE) {
-              throw new IllegalStateException("Pixel buffer full, cannot add more entries");
-            }
-
-            newEntry = cache.pixelBuffer[pixelBufferId++] = new PixelBuffer();
-            curId = decodedPixels - 1;
-            for (int i = 0; i < 4; i++) {
-              if ((pixelMask & (1 << i)) != 0) {
-                if (curId >= 0) {
-                  newEntry.val[i] = (byte) readPixel[curId--];
-                } else {
-                  newEntry.val[i] = 0;
-                }
-              } else {
-                newEntry.val[i] = oldEntry.val[i];
-              }
-            }
-
-            cellBuffer[curCell] = newEntry;
-            newEntry.frame = f; // TODO: I'm not sure how this will behave with f as df
-            newEntry.frameCellIndex = cy * cellsW + cx;
-          }
-        }
-      }
-    }
-
-    PixelBuffer pbe;
-    for (int i = 0; i < pixelBufferId; i++) {
-      for (int x = 0; x < 4; x++) {
-        pbe = cache.pixelBuffer[i];
-        int y = pbe.val[x] & 0xFF;
-        pbe.val[x] = dir.pixelValues[y];
-      }
-    }
-
-    cache.numEntries = pixelBufferId;
-  }
-
-  private static void prepareBufferCells(Cache cache, Direction dir) {
-    final int bufferW = dir.box.width;
-    final int bufferH = dir.box.height;
-
-    final int cellsW = cache.frameBufferCellsW = 1 + ((bufferW - 1) / 4);
-    final int[] cellW = new int[cellsW];
-    if (cellsW == 1) {
-      cellW[0] = bufferW;
-    } else {
-      int cellMax = cellsW - 1;
-      Arrays.fill(cellW, 0, cellMax, 4);
-      cellW[cellMax] = bufferW - (4 * cellMax);
-    }
-
-    final int cellsH = cache.frameBufferCellsH = 1 + ((bufferH - 1) / 4);
-    final int[] cellH = new int[cellsH];
-    if (cellsH == 1) {
-      cellH[0] = bufferH;
-    } else {
-      int cellMax = cellsH - 1;
-      Arrays.fill(cellH, 0, cellMax, 4);
-      cellH[cellMax] = bufferH - (4 * cellMax);
-    }
-
-    final int numCells = cellsW * cellsH;
-    cache.frameBufferCells = new Cell[numCells];
-
-    //int id = 0;
-    int y = 0, x = 0;
-    for (int cy = 0; cy < cellsH; cy++, y += 4, x = 0) {
-      for (int cx = 0; cx < cellsW; cx++, x += 4) {
-        //assert id == cy * cellsW + cx : "Making sure this optimization doesn't bite me in the ass: " + id + " =? " + (y * cellsH + x);
-        // TODO: Cell implements Poolable
-        Cell cell = cache.frameBufferCells[cy * cellsW + cx] = new Cell();
-        cell.w = cellW[cx];
-        cell.h = cellH[cy];
-        cell.bmp = cache.frameBuffer.getSubimage(x, y, cell.w, cell.h);
-      }
-    }
-
-    //assert id == numCells;
-  }
-
-  private static void prepareFrameCells(Cache cache, Cache.FrameCache frameCache, Direction dir, Frame frame) {
-    int tmp, tmpSize;
-    final int frameW = frame.box.width;
-    final int frameH = frame.box.height;
-
-    final int cellsW;
-    final int w = 4 - ((frame.box.xMin - dir.box.xMin) % 4); // TODO: & 0x3
-    if (frameW - w <= 1) {
-      cellsW = 1;
-    } else {
-      tmp = frameW - w - 1;
-      tmpSize = 2 + (tmp / 4);
-      if (tmp % 4 == 0) tmpSize--;
-      cellsW = tmpSize;
-    }
-
-    final int cellsH;
-    final int h = 4 - ((frame.box.yMin - dir.box.yMin) % 4); // TODO: & 0x3
-    if (frameH - h <= 1) {
-      cellsH = 1;
-    } else {
-      tmp = frameH - h - 1;
-      tmpSize = 2 + (tmp / 4);
-      if (tmp % 4 == 0) tmpSize--;
-      cellsH = tmpSize;
-    }
-
-    final int[] cellW = new int[cellsW];
-    if (cellsW == 1) {
-      cellW[0] = frameW;
-    } else {
-      int cellMax = cellsW - 1;
-      cellW[0] = w;
-      Arrays.fill(cellW, 1, cellMax, 4);
-      cellW[cellMax] = frameW - w - (4 * (cellMax - 1));
-    }
-
-    final int[] cellH = new int[cellsH];
-    if (cellsH == 1) {
-      cellH[0] = frameH;
-    } else {
-      int cellMax = cellsH - 1;
-      cellH[0] = h;
-      Arrays.fill(cellH, 1, cellMax, 4);
-      cellH[cellMax] = frameH - h - (4 * (cellMax - 1));
-    }
-
-    frameCache.cellsW = cellsW;
-    frameCache.cellsH = cellsH;
-
-    final int numCells = cellsW * cellsH;
-    frameCache.cells = new Cell[numCells];
-
-
-    int id = 0;
-    Cell cell = null;
-    final int xReset = frame.box.xMin - dir.box.xMin;
-    int y = frame.box.yMin - dir.box.yMin, x = xReset;
-    for (int cy = 0; cy < cellsH; cy++, y += cell.h, x = xReset) {
-      for (int cx = 0; cx < cellsW; cx++, x += cell.w) {
-        assert id == cy * cellsW + cx : "Making sure this optimization doesn't bite me in the ass";
-        // TODO: Cell implements Poolable
-        cell = frameCache.cells[id++] = new Cell();
-        cell.x = x;
-        cell.y = y;
-        cell.w = cellW[cx];
-        cell.h = cellH[cy];
-        cell.bmp = cache.frameBuffer.getSubimage(cell.x, cell.y, cell.w, cell.h);
-      }
-    }
-
-    assert id == numCells;
-  }
-
-  private static void makeFrames(Cache cache, Direction dir, Frame[] frames) {
-    int size = cache.frameBufferCellsW * cache.frameBufferCellsH;
-    for (int c = 0; c < size; c++) {
-      cache.frameBufferCells[c].lastW = -1;
-      cache.frameBufferCells[c].lastH = -1;
-    }
-
-    int pbId = 0;
-    PixelBuffer pbe;
-
-    int numCells, cellX, cellY, cellId;
-
-    Frame frame;
-    Cache.FrameCache frameCache;
-    Bitmap frameBmp = Bitmap.create(dir.box.width, dir.box.height);
-    for (int f = 0; f < frames.length; f++, frameBmp.clear()) {
-      frame = frames[f];
-      frameCache = cache.frame[f];
-      numCells = frameCache.cellsW * frameCache.cellsH;
-      for (int c = 0; c < numCells; c++) {
-        pbe = cache.pixelBuffer[pbId];
-        Cell cell = frameCache.cells[c];
-        cellX = cell.x / 4;
-        cellY = cell.y / 4;
-        cellId = cellY * cache.frameBufferCellsW + cellX;
-        Cell bufferCell = cache.frameBufferCells[cellId];
-        if (pbe == null || pbe.frame != f || pbe.frameCellIndex != c) {
-          if (cell.w != bufferCell.lastW || cell.h != bufferCell.lastH) {
-            cell.bmp.clear();
-          } else {
-            Bitmap.copy(cache.frameBuffer, cache.frameBuffer,
-                bufferCell.lastX, bufferCell.lastY,
-                cell.x, cell.y,
-                cell.w, cell.h);
-
-            Bitmap.copy(cell.bmp, frameBmp,
-                0, 0,
-                cell.x, cell.y,
-                cell.w, cell.h);
-          }
-        } else {
-          if (pbe.val[0] == pbe.val[1]) {
-            cell.bmp.fill(pbe.val[0]);
-          } else {
-            int bits;
-            if (pbe.val[1] == pbe.val[2]) {
-              bits = 1;
-            } else {
-              bits = 2;
-            }
-
-            for (int y = 0; y < cell.h; y++) {
-              for (int x = 0; x < cell.w; x++) {
-                int pix = dir.pixelCodeAndDisplacementBitStream.readUnsigned8OrLess(bits);
-                cell.bmp.setPixel(x, y, pbe.val[pix]);
-              }
-            }
-          }
-
-          Bitmap.copy(cell.bmp, frameBmp,
-              0, 0,
-              cell.x, cell.y,
-              cell.w, cell.h);
-          pbId++;
-        }
-
-        bufferCell.lastX = cell.x;
-        bufferCell.lastY = cell.y;
-        bufferCell.lastW = cell.w;
-        bufferCell.lastH = cell.h;
-      }
-
-      saveFrame(frame, frameBmp);
-    }
-  }
-
-  private static void saveFrame(Frame frame, Bitmap frameBmp) {
-    frame.colormap = frameBmp.copy();
-    frame.pixmap   = new PaletteIndexedPixmap(frameBmp.width, frameBmp.height, frame.colormap);
+  private static void decode(Direction dir, Frame[] frames) {
+    Decoder decoder = Decoder.get();
+    decoder.decode(dir, frames);
+    if (DEBUG_PB_SIZE) Gdx.app.debug(TAG, "pixelBuffer.size = " + decoder.numEntries);
+
+    assert dir.equalCellBitStream.tell() == dir.equalCellBitStream.sizeInBits();
+    assert dir.pixelMaskBitStream.tell() == dir.pixelMaskBitStream.sizeInBits();
+    assert dir.encodingTypeBitStream.tell() == dir.encodingTypeBitStream.sizeInBits();
+    assert dir.rawPixelCodesBitStream.tell() == dir.rawPixelCodesBitStream.sizeInBits();
+    assert dir.pixelCodeAndDisplacementBitStream.tell() + 7 >= dir.pixelCodeAndDisplacementBitStream.sizeInBits();
+    dir.releaseBitStreams();
   }
 
   static class Header {
@@ -737,6 +538,9 @@ public class DCC extends com.riiablo.codec.DC {
 
     byte pixelValues[]; // unsigned
 
+    /** whether or not the frames of this direction have been decoded */
+    volatile boolean decoded;
+
     //BBox  box; // inherited
 
     static Direction obtain(InputStream in, int size, Frame[] frames) throws IOException {
@@ -832,6 +636,17 @@ public class DCC extends com.riiablo.codec.DC {
       pixelCodeAndDisplacementBitStream = bitStream.createSubView(bitStream.sizeInBits() - bitStream.tell());
     }
 
+    /**
+     * Releases the compressed data of this direction once it has been decoded.
+     */
+    void releaseBitStreams() {
+      equalCellBitStream = null;
+      pixelMaskBitStream = null;
+      encodingTypeBitStream = null;
+      rawPixelCodesBitStream = null;
+      pixelCodeAndDisplacementBitStream = null;
+    }
+
     public String getFlags() {
       StringBuilder builder = new StringBuilder();
       if ((compressionFlags & HasRawPixelEncoding) == HasRawPixelEncoding) {
@@ -936,143 +751,341 @@ public class DCC extends com.riiablo.codec.DC {
           .build();
     }
   }
-  static class Cache {
-    int  frameBufferCellsW, frameBufferCellsH;
-    Cell frameBufferCells[];
+  /**
+   * Reusable state of the DCC decoder. Pixel buffer entries and cells are stored in flat arrays
+   * indexed by id and cells are addressed by their offset within a single scratch frame buffer, so
+   * no objects are created per cell. Arrays only ever grow, so once warmed up, decoding a direction
+   * allocates nothing but the {@link Spans} of its frames. Each thread has its own instance, see
+   * {@link #get()}.
+   */
+  static final class Decoder {
+    // TODO: Find more accurate value, 5625 per direction?
+    //static final int MAX_VALUE = 5625;
+    static final int MAX_VALUE = 65586;
+    static final int[] PIXEL_TABLE = { 0, 1, 1, 2, 1, 2, 2, 3, 1, 2, 2, 3, 2, 3, 3, 4 };
 
-    PixelBuffer pixelBuffer[];
-    int numEntries;
+    private static final ThreadLocal<Decoder> DECODERS = new ThreadLocal<Decoder>() {
+      @Override
+      protected Decoder initialValue() {
+        return new Decoder();
+      }
+    };
 
-    Bitmap frameBuffer;
+    static Decoder get() {
+      return DECODERS.get();
+    }
 
-    FrameCache frame[];
+    /** pixel buffer, entry i has values [4i,4i+4), frame and frame cell index */
+    byte pbVal[]   = new byte[1024];
+    int  pbFrame[] = new int[256];
+    int  pbCell[]  = new int[256];
+    int  numEntries;
 
-    Cache(Header header) {
-      frame = new FrameCache[header.framesPerDir];
-    }
+    /** frame buffer cells, latest pixel buffer entry (-1 if none) and last cell drawn */
+    int  bufferCellsW, bufferCellsH;
+    int  bufferEntry[] = new int[256];
+    int  lastX[] = new int[256], lastY[] = new int[256];
+    int  lastW[] = new int[256], lastH[] = new int[256];
 
-    static class FrameCache {
-      int  cellsW, cellsH;
-      Cell cells[];
-    }
-  }
-  static class Cell {
-    int x, y;
-    int w, h;
+    /** cells of all frames, those of frame f are [frameCells[f],frameCells[f+1]) */
+    int  frameCells[]  = new int[Frame.MAX_VALUE + 1];
+    int  frameCellsW[] = new int[Frame.MAX_VALUE];
+    int  cellX[] = new int[1024], cellY[] = new int[1024];
+    int  cellW[] = new int[1024], cellH[] = new int[1024];
 
-    int lastX, lastY;
-    int lastW, lastH;
+    byte frameBuffer[] = new byte[0];
 
-    Bitmap bmp;
+    /** frame being decoded, encoded into the spans of the frame once complete */
+    byte frameBmp[] = new byte[0];
 
-    @Override
-    public String toString() {
-      return new ToStringBuilder(this)
-          .append("x", x)
-          .append("y", y)
-          .append("w", w)
-          .append("h", h)
-          //.append("lastX", lastX)
-          //.append("lastY", lastY)
-          //.append("lastW", lastW)
-          //.append("lastH", lastH)
-          .build();
-    }
-  }
-  static class PixelBuffer {
-    // TODO: Find more accurate value, 5625 per direction?
-    //static final int MAX_VALUE = 5625;
-    static final int MAX_VALUE = 65586;
-    static final int[] PIXEL_TABLE = { 0, 1, 1, 2, 1, 2, 2, 3, 1, 2, 2, 3, 2, 3, 3, 4 };
+    final int readPixel[] = new int[4];
 
-    byte val[] = new byte[4];
-    int  frame = -1;
-    int  frameCellIndex = -1;
-  }
-  static class Bitmap {
-    byte colormap[];
-    int  x, y;
-    int  width, height;
-    int  stride;
-
-    static Bitmap create(int width, int height) {
-      return new Bitmap(new byte[width * height], width, height);
-    }
+    Decoder() {}
 
-    Bitmap(byte[] colormap, int w, int h) {
-      this.colormap = colormap;
-      x = y = 0;
-      width = stride = w;
-      height = h;
+    void decode(Direction dir, Frame[] frames) {
+      prepareBufferCells(dir);
+      prepareFrameCells(dir, frames);
+      fillPixelBuffer(dir, frames);
+      makeFrames(dir, frames);
     }
 
-    Bitmap(Bitmap bmp, int x, int y, int w, int h) {
-      colormap = bmp.colormap;
-      this.x = bmp.x + x;
-      this.y = bmp.y + y;
-      width = w;
-      height = h;
-      stride = bmp.stride;
+    private void prepareBufferCells(Direction dir) {
+      final int bufferW = dir.box.width;
+      final int bufferH = dir.box.height;
+      bufferCellsW = 1 + ((bufferW - 1) / 4);
+      bufferCellsH = 1 + ((bufferH - 1) / 4);
+
+      final int numCells = bufferCellsW * bufferCellsH;
+      if (bufferEntry.length < numCells) {
+        bufferEntry = new int[numCells];
+        lastX = new int[numCells];
+        lastY = new int[numCells];
+        lastW = new int[numCells];
+        lastH = new int[numCells];
+      }
+
+      Arrays.fill(bufferEntry, 0, numCells, -1);
+      Arrays.fill(lastW, 0, numCells, -1);
+      Arrays.fill(lastH, 0, numCells, -1);
 
-      assert x + w <= bmp.width && y + h <= bmp.height;
+      // stale contents are never read, every cell is written before it can be copied
+      final int size = bufferW * bufferH;
+      if (frameBuffer.length < size) frameBuffer = new byte[size];
+      if (frameBmp.length < size) frameBmp = new byte[size];
     }
 
-    Bitmap getSubimage(int x, int y, int width, int height) {
-      return new Bitmap(this, x, y, width, height);
+    private void prepareFrameCells(Direction dir, Frame[] frames) {
+      if (frameCells.length <= frames.length) {
+        frameCells = new int[frames.length + 1];
+        frameCellsW = new int[frames.length];
+      }
+
+      int tmp, numCells = 0;
+      for (int f = 0; f < frames.length; f++) {
+        Frame frame = frames[f];
+        final int frameW = frame.box.width;
+        final int frameH = frame.box.height;
+
+        final int cellsW;
+        final int w = 4 - ((frame.box.xMin - dir.box.xMin) % 4); // TODO: & 0x3
+        if (frameW - w <= 1) {
+          cellsW = 1;
+        } else {
+          tmp = frameW - w - 1;
+          cellsW = (tmp % 4 == 0) ? 1 + (tmp / 4) : 2 + (tmp / 4);
+        }
+
+        final int cellsH;
+        final int h = 4 - ((frame.box.yMin - dir.box.yMin) % 4); // TODO: & 0x3
+        if (frameH - h <= 1) {
+          cellsH = 1;
+        } else {
+          tmp = frameH - h - 1;
+          cellsH = (tmp % 4 == 0) ? 1 + (tmp / 4) : 2 + (tmp / 4);
+        }
+
+        frameCells[f] = numCells;
+        frameCellsW[f] = cellsW;
+        ensureCellCapacity(numCells + cellsW * cellsH);
+
+        final int xReset = frame.box.xMin - dir.box.xMin;
+        int y = frame.box.yMin - dir.box.yMin, x;
+        for (int cy = 0; cy < cellsH; cy++) {
+          final int ch = cellSize(cy, cellsH, frameH, h);
+          x = xReset;
+          for (int cx = 0; cx < cellsW; cx++, numCells++) {
+            final int cw = cellSize(cx, cellsW, frameW, w);
+            cellX[numCells] = x;
+            cellY[numCells] = y;
+            cellW[numCells] = cw;
+            cellH[numCells] = ch;
+            x += cw;
+          }
+
+          y += ch;
+        }
+      }
+
+      frameCells[frames.length] = numCells;
+
+      // each cell adds at most one pixel buffer entry
+      final int capacity = Math.min(numCells, MAX_VALUE);
+      if (pbFrame.length < capacity) {
+        pbVal = new byte[capacity << 2];
+        pbFrame = new int[capacity];
+        pbCell = new int[capacity];
+      }
     }
 
-    void clear() {
-      fill((byte) 0);
+    /**
+     * Size of cell {@code i} of {@code cells} along a frame axis of {@code frameSize} pixels whose
+     * first cell is {@code first} pixels, and all others are 4 pixels except for the remainder.
+     */
+    private static int cellSize(int i, int cells, int frameSize, int first) {
+      if (cells == 1) return frameSize;
+      if (i == 0) return first;
+      if (i == cells - 1) return frameSize - first - (4 * (cells - 2));
+      return 4;
     }
 
-    void fill(byte id) {
-      fillBytes(0, 0, width, height, id);
+    private void ensureCellCapacity(int capacity) {
+      if (cellX.length >= capacity) return;
+      capacity = Math.max(capacity, cellX.length << 1);
+      cellX = Arrays.copyOf(cellX, capacity);
+      cellY = Arrays.copyOf(cellY, capacity);
+      cellW = Arrays.copyOf(cellW, capacity);
+      cellH = Arrays.copyOf(cellH, capacity);
     }
 
-    void fillBytes(int x, int y, int w, int h, byte id) {
-      x += this.x;
-      y += this.y;
-      int start = y * stride + x, end;
-      for (int r = 0; r < h; r++) {
-        end = start + w;
-        Arrays.fill(colormap, start, end, id);
-        start += stride;
+    private void fillPixelBuffer(Direction dir, Frame[] frames) {
+      final int[] readPixel = this.readPixel;
+      final byte[] pbVal = this.pbVal;
+      final int[] bufferEntry = this.bufferEntry;
+      final int frameBufferCellsW = bufferCellsW;
+      final int numCells = bufferCellsW * bufferCellsH;
+
+      int cellsW, cellsH;
+      int cellX, cellY;
+
+      int tmp, pixelMask = 0;
+      int lastPixel, pixels, decodedPixels;
+      int encodingType, pixelDisplacement;
+
+      int oldEntry, newEntry;
+      int curId, pixelBufferId = 0;
+
+      int curCell;
+      for (int f = 0; f < frames.length; f++) {
+        Frame frame = frames[f];
+        cellsW = frameCellsW[f];
+        cellsH = (frameCells[f + 1] - frameCells[f]) / cellsW;
+        cellX  = (frame.box.xMin - dir.box.xMin) / 4;
+        cellY  = (frame.box.yMin - dir.box.yMin) / 4;
+
+        for (int cy = 0; cy < cellsH; cy++) {
+          for (int cx = 0; cx < cellsW; cx++) {
+            curCell = (cellY + cy) * frameBufferCellsW + cellX + cx;
+            assert curCell < numCells;
+
+            oldEntry = bufferEntry[curCell];
+            if (oldEntry != -1) {
+              if (dir.equalCellBitStreamSize > 0) {
+                tmp = dir.equalCellBitStream.readBit();
+              } else {
+                tmp = 0;
+              }
+
+              if (tmp != 0) continue;
+              pixelMask = dir.pixelMaskBitStream.readUnsigned8OrLess(4);
+              assert pixelMask >= 0;
+            } else {
+              pixelMask = 0xF;
+            }
+
+            readPixel[0] = readPixel[1] = readPixel[2] = readPixel[3] = 0;
+            pixels = PIXEL_TABLE[pixelMask];
+            if (pixels > 0 && dir.encodingTypeBitStreamSize > 0) {
+              encodingType = dir.encodingTypeBitStream.readBit();
+              assert encodingType >= 0;
+            } else {
+              encodingType = 0;
+            }
+
+            lastPixel = 0;
+            decodedPixels = 0;
+            for (int i = 0; i < pixels; i++) {
+              if (encodingType > 0) {
+                readPixel[i] = dir.rawPixelCodesBitStream.readUnsigned8OrLess(8);
+              } else {
+                readPixel[i] = lastPixel;
+                do {
+                  pixelDisplacement = dir.pixelCodeAndDisplacementBitStream.readUnsigned8OrLess(4);
+                  readPixel[i] += pixelDisplacement;
+                } while (pixelDisplacement == 0xF);
+              }
+
+              if (readPixel[i] == lastPixel) {
+                readPixel[i] = 0;
+                break;
+              } else {
+                lastPixel = readPixel[i];
+                decodedPixels++;
+              }
+            }
+
+            if (pixelBufferId >= MAX_VALUE) {
+              throw new IllegalStateException("Pixel buffer full, cannot add more entries");
+            }
+
+            newEntry = pixelBufferId++;
+            curId = decodedPixels - 1;
+            for (int i = 0, val = newEntry << 2; i < 4; i++, val++) {
+              if ((pixelMask & (1 << i)) != 0) {
+                if (curId >= 0) {
+                  pbVal[val] = (byte) readPixel[curId--];
+                } else {
+                  pbVal[val] = 0;
+                }
+              } else {
+                pbVal[val] = pbVal[(oldEntry << 2) + i];
+              }
+            }
+
+            bufferEntry[curCell] = newEntry;
+            pbFrame[newEntry] = f; // TODO: I'm not sure how this will behave with f as df
+            pbCell[newEntry] = cy * cellsW + cx;
+          }
+        }
+      }
+
+      final byte[] pixelValues = dir.pixelValues;
+      for (int i = 0, s = pixelBufferId << 2; i < s; i++) {
+        pbVal[i] = pixelValues[pbVal[i] & 0xFF];
       }
-    }
 
-    void setPixel(int x, int y, byte i) {
-      x += this.x;
-      y += this.y;
-      colormap[y * stride + x] = i;
+      numEntries = pixelBufferId;
     }
 
-    static void copy(Bitmap src, Bitmap dst,
-                     int srcX, int srcY,
-                     int dstX, int dstY,
-                     int width, int height) {
-      assert srcX + width <= src.width && dstX + width <= dst.width;
-      srcX += src.x;
-      srcY += src.y;
-      int fromIndexSrc = srcY * src.stride + srcX;
-      dstX += dst.x;
-      dstY += dst.y;
-      int fromIndexDst = dstY * dst.stride + dstX;
-      for (int r = 0; r < height; r++) {
-        System.arraycopy(
-            src.colormap, fromIndexSrc,
-            dst.colormap, fromIndexDst,
-            width);
-        fromIndexSrc += src.stride;
-        fromIndexDst += dst.stride;
+    private void makeFrames(Direction dir, Frame[] frames) {
+      final byte[] pbVal = this.pbVal;
+      final byte[] frameBuffer = this.frameBuffer;
+      final byte[] frameBmp = this.frameBmp;
+      final int stride = dir.box.width;
+      final int size = stride * dir.box.height;
+      final BitStream pixelCodes = dir.pixelCodeAndDisplacementBitStream;
+
+      int pbId = 0;
+      for (int f = 0; f < frames.length; f++) {
+        Arrays.fill(frameBmp, 0, size, (byte) 0);
+        for (int c = frameCells[f], start = c, end = frameCells[f + 1]; c < end; c++) {
+          final int x = cellX[c], y = cellY[c];
+          final int w = cellW[c], h = cellH[c];
+          final int offset = y * stride + x;
+          final int bufferCell = (y / 4) * bufferCellsW + (x / 4);
+          if (pbId >= numEntries || pbFrame[pbId] != f || pbCell[pbId] != c - start) {
+            if (w != lastW[bufferCell] || h != lastH[bufferCell]) {
+              fill(frameBuffer, offset, stride, w, h, (byte) 0);
+            } else {
+              copy(frameBuffer, lastY[bufferCell] * stride + lastX[bufferCell], frameBuffer, offset, stride, w, h);
+              copy(frameBuffer, offset, frameBmp, offset, stride, w, h);
+            }
+          } else {
+            final int val = pbId << 2;
+            if (pbVal[val] == pbVal[val + 1]) {
+              fill(frameBuffer, offset, stride, w, h, pbVal[val]);
+            } else {
+              final int bits = pbVal[val + 1] == pbVal[val + 2] ? 1 : 2;
+              for (int r = 0, row = offset; r < h; r++, row += stride) {
+                for (int i = row, rowEnd = row + w; i < rowEnd; i++) {
+                  frameBuffer[i] = pbVal[val + pixelCodes.readUnsigned8OrLess(bits)];
+                }
+              }
+            }
+
+            copy(frameBuffer, offset, frameBmp, offset, stride, w, h);
+            pbId++;
+          }
+
+          lastX[bufferCell] = x;
+          lastY[bufferCell] = y;
+          lastW[bufferCell] = w;
+          lastH[bufferCell] = h;
+        }
+
+        frames[f].spans = Spans.encode(frameBmp, stride, dir.box.height);
       }
     }
 
-    void copy(Bitmap dst) {
-      copy(this, dst, 0, 0, 0, 0, width, height);
+    private static void fill(byte[] dst, int offset, int stride, int w, int h, byte id) {
+      for (int r = 0; r < h; r++, offset += stride) {
+        Arrays.fill(dst, offset, offset + w, id);
+      }
     }
 
-    byte[] copy() {
-      return Arrays.copyOf(colormap, colormap.length);
+    private static void copy(byte[] src, int srcOffset, byte[] dst, int dstOffset, int stride, int w, int h) {
+      for (int r = 0; r < h; r++, srcOffset += stride, dstOffset += stride) {
+        System.arraycopy(src, srcOffset, dst, dstOffset, w);
+      }
     }
   }
 }
@@ -0,0 +1,221 @@
+package com.riiablo.codec;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.utils.Disposable;
+import com.badlogic.gdx.utils.ObjectMap;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decodes directions of {@link DC}s on a pool of worker threads, leaving only the upload of the
+ * decoded frames as textures to the render thread. A direction is requested when it is first drawn
+ * and the layer is skipped until it has been uploaded, so entering an area with many new entities
+ * no longer stalls the frame while each of their animations is decoded in turn. Uploads are spread
+ * over frames by {@link #update()}, which uploads at most {@link #getUploadBudget()} frames per
+ * call.
+ * <p>
+ * Requests of a {@link DC} are {@link #cancel(DC) cancelled} when it is disposed.
+ * {@link #request(DC, int)}, {@link #cancel(DC)} and {@link #update()} must be called from the
+ * render thread.
+ */
+public class DecodeService implements Disposable {
+  private static final String TAG = "DecodeService";
+  private static final boolean DEBUG = !true;
+
+  private final ExecutorService workers;
+  private final ConcurrentLinkedQueue<Request> decoded = new ConcurrentLinkedQueue<>();
+
+  /** directions requested but not yet uploaded, indexed by direction per dc */
+  private final ObjectMap<DC, Request[]> pending = new ObjectMap<>();
+
+  private int uploadBudget;
+  private int uploaded;
+
+  /** decoded directions are packed into this atlas when possible, may be null */
+  private FrameAtlas atlas;
+
+  public DecodeService(int uploadBudget) {
+    this(Math.max(1, Runtime.getRuntime().availableProcessors() - 1), uploadBudget);
+  }
+
+  /**
+   * @param threads      number of worker threads
+   * @param uploadBudget maximum number of frames uploaded per {@link #update()}, 0 for unlimited
+   */
+  public DecodeService(int threads, int uploadBudget) {
+    workers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+      final AtomicInteger id = new AtomicInteger();
+
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, TAG + "-" + id.getAndIncrement());
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+
+    setUploadBudget(uploadBudget);
+  }
+
+  public int getUploadBudget() {
+    return uploadBudget;
+  }
+
+  public void setUploadBudget(int uploadBudget) {
+    if (uploadBudget < 0) throw new IllegalArgumentException("uploadBudget(" + uploadBudget + ") < 0");
+    this.uploadBudget = uploadBudget;
+  }
+
+  public FrameAtlas getAtlas() {
+    return atlas;
+  }
+
+  /**
+   * Sets the atlas which decoded directions are uploaded into, or {@code null} to upload them as
+   * separate textures with {@link DC#loadDirection(int)}.
+   */
+  public void setAtlas(FrameAtlas atlas) {
+    this.atlas = atlas;
+  }
+
+  boolean isLoaded(DC dc, int d) {
+    return dc.isLoaded(d) || (atlas != null && atlas.contains(dc, d));
+  }
+
+  /**
+   * Returns whether or not direction {@code d} of {@code dc} is loaded, otherwise queues it to be
+   * decoded if it has not been already.
+   */
+  public boolean request(final DC dc, final int d) {
+    if (isLoaded(dc, d)) return true;
+    Request[] requests = pending.get(dc);
+    if (requests == null) pending.put(dc, requests = new Request[dc.getNumDirections()]);
+    else if (requests[d] != null) return false;
+    final Request request = requests[d] = new Request(dc, d);
+    workers.execute(new Runnable() {
+      @Override
+      public void run() {
+        if (request.cancelled) return;
+        try {
+          dc.preloadDirection(d);
+          // creates any pixmaps which are still missing, so uploading only copies them
+          for (int f = 0, s = dc.getNumFramesPerDir(); f < s; f++) {
+            // dc may have been disposed while decoding, its pixmaps would never be released
+            if (request.cancelled) return;
+            dc.getPixmap(d, f);
+          }
+        } catch (Throwable t) {
+          // loadDirection will retry on the render thread and report the failure there
+          if (!request.cancelled) Gdx.app.error(TAG, "Couldn't decode direction " + d + " of " + dc, t);
+        }
+
+        decoded.add(request);
+      }
+    });
+
+    return false;
+  }
+
+  /**
+   * Drops every request of {@code dc}, whether it is still queued or already decoded, e.g., when
+   * {@code dc} is disposed. A direction which is being decoded when this is called is abandoned
+   * before its pixmaps are created and is never uploaded.
+   */
+  public void cancel(DC dc) {
+    Request[] requests = pending.remove(dc);
+    if (requests == null) return;
+    for (Request request : requests) if (request != null) request.cancelled = true;
+    for (Iterator<Request> it = decoded.iterator(); it.hasNext();) {
+      if (it.next().dc == dc) it.remove();
+    }
+  }
+
+  /**
+   * Uploads decoded directions until the upload budget has been spent. A direction is always
+   * uploaded whole, so the budget may be exceeded by the last direction uploaded.
+   *
+   * @return number of frames uploaded
+   */
+  public int update() {
+    int frames = 0;
+    Request request;
+    while ((uploadBudget == 0 || frames < uploadBudget) && (request = decoded.poll()) != null) {
+      // the dc may have been disposed since
+      if (request.cancelled) continue;
+      DC dc = request.dc;
+      int d = request.d;
+      Request[] requests = pending.get(dc);
+      requests[d] = null;
+      if (isEmpty(requests)) pending.remove(dc);
+
+      if (isLoaded(dc, d)) continue;
+      if (atlas != null && atlas.load(dc, d) != null) {
+        frames += dc.getNumFramesPerDir();
+      } else {
+        dc.loadDirection(d);
+        frames += dc.getNumPages(d);
+      }
+    }
+
+    uploaded += frames;
+    if (DEBUG && frames > 0) Gdx.app.debug(TAG, "uploaded " + frames + " frames");
+    return frames;
+  }
+
+  static boolean isEmpty(Request[] requests) {
+    for (Request request : requests) if (request != null) return false;
+    return true;
+  }
+
+  /**
+   * Returns whether or not any direction of {@code dc} has been requested but not yet uploaded,
+   * in which case {@code dc} must not be disposed yet.
+   */
+  public boolean isPending(DC dc) {
+    return pending.containsKey(dc);
+  }
+
+  /**
+   * Number of directions decoded and waiting to be uploaded.
+   */
+  public int decoded() {
+    return decoded.size();
+  }
+
+  /**
+   * Total number of frames uploaded by {@link #update()}.
+   */
+  public int uploaded() {
+    return uploaded;
+  }
+
+  @Override
+  public void dispose() {
+    workers.shutdownNow();
+    decoded.clear();
+    pending.clear();
+  }
+
+  @Override
+  public String toString() {
+    return TAG + "[pending=" + pending.size + ",uploaded=" + uploaded + ",uploadBudget=" + uploadBudget + "]";
+  }
+
+  static final class Request {
+    final DC  dc;
+    final int d;
+
+    /** set on the render thread, read by the worker decoding the direction */
+    volatile boolean cancelled;
+
+    Request(DC dc, int d) {
+      this.dc = dc;
+      this.d  = d;
+    }
+  }
+}
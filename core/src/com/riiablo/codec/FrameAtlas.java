@@ -0,0 +1,243 @@
+package com.riiablo.codec;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.graphics.Pixmap;
+import com.badlogic.gdx.graphics.Texture;
+import com.badlogic.gdx.graphics.g2d.TextureRegion;
+import com.badlogic.gdx.utils.Disposable;
+import com.badlogic.gdx.utils.IntMap;
+import com.badlogic.gdx.utils.ObjectMap;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+import com.riiablo.graphics.AtlasPacker;
+
+/**
+ * Packs the frames of {@link DC} directions into shared palette-indexed pages, so that animations
+ * from many files can be drawn from the same few textures without flushing the batch between
+ * them. Directions are packed whole into a single page when they are first loaded, and pages are
+ * reclaimed from the directions which were drawn the longest ago once the memory budget has been
+ * spent, see {@link AtlasPacker}. Directions which cannot be packed, e.g., because their frames
+ * are too large or every page is in use, should fall back to {@link DC#loadDirection(int)}.
+ * <p>
+ * All methods must be called from the render thread.
+ */
+public class FrameAtlas implements Disposable {
+  private static final String TAG = "FrameAtlas";
+  private static final boolean DEBUG = !true;
+
+  public static final int PAGE_SIZE = 1024;
+
+  /** unused pixels between frames, avoids bleeding when frames are drawn scaled */
+  static final int PADDING = 1;
+
+  final AtlasPacker<Direction> packer;
+  final IntMap<Texture> pages = new IntMap<>();
+  final ObjectMap<DC, Direction[]> directions = new ObjectMap<>();
+
+  int packed;
+  int evicted;
+
+  /**
+   * @param budget maximum number of bytes of texture memory used by pages
+   */
+  public FrameAtlas(long budget) {
+    this(PAGE_SIZE, budget);
+  }
+
+  public FrameAtlas(int pageSize, long budget) {
+    packer = new AtlasPacker<>(pageSize, pageSize, maxPages(pageSize, budget), PADDING);
+    packer.setListener(new AtlasPacker.Listener<Direction>() {
+      @Override
+      public void evicted(AtlasPacker.Entry<Direction> entry) {
+        remove(entry.owner());
+        evicted++;
+      }
+
+      @Override
+      public void discarded(AtlasPacker.Page<Direction> page) {
+        Texture texture = pages.remove(page.id());
+        if (texture != null) texture.dispose();
+      }
+    });
+  }
+
+  static int maxPages(int pageSize, long budget) {
+    // pages are a single byte per pixel
+    return (int) Math.min(Integer.MAX_VALUE, budget / ((long) pageSize * pageSize));
+  }
+
+  public void setBudget(long budget) {
+    packer.setMaxPages(maxPages(packer.getPageWidth(), budget));
+  }
+
+  public long getBudget() {
+    return (long) packer.getMaxPages() * packer.getPageWidth() * packer.getPageHeight();
+  }
+
+  /**
+   * Marks the start of a new frame. Directions which have not been drawn since are eligible to
+   * be evicted, so directions uploaded ahead of being drawn, i.e., by
+   * {@link DecodeService#update()}, should be loaded before this is called, otherwise they would
+   * evict the directions drawn in the last frame.
+   */
+  public void update() {
+    packer.update();
+  }
+
+  /**
+   * Returns whether or not direction {@code d} of {@code dc} is packed.
+   */
+  public boolean contains(DC dc, int d) {
+    Direction[] directions = this.directions.get(dc);
+    return directions != null && directions[d] != null;
+  }
+
+  /**
+   * Returns direction {@code d} of {@code dc}, packing it if it isn't already. Packing decodes the
+   * direction if it has not been decoded yet.
+   *
+   * @return the packed direction, or {@code null} if it could not be packed
+   */
+  public Direction load(DC dc, int d) {
+    Direction[] directions = this.directions.get(dc);
+    if (directions == null) {
+      this.directions.put(dc, directions = new Direction[dc.getNumDirections()]);
+    } else if (directions[d] != null) {
+      Direction dir = directions[d];
+      packer.touch(dir.entry);
+      return dir;
+    }
+
+    final int numFrames = dc.getNumFramesPerDir();
+    final Pixmap[] pixmaps = new Pixmap[numFrames];
+    final int[] widths = new int[numFrames];
+    final int[] heights = new int[numFrames];
+    for (int f = 0; f < numFrames; f++) {
+      Pixmap pixmap = pixmaps[f] = dc.getPixmap(d, f);
+      widths[f] = pixmap.getWidth();
+      heights[f] = pixmap.getHeight();
+    }
+
+    Direction dir = new Direction(dc, d, numFrames);
+    AtlasPacker.Entry<Direction> entry = dir.entry = packer.pack(dir, widths, heights);
+    if (entry == null) {
+      if (DEBUG) Gdx.app.debug(TAG, "Couldn't pack direction " + d + " of " + dc);
+      if (isEmpty(directions)) this.directions.remove(dc);
+      return null;
+    }
+
+    Texture page = page(entry.page());
+    for (int f = 0; f < numFrames; f++) {
+      int x = entry.x(f), y = entry.y(f);
+      page.draw(pixmaps[f], x, y);
+      dir.regions[f] = new TextureRegion(page, x, y, widths[f], heights[f]);
+    }
+
+    // the frames are recreated from the decoded direction if it is evicted and packed again
+    dc.releasePixmaps(d);
+    packed++;
+    return directions[d] = dir;
+  }
+
+  /**
+   * Marks {@code dir} as drawn this frame.
+   *
+   * @return whether or not {@code dir} is still packed, otherwise it must be loaded again
+   */
+  public boolean touch(Direction dir) {
+    if (dir.entry.isEvicted()) return false;
+    packer.touch(dir.entry);
+    return true;
+  }
+
+  /**
+   * Removes all of the directions of {@code dc}. Called when {@code dc} is disposed, so that its
+   * directions do not keep it reachable until they are evicted.
+   */
+  public void remove(DC dc) {
+    Direction[] directions = this.directions.remove(dc);
+    if (directions == null) return;
+    for (Direction dir : directions) if (dir != null) packer.remove(dir.entry);
+  }
+
+  void remove(Direction dir) {
+    Direction[] directions = this.directions.get(dir.dc);
+    if (directions == null || directions[dir.d] != dir) return;
+    directions[dir.d] = null;
+    if (isEmpty(directions)) this.directions.remove(dir.dc);
+  }
+
+  static boolean isEmpty(Direction[] directions) {
+    for (Direction dir : directions) if (dir != null) return false;
+    return true;
+  }
+
+  Texture page(AtlasPacker.Page<Direction> page) {
+    Texture texture = pages.get(page.id());
+    if (texture == null) {
+      texture = newPage(packer.getPageWidth(), packer.getPageHeight());
+      pages.put(page.id(), texture);
+      if (DEBUG) Gdx.app.debug(TAG, "Created page " + page.id());
+    }
+
+    return texture;
+  }
+
+  /**
+   * Creates an empty palette-indexed page.
+   */
+  static Texture newPage(int width, int height) {
+    Texture texture = new Texture(width, height, Pixmap.Format.Intensity);
+    texture.setWrap(Texture.TextureWrap.ClampToEdge, Texture.TextureWrap.ClampToEdge);
+    return texture;
+  }
+
+  /**
+   * Number of pages currently allocated.
+   */
+  public int numPages() {
+    return pages.size;
+  }
+
+  @Override
+  public void dispose() {
+    packer.clear();
+    directions.clear();
+    for (Texture texture : pages.values()) texture.dispose();
+    pages.clear();
+  }
+
+  @Override
+  public String toString() {
+    return new ToStringBuilder(this)
+        .append("pages", pages.size)
+        .append("budget", getBudget())
+        .append("directions", directions.size)
+        .append("packed", packed)
+        .append("evicted", evicted)
+        .append("used", packer.used())
+        .toString();
+  }
+
+  public static final class Direction {
+    final DC dc;
+    final int d;
+    final TextureRegion[] regions;
+    AtlasPacker.Entry<Direction> entry;
+
+    Direction(DC dc, int d, int numFrames) {
+      this.dc = dc;
+      this.d = d;
+      this.regions = new TextureRegion[numFrames];
+    }
+
+    public TextureRegion[] regions() {
+      return regions;
+    }
+
+    public boolean isEvicted() {
+      return entry.isEvicted();
+    }
+  }
+}
@@ -0,0 +1,193 @@
+package com.riiablo.codec;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.files.FileHandle;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.riiablo.codec.util.BBox;
+import com.riiablo.codec.util.Spans;
+import com.riiablo.mpq.DiskCache;
+import com.riiablo.util.CacheUtils;
+
+/**
+ * Cache of decoded {@link DC} frames on local disk, so that animations only need to be decoded the
+ * first time they are used. Each direction is stored under {@code <dir>/<key>.<direction>}, where
+ * the key is that of the file within the {@link DiskCache}. A direction whose entry cannot be read
+ * is decoded and written again. All methods are thread-safe.
+ * <p>
+ * Entries are little-endian and laid out so that they can be read and copied out directly:
+ * <pre>
+ * int  magic, version, numFrames
+ * int  xMin, yMin, xMax, yMax, numSpans, numPixels  (numFrames times)
+ * int  rows, spans; byte pixels                     (numFrames times, see {@link Spans#write})
+ * </pre>
+ */
+public class FrameCache {
+  private static final String TAG = "FrameCache";
+  private static final boolean DEBUG = !true;
+
+  static final int MAGIC   = 0x4D524652; // RFRM
+  static final int VERSION = 2;
+
+  static final int HEADER_SIZE = 3 * 4;
+  static final int FRAME_SIZE  = 6 * 4;
+
+  private final FileHandle dir;
+
+  private final AtomicLong hits   = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong writes = new AtomicLong();
+
+  public FrameCache(FileHandle dir) {
+    this.dir = dir;
+  }
+
+  public FileHandle dir() {
+    return dir;
+  }
+
+  /**
+   * Returns the key which the frames of {@code handle} are cached under, see
+   * {@link DiskCache#key(FileHandle)}, or {@code null} if {@code handle} cannot be cached.
+   */
+  public String key(FileHandle handle) {
+    return DiskCache.key(handle);
+  }
+
+  File file(String key, int d) {
+    return new File(dir.file(), key + '.' + d);
+  }
+
+  /**
+   * Restores the spans of {@code frames}, which are direction {@code d} of {@code key}, from the
+   * cache. The frame boxes must already be set, cached frames with different boxes are treated as
+   * a miss.
+   *
+   * @param bounds dimensions of every frame, or {@code null} if each frame only covers its own
+   *               box
+   * @return whether or not the spans were restored
+   */
+  public boolean read(String key, int d, DC.Frame[] frames, BBox bounds) {
+    File file = file(key, d);
+    if (!file.isFile()) {
+      misses.incrementAndGet();
+      return false;
+    }
+
+    try {
+      ByteBuffer buffer = CacheUtils.read(file);
+      if (!read(buffer, frames, bounds)) {
+        if (DEBUG) Gdx.app.debug(TAG, "Ignoring stale " + file);
+        misses.incrementAndGet();
+        return false;
+      }
+
+      hits.incrementAndGet();
+      if (DEBUG) Gdx.app.debug(TAG, "Read " + file);
+      return true;
+    } catch (IOException e) {
+      Gdx.app.error(TAG, "Unable to read " + file, e);
+      misses.incrementAndGet();
+      return false;
+    }
+  }
+
+  /**
+   * Validates the entry in {@code buffer} against {@code frames} before assigning any spans, so
+   * that a stale entry leaves {@code frames} untouched.
+   */
+  static boolean read(ByteBuffer buffer, DC.Frame[] frames, BBox bounds) {
+    final int numFrames = frames.length;
+    if (buffer.remaining() < HEADER_SIZE + numFrames * FRAME_SIZE) return false;
+    if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION || buffer.getInt() != numFrames) return false;
+
+    final int[] numSpans = new int[numFrames];
+    final int[] numPixels = new int[numFrames];
+    for (int f = 0; f < numFrames; f++) {
+      BBox box = frames[f].box;
+      if (buffer.getInt() != box.xMin || buffer.getInt() != box.yMin
+          || buffer.getInt() != box.xMax || buffer.getInt() != box.yMax) {
+        return false;
+      }
+
+      numSpans[f] = buffer.getInt();
+      numPixels[f] = buffer.getInt();
+    }
+
+    final Spans[] spans = new Spans[numFrames];
+    for (int f = 0; f < numFrames; f++) {
+      BBox size = bounds != null ? bounds : frames[f].box;
+      spans[f] = Spans.read(buffer, size.width, size.height, numSpans[f], numPixels[f]);
+      if (spans[f] == null) return false;
+    }
+
+    if (buffer.hasRemaining()) return false;
+    for (int f = 0; f < numFrames; f++) frames[f].spans = spans[f];
+    return true;
+  }
+
+  /**
+   * Writes the decoded spans of {@code frames}, which are direction {@code d} of {@code key},
+   * into the cache, replacing any stale entry.
+   */
+  public void write(String key, int d, DC.Frame[] frames) {
+    File file = file(key, d);
+    try {
+      int size = HEADER_SIZE + frames.length * FRAME_SIZE;
+      for (DC.Frame frame : frames) size += frame.spans.size();
+
+      ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+      buffer.putInt(MAGIC).putInt(VERSION).putInt(frames.length);
+      for (DC.Frame frame : frames) {
+        BBox box = frame.box;
+        buffer.putInt(box.xMin).putInt(box.yMin).putInt(box.xMax).putInt(box.yMax);
+        buffer.putInt(frame.spans.numSpans()).putInt(frame.spans.numPixels());
+      }
+
+      for (DC.Frame frame : frames) frame.spans.write(buffer);
+
+      buffer.flip();
+      CacheUtils.write(file, buffer);
+      writes.incrementAndGet();
+      if (DEBUG) Gdx.app.debug(TAG, "Wrote " + file);
+    } catch (IOException e) {
+      Gdx.app.error(TAG, "Unable to write " + file, e);
+    }
+  }
+
+  /**
+   * Deletes all cached frames.
+   */
+  public void clear() {
+    dir.deleteDirectory();
+  }
+
+  public long hits() {
+    return hits.get();
+  }
+
+  public long misses() {
+    return misses.get();
+  }
+
+  public long writes() {
+    return writes.get();
+  }
+
+  @Override
+  public String toString() {
+    return new ToStringBuilder(this)
+        .append("dir", dir)
+        .append("hits", hits)
+        .append("misses", misses)
+        .append("writes", writes)
+        .toString();
+  }
+}
@@ -2,22 +2,28 @@ package com.riiablo.codec;
 
 import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.files.FileHandle;
-import com.badlogic.gdx.utils.Array;
 import com.badlogic.gdx.utils.GdxRuntimeException;
 import com.badlogic.gdx.utils.IntArray;
 import com.badlogic.gdx.utils.ObjectIntMap;
 import com.badlogic.gdx.utils.ObjectSet;
-import com.badlogic.gdx.utils.StringBuilder;
+import com.riiablo.mpq.MPQFileHandle;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
-import org.apache.commons.lang3.math.NumberUtils;
 
-import java.io.BufferedReader;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 
+/**
+ * Tab-separated table. The raw ASCII of the table is tokenized once into the offsets of its cells,
+ * cells are only decoded when they are read: numbers are parsed straight from the bytes, and a
+ * {@link String} is only created for cells read with {@link #getString(int, int)}.
+ * <p>
+ * Numbers are parsed as {@link Integer#parseInt(String)} and its counterparts would, cells which
+ * are empty, not numbers or out of the range of the type read as {@code 0}.
+ */
 public class TXT {
   private static final String TAG = "TXT";
   private static final boolean DEBUG      = !true;
@@ -26,17 +32,33 @@ public class TXT {
   private static final boolean DEBUG_BOOL = true;
 
   protected final ObjectIntMap<String> columns;
-  protected final Array<String[]>      data;
 
-  private TXT(ObjectIntMap<String> columns, Array<String[]> data) {
+  /** raw ASCII of the table */
+  protected final byte[] bytes;
+
+  /**
+   * offsets of the cells of each row within {@link #bytes}, {@link #stride} per row: cell
+   * {@code col} of {@code row} is {@code [cells[row * stride + col], cells[row * stride + col + 1] - 1)},
+   * the last offset of each row is one past the end of its line
+   */
+  protected final int[] cells;
+  protected final int   stride;
+  protected final int   rows;
+
+  private TXT(ObjectIntMap<String> columns, byte[] bytes, int[] cells, int stride, int rows) {
     this.columns = columns;
-    this.data = data;
+    this.bytes = bytes;
+    this.cells = cells;
+    this.stride = stride;
+    this.rows = rows;
   }
 
   protected TXT(TXT src) {
     this.columns = src.columns;
-    //this.rows = src.rows;
-    this.data = src.data;
+    this.bytes = src.bytes;
+    this.cells = src.cells;
+    this.stride = src.stride;
+    this.rows = src.rows;
   }
 
   public int getColumns() {
@@ -44,7 +66,7 @@ public class TXT {
   }
 
   public int getRows() {
-    return data.size;
+    return rows;
   }
 
   public String getColumnName(int col) {
@@ -52,7 +74,7 @@ public class TXT {
   }
 
   public String getRowName(int row) {
-    return data.items[row][0];
+    return getString(row, 0);
   }
 
   public int getColumnId(String text) {
@@ -73,27 +95,25 @@ public class TXT {
 
   public String getString(int row, int col) {
     if (row == -1 || col == -1) return null;
-    return data.items[row][col];
+    final int offset = row * stride + col;
+    final int start = cells[offset], end = cells[offset + 1] - 1;
+    return start == end ? StringUtils.EMPTY : new String(bytes, start, end - start, StandardCharsets.US_ASCII);
   }
 
   public byte getByte(int row, int col) {
-    String value = getString(row, col);
-    return NumberUtils.toByte(value, (byte) 0);
+    return (byte) parse(row, col, Byte.MIN_VALUE, Byte.MAX_VALUE);
   }
 
   public short getShort(int row, int col) {
-    String value = getString(row, col);
-    return NumberUtils.toShort(value, (short) 0);
+    return (short) parse(row, col, Short.MIN_VALUE, Short.MAX_VALUE);
   }
 
   public int getInt(int row, int col) {
-    String value = getString(row, col);
-    return NumberUtils.toInt(value, 0);
+    return (int) parse(row, col, Integer.MIN_VALUE, Integer.MAX_VALUE);
   }
 
   public long getLong(int row, int col) {
-    String value = getString(row, col);
-    return NumberUtils.toLong(value, 0L);
+    return parse(row, col, Long.MIN_VALUE, Long.MAX_VALUE);
   }
 
   public boolean getBoolean(int row, int col) {
@@ -102,6 +122,38 @@ public class TXT {
     return value > 0;
   }
 
+  /**
+   * Parses the cell as a decimal number within {@code [min, max]}, returning {@code 0} if it is
+   * not one.
+   */
+  long parse(int row, int col, long min, long max) {
+    if (row == -1 || col == -1) return 0;
+    final byte[] bytes = this.bytes;
+    final int offset = row * stride + col;
+    final int end = cells[offset + 1] - 1;
+    int i = cells[offset];
+    if (i == end) return 0;
+
+    // accumulates negatively, as Long#parseLong, so that Long.MIN_VALUE can be represented
+    final boolean negative = bytes[i] == '-';
+    if (negative || bytes[i] == '+') {
+      if (++i == end) return 0;
+    }
+
+    final long limit = negative ? min : -max;
+    final long multmin = limit / 10;
+    long result = 0;
+    for (; i < end; i++) {
+      int digit = bytes[i] - '0';
+      if (digit < 0 || digit > 9 || result < multmin) return 0;
+      result *= 10;
+      if (result < limit + digit) return 0;
+      result -= digit;
+    }
+
+    return negative ? result : -result;
+  }
+
   public String[] getString(int row, int[] cols) {
     String[] data = new String[cols.length];
     for (int i = 0; i < cols.length; i++) data[i] = getString(row, cols[i]);
@@ -139,78 +191,56 @@ public class TXT {
   }
 
   public static TXT loadFromFile(FileHandle handle) {
-    return loadFromStream2(handle.read());
+    if (handle instanceof MPQFileHandle) {
+      return loadFromBuffer(((MPQFileHandle) handle).readIntoThreadLocal());
+    }
+
+    return loadFromBytes(handle.readBytes());
+  }
+
+  /**
+   * Loads from the remaining bytes of {@code buffer}, which is not retained.
+   */
+  public static TXT loadFromBuffer(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.remaining()];
+    buffer.duplicate().get(bytes);
+    return loadFromBytes(bytes);
   }
 
-  // FIXME: Problem loading WeaponClass.txt
   public static TXT loadFromStream(InputStream in) {
-    BufferedReader reader = null;
+    final byte[] bytes;
     try {
-      reader = IOUtils.buffer(new InputStreamReader(in, "US-ASCII"));
-      ObjectIntMap<String> columns = new ObjectIntMap<>();
-      String[] columnNames = StringUtils.splitPreserveAllTokens(reader.readLine(), '\t');
-      for (int i = 0; i < columnNames.length; i++) {
-        String key = columnNames[i].toLowerCase();
-        if (!columns.containsKey(key)) columns.put(key, i);
-      }
-      if (DEBUG_COLS) {
-        ObjectSet<String> duplicates = new ObjectSet<>();
-        String[] colNames = new String[columns.size];
-        for (int i = 0, j = 0; i < columnNames.length; i++) {
-          String columnName = columnNames[i];
-          if (!duplicates.add(columnName)) continue;
-          colNames[j++] = columnName;
-        }
-        Gdx.app.debug(TAG, "cols=" + Arrays.toString(colNames));
-      }
-
-      Array<String[]> data = new Array<>(String[].class);
-      for (String line; (line = reader.readLine()) != null;) {
-        String[] tmp = split(columnNames.length, line, '\t');
-        if (tmp.length != columnNames.length) {
-          if (DEBUG_ROWS) Gdx.app.debug(TAG, "Skipping row " + Arrays.toString(tmp));
-          continue;
-        }
-
-        data.add(tmp);
-        if (DEBUG_ROWS) Gdx.app.debug(TAG, data.size - 1 + ": " + Arrays.toString(tmp));
-      }
-
-      return new TXT(columns, data);
+      bytes = IOUtils.toByteArray(in);
     } catch (Throwable t) {
       throw new GdxRuntimeException("Couldn't read TXT", t);
     } finally {
-      IOUtils.closeQuietly(reader);
+      IOUtils.closeQuietly(in);
     }
-  }
 
-  private static String[] split(int len, String str, char token) {
-    StringBuilder builder = new StringBuilder(32);
-    String[] tokens = new String[len];
-    char c;
-    int numTokens = 0;
-    final int strLen = str.length();
-    for (int i = 0; i < strLen; i++) {
-      c = str.charAt(i);
-      if (c == token) {
-        tokens[numTokens++] = builder.toString();
-        builder.setLength(0);
-      } else {
-        builder.append(c);
-      }
-    }
-    if (numTokens < len) Arrays.fill(tokens, numTokens, len, StringUtils.EMPTY);
-    return tokens;
+    return loadFromBytes(bytes);
   }
 
-  // Older method
+  /**
+   * @deprecated use {@link #loadFromStream(InputStream)}
+   */
   @Deprecated
   public static TXT loadFromStream2(InputStream in) {
-    BufferedReader reader = null;
+    return loadFromStream(in);
+  }
+
+  /**
+   * Tokenizes {@code bytes}, which is retained. Lines are terminated by {@code \n}, {@code \r} or
+   * {@code \r\n}. The first line names the columns, names are case-insensitive and only the first
+   * of duplicate names can be looked up. Lines without a cell for every column are skipped.
+   */
+  public static TXT loadFromBytes(byte[] bytes) {
     try {
-      reader = IOUtils.buffer(new InputStreamReader(in, "US-ASCII"));
+      final int length = bytes.length;
+      int headerEnd = 0;
+      while (headerEnd < length && bytes[headerEnd] != '\n' && bytes[headerEnd] != '\r') headerEnd++;
+      // trailing empty names are dropped, as String#split
+      String[] columnNames = new String(bytes, 0, headerEnd, StandardCharsets.US_ASCII).split("\t");
       ObjectIntMap<String> columns = new ObjectIntMap<>();
-      String[] columnNames = reader.readLine().split("\t");
       for (int i = 0; i < columnNames.length; i++) {
         String key = columnNames[i].toLowerCase();
         if (!columns.containsKey(key)) columns.put(key, i);
@@ -220,32 +250,63 @@ public class TXT {
         String[] colNames = new String[columns.size];
         for (int i = 0, j = 0; i < columnNames.length; i++) {
           String columnName = columnNames[i];
-          if (!duplicates.add(columnName)) {
-            continue;
-          }
-
+          if (!duplicates.add(columnName)) continue;
           colNames[j++] = columnName;
         }
         Gdx.app.debug(TAG, "cols=" + Arrays.toString(colNames));
       }
 
-      Array<String[]> data = new Array<>(String[].class);
-      for (String line; (line = reader.readLine()) != null;) {
-        String[] tmp = line.split("\t", -1);
-        if (tmp.length != columnNames.length) {
-          if (DEBUG_ROWS) Gdx.app.debug(TAG, "Skipping row " + Arrays.toString(tmp));
-          continue;
+      final int numColumns = columnNames.length;
+      final int stride = numColumns + 1;
+      int numLines = 1;
+      for (int i = headerEnd; i < length; i++) {
+        // \r\n is a single terminator, see skipLineTerminator
+        if (bytes[i] == '\n' || (bytes[i] == '\r' && (i + 1 == length || bytes[i + 1] != '\n'))) numLines++;
+      }
+
+      int[] cells = new int[numLines * stride];
+      int rows = 0;
+      int i = skipLineTerminator(bytes, headerEnd);
+      while (i < length) {
+        final int row = rows * stride;
+        int col = 0;
+        cells[row] = i;
+        for (; i < length && bytes[i] != '\n' && bytes[i] != '\r'; i++) {
+          if (bytes[i] == '\t' && ++col < numColumns) cells[row + col] = i + 1;
+        }
+
+        if (col == numColumns - 1) {
+          cells[row + numColumns] = i + 1;
+          rows++;
+        } else if (DEBUG_ROWS) {
+          Gdx.app.debug(TAG, "Skipping row " + new String(bytes, cells[row], i - cells[row], StandardCharsets.US_ASCII));
         }
 
-        data.add(tmp);
-        if (DEBUG_ROWS) Gdx.app.debug(TAG, data.size - 1 + ": " + Arrays.toString(tmp));
+        i = skipLineTerminator(bytes, i);
+      }
+
+      TXT txt = new TXT(columns, bytes, cells, stride, rows);
+      if (DEBUG_ROWS) {
+        for (int row = 0; row < rows; row++) {
+          Gdx.app.debug(TAG, row + ": " + Arrays.toString(txt.getString(row, txt.allColumns())));
+        }
       }
 
-      return new TXT(columns, data);
+      return txt;
     } catch (Throwable t) {
       throw new GdxRuntimeException("Couldn't read TXT", t);
-    } finally {
-      IOUtils.closeQuietly(reader);
     }
   }
+
+  private static int skipLineTerminator(byte[] bytes, int i) {
+    if (i < bytes.length && bytes[i] == '\r') i++;
+    if (i < bytes.length && bytes[i] == '\n') i++;
+    return i;
+  }
+
+  private int[] allColumns() {
+    int[] cols = new int[stride - 1];
+    for (int i = 0; i < cols.length; i++) cols[i] = i;
+    return cols;
+  }
 }
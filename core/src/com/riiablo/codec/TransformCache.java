@@ -0,0 +1,311 @@
+package com.riiablo.codec;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.graphics.Texture;
+import com.badlogic.gdx.graphics.g2d.TextureRegion;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.Disposable;
+import com.badlogic.gdx.utils.IntMap;
+import com.badlogic.gdx.utils.ObjectMap;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+import java.nio.ByteBuffer;
+
+import com.riiablo.codec.util.Spans;
+import com.riiablo.graphics.AtlasPacker;
+import com.riiablo.graphics.PaletteIndexedPixmap;
+
+/**
+ * Cache of {@link DC} frames with a colormap {@link Index transform} applied to their palette
+ * indexes on the CPU. Tinted items and monsters are then drawn from these variants like any other
+ * frame, instead of switching the colormap of the
+ * {@link com.riiablo.graphics.PaletteIndexedBatch batch}, which has to flush it every time.
+ * Variants are keyed by the {@link DC}, direction, frame, colormap and index within the colormap,
+ * and are packed into shared pages, see {@link AtlasPacker}, so that consecutive variants are
+ * drawn from the same texture.
+ * <p>
+ * Pages are reclaimed from the variants which were drawn the longest ago once the memory budget
+ * has been spent, never while one of their variants is being drawn in the current frame. At most
+ * {@link #getBuildBudget()} variants are built per frame, frames are drawn using the colormap of
+ * the batch until theirs has been built. All methods must be called from the render thread.
+ */
+public class TransformCache implements Disposable {
+  private static final String TAG = "TransformCache";
+  private static final boolean DEBUG = !true;
+
+  public static final int PAGE_SIZE = 512;
+
+  /** unused pixels between variants, avoids bleeding when variants are drawn scaled */
+  static final int PADDING = 1;
+
+  private final ObjectMap<Key, Variant> variants = new ObjectMap<>();
+  private final Key key = new Key();
+
+  final AtlasPacker<Variant> packer;
+  final IntMap<Texture> pages = new IntMap<>();
+
+  private int buildBudget;
+  private int built;
+
+  private int hits;
+  private int misses;
+
+  /**
+   * @param budget      maximum number of bytes of texture memory used by pages
+   * @param buildBudget maximum number of variants built per {@link #update()}
+   */
+  public TransformCache(long budget, int buildBudget) {
+    this(PAGE_SIZE, budget, buildBudget);
+  }
+
+  public TransformCache(int pageSize, long budget, int buildBudget) {
+    this.buildBudget = buildBudget;
+    packer = new AtlasPacker<>(pageSize, pageSize, FrameAtlas.maxPages(pageSize, budget), PADDING);
+    packer.setListener(new AtlasPacker.Listener<Variant>() {
+      @Override
+      public void evicted(AtlasPacker.Entry<Variant> entry) {
+        variants.remove(entry.owner().key);
+      }
+
+      @Override
+      public void discarded(AtlasPacker.Page<Variant> page) {
+        Texture texture = pages.remove(page.id());
+        if (texture != null) texture.dispose();
+      }
+    });
+  }
+
+  public long getBudget() {
+    return (long) packer.getMaxPages() * packer.getPageWidth() * packer.getPageHeight();
+  }
+
+  public void setBudget(long budget) {
+    packer.setMaxPages(FrameAtlas.maxPages(packer.getPageWidth(), budget));
+  }
+
+  public int getBuildBudget() {
+    return buildBudget;
+  }
+
+  public void setBuildBudget(int buildBudget) {
+    this.buildBudget = buildBudget;
+  }
+
+  /**
+   * Marks the start of a new frame.
+   */
+  public void update() {
+    packer.update();
+    built = 0;
+  }
+
+  /**
+   * Returns frame {@code f} of direction {@code d} of {@code dc} with index {@code id} of
+   * {@code colormap} applied, building it if needed. The returned region has the same size as the
+   * frame it was built from and is drawn at the same position. It is only valid until the next
+   * {@link #update()}.
+   *
+   * @return the variant, or {@code null} if the frame should be drawn using the colormap of the
+   *         batch instead
+   */
+  public TextureRegion get(DC dc, int d, int f, Index colormap, int id) {
+    if (packer.getMaxPages() == 0 || colormap == null || id <= 0) return null;
+    key.set(dc, d, f, colormap, id);
+    Variant variant = variants.get(key);
+    if (variant == null) {
+      misses++;
+      if (built >= buildBudget) return null;
+      variant = build(dc, d, f, colormap, id);
+      if (variant == null) return null;
+      built++;
+      variants.put(variant.key, variant);
+    } else {
+      hits++;
+      packer.touch(variant.entry);
+    }
+
+    return variant.region;
+  }
+
+  Variant build(DC dc, int d, int f, Index colormap, int id) {
+    // frames combined into pages have no frame of their own to remap
+    if (dc instanceof DC6 && (!dc.isLoaded(d) || dc.getNumPages(d) != dc.getNumFramesPerDir())) return null;
+    // only decoded directions are remapped, so building never stalls on decoding
+    if (!dc.isPreloaded(d)) return null;
+    Spans src = dc.getFrame(d, f).spans;
+    if (src == null) return null;
+
+    final int width = src.width, height = src.height;
+    Variant variant = new Variant(new Key().set(dc, d, f, colormap, id));
+    AtlasPacker.Entry<Variant> entry = variant.entry = packer.pack(variant, new int[] { width }, new int[] { height });
+    if (entry == null) {
+      if (DEBUG) Gdx.app.debug(TAG, "Couldn't pack " + variant);
+      return null;
+    }
+
+    PaletteIndexedPixmap pixmap = new PaletteIndexedPixmap(width, height);
+    try {
+      ByteBuffer pixels = pixmap.getPixels();
+      src.expand(pixels);
+      remap(pixels, pixels, width * height, colormap.get(id));
+      Texture page = page(entry.page());
+      page.draw(pixmap, entry.x(0), entry.y(0));
+      variant.region = new TextureRegion(page, entry.x(0), entry.y(0), width, height);
+    } finally {
+      pixmap.dispose();
+    }
+
+    if (DEBUG) Gdx.app.debug(TAG, "Built " + variant);
+    return variant;
+  }
+
+  Texture page(AtlasPacker.Page<Variant> page) {
+    Texture texture = pages.get(page.id());
+    if (texture == null) {
+      texture = FrameAtlas.newPage(packer.getPageWidth(), packer.getPageHeight());
+      pages.put(page.id(), texture);
+      if (DEBUG) Gdx.app.debug(TAG, "Created page " + page.id());
+    }
+
+    return texture;
+  }
+
+  /**
+   * Maps the first {@code size} palette indexes of {@code src} through {@code transform} into
+   * {@code dst}. Index {@code 0} is transparent and is never remapped, the same as when the
+   * colormap is applied by the shader. Neither buffer's position is changed.
+   */
+  static void remap(ByteBuffer src, ByteBuffer dst, int size, byte[] transform) {
+    for (int i = 0; i < size; i++) {
+      int index = src.get(i) & 0xFF;
+      dst.put(i, index == 0 ? 0 : transform[index]);
+    }
+  }
+
+  /**
+   * @see #remap(ByteBuffer, ByteBuffer, int, byte[])
+   */
+  static void remap(byte[] src, byte[] dst, byte[] transform) {
+    remap(ByteBuffer.wrap(src), ByteBuffer.wrap(dst), src.length, transform);
+  }
+
+  /**
+   * Removes all of the variants of {@code dc}, e.g., when it is disposed.
+   */
+  public void remove(DC dc) {
+    Array<Variant> removed = null;
+    for (Variant variant : variants.values()) {
+      if (variant.key.dc != dc) continue;
+      if (removed == null) removed = new Array<>();
+      removed.add(variant);
+    }
+
+    if (removed == null) return;
+    for (Variant variant : removed) {
+      variants.remove(variant.key);
+      packer.remove(variant.entry);
+    }
+  }
+
+  public int size() {
+    return variants.size;
+  }
+
+  /**
+   * Number of pages currently allocated.
+   */
+  public int numPages() {
+    return pages.size;
+  }
+
+  /**
+   * Number of bytes of texture memory allocated to variants, including padding.
+   */
+  public long used() {
+    return packer.used();
+  }
+
+  @Override
+  public void dispose() {
+    packer.clear();
+    variants.clear();
+    for (Texture texture : pages.values()) texture.dispose();
+    pages.clear();
+  }
+
+  @Override
+  public String toString() {
+    return new ToStringBuilder(this)
+        .append("variants", variants.size)
+        .append("pages", pages.size)
+        .append("used", used())
+        .append("budget", getBudget())
+        .append("hits", hits)
+        .append("misses", misses)
+        .toString();
+  }
+
+  static final class Key {
+    DC    dc;
+    int   d;
+    int   f;
+    Index colormap;
+    int   id;
+    int   hash;
+
+    Key set(DC dc, int d, int f, Index colormap, int id) {
+      this.dc = dc;
+      this.d = d;
+      this.f = f;
+      this.colormap = colormap;
+      this.id = id;
+      int hash = System.identityHashCode(dc);
+      hash = 31 * hash + d;
+      hash = 31 * hash + f;
+      hash = 31 * hash + System.identityHashCode(colormap);
+      hash = 31 * hash + id;
+      this.hash = hash;
+      return this;
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (obj == this) return true;
+      if (!(obj instanceof Key)) return false;
+      Key other = (Key) obj;
+      return hash == other.hash
+          && dc == other.dc
+          && d == other.d
+          && f == other.f
+          && colormap == other.colormap
+          && id == other.id;
+    }
+  }
+
+  static final class Variant {
+    final Key key;
+    AtlasPacker.Entry<Variant> entry;
+    TextureRegion region;
+
+    Variant(Key key) {
+      this.key = key;
+    }
+
+    @Override
+    public String toString() {
+      return new ToStringBuilder(this)
+          .append("dc", key.dc)
+          .append("d", key.d)
+          .append("f", key.f)
+          .append("colormap", key.colormap)
+          .append("id", key.id)
+          .toString();
+    }
+  }
+}
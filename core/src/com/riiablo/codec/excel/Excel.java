@@ -3,37 +3,34 @@ package com.riiablo.codec.excel;
 import android.support.annotation.CallSuper;
 
 import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.utils.Array;
 import com.badlogic.gdx.utils.GdxRuntimeException;
+import com.badlogic.gdx.utils.IntArray;
 import com.badlogic.gdx.utils.IntMap;
 import com.badlogic.gdx.utils.ObjectIntMap;
 import com.badlogic.gdx.utils.ObjectMap;
 import com.badlogic.gdx.utils.ObjectSet;
 import com.riiablo.codec.TXT;
-import com.riiablo.util.ClassUtils;
 
 import java.lang.annotation.ElementType;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 import java.lang.reflect.Field;
-import java.util.Arrays;
 import java.util.Iterator;
 
 public abstract class Excel<T extends Excel.Entry> implements Iterable<T> {
   public static final String TAG = "Excel";
 
   private static final boolean DEBUG         = !true;
-  private static final boolean DEBUG_COLS    = DEBUG && !true;
-  private static final boolean DEBUG_COL_IDS = DEBUG && !true;
   private static final boolean DEBUG_IGNORED = DEBUG && !true;
   private static final boolean DEBUG_ENTRIES = DEBUG && !true;
   private static final boolean DEBUG_INDEXES = DEBUG && !true;
-  private static final boolean DEBUG_KEY     = DEBUG && true;
-
-  private static final boolean FORCE_PRIMARY_KEY = false;
 
   private static final ObjectSet EMPTY_SET = new ObjectSet<>();
   private static final ObjectIntMap EMPTY_MAP = new ObjectIntMap<>();
+  private static final ObjectMap<?, ?> EMPTY_INDEXES = new ObjectMap<>();
+  private static final Array<?> EMPTY_ARRAY = new Array<>(0);
 
   public static final ObjectSet<String> EXPANSION = ObjectSet.with("Expansion");
 
@@ -42,6 +39,11 @@ public abstract class Excel<T extends Excel.Entry> implements Iterable<T> {
     return (ObjectSet<T>) EMPTY_SET;
   }
 
+  @SuppressWarnings("unchecked")
+  private static <T> ObjectMap<String, ObjectMap<Object, Array<T>>> emptyIndexes() {
+    return (ObjectMap<String, ObjectMap<Object, Array<T>>>) EMPTY_INDEXES;
+  }
+
   @Target(ElementType.TYPE)
   @Retention(RetentionPolicy.RUNTIME)
   public @interface Index {}
@@ -65,205 +67,88 @@ public abstract class Excel<T extends Excel.Entry> implements Iterable<T> {
     @Target(ElementType.FIELD)
     @Retention(RetentionPolicy.RUNTIME)
     public @interface Key {}
+
+    /**
+     * Indexes entries by the values of a column, so that they can be looked up with
+     * {@link Excel#find(String, Object)}. Columns with the same index name share an index, e.g.,
+     * {@code type1} and {@code type2}, and every element of an array column is a key.
+     * Indexes are built once the table has been loaded.
+     */
+    @Target(ElementType.FIELD)
+    @Retention(RetentionPolicy.RUNTIME)
+    public @interface Indexed {
+      /** Name of the index, if not set, then field name is used */
+      String value() default "";
+    }
   }
 
   ObjectIntMap<String> STRING_TO_ID = EMPTY_MAP;
   IntMap<T> entries = new IntMap<>();
+  ObjectMap<String, ObjectMap<Object, Array<T>>> indexes = Excel.<T>emptyIndexes();
 
   @SuppressWarnings("unchecked")
   public static <T extends Excel> T parse(TXT txt, Class<T> excelClass) {
     return parse(txt, excelClass, Excel.<String>emptySet());
   }
 
-  @SuppressWarnings("unchecked")
+  /**
+   * Parses the rows of {@code txt} into a new instance of {@code excelClass}. Entries are
+   * populated by the {@link RowBinder} compiled for their class, which is only done the first time
+   * a class is parsed.
+   *
+   * @param ignore names of rows which are skipped
+   */
   public static <T extends Excel> T parse(TXT txt, Class<T> excelClass, ObjectSet<String> ignore) {
+    return parse(txt, excelClass, ignore, null, null);
+  }
+
+  /**
+   * Parses {@code txt} as {@link #parse(TXT, Class, ObjectSet)}, recording the row of each entry
+   * and the id it was put under into {@code rows} and {@code ids} if they are not {@code null}, in
+   * the order the entries were put. Entries put by {@link #init()} are not recorded.
+   *
+   * @see ExcelCache
+   */
+  @SuppressWarnings("unchecked")
+  static <T extends Excel<?>> T parse(TXT txt, Class<T> excelClass, ObjectSet<String> ignore, IntArray rows, IntArray ids) {
     try {
       if (ignore == null) ignore = emptySet();
       Class<Entry> entryClass = getEntryClass(excelClass);
       if (entryClass == null) throw new AssertionError(excelClass + " does not implement " + Entry.class);
 
-      final boolean index = entryClass.getAnnotation(Index.class) != null;
-
-      Field primaryKey = null, firstKey = null;
-      T excel = excelClass.newInstance();
-      ObjectMap<Field, int[]> columns = new ObjectMap<>();
-      String[] TMP = new String[1];
-      for (Field field : entryClass.getFields()) {
-        Entry.Column column = field.getAnnotation(Entry.Column.class);
-        if (column == null) continue;
-
-        Entry.Key key = field.getAnnotation(Entry.Key.class);
-        if (key != null) {
-          if (index) {
-            Gdx.app.error(TAG, "primary key set in class annotated with " + Index.class);
-          } else if (primaryKey != null) {
-            boolean primaryDeclared = ClassUtils.isDeclaredField(entryClass, primaryKey);
-            boolean fieldDeclared = ClassUtils.isDeclaredField(entryClass, field);
-            if (primaryDeclared != fieldDeclared) {
-              if (fieldDeclared) {
-                if (DEBUG_KEY) Gdx.app.debug(TAG, "primary key " + primaryKey.getName() + " -> " + field.getName());
-                primaryKey = field;
-              }
-            } else {
-              Gdx.app.error(TAG, "more than one primary key for " + entryClass + " " + primaryKey.getName() + " and " + field.getName());
-            }
-          } else {
-            primaryKey = field;
-          }
-        }
-
-        if (firstKey == null) firstKey = field;
-
-        final String format      = column.format();
-        final String values[]    = column.values();
-        final int    startIndex  = column.startIndex();
-        final int    endIndex    = column.endIndex();
-        final int    columnIndex = column.columnIndex();
-        if (columnIndex >= 0) {
-          columns.put(field, new int[] { columnIndex });
-        } else if (format.isEmpty()) {
-          final String fieldName = field.getName();
-          if (values.length > 0) {
-            String[] columnNames = new String[values.length];
-            for (int i = 0; i < values.length; i++) {
-              String name = values[i];
-              if (DEBUG_COLS) Gdx.app.debug(TAG, name);
-              columnNames[i] = name;
-            }
-
-            columns.put(field, txt.getColumnId(columnNames));
-          } else if (startIndex == 0 && endIndex == 0) {
-            if (DEBUG_COLS) Gdx.app.debug(TAG, fieldName);
-            TMP[0] = fieldName;
-            columns.put(field, txt.getColumnId(TMP));
-          } else {
-            String[] columnNames = new String[endIndex - startIndex];
-            for (int i = startIndex, j = 0; i < endIndex; i++, j++) {
-              String name = fieldName + i;
-              if (DEBUG_COLS) Gdx.app.debug(TAG, name);
-              columnNames[j] = name;
-            }
-
-            columns.put(field, txt.getColumnId(columnNames));
-          }
-        } else {
-          if (startIndex == 0 && endIndex == 0) {
-            TMP[0] = format;
-            columns.put(field, txt.getColumnId(TMP));
-          } else {
-            String[] columnNames = new String[endIndex - startIndex];
-            if (values.length == 0) {
-              for (int i = startIndex, j = 0; i < endIndex; i++, j++) {
-                String name = String.format(format, i);
-                if (DEBUG_COLS) Gdx.app.debug(TAG, name);
-                columnNames[j] = name;
-              }
-            } else {
-              for (int i = 0; i < values.length; i++) {
-                String name = String.format(format, values[i]);
-                if (DEBUG_COLS) Gdx.app.debug(TAG, name);
-                columnNames[i] = name;
-              }
-            }
-
-            columns.put(field, txt.getColumnId(columnNames));
-          }
-        }
-      }
-
-      if (primaryKey == null && !index) {
-        if (FORCE_PRIMARY_KEY) {
-          throw new IllegalStateException(entryClass + " does not have a " + Entry.Key.class + " set!");
-        } else {
-          primaryKey = firstKey;
-          Gdx.app.error(TAG, entryClass + " does not have a " + Entry.Key.class + " set! Using " + firstKey.getName());
-        }
-      }
-
-      if (DEBUG_COL_IDS) {
-        for (ObjectMap.Entry<Field, int[]> entry : columns.entries()) {
-          Gdx.app.debug(TAG, entry.key.getName() + ": " + Arrays.toString(entry.value));
-        }
-      }
-
-      final int primaryKeyCol = index ? -1 : columns.get(primaryKey)[0];
+      final RowBinder binder = RowBinder.get(entryClass);
+      final RowBinder.Bound bound = binder.bind(txt);
+      final boolean index = binder.index;
+      final Field primaryKey = binder.primaryKey;
+      final int primaryKeyCol = bound.primaryKeyId;
       final Class primaryKeyType = index ? null : primaryKey.getType();
+
+      T instance = excelClass.getConstructor().newInstance();
+      // entries are instances of the entry class of excelClass
+      final Excel<Entry> excel = (Excel<Entry>) instance;
       final int size = txt.getRows();
       for (int i = 0, j = excel.offset(); i < size; i++) {
-        Entry entry = entryClass.newInstance();
-
         String rowName = txt.getRowName(i);
         if (ignore.contains(rowName)) {
           if (DEBUG_IGNORED) Gdx.app.debug(TAG, "Skipping row " + i + ", ignoring rows named " + rowName);
           continue;
         }
 
+        Entry entry = binder.newEntry();
         String name = index ? null : txt.getString(i, primaryKeyCol);
-        for (ObjectMap.Entry<Field, int[]> row : columns.entries()) {
-          Field field = row.key;
-          int[] columnIds = row.value;
-          Class type = field.getType();
-          assert type.isArray() || columnIds.length == 1 : "field should only correspond to 1 column: " + field.getName() + ", " + columnIds.length + " columns (is it supposed to be an array?)";
-          if (type == String.class) {
-            String value = txt.getString(i, columnIds[0]);
-            field.set(entry, value);
-            if (DEBUG_ENTRIES) Gdx.app.debug(TAG, String.format("Entry[%d](%s).%s=%s", j, name, field.getName(), value));
-          } else if (type == String[].class) {
-            String[] value = txt.getString(i, columnIds);
-            field.set(entry, value);
-            if (DEBUG_ENTRIES) Gdx.app.debug(TAG, String.format("Entry[%d](%s).%s=%s", j, name, field.getName(), Arrays.toString(value)));
-          } else if (type == byte.class) {
-            byte value = txt.getByte(i, columnIds[0]);
-            field.setByte(entry, value);
-            if (DEBUG_ENTRIES) Gdx.app.debug(TAG, String.format("Entry[%d](%s).%s=%s", j, name, field.getName(), value));
-          } else if (type == byte[].class) {
-            byte[] value = txt.getByte(i, columnIds);
-            field.set(entry, value);
-            if (DEBUG_ENTRIES) Gdx.app.debug(TAG, String.format("Entry[%d](%s).%s=%s", j, name, field.getName(), Arrays.toString(value)));
-          } else if (type == short.class) {
-            short value = txt.getShort(i, columnIds[0]);
-            field.setShort(entry, value);
-            if (DEBUG_ENTRIES) Gdx.app.debug(TAG, String.format("Entry[%d](%s).%s=%s", j, name, field.getName(), value));
-          } else if (type == short[].class) {
-            short[] value = txt.getShort(i, columnIds);
-            field.set(entry, value);
-            if (DEBUG_ENTRIES) Gdx.app.debug(TAG, String.format("Entry[%d](%s).%s=%s", j, name, field.getName(), Arrays.toString(value)));
-          } else if (type == int.class) {
-            int value = txt.getInt(i, columnIds[0]);
-            field.setInt(entry, value);
-            if (DEBUG_ENTRIES) Gdx.app.debug(TAG, String.format("Entry[%d](%s).%s=%s", j, name, field.getName(), value));
-          } else if (type == int[].class) {
-            int[] value = txt.getInt(i, columnIds);
-            field.set(entry, value);
-            if (DEBUG_ENTRIES) Gdx.app.debug(TAG, String.format("Entry[%d](%s).%s=%s", j, name, field.getName(), Arrays.toString(value)));
-          } else if (type == long.class) {
-            long value = txt.getLong(i, columnIds[0]);
-            field.setLong(entry, value);
-            if (DEBUG_ENTRIES) Gdx.app.debug(TAG, String.format("Entry[%d](%s).%s=%s", j, name, field.getName(), value));
-          } else if (type == long[].class) {
-            long[] value = txt.getLong(i, columnIds);
-            field.set(entry, value);
-            if (DEBUG_ENTRIES) Gdx.app.debug(TAG, String.format("Entry[%d](%s).%s=%s", j, name, field.getName(), Arrays.toString(value)));
-          } else if (type == boolean.class) {
-            boolean value = txt.getBoolean(i, columnIds[0]);
-            field.setBoolean(entry, value);
-            if (DEBUG_ENTRIES) Gdx.app.debug(TAG, String.format("Entry[%d](%s).%s=%s", j, name, field.getName(), value));
-          } else if (type == boolean[].class) {
-            boolean[] value = txt.getBoolean(i, columnIds);
-            field.set(entry, value);
-            if (DEBUG_ENTRIES) Gdx.app.debug(TAG, String.format("Entry[%d](%s).%s=%s", j, name, field.getName(), Arrays.toString(value)));
-          } else {
-            throw new UnsupportedOperationException("No support for " + type + " fields");
-          }
-        }
+        bound.bind(entry, txt, i);
+        if (DEBUG_ENTRIES) Gdx.app.debug(TAG, String.format("Entry[%d](%s)=%s", j, name, entry));
 
         if (index) {
+          if (rows != null) record(rows, ids, i, j);
           excel.put(j++, entry);
         } else if (primaryKeyType == int.class) {
           int id = primaryKey.getInt(entry);
+          if (rows != null) record(rows, ids, i, id);
           excel.put(id, entry);
         } else if (primaryKeyType == String.class) {
           String id = name;//(String) primaryKey.get(entry);
+          if (rows != null) record(rows, ids, i, j);
           excel.put(j, entry);
 
           if (excel.STRING_TO_ID == EMPTY_MAP) excel.STRING_TO_ID = new ObjectIntMap();
@@ -273,14 +158,20 @@ public abstract class Excel<T extends Excel.Entry> implements Iterable<T> {
       }
 
       excel.init();
-      return excel;
+      excel.buildIndexes(binder);
+      return instance;
     } catch (Throwable t) {
       throw new GdxRuntimeException("Couldn't load excel " + excelClass, t);
     }
   }
 
+  private static void record(IntArray rows, IntArray ids, int row, int id) {
+    rows.add(row);
+    ids.add(id);
+  }
+
   @SuppressWarnings("unchecked")
-  private static Class<Entry> getEntryClass(Class excelClass) {
+  static Class<Entry> getEntryClass(Class excelClass) {
     Class[] declaredClasses = excelClass.getDeclaredClasses();
     for (Class declaredClass : declaredClasses) {
       if (Entry.class.isAssignableFrom(declaredClass)) {
@@ -303,6 +194,110 @@ public abstract class Excel<T extends Excel.Entry> implements Iterable<T> {
 
   protected void init() {}
 
+  /**
+   * Builds the {@link Entry.Indexed indexes} of this table. Each index lists its entries in
+   * ascending order of their ids, once even if they were put under several ids.
+   */
+  @SuppressWarnings("unchecked")
+  void buildIndexes(RowBinder binder) throws IllegalAccessException {
+    final String[] names = binder.indexNames;
+    if (names.length == 0) return;
+
+    final ObjectMap<Object, Array<T>>[] indexes = (ObjectMap<Object, Array<T>>[]) new ObjectMap<?, ?>[names.length];
+    this.indexes = new ObjectMap<>(names.length);
+    for (int i = 0; i < names.length; i++) this.indexes.put(names[i], indexes[i] = new ObjectMap<>());
+
+    final IntArray ids = entries.keys().toArray();
+    ids.sort();
+    final ObjectSet<T> indexed = new ObjectSet<>(ids.size);
+    for (int i = 0; i < ids.size; i++) {
+      final T entry = entries.get(ids.items[i]);
+      if (!indexed.add(entry)) continue;
+      for (int j = 0; j < names.length; j++) {
+        for (Field field : binder.indexFields[j]) {
+          Object value = field.get(entry);
+          if (value == null) continue;
+          if (value.getClass().isArray()) {
+            for (int k = 0, length = java.lang.reflect.Array.getLength(value); k < length; k++) {
+              addToIndex(indexes[j], java.lang.reflect.Array.get(value, k), entry);
+            }
+          } else {
+            addToIndex(indexes[j], value, entry);
+          }
+        }
+      }
+    }
+  }
+
+  private static <T> void addToIndex(ObjectMap<Object, Array<T>> index, Object key, T entry) {
+    if (key == null) return;
+    key = normalize(key);
+    Array<T> entries = index.get(key);
+    if (entries == null) index.put(key, entries = new Array<>(4));
+    // entries are added one at a time, so a key repeated within an entry is always the last
+    if (entries.size == 0 || entries.peek() != entry) entries.add(entry);
+  }
+
+  /**
+   * Byte and short keys are boxed as integers, so that index keys are equal whatever the type of
+   * their column is.
+   */
+  private static Object normalize(Object key) {
+    if (key instanceof Byte || key instanceof Short) return ((Number) key).intValue();
+    return key;
+  }
+
+  @SuppressWarnings("unchecked")
+  private ObjectMap<Object, Array<T>> getIndex(String index) {
+    ObjectMap<Object, Array<T>> entries = indexes.get(index);
+    if (entries == null) throw new IllegalArgumentException(getClass().getSimpleName() + " has no index named " + index);
+    return entries;
+  }
+
+  /**
+   * Returns the entries whose {@link Entry.Indexed indexed} columns named {@code index} contain
+   * {@code key}, in ascending order of their ids. The returned array is shared and must not be
+   * modified, nor iterated with its iterator from other threads than the render thread.
+   *
+   * @throws IllegalArgumentException if there is no index named {@code index}
+   */
+  @SuppressWarnings("unchecked")
+  public Array<T> find(String index, Object key) {
+    Array<T> entries = getIndex(index).get(normalize(key));
+    return entries != null ? entries : (Array<T>) EMPTY_ARRAY;
+  }
+
+  /**
+   * Adds the entries {@link #find(String, Object) found} for each of {@code keys} to {@code dst},
+   * e.g., the entries of every type an item type is equivalent to. Entries found for several keys,
+   * or already in {@code dst}, are only added once.
+   *
+   * @return {@code dst}
+   */
+  public Array<T> find(String index, Array<?> keys, Array<T> dst) {
+    final ObjectMap<Object, Array<T>> entries = getIndex(index);
+    final ObjectSet<T> added = new ObjectSet<>(dst.size + 16);
+    for (int i = 0; i < dst.size; i++) added.add(dst.get(i));
+    for (int i = 0; i < keys.size; i++) {
+      Array<T> found = entries.get(normalize(keys.get(i)));
+      if (found == null) continue;
+      for (int j = 0; j < found.size; j++) {
+        T entry = found.get(j);
+        if (added.add(entry)) dst.add(entry);
+      }
+    }
+
+    return dst;
+  }
+
+  /**
+   * Returns the first entry {@link #find(String, Object) found}, or {@code null} if there is none.
+   */
+  public T first(String index, Object key) {
+    Array<T> entries = getIndex(index).get(normalize(key));
+    return entries != null ? entries.first() : null;
+  }
+
   public T get(String id) {
     return get(index(id));
   }
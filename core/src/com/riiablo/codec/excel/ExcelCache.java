@@ -0,0 +1,495 @@
+package com.riiablo.codec.excel;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.IntArray;
+import com.badlogic.gdx.utils.ObjectIntMap;
+import com.badlogic.gdx.utils.ObjectSet;
+import com.riiablo.codec.TXT;
+import com.riiablo.mpq.DiskCache;
+import com.riiablo.util.CacheUtils;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Cache of parsed {@link Excel} tables on local disk, so that tables only need to be tokenized
+ * and parsed the first time they are loaded. Each table is stored as a snapshot under
+ * {@code <dir>/<key>-<schema>.bin}, where the key is that of its TXT within the {@link DiskCache},
+ * and the schema is a hash of the {@link Excel.Entry.Column columns} of the table and of the rows
+ * it ignores, so changing either misses as well, without ever replacing the snapshot of another
+ * schema. A table whose snapshot cannot be read is parsed and written again. All methods are
+ * thread-safe.
+ * <p>
+ * Snapshots are little-endian and read in a single pass. Values are stored column by column,
+ * strings are stored once in a pool and referenced by index, and the id each entry was put under
+ * is stored, so loading a snapshot only assigns fields and puts the entries:
+ * <pre>
+ * int  magic, version, schema, numRows, numColumns, numStrings, numKeys
+ * int  kind, length                    (numColumns times, length is the values per row)
+ * int  size; byte utf8                 (numStrings times)
+ * ?    values                          (numColumns times, numRows * length values each, strings
+ *                                       and null strings as their index in the pool or -1)
+ * int  ids[numRows]
+ * int  string, id                      (numKeys times, see {@link Excel#index(String)})
+ * </pre>
+ */
+public class ExcelCache {
+  private static final String TAG = "ExcelCache";
+  private static final boolean DEBUG = !true;
+
+  static final int MAGIC   = 0x534C5852; // RXLS
+  static final int VERSION = 1;
+
+  static final int HEADER_SIZE = 7 * 4;
+  static final int COLUMN_SIZE = 2 * 4;
+
+  private final FileHandle dir;
+
+  private final AtomicLong hits   = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong writes = new AtomicLong();
+
+  public ExcelCache(FileHandle dir) {
+    this.dir = dir;
+  }
+
+  public FileHandle dir() {
+    return dir;
+  }
+
+  /**
+   * Returns the key which the table read from {@code handle} is cached under, see
+   * {@link DiskCache#key(FileHandle)}, or {@code null} if {@code handle} cannot be cached.
+   */
+  public String key(FileHandle handle) {
+    return DiskCache.key(handle);
+  }
+
+  File file(String key, int schema) {
+    return new File(dir.file(), key + '-' + String.format("%08x", schema) + ".bin");
+  }
+
+  static int schema(Class<?> excelClass, ObjectSet<String> ignore) {
+    return schema(excelClass, RowBinder.get(Excel.getEntryClass(excelClass)), ignore);
+  }
+
+  /**
+   * Loads the table cached under {@code key}.
+   *
+   * @param ignore names of rows which were skipped when the table was parsed
+   * @return the table, or {@code null} if it is not cached or the snapshot is stale
+   */
+  public <T extends Excel<?>> T read(String key, Class<T> excelClass, ObjectSet<String> ignore) {
+    File file = file(key, schema(excelClass, ignore));
+    if (!file.isFile()) {
+      misses.incrementAndGet();
+      return null;
+    }
+
+    try {
+      T excel = read(CacheUtils.read(file), excelClass, ignore);
+      if (excel == null) {
+        if (DEBUG) Gdx.app.debug(TAG, "Ignoring stale " + file);
+        misses.incrementAndGet();
+        return null;
+      }
+
+      hits.incrementAndGet();
+      if (DEBUG) Gdx.app.debug(TAG, "Read " + file);
+      return excel;
+    } catch (IOException e) {
+      Gdx.app.error(TAG, "Unable to read " + file, e);
+      misses.incrementAndGet();
+      return null;
+    }
+  }
+
+  /**
+   * Loads the table in {@code buffer}, validating the whole snapshot before creating any entries.
+   *
+   * @return the table, or {@code null} if the snapshot is not a valid snapshot of
+   *         {@code excelClass}
+   */
+  @SuppressWarnings("unchecked")
+  static <T extends Excel<?>> T read(ByteBuffer buffer, Class<T> excelClass, ObjectSet<String> ignore) {
+    final RowBinder binder = RowBinder.get(Excel.getEntryClass(excelClass));
+    final RowBinder.Column[] columns = binder.columns;
+    if (buffer.remaining() < HEADER_SIZE + columns.length * COLUMN_SIZE) return null;
+    if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) return null;
+    if (buffer.getInt() != schema(excelClass, binder, ignore)) return null;
+    final int numRows    = buffer.getInt();
+    final int numColumns = buffer.getInt();
+    final int numStrings = buffer.getInt();
+    final int numKeys    = buffer.getInt();
+    if (numRows < 0 || numColumns != columns.length || numStrings < 0 || numKeys < 0) return null;
+    if (numStrings > buffer.remaining() >> 2) return null;
+
+    final int[] lengths = new int[numColumns];
+    long size = 0;
+    for (int c = 0; c < numColumns; c++) {
+      if (buffer.getInt() != columns[c].kind) return null;
+      int length = lengths[c] = buffer.getInt();
+      if (length < 0 || (length != 1 && !isArray(columns[c].kind))) return null;
+      size += (long) numRows * length * width(columns[c].kind);
+    }
+
+    final String[] strings = new String[numStrings];
+    for (int i = 0; i < numStrings; i++) {
+      if (buffer.remaining() < 4) return null;
+      int length = buffer.getInt();
+      if (length < 0 || length > buffer.remaining()) return null;
+      byte[] utf8 = new byte[length];
+      buffer.get(utf8);
+      strings[i] = new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    if (buffer.remaining() != size + ((long) numRows << 2) + ((long) numKeys << 3)) return null;
+
+    final int values = buffer.position();
+    for (int c = 0; c < numColumns; c++) {
+      final int kind = columns[c].kind;
+      if (kind != RowBinder.STRING && kind != RowBinder.STRING_ARRAY) {
+        buffer.position(buffer.position() + numRows * lengths[c] * width(kind));
+        continue;
+      }
+
+      for (int i = 0, n = numRows * lengths[c]; i < n; i++) {
+        int string = buffer.getInt();
+        if (string < -1 || string >= numStrings) return null;
+      }
+    }
+
+    final int[] ids = new int[numRows];
+    for (int r = 0; r < numRows; r++) ids[r] = buffer.getInt();
+
+    final ObjectIntMap<String> stringToId = new ObjectIntMap<>(numKeys);
+    for (int i = 0; i < numKeys; i++) {
+      int string = buffer.getInt();
+      if (string < 0 || string >= numStrings) return null;
+      stringToId.put(strings[string], buffer.getInt());
+    }
+
+    try {
+      final Excel.Entry[] entries = new Excel.Entry[numRows];
+      for (int r = 0; r < numRows; r++) entries[r] = binder.newEntry();
+
+      buffer.position(values);
+      for (int c = 0; c < numColumns; c++) {
+        read(buffer, columns[c], lengths[c], strings, entries);
+      }
+
+      T excel = excelClass.getConstructor().newInstance();
+      // entries are instances of the entry class of excelClass
+      final Excel<Excel.Entry> table = (Excel<Excel.Entry>) excel;
+      if (numKeys > 0) table.STRING_TO_ID = stringToId;
+      for (int r = 0; r < numRows; r++) table.put(ids[r], entries[r]);
+      table.init();
+      table.buildIndexes(binder);
+      return excel;
+    } catch (ReflectiveOperationException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  private static void read(ByteBuffer buffer, RowBinder.Column column, int length, String[] strings, Excel.Entry[] entries)
+      throws IllegalAccessException {
+    final Field field = column.field;
+    switch (column.kind) {
+      case RowBinder.STRING:
+        for (Excel.Entry entry : entries) field.set(entry, string(strings, buffer.getInt()));
+        break;
+      case RowBinder.STRING_ARRAY:
+        for (Excel.Entry entry : entries) {
+          String[] value = new String[length];
+          for (int i = 0; i < length; i++) value[i] = string(strings, buffer.getInt());
+          field.set(entry, value);
+        }
+        break;
+      case RowBinder.BYTE:
+        for (Excel.Entry entry : entries) field.setByte(entry, buffer.get());
+        break;
+      case RowBinder.BYTE_ARRAY:
+        for (Excel.Entry entry : entries) {
+          byte[] value = new byte[length];
+          buffer.get(value);
+          field.set(entry, value);
+        }
+        break;
+      case RowBinder.SHORT:
+        for (Excel.Entry entry : entries) field.setShort(entry, buffer.getShort());
+        break;
+      case RowBinder.SHORT_ARRAY:
+        for (Excel.Entry entry : entries) {
+          short[] value = new short[length];
+          buffer.asShortBuffer().get(value);
+          buffer.position(buffer.position() + (length << 1));
+          field.set(entry, value);
+        }
+        break;
+      case RowBinder.INT:
+        for (Excel.Entry entry : entries) field.setInt(entry, buffer.getInt());
+        break;
+      case RowBinder.INT_ARRAY:
+        for (Excel.Entry entry : entries) {
+          int[] value = new int[length];
+          buffer.asIntBuffer().get(value);
+          buffer.position(buffer.position() + (length << 2));
+          field.set(entry, value);
+        }
+        break;
+      case RowBinder.LONG:
+        for (Excel.Entry entry : entries) field.setLong(entry, buffer.getLong());
+        break;
+      case RowBinder.LONG_ARRAY:
+        for (Excel.Entry entry : entries) {
+          long[] value = new long[length];
+          buffer.asLongBuffer().get(value);
+          buffer.position(buffer.position() + (length << 3));
+          field.set(entry, value);
+        }
+        break;
+      case RowBinder.BOOLEAN:
+        for (Excel.Entry entry : entries) field.setBoolean(entry, buffer.get() != 0);
+        break;
+      case RowBinder.BOOLEAN_ARRAY:
+        for (Excel.Entry entry : entries) {
+          boolean[] value = new boolean[length];
+          for (int i = 0; i < length; i++) value[i] = buffer.get() != 0;
+          field.set(entry, value);
+        }
+        break;
+      default:
+        throw new AssertionError(column.kind);
+    }
+  }
+
+  private static String string(String[] strings, int string) {
+    return string == -1 ? null : strings[string];
+  }
+
+  /**
+   * Writes the snapshot of {@code excel}, which was parsed from {@code txt} with
+   * {@link Excel#parse(TXT, Class, ObjectSet, IntArray, IntArray)} recording its {@code rows} and
+   * {@code ids}, into the cache under {@code key}, replacing any invalid snapshot.
+   */
+  public void write(String key, TXT txt, Excel<?> excel, ObjectSet<String> ignore, IntArray rows, IntArray ids) {
+    File file = file(key, schema(excel.getClass(), ignore));
+    try {
+      CacheUtils.write(file, write(txt, excel, ignore, rows, ids));
+      writes.incrementAndGet();
+      if (DEBUG) Gdx.app.debug(TAG, "Wrote " + file);
+    } catch (IOException e) {
+      Gdx.app.error(TAG, "Unable to write " + file, e);
+    }
+  }
+
+  /**
+   * Values are read from {@code txt} again rather than from the entries of {@code excel}, which
+   * {@link Excel#put} may have changed.
+   */
+  static ByteBuffer write(TXT txt, Excel<?> excel, ObjectSet<String> ignore, IntArray rows, IntArray ids) {
+    final Class<?> excelClass = excel.getClass();
+    final RowBinder binder = RowBinder.get(Excel.getEntryClass(excelClass));
+    final RowBinder.Bound bound = binder.bind(txt);
+    final RowBinder.Setter[] setters = bound.setters;
+    final int numRows = rows.size;
+
+    final ObjectIntMap<String> pool = new ObjectIntMap<>();
+    final Array<byte[]> strings = new Array<>(byte[].class);
+    int size = HEADER_SIZE + setters.length * COLUMN_SIZE + (numRows << 2);
+    for (int c = 0; c < setters.length; c++) {
+      RowBinder.Setter setter = setters[c];
+      int kind = binder.columns[c].kind;
+      int length = isArray(kind) ? setter.ids.length : 1;
+      size += numRows * length * width(kind);
+      if (kind != RowBinder.STRING && kind != RowBinder.STRING_ARRAY) continue;
+      for (int r = 0; r < numRows; r++) {
+        for (int i = 0; i < length; i++) {
+          size += intern(pool, strings, txt.getString(rows.items[r], id(setter, kind, i)));
+        }
+      }
+    }
+
+    final ObjectIntMap<String> stringToId = excel.STRING_TO_ID;
+    size += stringToId.size << 3;
+    if (stringToId.size > 0) {
+      for (ObjectIntMap.Entry<String> entry : stringToId.entries()) {
+        size += intern(pool, strings, entry.key);
+      }
+    }
+
+    ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    buffer
+        .putInt(MAGIC).putInt(VERSION).putInt(schema(excelClass, binder, ignore))
+        .putInt(numRows).putInt(setters.length).putInt(strings.size).putInt(stringToId.size);
+    for (int c = 0; c < setters.length; c++) {
+      int kind = binder.columns[c].kind;
+      buffer.putInt(kind).putInt(isArray(kind) ? setters[c].ids.length : 1);
+    }
+
+    for (byte[] utf8 : strings) buffer.putInt(utf8.length).put(utf8);
+    for (int c = 0; c < setters.length; c++) {
+      RowBinder.Setter setter = setters[c];
+      int kind = binder.columns[c].kind;
+      int length = isArray(kind) ? setter.ids.length : 1;
+      for (int r = 0; r < numRows; r++) {
+        final int row = rows.items[r];
+        for (int i = 0; i < length; i++) {
+          final int id = id(setter, kind, i);
+          switch (kind) {
+            case RowBinder.STRING:
+            case RowBinder.STRING_ARRAY:
+              String value = txt.getString(row, id);
+              buffer.putInt(value == null ? -1 : pool.get(value, -1));
+              break;
+            case RowBinder.BYTE:
+            case RowBinder.BYTE_ARRAY:
+              buffer.put(txt.getByte(row, id));
+              break;
+            case RowBinder.SHORT:
+            case RowBinder.SHORT_ARRAY:
+              buffer.putShort(txt.getShort(row, id));
+              break;
+            case RowBinder.INT:
+            case RowBinder.INT_ARRAY:
+              buffer.putInt(txt.getInt(row, id));
+              break;
+            case RowBinder.LONG:
+            case RowBinder.LONG_ARRAY:
+              buffer.putLong(txt.getLong(row, id));
+              break;
+            case RowBinder.BOOLEAN:
+            case RowBinder.BOOLEAN_ARRAY:
+              // same as TXT#getBoolean, which was already logged while parsing
+              buffer.put((byte) (txt.getInt(row, id) > 0 ? 1 : 0));
+              break;
+            default:
+              throw new AssertionError(kind);
+          }
+        }
+      }
+    }
+
+    for (int r = 0; r < numRows; r++) buffer.putInt(ids.items[r]);
+    if (stringToId.size > 0) {
+      for (ObjectIntMap.Entry<String> entry : stringToId.entries()) {
+        buffer.putInt(pool.get(entry.key, -1)).putInt(entry.value);
+      }
+    }
+
+    assert !buffer.hasRemaining();
+    buffer.flip();
+    return buffer;
+  }
+
+  private static int id(RowBinder.Setter setter, int kind, int i) {
+    return isArray(kind) ? setter.ids[i] : setter.id;
+  }
+
+  /**
+   * Adds {@code str} to the pool if it is not already in it.
+   *
+   * @return the number of bytes added to the snapshot
+   */
+  private static int intern(ObjectIntMap<String> pool, Array<byte[]> strings, String str) {
+    if (str == null || pool.containsKey(str)) return 0;
+    byte[] utf8 = str.getBytes(StandardCharsets.UTF_8);
+    pool.put(str, strings.size);
+    strings.add(utf8);
+    return 4 + utf8.length;
+  }
+
+  static boolean isArray(int kind) {
+    return (kind & 1) == 1;
+  }
+
+  static int width(int kind) {
+    switch (kind) {
+      case RowBinder.STRING:
+      case RowBinder.STRING_ARRAY:  return 4;
+      case RowBinder.BYTE:
+      case RowBinder.BYTE_ARRAY:    return 1;
+      case RowBinder.SHORT:
+      case RowBinder.SHORT_ARRAY:   return 2;
+      case RowBinder.INT:
+      case RowBinder.INT_ARRAY:     return 4;
+      case RowBinder.LONG:
+      case RowBinder.LONG_ARRAY:    return 8;
+      case RowBinder.BOOLEAN:
+      case RowBinder.BOOLEAN_ARRAY: return 1;
+      default: throw new AssertionError(kind);
+    }
+  }
+
+  /**
+   * Hash of everything a snapshot depends on besides the contents of its TXT: the classes of the
+   * table, the names and types of its columns, and the rows it ignores.
+   */
+  static int schema(Class<?> excelClass, RowBinder binder, ObjectSet<String> ignore) {
+    StringBuilder builder = new StringBuilder(1024)
+        .append(excelClass.getName()).append(';')
+        .append(binder.entryClass.getName()).append(';');
+    for (RowBinder.Column column : binder.columns) {
+      builder.append(column.field.getName()).append(':').append(column.kind).append('=');
+      if (column.names == null) {
+        builder.append('#').append(column.fixedId);
+      } else {
+        for (String name : column.names) builder.append(name).append(',');
+      }
+
+      builder.append(';');
+    }
+
+    if (ignore != null && ignore.size > 0) {
+      String[] ignored = new String[ignore.size];
+      int i = 0;
+      for (String name : ignore) ignored[i++] = name;
+      Arrays.sort(ignored);
+      for (String name : ignored) builder.append('!').append(name);
+    }
+
+    CRC32 crc = new CRC32();
+    crc.update(builder.toString().getBytes(StandardCharsets.UTF_8));
+    return (int) crc.getValue();
+  }
+
+  /**
+   * Deletes all cached tables.
+   */
+  public void clear() {
+    dir.deleteDirectory();
+  }
+
+  public long hits() {
+    return hits.get();
+  }
+
+  public long misses() {
+    return misses.get();
+  }
+
+  public long writes() {
+    return writes.get();
+  }
+
+  @Override
+  public String toString() {
+    return new ToStringBuilder(this)
+        .append("dir", dir)
+        .append("hits", hits)
+        .append("misses", misses)
+        .append("writes", writes)
+        .toString();
+  }
+}
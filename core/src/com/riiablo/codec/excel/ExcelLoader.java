@@ -0,0 +1,268 @@
+package com.riiablo.codec.excel;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.GdxRuntimeException;
+import com.badlogic.gdx.utils.IntArray;
+import com.badlogic.gdx.utils.ObjectSet;
+import com.riiablo.codec.TXT;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads {@link Excel} tables in parallel on a {@link ForkJoinPool}. Each table is read, tokenized
+ * and parsed by its own task. Tables which need other tables, e.g., {@link Sets}, which links the
+ * entries of {@link SetItems}, declare them as dependencies and are only started once those have
+ * been loaded, so no task ever blocks waiting for another. The time spent reading and parsing each
+ * table is recorded, see {@link Table}.
+ * <p>
+ * If an {@link ExcelCache} is set, tables are loaded from their snapshots when they are cached,
+ * skipping their TXTs entirely, and are written into it after being parsed otherwise.
+ * <p>
+ * Tables are {@link #add(Table) added} and the loader {@link #start() started} from a single
+ * thread, loaded tables are then retrieved with {@link Table#excel()}.
+ */
+public class ExcelLoader {
+  private static final String TAG = "ExcelLoader";
+  private static final boolean DEBUG = !true;
+
+  private final ForkJoinPool pool;
+  private final ExcelCache cache;
+  private final Array<Table<?>> tables = new Array<>();
+
+  private long started;
+  private long finished;
+
+  public ExcelLoader(ForkJoinPool pool) {
+    this(pool, null);
+  }
+
+  /**
+   * @param cache cache of table snapshots, or {@code null} to always parse tables
+   */
+  public ExcelLoader(ForkJoinPool pool, ExcelCache cache) {
+    this.pool = pool;
+    this.cache = cache;
+  }
+
+  public ExcelCache cache() {
+    return cache;
+  }
+
+  /**
+   * Adds a table read from {@code handle}.
+   *
+   * @param ignore       names of rows which are skipped, e.g., {@link Excel#EXPANSION}
+   * @param dependencies tables which must be loaded before this one
+   */
+  public <T extends Excel<?>> Table<T> add(Class<T> clazz, FileHandle handle, ObjectSet<String> ignore, Table<?>... dependencies) {
+    return add(new Table<>(clazz, handle, ignore, dependencies));
+  }
+
+  public <T extends Excel<?>> Table<T> add(Class<T> clazz, FileHandle handle) {
+    return add(clazz, handle, Excel.<String>emptySet());
+  }
+
+  public <T extends Excel<?>, E extends Table<T>> E add(E table) {
+    if (started != 0) throw new IllegalStateException("tables cannot be added once started");
+    if (table.loader != null) throw new IllegalArgumentException(table.name() + " has already been added");
+    for (Table<?> dependency : table.dependencies) {
+      if (dependency.loader != this) throw new IllegalArgumentException(dependency.name() + " must be added before " + table.name());
+      dependency.dependents.add(table);
+    }
+
+    table.loader = this;
+    tables.add(table);
+    return table;
+  }
+
+  /**
+   * Starts loading every table which has no dependencies, the others are started as their
+   * dependencies finish.
+   */
+  public ExcelLoader start() {
+    if (started != 0) throw new IllegalStateException("already started");
+    started = System.nanoTime();
+    for (Table<?> table : tables) {
+      if (table.dependencies.length == 0) pool.execute(table);
+    }
+
+    return this;
+  }
+
+  /**
+   * Waits until every table has been loaded.
+   *
+   * @throws GdxRuntimeException if any table could not be loaded
+   */
+  public ExcelLoader finish() {
+    if (started == 0) start();
+    for (Table<?> table : tables) table.excel();
+    if (finished == 0) finished = System.nanoTime();
+    if (DEBUG) Gdx.app.debug(TAG, toString());
+    return this;
+  }
+
+  public Array<Table<?>> tables() {
+    return tables;
+  }
+
+  /**
+   * Number of nanoseconds between {@link #start()} and the last table being loaded.
+   */
+  public long time() {
+    return finished - started;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder(64 + tables.size * 48)
+        .append(TAG).append('[')
+        .append("tables=").append(tables.size)
+        .append(",time=").append(TimeUnit.NANOSECONDS.toMillis(time())).append("ms");
+    for (Table<?> table : tables) builder.append("\n  ").append(table);
+    return builder.append(']').toString();
+  }
+
+  /**
+   * Task loading a single table. Override {@link #link(Excel)} to resolve references into the
+   * tables it depends on.
+   */
+  public static class Table<T extends Excel<?>> extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    final Class<T>          clazz;
+    final FileHandle        handle;
+    final ObjectSet<String> ignore;
+    final Table<?>[]        dependencies;
+    final Array<Table<?>>   dependents = new Array<>(false, 2);
+    final AtomicInteger     pending;
+
+    ExcelLoader loader;
+
+    // set before dependents are forked, which may be before this task is done
+    volatile T         excel;
+    volatile Throwable failure;
+
+    long    started;
+    long    read;
+    long    parsed;
+    boolean cached;
+
+    public Table(Class<T> clazz, FileHandle handle, ObjectSet<String> ignore, Table<?>... dependencies) {
+      this.clazz = clazz;
+      this.handle = handle;
+      this.ignore = ignore;
+      this.dependencies = dependencies;
+      this.pending = new AtomicInteger(dependencies.length);
+    }
+
+    public String name() {
+      return clazz.getSimpleName();
+    }
+
+    @Override
+    protected void compute() {
+      started = System.nanoTime();
+      try {
+        for (Table<?> dependency : dependencies) {
+          if (dependency.failure != null) {
+            throw new GdxRuntimeException("Couldn't load dependency " + dependency.name(), dependency.failure);
+          }
+        }
+
+        final ExcelCache cache = loader.cache;
+        final String key = cache != null ? cache.key(handle) : null;
+        T excel = key != null ? cache.read(key, clazz, ignore) : null;
+        if (excel != null) {
+          read = System.nanoTime();
+          cached = true;
+        } else if (key != null) {
+          TXT txt = TXT.loadFromFile(handle);
+          read = System.nanoTime();
+          IntArray rows = new IntArray(), ids = new IntArray();
+          excel = Excel.parse(txt, clazz, ignore, rows, ids);
+          cache.write(key, txt, excel, ignore, rows, ids);
+        } else {
+          TXT txt = TXT.loadFromFile(handle);
+          read = System.nanoTime();
+          excel = Excel.parse(txt, clazz, ignore);
+        }
+
+        link(excel);
+        parsed = System.nanoTime();
+        this.excel = excel;
+      } catch (Throwable t) {
+        failure = t;
+      } finally {
+        // dependents are always started, so they fail rather than never completing
+        for (Table<?> dependent : dependents) {
+          if (dependent.pending.decrementAndGet() == 0) dependent.fork();
+        }
+      }
+    }
+
+    /**
+     * Called once {@code excel} has been parsed, on the same thread. Every dependency has been
+     * loaded and can be retrieved with {@link #excel()}.
+     */
+    protected void link(T excel) {}
+
+    /**
+     * Waits until this table has been loaded and returns it.
+     *
+     * @throws GdxRuntimeException if it could not be loaded
+     */
+    public T excel() {
+      if (excel != null) return excel;
+      join();
+      if (failure != null) throw new GdxRuntimeException("Couldn't load " + name(), failure);
+      return excel;
+    }
+
+    /**
+     * Whether or not the table was loaded from its snapshot in the {@link ExcelCache}.
+     */
+    public boolean cached() {
+      return cached;
+    }
+
+    /**
+     * Number of nanoseconds spent reading and tokenizing the table, or loading its snapshot.
+     */
+    public long readTime() {
+      return read - started;
+    }
+
+    /**
+     * Number of nanoseconds spent parsing the table into entries, writing its snapshot, and
+     * linking it.
+     */
+    public long parseTime() {
+      return parsed - read;
+    }
+
+    /**
+     * Number of nanoseconds between the loader being started and this table being loaded.
+     */
+    public long loadedAfter() {
+      return parsed - loader.started;
+    }
+
+    @Override
+    public String toString() {
+      if (failure != null) return name() + "[failed]";
+      if (parsed == 0) return name() + "[pending]";
+      return name()
+          + "[read=" + TimeUnit.NANOSECONDS.toMicros(readTime()) + "us"
+          + ",parse=" + TimeUnit.NANOSECONDS.toMicros(parseTime()) + "us"
+          + ",loadedAfter=" + TimeUnit.NANOSECONDS.toMillis(loadedAfter()) + "ms"
+          + (cached ? ",cached" : "")
+          + "]";
+    }
+  }
+}
@@ -12,6 +12,7 @@ public class Levels extends Excel<Levels.Entry> {
     @Key
     public int     Id;
     @Column public int     Pal;
+    @Indexed
     @Column public int     Act;
     @Column public int     QuestFlag;
     @Column public int     QuestFlagEx;
@@ -16,6 +16,7 @@ public class LvlTypes extends Excel<LvlTypes.Entry> {
     @Column(format = "File %d", startIndex = 1, endIndex = 33)
     public String  File[];
     @Column public boolean Beta;
+    @Indexed
     @Column public int     Act;
     @Column public boolean Expansion;
   }
@@ -11,6 +11,7 @@ public class Quests extends Excel<Quests.Entry> {
     @Column
     public int     id;
     @Column public String  name;
+    @Indexed
     @Column public int     act;
     @Column public int     order;
     @Column public boolean visible;
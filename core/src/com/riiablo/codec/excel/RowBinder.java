@@ -0,0 +1,385 @@
+package com.riiablo.codec.excel;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.ObjectMap;
+import com.riiablo.codec.TXT;
+import com.riiablo.util.ClassUtils;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@link Excel.Entry.Column} mapping of an {@link Excel.Entry} class, compiled once per class into
+ * a plan of typed column setters. {@link Excel#parse} used to walk a map of fields for every row,
+ * dispatching on the type of each field for every cell; binding a {@link TXT} to the plan instead
+ * resolves the column ids of every setter once, and each setter then stores its cells with the
+ * primitive {@link Field} accessor of its type. Plans are cached and can be shared by tables
+ * parsed on different threads.
+ */
+final class RowBinder {
+  private static final String TAG = "RowBinder";
+  private static final boolean DEBUG      = !true;
+  private static final boolean DEBUG_COLS = DEBUG && !true;
+  private static final boolean DEBUG_KEY  = DEBUG && true;
+
+  private static final boolean FORCE_PRIMARY_KEY = false;
+
+  private static final ConcurrentHashMap<Class<?>, RowBinder> BINDERS = new ConcurrentHashMap<>();
+
+  static RowBinder get(Class<? extends Excel.Entry> entryClass) {
+    RowBinder binder = BINDERS.get(entryClass);
+    if (binder == null) {
+      binder = new RowBinder(entryClass);
+      RowBinder existing = BINDERS.putIfAbsent(entryClass, binder);
+      if (existing != null) binder = existing;
+    }
+
+    return binder;
+  }
+
+  final Class<? extends Excel.Entry> entryClass;
+  final Constructor<? extends Excel.Entry> constructor;
+
+  /** whether entries are indexed by row rather than by a primary key */
+  final boolean index;
+  final Field   primaryKey;
+
+  final Column[] columns;
+  final int      primaryKeyColumn;
+
+  /** names of the {@link Excel.Entry.Indexed indexes} and the fields each one is built from */
+  final String[]  indexNames;
+  final Field[][] indexFields;
+
+  RowBinder(Class<? extends Excel.Entry> entryClass) {
+    this.entryClass = entryClass;
+    try {
+      constructor = entryClass.getDeclaredConstructor();
+      constructor.setAccessible(true);
+    } catch (NoSuchMethodException e) {
+      throw new IllegalArgumentException(entryClass + " does not have a no-arg constructor", e);
+    }
+
+    index = entryClass.getAnnotation(Excel.Index.class) != null;
+
+    Field primaryKey = null, firstKey = null;
+    Array<Column> columns = new Array<>(Column.class);
+    ObjectMap<String, Array<Field>> indexes = new ObjectMap<>();
+    Array<String> indexNames = new Array<>(String.class);
+    for (Field field : entryClass.getFields()) {
+      Excel.Entry.Column column = field.getAnnotation(Excel.Entry.Column.class);
+      if (column == null) continue;
+
+      Excel.Entry.Indexed indexed = field.getAnnotation(Excel.Entry.Indexed.class);
+      if (indexed != null) {
+        String name = indexed.value().isEmpty() ? field.getName() : indexed.value();
+        Array<Field> fields = indexes.get(name);
+        if (fields == null) {
+          indexes.put(name, fields = new Array<>(Field.class));
+          indexNames.add(name);
+        }
+
+        fields.add(field);
+      }
+
+      Excel.Entry.Key key = field.getAnnotation(Excel.Entry.Key.class);
+      if (key != null) {
+        if (index) {
+          Gdx.app.error(TAG, "primary key set in class annotated with " + Excel.Index.class);
+        } else if (primaryKey != null) {
+          boolean primaryDeclared = ClassUtils.isDeclaredField(entryClass, primaryKey);
+          boolean fieldDeclared = ClassUtils.isDeclaredField(entryClass, field);
+          if (primaryDeclared != fieldDeclared) {
+            if (fieldDeclared) {
+              if (DEBUG_KEY) Gdx.app.debug(TAG, "primary key " + primaryKey.getName() + " -> " + field.getName());
+              primaryKey = field;
+            }
+          } else {
+            Gdx.app.error(TAG, "more than one primary key for " + entryClass + " " + primaryKey.getName() + " and " + field.getName());
+          }
+        } else {
+          primaryKey = field;
+        }
+      }
+
+      if (firstKey == null) firstKey = field;
+      columns.add(Column.of(field, column));
+    }
+
+    if (primaryKey == null && !index) {
+      if (FORCE_PRIMARY_KEY) {
+        throw new IllegalStateException(entryClass + " does not have a " + Excel.Entry.Key.class + " set!");
+      } else {
+        primaryKey = firstKey;
+        Gdx.app.error(TAG, entryClass + " does not have a " + Excel.Entry.Key.class + " set! Using " + firstKey.getName());
+      }
+    }
+
+    this.primaryKey = primaryKey;
+    this.columns = columns.toArray();
+
+    int primaryKeyColumn = -1;
+    if (!index) {
+      for (int i = 0; i < this.columns.length; i++) {
+        if (this.columns[i].field.equals(primaryKey)) {
+          primaryKeyColumn = i;
+          break;
+        }
+      }
+    }
+
+    this.primaryKeyColumn = primaryKeyColumn;
+
+    this.indexNames = indexNames.toArray();
+    this.indexFields = new Field[this.indexNames.length][];
+    for (int i = 0; i < this.indexNames.length; i++) {
+      this.indexFields[i] = indexes.get(this.indexNames[i]).toArray();
+    }
+  }
+
+  Excel.Entry newEntry() throws ReflectiveOperationException {
+    return constructor.newInstance();
+  }
+
+  /**
+   * Resolves the column ids of every setter within {@code txt}. Columns missing from {@code txt}
+   * are bound to {@code -1}, leaving their fields {@code null} or {@code 0}.
+   */
+  Bound bind(TXT txt) {
+    Setter[] setters = new Setter[columns.length];
+    for (int i = 0; i < columns.length; i++) {
+      Column column = columns[i];
+      int[] ids = column.ids(txt);
+      if (DEBUG_COLS) Gdx.app.debug(TAG, column.field.getName() + ": " + Arrays.toString(ids));
+      setters[i] = column.setter(ids);
+    }
+
+    int primaryKeyId = primaryKeyColumn >= 0 ? setters[primaryKeyColumn].ids[0] : -1;
+    return new Bound(setters, primaryKeyId);
+  }
+
+  static final class Bound {
+    final Setter[] setters;
+    final int      primaryKeyId;
+
+    Bound(Setter[] setters, int primaryKeyId) {
+      this.setters = setters;
+      this.primaryKeyId = primaryKeyId;
+    }
+
+    void bind(Excel.Entry entry, TXT txt, int row) throws IllegalAccessException {
+      for (Setter setter : setters) setter.set(entry, txt, row);
+    }
+  }
+
+  static final int STRING        = 0;
+  static final int STRING_ARRAY  = 1;
+  static final int BYTE          = 2;
+  static final int BYTE_ARRAY    = 3;
+  static final int SHORT         = 4;
+  static final int SHORT_ARRAY   = 5;
+  static final int INT           = 6;
+  static final int INT_ARRAY     = 7;
+  static final int LONG          = 8;
+  static final int LONG_ARRAY    = 9;
+  static final int BOOLEAN       = 10;
+  static final int BOOLEAN_ARRAY = 11;
+
+  static int kind(Class<?> type) {
+    if (type == String.class)    return STRING;
+    if (type == String[].class)  return STRING_ARRAY;
+    if (type == byte.class)      return BYTE;
+    if (type == byte[].class)    return BYTE_ARRAY;
+    if (type == short.class)     return SHORT;
+    if (type == short[].class)   return SHORT_ARRAY;
+    if (type == int.class)       return INT;
+    if (type == int[].class)     return INT_ARRAY;
+    if (type == long.class)      return LONG;
+    if (type == long[].class)    return LONG_ARRAY;
+    if (type == boolean.class)   return BOOLEAN;
+    if (type == boolean[].class) return BOOLEAN_ARRAY;
+    throw new UnsupportedOperationException("No support for " + type + " fields");
+  }
+
+  /**
+   * Field and the names of the columns it is read from, independent of any {@link TXT}.
+   */
+  static final class Column {
+    final Field    field;
+    final int      kind;
+    /** names of the columns, or {@code null} if {@link #fixedId} is set */
+    final String[] names;
+    final int      fixedId;
+
+    Column(Field field, String[] names, int fixedId) {
+      this.field = field;
+      this.kind = kind(field.getType());
+      this.names = names;
+      this.fixedId = fixedId;
+      assert field.getType().isArray() || fixedId >= 0 || names.length == 1
+          : "field should only correspond to 1 column: " + field.getName() + ", " + names.length + " columns (is it supposed to be an array?)";
+    }
+
+    static Column of(Field field, Excel.Entry.Column column) {
+      final String format      = column.format();
+      final String values[]    = column.values();
+      final int    startIndex  = column.startIndex();
+      final int    endIndex    = column.endIndex();
+      final int    columnIndex = column.columnIndex();
+      if (columnIndex >= 0) {
+        return new Column(field, null, columnIndex);
+      }
+
+      final String[] names;
+      if (format.isEmpty()) {
+        final String fieldName = field.getName();
+        if (values.length > 0) {
+          names = values.clone();
+        } else if (startIndex == 0 && endIndex == 0) {
+          names = new String[] { fieldName };
+        } else {
+          names = new String[endIndex - startIndex];
+          for (int i = startIndex, j = 0; i < endIndex; i++, j++) names[j] = fieldName + i;
+        }
+      } else if (startIndex == 0 && endIndex == 0) {
+        names = new String[] { format };
+      } else {
+        names = new String[endIndex - startIndex];
+        if (values.length == 0) {
+          for (int i = startIndex, j = 0; i < endIndex; i++, j++) names[j] = String.format(format, i);
+        } else {
+          for (int i = 0; i < values.length; i++) names[i] = String.format(format, values[i]);
+        }
+      }
+
+      if (DEBUG_COLS) Gdx.app.debug(TAG, field.getName() + ": " + Arrays.toString(names));
+      return new Column(field, names, -1);
+    }
+
+    int[] ids(TXT txt) {
+      return names == null ? new int[] { fixedId } : txt.getColumnId(names);
+    }
+
+    Setter setter(int[] ids) {
+      switch (kind) {
+        case STRING:        return new StringSetter(field, ids);
+        case STRING_ARRAY:  return new StringArraySetter(field, ids);
+        case BYTE:          return new ByteSetter(field, ids);
+        case BYTE_ARRAY:    return new ByteArraySetter(field, ids);
+        case SHORT:         return new ShortSetter(field, ids);
+        case SHORT_ARRAY:   return new ShortArraySetter(field, ids);
+        case INT:           return new IntSetter(field, ids);
+        case INT_ARRAY:     return new IntArraySetter(field, ids);
+        case LONG:          return new LongSetter(field, ids);
+        case LONG_ARRAY:    return new LongArraySetter(field, ids);
+        case BOOLEAN:       return new BooleanSetter(field, ids);
+        case BOOLEAN_ARRAY: return new BooleanArraySetter(field, ids);
+        default: throw new AssertionError(kind);
+      }
+    }
+  }
+
+  /**
+   * Stores the cells of a row into a field, bound to the column ids of a single {@link TXT}.
+   */
+  static abstract class Setter {
+    final Field field;
+    final int[] ids;
+    final int   id;
+
+    Setter(Field field, int[] ids) {
+      this.field = field;
+      this.ids = ids;
+      this.id = ids.length > 0 ? ids[0] : -1;
+    }
+
+    abstract void set(Excel.Entry entry, TXT txt, int row) throws IllegalAccessException;
+  }
+
+  static final class StringSetter extends Setter {
+    StringSetter(Field field, int[] ids) { super(field, ids); }
+    @Override void set(Excel.Entry entry, TXT txt, int row) throws IllegalAccessException {
+      field.set(entry, txt.getString(row, id));
+    }
+  }
+
+  static final class StringArraySetter extends Setter {
+    StringArraySetter(Field field, int[] ids) { super(field, ids); }
+    @Override void set(Excel.Entry entry, TXT txt, int row) throws IllegalAccessException {
+      field.set(entry, txt.getString(row, ids));
+    }
+  }
+
+  static final class ByteSetter extends Setter {
+    ByteSetter(Field field, int[] ids) { super(field, ids); }
+    @Override void set(Excel.Entry entry, TXT txt, int row) throws IllegalAccessException {
+      field.setByte(entry, txt.getByte(row, id));
+    }
+  }
+
+  static final class ByteArraySetter extends Setter {
+    ByteArraySetter(Field field, int[] ids) { super(field, ids); }
+    @Override void set(Excel.Entry entry, TXT txt, int row) throws IllegalAccessException {
+      field.set(entry, txt.getByte(row, ids));
+    }
+  }
+
+  static final class ShortSetter extends Setter {
+    ShortSetter(Field field, int[] ids) { super(field, ids); }
+    @Override void set(Excel.Entry entry, TXT txt, int row) throws IllegalAccessException {
+      field.setShort(entry, txt.getShort(row, id));
+    }
+  }
+
+  static final class ShortArraySetter extends Setter {
+    ShortArraySetter(Field field, int[] ids) { super(field, ids); }
+    @Override void set(Excel.Entry entry, TXT txt, int row) throws IllegalAccessException {
+      field.set(entry, txt.getShort(row, ids));
+    }
+  }
+
+  static final class IntSetter extends Setter {
+    IntSetter(Field field, int[] ids) { super(field, ids); }
+    @Override void set(Excel.Entry entry, TXT txt, int row) throws IllegalAccessException {
+      field.setInt(entry, txt.getInt(row, id));
+    }
+  }
+
+  static final class IntArraySetter extends Setter {
+    IntArraySetter(Field field, int[] ids) { super(field, ids); }
+    @Override void set(Excel.Entry entry, TXT txt, int row) throws IllegalAccessException {
+      field.set(entry, txt.getInt(row, ids));
+    }
+  }
+
+  static final class LongSetter extends Setter {
+    LongSetter(Field field, int[] ids) { super(field, ids); }
+    @Override void set(Excel.Entry entry, TXT txt, int row) throws IllegalAccessException {
+      field.setLong(entry, txt.getLong(row, id));
+    }
+  }
+
+  static final class LongArraySetter extends Setter {
+    LongArraySetter(Field field, int[] ids) { super(field, ids); }
+    @Override void set(Excel.Entry entry, TXT txt, int row) throws IllegalAccessException {
+      field.set(entry, txt.getLong(row, ids));
+    }
+  }
+
+  static final class BooleanSetter extends Setter {
+    BooleanSetter(Field field, int[] ids) { super(field, ids); }
+    @Override void set(Excel.Entry entry, TXT txt, int row) throws IllegalAccessException {
+      field.setBoolean(entry, txt.getBoolean(row, id));
+    }
+  }
+
+  static final class BooleanArraySetter extends Setter {
+    BooleanArraySetter(Field field, int[] ids) { super(field, ids); }
+    @Override void set(Excel.Entry entry, TXT txt, int row) throws IllegalAccessException {
+      field.set(entry, txt.getBoolean(row, ids));
+    }
+  }
+}
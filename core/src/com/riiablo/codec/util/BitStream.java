@@ -5,14 +5,28 @@ import java.util.Arrays;
 
 import com.riiablo.util.BufferUtils;
 
+/**
+ * Reads bits least significant first. Bits following the current position are kept in a 64-bit
+ * reservoir which is refilled a word at a time, so most reads are a mask and a shift rather than a
+ * loop over the bytes they span.
+ */
 public class BitStream {
   public static final BitStream EMPTY_BITSTREAM = new BitStream();
 
+  /** largest read which can always be served by a single refill */
+  private static final int MAX_CACHED_BITS = Long.SIZE - Byte.SIZE;
+
   byte[] buffer;
   int offset;
   long size;
   long firstBitOffset;
-  long curBitPosition;
+
+  /** bits following the current position, next bit in the least significant bit */
+  private long cache;
+  /** number of bits of {@link #cache} which are valid */
+  private int  cacheBits;
+  /** index of the next byte of {@link #buffer} to be loaded into {@link #cache} */
+  private int  next;
 
   private BitStream() {
     this(null, 0);
@@ -22,7 +36,8 @@ public class BitStream {
     this.buffer = buffer;
     this.offset = offset;
     this.size = sizeInBits;
-    this.firstBitOffset = this.curBitPosition = firstBitOffsetInBuffer;
+    this.firstBitOffset = firstBitOffsetInBuffer;
+    seek(firstBitOffsetInBuffer);
   }
 
   public BitStream(byte[] buffer) {
@@ -39,6 +54,7 @@ public class BitStream {
 
   public BitStream createSubView(long newBufferSizeInBits) {
     if (newBufferSizeInBits == 0) return EMPTY_BITSTREAM;
+    long curBitPosition = bitPositionInBuffer();
     int curBytesPos     = (int) (curBitPosition / Byte.SIZE);
     int bitPosInCurByte = (int) (curBitPosition % Byte.SIZE);
     assert tell() + newBufferSizeInBits <= size;
@@ -46,6 +62,56 @@ public class BitStream {
     return new BitStream(buffer, offset + curBytesPos, newBufferSizeInBits, bitPosInCurByte);
   }
 
+  /**
+   * Moves to bit {@code bitPosition} relative to {@link #offset} and empties the reservoir.
+   */
+  private void seek(long bitPosition) {
+    next = offset + (int) (bitPosition >>> 3);
+    cache = 0;
+    cacheBits = 0;
+    int bits = (int) (bitPosition & 7);
+    if (bits > 0 && next < buffer.length) {
+      cache = (buffer[next++] & 0xFFL) >>> bits;
+      cacheBits = Byte.SIZE - bits;
+    }
+  }
+
+  /**
+   * Tops up the reservoir to at least {@link #MAX_CACHED_BITS} bits, or until the end of the
+   * buffer.
+   *
+   * @throws ArrayIndexOutOfBoundsException if fewer than {@code bits} bits remain in the buffer
+   */
+  private void refill(int bits) {
+    final byte[] buffer = this.buffer;
+    int next = this.next;
+    if (next + Long.SIZE / Byte.SIZE <= buffer.length) {
+      // loads a whole word and keeps the bytes which fit, the rest are loaded again next time
+      long word = (buffer[next    ] & 0xFFL)
+               | ((buffer[next + 1] & 0xFFL) <<  8)
+               | ((buffer[next + 2] & 0xFFL) << 16)
+               | ((buffer[next + 3] & 0xFFL) << 24)
+               | ((buffer[next + 4] & 0xFFL) << 32)
+               | ((buffer[next + 5] & 0xFFL) << 40)
+               | ((buffer[next + 6] & 0xFFL) << 48)
+               | ((buffer[next + 7] & 0xFFL) << 56);
+      cache |= word << cacheBits;
+      int bytes = (Long.SIZE - 1 - cacheBits) >>> 3;
+      this.next = next + bytes;
+      cacheBits += bytes << 3;
+    } else {
+      while (cacheBits <= MAX_CACHED_BITS && next < buffer.length) {
+        cache |= (buffer[next++] & 0xFFL) << cacheBits;
+        cacheBits += Byte.SIZE;
+      }
+
+      this.next = next;
+      if (cacheBits < bits) {
+        throw new ArrayIndexOutOfBoundsException("Cannot read " + bits + " bits, " + cacheBits + " remaining");
+      }
+    }
+  }
+
   @Deprecated
   public int getOffset() {
     return offset;
@@ -53,12 +119,12 @@ public class BitStream {
 
   @Deprecated
   public int getBytePosition() {
-    return (int) (curBitPosition / Byte.SIZE);
+    return (int) (bitPositionInBuffer() / Byte.SIZE);
   }
 
   @Deprecated
   public int getBitPosition() {
-    return (int) (curBitPosition % Byte.SIZE);
+    return (int) (bitPositionInBuffer() % Byte.SIZE);
   }
 
   @Deprecated
@@ -68,12 +134,12 @@ public class BitStream {
 
   @Deprecated
   public byte[] getBufferAtPos() {
-    int curBytesPos = (int) (curBitPosition / Byte.SIZE);
+    int curBytesPos = getBytePosition();
     return Arrays.copyOfRange(buffer, offset + curBytesPos, buffer.length);
   }
 
   public long tell() {
-    return curBitPosition - firstBitOffset;
+    return bitPositionInBuffer() - firstBitOffset;
   }
 
   public long bufferSizeInBytes() {
@@ -89,25 +155,29 @@ public class BitStream {
   }
 
   public long bitPositionInBuffer() {
-    return curBitPosition;
+    return ((long) (next - offset) << 3) - cacheBits;
   }
 
   public void skip(long bits) {
-    assert curBitPosition + bits < bufferSizeInBits();
-    curBitPosition += bits;
+    assert bitPositionInBuffer() + bits < bufferSizeInBits();
+    if (bits <= cacheBits) {
+      cache >>>= bits;
+      cacheBits -= bits;
+    } else {
+      seek(bitPositionInBuffer() + bits);
+    }
   }
 
   public void alignToByte() {
-    int highestBit = Byte.SIZE - 1;
-    curBitPosition = (curBitPosition + highestBit) & (~highestBit);
+    skip(cacheBits & (Byte.SIZE - 1));
   }
 
   public boolean readBoolean() {
-    int curBytesPos     = (int) (curBitPosition / Byte.SIZE);
-    int bitPosInCurByte = (int) (curBitPosition % Byte.SIZE);
-    int mask = (1 << bitPosInCurByte);
-    curBitPosition++;
-    return (buffer[offset + curBytesPos] & mask) == mask;
+    if (cacheBits == 0) refill(1);
+    boolean bit = (cache & 1) != 0;
+    cache >>>= 1;
+    cacheBits--;
+    return bit;
   }
 
   public int readBit() {
@@ -116,20 +186,15 @@ public class BitStream {
 
   public long readUnsigned(int bits) {
     if (bits == 0) return 0;
-    int curBytesPos     = (int) (curBitPosition / Byte.SIZE);
-    int bitPosInCurByte = (int) (curBitPosition % Byte.SIZE);
-    long value = 0;
-    curBitPosition += bits;
-    for (int i = 0; i < bits;) {
-      int bitsToReadInCurByte = Math.min(Byte.SIZE - bitPosInCurByte, bits - i);
-      int mask = (1 << bitsToReadInCurByte) - 1;
-      int inBits = (buffer[offset + curBytesPos] >> bitPosInCurByte) & mask;
-      curBytesPos++;
-      value |= (inBits << i);
-      i += bitsToReadInCurByte;
-      bitPosInCurByte = 0;
+    if (bits > MAX_CACHED_BITS) {
+      long value = readUnsigned(Integer.SIZE);
+      return value | (readUnsigned(bits - Integer.SIZE) << Integer.SIZE);
     }
 
+    if (cacheBits < bits) refill(bits);
+    long value = cache & ((1L << bits) - 1);
+    cache >>>= bits;
+    cacheBits -= bits;
     return value;
   }
 
@@ -175,15 +240,11 @@ public class BitStream {
   }
 
   public void readFully(byte[] b) {
+    alignToByte();
     assert sizeInBits() - tell() >= b.length * Byte.SIZE;
-    int curBytesPos     = (int) (curBitPosition / Byte.SIZE);
-    int bitPosInCurByte = (int) (curBitPosition % Byte.SIZE);
-    if (bitPosInCurByte != 0) {
-      alignToByte();
-    }
-
-    curBitPosition += (b.length * Byte.SIZE);
+    int curBytesPos = getBytePosition();
     System.arraycopy(buffer, offset + curBytesPos, b, 0, b.length);
+    seek(bitPositionInBuffer() + b.length * Byte.SIZE);
   }
 
   public byte[] readFully(int size) {
@@ -1,14 +1,27 @@
 package com.riiablo.codec.util;
 
+/**
+ * Reads bits starting from the most significant bit of the last byte of a buffer towards the
+ * least significant bit of its first byte. {@link #readUnsigned(int)} returns the first bit read
+ * in the least significant bit, the same as that many calls to {@link #readBit()}. Bits following
+ * the current position are kept in a 64-bit reservoir which is refilled a word at a time.
+ */
 public class ReverseBitStream {
   public static final ReverseBitStream EMPTY_BITSTREAM = new ReverseBitStream();
 
-  private static final int BYTE_MAX_POWER_OF_TWO = 1 << (Byte.SIZE - 1);
+  /** largest read which can always be served by a single refill */
+  private static final int MAX_CACHED_BITS = Long.SIZE - Byte.SIZE;
 
   byte buffer[];
   int  bufferLength;
   int  size;
-  int  curBitPosition;
+
+  /** bits following the current position, next bit in the most significant bit */
+  private long cache;
+  /** number of bits of {@link #cache} which are valid */
+  private int  cacheBits;
+  /** index of the next byte of {@link #buffer} to be loaded into {@link #cache} */
+  private int  next;
 
   private ReverseBitStream() {
     this(null, 0);
@@ -18,11 +31,61 @@ public class ReverseBitStream {
     this.buffer = buffer;
     this.bufferLength = buffer == null ? 0 : buffer.length - 1;
     this.size = sizeInBits;
-    this.curBitPosition = 0;
+    seek(0);
+  }
+
+  /**
+   * Moves to bit {@code bitPosition} and empties the reservoir.
+   */
+  private void seek(int bitPosition) {
+    next = bufferLength - (bitPosition >>> 3);
+    cache = 0;
+    cacheBits = 0;
+    int bits = bitPosition & 7;
+    if (bits > 0 && next >= 0) {
+      cache = (buffer[next--] & 0xFFL) << (MAX_CACHED_BITS + bits);
+      cacheBits = Byte.SIZE - bits;
+    }
+  }
+
+  /**
+   * Tops up the reservoir to at least {@link #MAX_CACHED_BITS} bits, or until the start of the
+   * buffer.
+   *
+   * @throws ArrayIndexOutOfBoundsException if fewer than {@code bits} bits remain in the buffer
+   */
+  private void refill(int bits) {
+    final byte[] buffer = this.buffer;
+    int next = this.next;
+    if (next >= Long.SIZE / Byte.SIZE - 1) {
+      // loads a whole word and keeps the bytes which fit, the rest are loaded again next time
+      long word = ((buffer[next    ] & 0xFFL) << 56)
+                | ((buffer[next - 1] & 0xFFL) << 48)
+                | ((buffer[next - 2] & 0xFFL) << 40)
+                | ((buffer[next - 3] & 0xFFL) << 32)
+                | ((buffer[next - 4] & 0xFFL) << 24)
+                | ((buffer[next - 5] & 0xFFL) << 16)
+                | ((buffer[next - 6] & 0xFFL) <<  8)
+                |  (buffer[next - 7] & 0xFFL);
+      cache |= word >>> cacheBits;
+      int bytes = (Long.SIZE - 1 - cacheBits) >>> 3;
+      this.next = next - bytes;
+      cacheBits += bytes << 3;
+    } else {
+      while (cacheBits <= MAX_CACHED_BITS && next >= 0) {
+        cache |= (buffer[next--] & 0xFFL) << (MAX_CACHED_BITS - cacheBits);
+        cacheBits += Byte.SIZE;
+      }
+
+      this.next = next;
+      if (cacheBits < bits) {
+        throw new ArrayIndexOutOfBoundsException("Cannot read " + bits + " bits, " + cacheBits + " remaining");
+      }
+    }
   }
 
   public long tell() {
-    return curBitPosition;
+    return ((bufferLength - next) << 3) - cacheBits;
   }
 
   public long bufferSizeInBytes() {
@@ -38,25 +101,29 @@ public class ReverseBitStream {
   }
 
   public long bitPositionInBuffer() {
-    return curBitPosition;
+    return tell();
   }
 
   public void skip(long bits) {
-    assert curBitPosition + bits < bufferSizeInBits();
-    curBitPosition += bits;
+    assert tell() + bits < bufferSizeInBits();
+    if (bits <= cacheBits) {
+      cache <<= bits;
+      cacheBits -= bits;
+    } else {
+      seek((int) (tell() + bits));
+    }
   }
 
   public void alignToByte() {
-    int highestBit = Byte.SIZE - 1;
-    curBitPosition = (curBitPosition + highestBit) & (~highestBit);
+    skip(cacheBits & (Byte.SIZE - 1));
   }
 
   public boolean readBoolean() {
-    int curBytesPos     = (curBitPosition / Byte.SIZE);
-    int bitPosInCurByte = (curBitPosition % Byte.SIZE);
-    int mask = (BYTE_MAX_POWER_OF_TWO >>> bitPosInCurByte);
-    curBitPosition++;
-    return (buffer[bufferLength - curBytesPos] & mask) == mask;
+    if (cacheBits == 0) refill(1);
+    boolean bit = cache < 0;
+    cache <<= 1;
+    cacheBits--;
+    return bit;
   }
 
   public int readBit() {
@@ -65,20 +132,16 @@ public class ReverseBitStream {
 
   public long readUnsigned(int bits) {
     if (bits == 0) return 0;
-    int curBytesPos     = (curBitPosition / Byte.SIZE);
-    int bitPosInCurByte = (curBitPosition % Byte.SIZE);
-    long value = 0;
-    curBitPosition += bits;
-    for (int i = 0; i < bits;) {
-      int bitsToReadInCurByte = Math.min(Byte.SIZE - bitPosInCurByte, bits - i);
-      int mask = (BYTE_MAX_POWER_OF_TWO >>> bitsToReadInCurByte) - 1;
-      int inBits = (buffer[bufferLength - curBytesPos] >> bitPosInCurByte) & mask;
-      curBytesPos++;
-      value |= (inBits << i);
-      i += bitsToReadInCurByte;
-      bitPosInCurByte = 0;
+    if (bits > MAX_CACHED_BITS) {
+      long value = readUnsigned(Integer.SIZE);
+      return value | (readUnsigned(bits - Integer.SIZE) << Integer.SIZE);
     }
 
+    if (cacheBits < bits) refill(bits);
+    // the first bit read is the most significant bit of the reservoir
+    long value = Long.reverse(cache) & ((1L << bits) - 1);
+    cache <<= bits;
+    cacheBits -= bits;
     return value;
   }
 
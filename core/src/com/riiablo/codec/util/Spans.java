@@ -0,0 +1,282 @@
+package com.riiablo.codec.util;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Palette-indexed image which only stores its opaque pixels, as runs of consecutive non-zero
+ * indexes per row. Sprite frames are mostly transparent, so decoded frames are kept in this form
+ * instead of as full rectangles and only {@link #expand(ByteBuffer) expanded} while they are
+ * uploaded. The spans of a row are sorted, so hit-testing a pixel is a binary search within its
+ * row.
+ * <p>
+ * Instances are immutable and can be shared between threads.
+ */
+public final class Spans {
+  /** maximum width of an encoded image, columns and lengths of spans are packed into 16 bits */
+  public static final int MAX_WIDTH = 0xFFFF;
+
+  public final int width;
+  public final int height;
+
+  /** spans of row {@code y} are {@code [rows[y], rows[y + 1])} */
+  final int[] rows;
+
+  /**
+   * span {@code i} starts at column {@code spans[2i] >>> 16}, is {@code spans[2i] & 0xFFFF} pixels
+   * long and its indexes start at {@code pixels[spans[2i + 1]]}
+   */
+  final int[] spans;
+
+  /** indexes of every span, concatenated in row order */
+  final byte[] pixels;
+
+  Spans(int width, int height, int[] rows, int[] spans, byte[] pixels) {
+    this.width = width;
+    this.height = height;
+    this.rows = rows;
+    this.spans = spans;
+    this.pixels = pixels;
+  }
+
+  /**
+   * Encodes the {@code width * height} indexes of {@code src}, stored row by row. Only the arrays
+   * of the returned instance are allocated.
+   */
+  public static Spans encode(byte[] src, int width, int height) {
+    if (width < 0 || width > MAX_WIDTH) throw new IllegalArgumentException("width(" + width + ") not in [0," + MAX_WIDTH + "]");
+    if (height < 0) throw new IllegalArgumentException("height(" + height + ") < 0");
+    if (src.length < width * height) throw new IllegalArgumentException("src.length(" + src.length + ") < " + (width * height));
+
+    int numSpans = 0, numPixels = 0;
+    for (int y = 0, i = 0; y < height; y++) {
+      boolean opaque = false;
+      for (int x = 0; x < width; x++, i++) {
+        if (src[i] != 0) {
+          if (!opaque) numSpans++;
+          numPixels++;
+          opaque = true;
+        } else {
+          opaque = false;
+        }
+      }
+    }
+
+    final int[] rows = new int[height + 1];
+    final int[] spans = new int[numSpans << 1];
+    final byte[] pixels = new byte[numPixels];
+    int s = 0, p = 0;
+    for (int y = 0, row = 0; y < height; y++, row += width) {
+      rows[y] = s >> 1;
+      for (int x = 0; x < width;) {
+        if (src[row + x] == 0) {
+          x++;
+          continue;
+        }
+
+        int start = x;
+        while (x < width && src[row + x] != 0) x++;
+        int length = x - start;
+        spans[s++] = (start << 16) | length;
+        spans[s++] = p;
+        System.arraycopy(src, row + start, pixels, p, length);
+        p += length;
+      }
+    }
+
+    rows[height] = numSpans;
+    return new Spans(width, height, rows, spans, pixels);
+  }
+
+  public int numSpans() {
+    return spans.length >> 1;
+  }
+
+  public int numPixels() {
+    return pixels.length;
+  }
+
+  /**
+   * Returns the index at {@code (x, y)}, or {@code 0} if it is transparent or outside of the image.
+   */
+  public int get(int x, int y) {
+    if (x < 0 || x >= width || y < 0 || y >= height) return 0;
+    final int[] spans = this.spans;
+    int lo = rows[y], hi = rows[y + 1] - 1;
+    while (lo <= hi) {
+      int mid = (lo + hi) >>> 1;
+      int span = spans[mid << 1];
+      int start = span >>> 16;
+      if (x < start) {
+        hi = mid - 1;
+      } else if (x >= start + (span & 0xFFFF)) {
+        lo = mid + 1;
+      } else {
+        return pixels[spans[(mid << 1) + 1] + x - start] & 0xFF;
+      }
+    }
+
+    return 0;
+  }
+
+  /**
+   * Returns whether or not the pixel at {@code (x, y)} is opaque.
+   */
+  public boolean contains(int x, int y) {
+    return get(x, y) != 0;
+  }
+
+  /**
+   * Writes the whole image into {@code dst}, row by row, starting at index {@code 0}. Transparent
+   * pixels are written as {@code 0}, so {@code dst} does not need to be cleared. The position of
+   * {@code dst} is not changed.
+   */
+  public void expand(ByteBuffer dst) {
+    final ByteBuffer buffer = dst.duplicate();
+    for (int y = 0, row = 0; y < height; y++, row += width) {
+      int x = 0;
+      for (int i = rows[y], end = rows[y + 1]; i < end; i++) {
+        int span = spans[i << 1];
+        int start = span >>> 16, length = span & 0xFFFF;
+        for (; x < start; x++) buffer.put(row + x, (byte) 0);
+        buffer.position(row + start);
+        buffer.put(pixels, spans[(i << 1) + 1], length);
+        x = start + length;
+      }
+
+      for (; x < width; x++) buffer.put(row + x, (byte) 0);
+    }
+  }
+
+  /**
+   * @see #expand(ByteBuffer)
+   */
+  public void expand(byte[] dst) {
+    for (int y = 0, row = 0; y < height; y++, row += width) {
+      int x = 0;
+      for (int i = rows[y], end = rows[y + 1]; i < end; i++) {
+        int span = spans[i << 1];
+        int start = span >>> 16, length = span & 0xFFFF;
+        Arrays.fill(dst, row + x, row + start, (byte) 0);
+        System.arraycopy(pixels, spans[(i << 1) + 1], dst, row + start, length);
+        x = start + length;
+      }
+
+      Arrays.fill(dst, row + x, row + width, (byte) 0);
+    }
+  }
+
+  public byte[] toArray() {
+    byte[] dst = new byte[width * height];
+    expand(dst);
+    return dst;
+  }
+
+  /**
+   * Copies the opaque pixels into {@code dst}, an image {@code dstWidth} wide, at {@code (x, y)},
+   * mapping them through {@code transform} if it is not {@code null}. Transparent pixels leave
+   * {@code dst} unchanged.
+   */
+  public void blit(byte[] dst, int dstWidth, int x, int y, byte[] transform) {
+    for (int r = 0; r < height; r++) {
+      int row = (y + r) * dstWidth + x;
+      for (int i = rows[r], end = rows[r + 1]; i < end; i++) {
+        int span = spans[i << 1];
+        int start = span >>> 16, length = span & 0xFFFF;
+        int offset = spans[(i << 1) + 1];
+        if (transform == null) {
+          System.arraycopy(pixels, offset, dst, row + start, length);
+        } else {
+          for (int j = 0; j < length; j++) dst[row + start + j] = transform[pixels[offset + j] & 0xFF];
+        }
+      }
+    }
+  }
+
+  /**
+   * Estimated number of bytes of heap used by this instance and its arrays, assuming compressed
+   * oops.
+   */
+  public long footprint() {
+    return 32 + arraySize(rows.length << 2) + arraySize(spans.length << 2) + arraySize(pixels.length);
+  }
+
+  static long arraySize(int bytes) {
+    return (16 + bytes + 7) & ~7L;
+  }
+
+  /**
+   * Number of bytes written by {@link #write(ByteBuffer)}.
+   */
+  public int size() {
+    return (rows.length << 2) + (spans.length << 2) + pixels.length;
+  }
+
+  /**
+   * Writes the rows, spans and pixels of this instance into {@code dst}. The dimensions and the
+   * number of spans and pixels are not written, they must be stored separately and passed to
+   * {@link #read(ByteBuffer, int, int, int, int)}.
+   */
+  public void write(ByteBuffer dst) {
+    for (int row : rows) dst.putInt(row);
+    for (int span : spans) dst.putInt(span);
+    dst.put(pixels);
+  }
+
+  /**
+   * Reads an instance written by {@link #write(ByteBuffer)} from {@code src}.
+   *
+   * @return the instance, or {@code null} if the contents of {@code src} are not a valid encoding
+   *         of an image with the given dimensions, in which case the position of {@code src} is
+   *         unspecified
+   */
+  public static Spans read(ByteBuffer src, int width, int height, int numSpans, int numPixels) {
+    if (width < 0 || width > MAX_WIDTH || height < 0 || numSpans < 0 || numPixels < 0) return null;
+    if (numSpans > numPixels || numPixels > width * height) return null;
+    if (src.remaining() < ((height + 1) << 2) + (numSpans << 3) + numPixels) return null;
+
+    final int[] rows = new int[height + 1];
+    for (int y = 0; y <= height; y++) {
+      int row = rows[y] = src.getInt();
+      if (row < (y == 0 ? 0 : rows[y - 1]) || row > numSpans) return null;
+    }
+
+    if (rows[0] != 0 || rows[height] != numSpans) return null;
+
+    final int[] spans = new int[numSpans << 1];
+    for (int y = 0, i = 0, p = 0; y < height; y++) {
+      int x = 0;
+      for (int end = rows[y + 1] << 1; i < end; i += 2) {
+        int span = spans[i] = src.getInt();
+        int offset = spans[i + 1] = src.getInt();
+        int start = span >>> 16, length = span & 0xFFFF;
+        // spans are sorted, disjoint and the pixels are stored in order
+        if (length == 0 || start < x || start + length > width || offset != p) return null;
+        x = start + length;
+        p += length;
+      }
+    }
+
+    if (numSpans > 0 && spans[(numSpans << 1) - 1] + (spans[(numSpans << 1) - 2] & 0xFFFF) != numPixels) {
+      return null;
+    } else if (numSpans == 0 && numPixels != 0) {
+      return null;
+    }
+
+    final byte[] pixels = new byte[numPixels];
+    src.get(pixels);
+    return new Spans(width, height, rows, spans, pixels);
+  }
+
+  @Override
+  public String toString() {
+    return new ToStringBuilder(this)
+        .append("width", width)
+        .append("height", height)
+        .append("spans", numSpans())
+        .append("pixels", numPixels())
+        .toString();
+  }
+}
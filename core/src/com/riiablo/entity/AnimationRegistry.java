@@ -0,0 +1,284 @@
+package com.riiablo.entity;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.assets.AssetDescriptor;
+import com.badlogic.gdx.assets.AssetManager;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.LongMap;
+import com.badlogic.gdx.utils.ObjectIntMap;
+import com.riiablo.Riiablo;
+import com.riiablo.codec.COF;
+import com.riiablo.codec.COFD2;
+import com.riiablo.codec.DCC;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+/**
+ * Registry of the {@link COF}s and {@link DCC}s used by entities, shared by every entity using
+ * them. Assets are keyed by the interned ids of their token, mode, weapon class, component and
+ * code packed into a {@code long}, so looking one up never builds its path, and each
+ * {@link DCC} is only requested from the {@link AssetManager} once, however many entities use it
+ * or are waiting for it to load.
+ * <p>
+ * Each {@link DCC} is reference counted: entities {@link #release(long) release} the keys they
+ * acquired when their components change or when they are removed from the {@link Engine}, and a
+ * {@link DCC} no longer used by any entity is unloaded {@link #getUnloadDelay()} frames later,
+ * unless it was acquired again in the meantime, e.g., by an entity switching back to a previous
+ * mode. All methods must be called from the render thread.
+ */
+public class AnimationRegistry {
+  private static final String TAG = "AnimationRegistry";
+  private static final boolean DEBUG = !true;
+
+  static final long DCC_KEY  = 1L << 62;
+  static final long PATH_KEY = 1L << 61;
+  static final long COF_KEY  = 1L << 60;
+
+  private final AssetManager assets;
+
+  private final ObjectIntMap<String> tokens = new ObjectIntMap<>();
+  private final ObjectIntMap<String> weaponClasses = new ObjectIntMap<>();
+  private final ObjectIntMap<String> paths = new ObjectIntMap<>();
+
+  private final LongMap<COF> cofs = new LongMap<>();
+  private final COFD2[] sources = new COFD2[Entity.Type.values().length];
+
+  private final LongMap<Entry> entries = new LongMap<>();
+  private final Array<Entry> released = new Array<>(false, 16);
+
+  private int  unloadDelay;
+  private long tick;
+
+  private int loads;
+  private int unloads;
+
+  /**
+   * @param unloadDelay number of {@link #update() frames} an unused {@link DCC} is kept loaded
+   */
+  public AnimationRegistry(AssetManager assets, int unloadDelay) {
+    this.assets = assets;
+    this.unloadDelay = unloadDelay;
+  }
+
+  public int getUnloadDelay() {
+    return unloadDelay;
+  }
+
+  public void setUnloadDelay(int unloadDelay) {
+    this.unloadDelay = unloadDelay;
+  }
+
+  static int intern(ObjectIntMap<String> ids, String str) {
+    int id = ids.get(str, -1);
+    if (id == -1) ids.put(str, id = ids.size);
+    return id;
+  }
+
+  /**
+   * Returns the key of the {@link DCC} for {@code component} of the given animation.
+   *
+   * @param weaponClass weapon class of the {@link COF.Layer layer}, which may not be the weapon
+   *                    class of the entity
+   */
+  long key(Entity.Type type, String token, byte mode, String weaponClass, int component, int code) {
+    return DCC_KEY
+        | ((long) type.ordinal() << 52)
+        | ((long) intern(tokens, token) << 28)
+        | ((long) (mode & 0xFF) << 20)
+        | ((long) intern(weaponClasses, weaponClass) << 12)
+        | ((long) (component & 0xF) << 8)
+        | (code & 0xFF);
+  }
+
+  /**
+   * Returns the key of the {@link DCC} at {@code path}, e.g., a missile or overlay.
+   */
+  long key(String path) {
+    return PATH_KEY | intern(paths, path.toLowerCase());
+  }
+
+  long cofKey(Entity.Type type, String token, byte mode, byte wclass) {
+    return COF_KEY
+        | ((long) type.ordinal() << 52)
+        | ((long) intern(tokens, token) << 28)
+        | ((long) (mode & 0xFF) << 20)
+        | ((long) (wclass & 0xFF) << 12);
+  }
+
+  static String path(Entity.Type type, String token, byte mode, String weaponClass, int component, int code) {
+    String composit = Entity.COMPOSIT[component];
+    return new StringBuilder(type.PATH.length() + 23)
+        .append(type.PATH).append('\\')
+        .append(token).append('\\')
+        .append(composit).append('\\')
+        .append(token).append(composit).append(type.COMP[code]).append(type.MODE[mode]).append(weaponClass)
+        .append(".dcc")
+        .toString();
+  }
+
+  /**
+   * Returns the {@link COF} named {@code name} for the given animation.
+   */
+  COF getCOF(Entity.Type type, String token, byte mode, byte wclass, String name) {
+    COFD2 source = type.getCOFs();
+    if (sources[type.ordinal()] != source) {
+      // the active cofs changed, e.g., with the act
+      if (sources[type.ordinal()] != null) cofs.clear();
+      sources[type.ordinal()] = source;
+    }
+
+    long key = cofKey(type, token, mode, wclass);
+    COF cof = cofs.get(key);
+    if (cof == null) {
+      cof = source.lookup(name);
+      if (cof != null) cofs.put(key, cof);
+    }
+
+    return cof;
+  }
+
+  /**
+   * Acquires a reference to the {@link DCC} for {@code component} of the given animation, loading
+   * it if needed.
+   *
+   * @see #key(Entity.Type, String, byte, String, int, int)
+   */
+  DCC acquire(Entity.Type type, String token, byte mode, String weaponClass, int component, int code) {
+    long key = key(type, token, mode, weaponClass, component, code);
+    Entry entry = entries.get(key);
+    if (entry == null) entry = load(key, path(type, token, mode, weaponClass, component, code));
+    return acquire(entry);
+  }
+
+  /**
+   * Acquires a reference to the {@link DCC} at {@code path}, loading it if needed.
+   */
+  DCC acquire(String path) {
+    long key = key(path);
+    Entry entry = entries.get(key);
+    if (entry == null) entry = load(key, path);
+    return acquire(entry);
+  }
+
+  private DCC acquire(Entry entry) {
+    entry.refs++;
+    if (entry.dcc == null) {
+      // another entity may have already requested it, this only waits for that load to finish
+      assets.finishLoadingAsset(entry.descriptor);
+      entry.dcc = assets.get(entry.descriptor);
+    }
+
+    return entry.dcc;
+  }
+
+  private Entry load(long key, String path) {
+    Entry entry = new Entry(key, new AssetDescriptor<>(path, DCC.class));
+    entries.put(key, entry);
+    assets.load(entry.descriptor);
+    loads++;
+    if (DEBUG) Gdx.app.debug(TAG, "loading " + path);
+    return entry;
+  }
+
+  /**
+   * Returns the {@link DCC} with the given key without acquiring a reference to it, or
+   * {@code null} if it isn't loaded.
+   */
+  DCC get(long key) {
+    Entry entry = entries.get(key);
+    return entry != null ? entry.dcc : null;
+  }
+
+  /**
+   * Releases a reference acquired to the {@link DCC} with the given key. Releasing {@code 0} does
+   * nothing, so keys of components which were never acquired can be released.
+   */
+  void release(long key) {
+    if (key == 0) return;
+    Entry entry = entries.get(key);
+    if (entry == null || entry.refs <= 0) {
+      Gdx.app.error(TAG, "released " + Long.toHexString(key) + " more times than it was acquired");
+      return;
+    }
+
+    if (--entry.refs == 0) {
+      entry.released = tick;
+      if (!entry.queued) {
+        entry.queued = true;
+        released.add(entry);
+      }
+    }
+  }
+
+  /**
+   * Number of references to the {@link DCC} with the given key.
+   */
+  int refs(long key) {
+    Entry entry = entries.get(key);
+    return entry != null ? entry.refs : 0;
+  }
+
+  /**
+   * Marks the start of a new frame and unloads the {@link DCC}s which have been unused for
+   * {@link #getUnloadDelay()} frames.
+   */
+  public void update() {
+    tick++;
+    for (int i = released.size - 1; i >= 0; i--) {
+      Entry entry = released.get(i);
+      if (entry.refs > 0) {
+        entry.queued = false;
+        released.removeIndex(i);
+        continue;
+      }
+
+      if (tick - entry.released < unloadDelay) continue;
+      // directions may still be decoding into it on another thread
+      if (entry.dcc != null && Riiablo.decoder != null && Riiablo.decoder.isPending(entry.dcc)) continue;
+      entry.queued = false;
+      released.removeIndex(i);
+      unload(entry);
+    }
+  }
+
+  private void unload(Entry entry) {
+    entries.remove(entry.key);
+    if (entry.dcc != null && Riiablo.atlas != null) Riiablo.atlas.remove(entry.dcc);
+    if (entry.dcc != null && Riiablo.transforms != null) Riiablo.transforms.remove(entry.dcc);
+    assets.unload(entry.descriptor.fileName);
+    unloads++;
+    if (DEBUG) Gdx.app.debug(TAG, "unloaded " + entry.descriptor.fileName);
+  }
+
+  /**
+   * Number of {@link DCC}s currently registered, including those waiting to be unloaded.
+   */
+  public int size() {
+    return entries.size;
+  }
+
+  @Override
+  public String toString() {
+    return new ToStringBuilder(this)
+        .append("entries", entries.size)
+        .append("released", released.size)
+        .append("cofs", cofs.size)
+        .append("loads", loads)
+        .append("unloads", unloads)
+        .toString();
+  }
+
+  static final class Entry {
+    final long key;
+    final AssetDescriptor<DCC> descriptor;
+    DCC     dcc;
+    int     refs;
+    long    released;
+    boolean queued;
+
+    Entry(long key, AssetDescriptor<DCC> descriptor) {
+      this.key = key;
+      this.descriptor = descriptor;
+    }
+  }
+}
@@ -13,6 +13,7 @@ public class Engine implements Iterable<Entity> {
   public Engine() {}
 
   public void clear() {
+    for (int i = 0, s = entities.size; i < s; i++) entities.get(i).dispose();
     entitiesById.clear();
     entities.clear();
     nextEntityId = 33;
@@ -55,14 +56,16 @@ public class Engine implements Iterable<Entity> {
     Entity ent = entitiesById.remove(entity.uuid);
     entities.removeValue(entity, true);
     entity.uuid = 0;
+    entity.dispose();
     return ent != null;
   }
 
   public boolean remove(int id) {
-    Entity ent = entitiesById.remove(id);
-    Entity entity = getEntity(id);
+    Entity entity = entitiesById.remove(id);
+    if (entity == null) return false;
     entities.removeValue(entity, true);
     entity.uuid = 0;
-    return ent != null;
+    entity.dispose();
+    return true;
   }
 }
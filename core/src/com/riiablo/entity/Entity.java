@@ -1,7 +1,6 @@
 package com.riiablo.entity;
 
 import com.badlogic.gdx.Gdx;
-import com.badlogic.gdx.assets.AssetDescriptor;
 import com.badlogic.gdx.graphics.Color;
 import com.badlogic.gdx.graphics.g2d.GlyphLayout;
 import com.badlogic.gdx.graphics.glutils.ShapeRenderer;
@@ -151,7 +150,7 @@ public abstract class Entity implements Animation.AnimationListener {
   public static final byte WEAPON_HT1 = 13;
   public static final byte WEAPON_HT2 = 14;
 
-  private static final String[] COMPOSIT = {
+  static final String[] COMPOSIT = {
       "HD", "TR", "LG", "RA", "LA", "RH", "LH", "SH", "S1", "S2", "S3", "S4", "S5", "S6", "S7", "S8",
   };
 
@@ -240,6 +239,7 @@ public abstract class Entity implements Animation.AnimationListener {
   byte    comp[];
   byte    trans[]; // TODO: Could also assign DEFAULT_TRANS and lazy change
   float   alpha[];
+  long    keys[] = new long[COF.Component.NUM_COMPONENTS]; // acquired from Riiablo.animations
   float   angle = DEFAULT_ANGLE;
   Vector2 position = new Vector2();
   Vector2 screen = new Vector2();
@@ -262,6 +262,7 @@ public abstract class Entity implements Animation.AnimationListener {
 
   Overlay.Entry overlayEntry;
   Animation overlay;
+  long      overlayKey;
 
   int     size = 1;
 
@@ -377,7 +378,7 @@ public abstract class Entity implements Animation.AnimationListener {
 
   protected void updateCOF() {
     this.cof = token + type.MODE[mode] + WCLASS[wclass];
-    COF cof = type.getCOFs().lookup(this.cof);
+    COF cof = Riiablo.animations.getCOF(type, token, mode, wclass, this.cof);
     if (DEBUG_COF) Gdx.app.debug(TAG, this.cof + "=" + cof);
 
     boolean changed = updateAnimation(cof);
@@ -385,35 +386,31 @@ public abstract class Entity implements Animation.AnimationListener {
     if (dirty == Dirty.NONE) return;
     if (DEBUG_DIRTY) Gdx.app.debug(TAG, "dirty layers: " + Dirty.toString(dirty));
 
-    final int start = type.PATH.length() + 4; // start after token
-    StringBuilder builder = new StringBuilder(start + 19)
-        .append(type.PATH).append('\\')
-        .append(token).append('\\')
-        .append("AA").append("\\")
-        .append(token).append("AABBB").append(type.MODE[mode]).append("CCC").append(".dcc");
+    int present = 0;
     for (int l = 0; l < cof.getNumLayers(); l++) {
       COF.Layer layer = cof.getLayer(l);
+      present |= 1 << layer.component;
       if (!Dirty.isDirty(dirty, layer.component)) continue;
       if (comp[layer.component] == 0) { // should also ignore 0xFF which is -1
         animation.setLayer(layer, null, false);
+        release(layer.component);
         continue;
       } else if (comp[layer.component] < 0) {
         comp[layer.component] = 1;
       }
 
-      String composit = COMPOSIT[layer.component];
-      builder
-          .replace(start     , start +  2, composit)
-          .replace(start +  5, start +  7, composit)
-          .replace(start +  7, start + 10, type.COMP[comp[layer.component]])
-          .replace(start + 12, start + 15, layer.weaponClass);
-      String path = builder.toString();
-      if (DEBUG_DIRTY) Gdx.app.log(TAG, path);
-
-      AssetDescriptor<DCC> descriptor = new AssetDescriptor<>(path, DCC.class);
-      Riiablo.assets.load(descriptor);
-      Riiablo.assets.finishLoadingAsset(descriptor);
-      DCC dcc = Riiablo.assets.get(descriptor);
+      long key = Riiablo.animations.key(type, token, mode, layer.weaponClass, layer.component, comp[layer.component]);
+      DCC dcc;
+      if (key == keys[layer.component]) {
+        dcc = Riiablo.animations.get(key);
+      } else {
+        if (DEBUG_DIRTY) Gdx.app.log(TAG, AnimationRegistry.path(type, token, mode, layer.weaponClass, layer.component, comp[layer.component]));
+        // acquired before releasing the previous one so a shared dcc is never released in between
+        dcc = Riiablo.animations.acquire(type, token, mode, layer.weaponClass, layer.component, comp[layer.component]);
+        release(layer.component);
+        keys[layer.component] = key;
+      }
+
       animation.setLayer(layer, dcc, false)
           .setTransform(trans[layer.component])
           .setAlpha(alpha[layer.component])
@@ -423,6 +420,11 @@ public abstract class Entity implements Animation.AnimationListener {
       //        circlets and other items with hidden magic level might work different?
     }
 
+    // components which are not part of this cof are no longer drawn
+    for (int c = 0; c < COF.Component.NUM_COMPONENTS; c++) {
+      if ((present & (1 << c)) == 0) release(c);
+    }
+
     // TODO: This seems to work well with the default movement speeds of most entities I've seen
     if (mode == getWalkMode()) {
       animation.setFrameDelta(128);
@@ -434,6 +436,22 @@ public abstract class Entity implements Animation.AnimationListener {
     dirty = Dirty.NONE;
   }
 
+  private void release(int component) {
+    Riiablo.animations.release(keys[component]);
+    keys[component] = 0;
+  }
+
+  /**
+   * Releases the assets acquired by this entity, called once it has been removed from the
+   * {@link Engine}. The entity will acquire them again if it is validated afterwards.
+   */
+  public void dispose() {
+    for (int c = 0; c < COF.Component.NUM_COMPONENTS; c++) release(c);
+    Riiablo.animations.release(overlayKey);
+    overlayKey = 0;
+    invalidate();
+  }
+
   private boolean updateAnimation(COF cof) {
     if (animation == null) {
       animation = Animation.newAnimation(cof);
@@ -575,8 +593,13 @@ public abstract class Entity implements Animation.AnimationListener {
     BBox box = animation.getBox();
     float x = screen.x + box.xMin;
     float y = screen.y - box.yMax;
-    return x <= coords.x && coords.x <= x + box.width
-       &&  y <= coords.y && coords.y <= y + box.height;
+    if (!(x <= coords.x && coords.x <= x + box.width
+       &&  y <= coords.y && coords.y <= y + box.height)) {
+      return false;
+    }
+
+    // transparent pixels within the box are not part of the entity
+    return animation.hit(coords.x - screen.x, coords.y - screen.y);
   }
 
   public float angle() {
@@ -816,10 +839,10 @@ public abstract class Entity implements Animation.AnimationListener {
 
     if (!skill.castoverlay.isEmpty()) {
       overlayEntry = Riiablo.files.Overlay.get(skill.castoverlay);
-      AssetDescriptor<DCC> descriptor = new AssetDescriptor<>("data\\global\\overlays\\" + overlayEntry.Filename + ".dcc", DCC.class);
-      Riiablo.assets.load(descriptor);
-      Riiablo.assets.finishLoadingAsset(descriptor);
-      DCC dcc = Riiablo.assets.get(descriptor);
+      String path = "data\\global\\overlays\\" + overlayEntry.Filename + ".dcc";
+      DCC dcc = Riiablo.animations.acquire(path);
+      Riiablo.animations.release(overlayKey);
+      overlayKey = Riiablo.animations.key(path);
       overlay = Animation.builder()
           .layer(dcc, overlayEntry.Trans == 3 ? BlendMode.LUMINOSITY : BlendMode.ID)
           .build();
@@ -1,13 +1,11 @@
 package com.riiablo.entity;
 
-import com.badlogic.gdx.assets.AssetDescriptor;
 import com.badlogic.gdx.math.MathUtils;
 import com.badlogic.gdx.math.Vector2;
 import com.riiablo.Riiablo;
 import com.riiablo.audio.Audio;
 import com.riiablo.codec.Animation;
 import com.riiablo.codec.DC;
-import com.riiablo.codec.DCC;
 import com.riiablo.codec.excel.Missiles;
 import com.riiablo.graphics.BlendMode;
 import com.riiablo.graphics.PaletteIndexedBatch;
@@ -17,7 +15,8 @@ import com.riiablo.util.EngineUtils;
 public class Missile extends Entity {
   public final Missiles.Entry missile;
 
-  AssetDescriptor<DCC> imageDescriptor;
+  String imagePath;
+  long imageKey;
   DC image;
   int blendMode;
   Audio.Instance travelSound;
@@ -37,7 +36,7 @@ public class Missile extends Entity {
       default: blendMode = BlendMode.ID; break;
     }
 
-    imageDescriptor = new AssetDescriptor<>(Type.MIS.PATH + "\\" + missile.CelFile + ".dcc", DCC.class);
+    imagePath = Type.MIS.PATH + "\\" + missile.CelFile + ".dcc";
   }
 
   @Override
@@ -69,9 +68,9 @@ public class Missile extends Entity {
 
   @Override
   protected void updateCOF() {
-    Riiablo.assets.load(imageDescriptor);
-    Riiablo.assets.finishLoadingAsset(imageDescriptor);
-    image = Riiablo.assets.get(imageDescriptor);
+    image = Riiablo.animations.acquire(imagePath);
+    Riiablo.animations.release(imageKey);
+    imageKey = Riiablo.animations.key(imagePath);
 
     animation = Animation.builder()
         .layer(image, blendMode)
@@ -85,6 +84,13 @@ public class Missile extends Entity {
     travelSound = Riiablo.audio.play(missile.TravelSound, true);
   }
 
+  @Override
+  public void dispose() {
+    super.dispose();
+    Riiablo.animations.release(imageKey);
+    imageKey = 0;
+  }
+
   @Override
   public void drawShadow(PaletteIndexedBatch batch) {}
 }
@@ -0,0 +1,405 @@
+package com.riiablo.graphics;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.utils.Array;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+import java.util.Arrays;
+
+/**
+ * Packs groups of rectangles into a bounded number of fixed-size pages using shelves. Each group
+ * is packed into a single page as an {@link Entry}, and entries are only ever evicted whole.
+ * <p>
+ * Space is reclaimed a page at a time: once all of the entries of a page have been removed, or
+ * when a group does not fit and no more pages may be created, the page which was least recently
+ * used as a whole is cleared and reused. Pages holding an entry which was {@link #touch touched}
+ * since the last {@link #update()} are never reclaimed, so everything drawn in the current frame
+ * stays valid. This class does not depend on a GL context.
+ */
+public class AtlasPacker<T> {
+  private static final String TAG = "AtlasPacker";
+  private static final boolean DEBUG = !true;
+
+  public interface Listener<T> {
+    /** called after {@code entry} has been evicted, its space may be reused right away */
+    void evicted(Entry<T> entry);
+
+    /** called after {@code page} has been discarded because the page budget was lowered */
+    void discarded(Page<T> page);
+  }
+
+  final int pageWidth;
+  final int pageHeight;
+  final int padding;
+
+  final Array<Page<T>> pages = new Array<>();
+
+  int maxPages;
+  long tick;
+  int pageIds;
+
+  Listener<T> listener;
+
+  /**
+   * @param padding number of pixels left empty to the right and below each rectangle
+   */
+  public AtlasPacker(int pageWidth, int pageHeight, int maxPages, int padding) {
+    if (pageWidth <= 0 || pageHeight <= 0) {
+      throw new IllegalArgumentException("Invalid page size: " + pageWidth + "x" + pageHeight);
+    }
+
+    this.pageWidth = pageWidth;
+    this.pageHeight = pageHeight;
+    this.padding = padding;
+    setMaxPages(maxPages);
+  }
+
+  public void setListener(Listener<T> listener) {
+    this.listener = listener;
+  }
+
+  public int getPageWidth() {
+    return pageWidth;
+  }
+
+  public int getPageHeight() {
+    return pageHeight;
+  }
+
+  public int getMaxPages() {
+    return maxPages;
+  }
+
+  /**
+   * Sets the maximum number of pages, discarding the least recently used pages if there are
+   * already more than that, whether or not they were used this frame.
+   */
+  public void setMaxPages(int maxPages) {
+    if (maxPages < 0) throw new IllegalArgumentException("maxPages(" + maxPages + ") < 0");
+    this.maxPages = maxPages;
+    while (pages.size > maxPages) {
+      Page<T> page = coldest(Long.MAX_VALUE);
+      evict(page);
+      pages.removeValue(page, true);
+      if (listener != null) listener.discarded(page);
+    }
+  }
+
+  /**
+   * Marks the start of a new frame, entries touched before this are eligible for eviction.
+   */
+  public void update() {
+    tick++;
+  }
+
+  /**
+   * Marks {@code entry} as used in the current frame.
+   */
+  public void touch(Entry<T> entry) {
+    entry.lastUsed = tick;
+  }
+
+  /**
+   * Packs rectangles of the given sizes into a single page, evicting the least recently used page
+   * if needed.
+   *
+   * @return the packed entry, or {@code null} if the rectangles do not fit into a single page, or
+   *         if every page is in use this frame
+   */
+  public Entry<T> pack(T owner, int[] widths, int[] heights) {
+    if (maxPages == 0 || !Page.fits(this, widths, heights)) return null;
+    final int numRects = widths.length;
+    final int[] x = new int[numRects];
+    final int[] y = new int[numRects];
+
+    for (int i = 0, s = pages.size; i < s; i++) {
+      Page<T> page = pages.get(i);
+      if (page.place(widths, heights, x, y)) return add(page, owner, widths, heights, x, y);
+    }
+
+    Page<T> page;
+    if (pages.size < maxPages) {
+      page = new Page<>(this, pageIds++);
+      pages.add(page);
+    } else {
+      page = coldest(tick);
+      if (page == null) return null;
+      evict(page);
+    }
+
+    boolean placed = page.place(widths, heights, x, y);
+    assert placed : "rects fit into an empty page";
+    return add(page, owner, widths, heights, x, y);
+  }
+
+  Entry<T> add(Page<T> page, T owner, int[] widths, int[] heights, int[] x, int[] y) {
+    Entry<T> entry = new Entry<>(owner, page, x, y, widths.clone(), heights.clone());
+    entry.lastUsed = tick;
+    page.entries.add(entry);
+    page.used += entry.area();
+    return entry;
+  }
+
+  /**
+   * Removes {@code entry} without notifying the listener. Its space is reclaimed once every entry
+   * of its page has been removed.
+   */
+  public void remove(Entry<T> entry) {
+    if (entry.evicted) return;
+    entry.evicted = true;
+    Page<T> page = entry.page;
+    page.entries.removeValue(entry, true);
+    page.used -= entry.area();
+    if (page.entries.size == 0) page.clear();
+  }
+
+  /**
+   * Returns the page whose entries were all last used before {@code before} the longest ago, or
+   * {@code null} if there isn't one.
+   */
+  Page<T> coldest(long before) {
+    Page<T> coldest = null;
+    long oldest = before;
+    for (int i = 0, s = pages.size; i < s; i++) {
+      Page<T> page = pages.get(i);
+      long lastUsed = page.lastUsed();
+      if (lastUsed < oldest) {
+        coldest = page;
+        oldest = lastUsed;
+      }
+    }
+
+    return coldest;
+  }
+
+  void evict(Page<T> page) {
+    if (DEBUG) Gdx.app.debug(TAG, "evicting page " + page.id + " (" + page.entries.size + " entries)");
+    Array<Entry<T>> entries = page.entries;
+    for (int i = 0, s = entries.size; i < s; i++) {
+      Entry<T> entry = entries.get(i);
+      entry.evicted = true;
+      if (listener != null) listener.evicted(entry);
+    }
+
+    page.clear();
+  }
+
+  /**
+   * Evicts every entry and discards every page.
+   */
+  public void clear() {
+    int maxPages = this.maxPages;
+    setMaxPages(0);
+    this.maxPages = maxPages;
+  }
+
+  public Array<Page<T>> pages() {
+    return pages;
+  }
+
+  /**
+   * Number of pixels allocated to entries, including padding, across all pages.
+   */
+  public long used() {
+    long used = 0;
+    for (int i = 0, s = pages.size; i < s; i++) used += pages.get(i).used;
+    return used;
+  }
+
+  @Override
+  public String toString() {
+    return new ToStringBuilder(this)
+        .append("pageWidth", pageWidth)
+        .append("pageHeight", pageHeight)
+        .append("pages", pages.size)
+        .append("maxPages", maxPages)
+        .append("used", used())
+        .toString();
+  }
+
+  public static final class Page<T> {
+    final AtlasPacker<T> packer;
+    final int id;
+
+    final Array<Entry<T>> entries = new Array<>();
+    long used;
+
+    int   numShelves;
+    int[] shelfX = new int[8];
+    int[] shelfY = new int[8];
+    int[] shelfHeight = new int[8];
+    int   nextY;
+
+    Page(AtlasPacker<T> packer, int id) {
+      this.packer = packer;
+      this.id = id;
+    }
+
+    public int id() {
+      return id;
+    }
+
+    /**
+     * Number of pixels allocated to entries, including padding.
+     */
+    public long used() {
+      return used;
+    }
+
+    public int numEntries() {
+      return entries.size;
+    }
+
+    long lastUsed() {
+      long lastUsed = Long.MIN_VALUE;
+      for (int i = 0, s = entries.size; i < s; i++) {
+        lastUsed = Math.max(lastUsed, entries.get(i).lastUsed);
+      }
+
+      return lastUsed;
+    }
+
+    void clear() {
+      entries.clear();
+      used = 0;
+      numShelves = 0;
+      nextY = 0;
+    }
+
+    static boolean fits(AtlasPacker<?> packer, int[] widths, int[] heights) {
+      Page<?> empty = new Page<>(packer, -1);
+      return empty.place(widths, heights, new int[widths.length], new int[widths.length]);
+    }
+
+    /**
+     * Places every rect or none of them.
+     */
+    boolean place(int[] widths, int[] heights, int[] x, int[] y) {
+      final int numShelves = this.numShelves;
+      final int nextY = this.nextY;
+      final int[] shelfX = Arrays.copyOf(this.shelfX, numShelves);
+      for (int i = 0; i < widths.length; i++) {
+        if (!place(widths[i] + packer.padding, heights[i] + packer.padding, x, y, i)) {
+          System.arraycopy(shelfX, 0, this.shelfX, 0, numShelves);
+          this.numShelves = numShelves;
+          this.nextY = nextY;
+          return false;
+        }
+      }
+
+      return true;
+    }
+
+    boolean place(int width, int height, int[] x, int[] y, int i) {
+      if (width > packer.pageWidth || height > packer.pageHeight) return false;
+
+      // best fit: the lowest shelf which is tall enough and has room left
+      int best = -1;
+      for (int s = 0; s < numShelves; s++) {
+        if (shelfHeight[s] >= height && shelfX[s] + width <= packer.pageWidth
+            && (best == -1 || shelfHeight[s] < shelfHeight[best])) {
+          best = s;
+        }
+      }
+
+      if (best == -1) {
+        if (nextY + height > packer.pageHeight) return false;
+        if (numShelves == shelfX.length) {
+          shelfX = Arrays.copyOf(shelfX, numShelves << 1);
+          shelfY = Arrays.copyOf(shelfY, numShelves << 1);
+          shelfHeight = Arrays.copyOf(shelfHeight, numShelves << 1);
+        }
+
+        best = numShelves++;
+        shelfX[best] = 0;
+        shelfY[best] = nextY;
+        shelfHeight[best] = height;
+        nextY += height;
+      }
+
+      x[i] = shelfX[best];
+      y[i] = shelfY[best];
+      shelfX[best] += width;
+      return true;
+    }
+
+    @Override
+    public String toString() {
+      return new ToStringBuilder(this)
+          .append("id", id)
+          .append("entries", entries.size)
+          .append("used", used)
+          .append("shelves", numShelves)
+          .toString();
+    }
+  }
+
+  public static final class Entry<T> {
+    final T owner;
+    final Page<T> page;
+    final int[] x, y;
+    final int[] width, height;
+
+    long lastUsed;
+    boolean evicted;
+
+    Entry(T owner, Page<T> page, int[] x, int[] y, int[] width, int[] height) {
+      this.owner = owner;
+      this.page = page;
+      this.x = x;
+      this.y = y;
+      this.width = width;
+      this.height = height;
+    }
+
+    public T owner() {
+      return owner;
+    }
+
+    public Page<T> page() {
+      return page;
+    }
+
+    public int size() {
+      return x.length;
+    }
+
+    public int x(int i) {
+      return x[i];
+    }
+
+    public int y(int i) {
+      return y[i];
+    }
+
+    public int width(int i) {
+      return width[i];
+    }
+
+    public int height(int i) {
+      return height[i];
+    }
+
+    public boolean isEvicted() {
+      return evicted;
+    }
+
+    long area() {
+      final int padding = page.packer.padding;
+      long area = 0;
+      for (int i = 0; i < width.length; i++) area += (long) (width[i] + padding) * (height[i] + padding);
+      return area;
+    }
+
+    @Override
+    public String toString() {
+      return new ToStringBuilder(this)
+          .append("owner", owner)
+          .append("page", page.id)
+          .append("size", x.length)
+          .append("evicted", evicted)
+          .toString();
+    }
+  }
+}
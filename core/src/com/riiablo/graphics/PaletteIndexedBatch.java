@@ -56,6 +56,7 @@ public class PaletteIndexedBatch extends SpriteBatch {
       return;
     }
 
+    if (this.colormap == colormap && this.colormapId == id) return;
     this.colormap = colormap;
     this.colormapId = id;
     if (isDrawing()) {
@@ -65,6 +66,8 @@ public class PaletteIndexedBatch extends SpriteBatch {
   }
 
   public void resetColormap() {
+    // untinted sprites are drawn between tinted ones, so only flush when there was a colormap
+    if (colormapId == 0) return;
     if (isDrawing()) {
       flush();
     }
@@ -135,7 +138,8 @@ public class PaletteIndexedBatch extends SpriteBatch {
     setShader(shader);
     super.begin();
     resetBlendMode();
-    resetColormap();
+    colormapId = 0;
+    shader.setUniformi(COLORMAPID_LOCATION, colormapId);
     applyPalette();
     applyGamma();
   }
@@ -4,6 +4,7 @@ import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.assets.AssetDescriptor;
 import com.badlogic.gdx.graphics.g2d.Batch;
 import com.badlogic.gdx.graphics.g2d.BitmapFont;
+import com.badlogic.gdx.graphics.g2d.TextureRegion;
 import com.badlogic.gdx.scenes.scene2d.Actor;
 import com.badlogic.gdx.scenes.scene2d.ui.Table;
 import com.badlogic.gdx.utils.Array;
@@ -802,9 +803,16 @@ public class Item extends Actor implements Disposable {
     PaletteIndexedBatch b = (PaletteIndexedBatch) batch;
     boolean ethereal = (flags & ETHEREAL) == ETHEREAL;
     if (ethereal) b.setAlpha(ETHEREAL_ALPHA);
-    if (invColormap != null) b.setColormap(invColormap, invColorIndex);
-    invFile.draw(b, getX(), getY());
-    if (invColormap != null) b.resetColormap();
+    TextureRegion variant = Riiablo.transforms != null
+        ? Riiablo.transforms.get(invFile, 0, 0, invColormap, invColorIndex)
+        : null;
+    if (variant != null) {
+      b.draw(variant, getX(), getY());
+    } else {
+      if (invColormap != null) b.setColormap(invColormap, invColorIndex);
+      invFile.draw(b, getX(), getY());
+      if (invColormap != null) b.resetColormap();
+    }
     if (ethereal) b.resetColor();
   }
 
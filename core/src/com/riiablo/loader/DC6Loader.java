@@ -9,17 +9,26 @@ import com.badlogic.gdx.files.FileHandle;
 import com.badlogic.gdx.utils.Array;
 
 import com.riiablo.codec.DC6;
+import com.riiablo.codec.FrameCache;
 
 public class DC6Loader extends AsynchronousAssetLoader<DC6, DC6Loader.DC6Parameters> {
   DC6 dc6;
+  FrameCache frameCache;
 
   public DC6Loader(FileHandleResolver resolver) {
     super(resolver);
   }
 
+  /**
+   * Sets the cache which decoded frames are read from and written to, {@code null} to disable it.
+   */
+  public void setFrameCache(FrameCache frameCache) {
+    this.frameCache = frameCache;
+  }
+
   @Override
   public void loadAsync(AssetManager assets, String fileName, FileHandle file, DC6Parameters params) {
-    dc6 = DC6.loadFromFile(file);
+    dc6 = DC6.loadFromFile(file, frameCache);
     if (params != null) {
       int preload = params.preload;
       if (preload == DC6Parameters.PRELOAD_ALL) {
@@ -38,7 +47,7 @@ public class DC6Loader extends AsynchronousAssetLoader<DC6, DC6Loader.DC6Paramet
   public DC6 loadSync(AssetManager assets, String fileName, FileHandle file, DC6Parameters params) {
     DC6 dc6 = this.dc6;
     if (dc6 == null) {
-      dc6 = DC6.loadFromFile(file);
+      dc6 = DC6.loadFromFile(file, frameCache);
     } else {
       this.dc6 = null;
     }
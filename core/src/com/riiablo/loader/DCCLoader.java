@@ -9,17 +9,30 @@ import com.badlogic.gdx.files.FileHandle;
 import com.badlogic.gdx.utils.Array;
 
 import com.riiablo.codec.DCC;
+import com.riiablo.codec.FrameCache;
 
+/**
+ * Directions are decoded and uploaded as they are first used unless they are requested with
+ * {@link DCCParameters#preload}, either all of them or a bit mask of directions.
+ */
 public class DCCLoader extends AsynchronousAssetLoader<DCC, DCCLoader.DCCParameters> {
   DCC dcc;
+  FrameCache frameCache;
 
   public DCCLoader(FileHandleResolver resolver) {
     super(resolver);
   }
 
+  /**
+   * Sets the cache which decoded frames are read from and written to, {@code null} to disable it.
+   */
+  public void setFrameCache(FrameCache frameCache) {
+    this.frameCache = frameCache;
+  }
+
   @Override
   public void loadAsync(AssetManager assets, String fileName, FileHandle file, DCCParameters params) {
-    dcc = DCC.loadFromFile(file);
+    dcc = DCC.loadFromFile(file, frameCache);
     if (params != null) {
       int preload = params.preload;
       if (preload == DCCParameters.PRELOAD_ALL) {
@@ -29,8 +42,6 @@ public class DCCLoader extends AsynchronousAssetLoader<DCC, DCCLoader.DCCParamet
           if ((preload & (1 << d)) != 0) dcc.preloadDirection(d);
         }
       }
-    } else {
-      dcc.preloadDirections(false);
     }
   }
 
@@ -38,7 +49,7 @@ public class DCCLoader extends AsynchronousAssetLoader<DCC, DCCLoader.DCCParamet
   public DCC loadSync(AssetManager assets, String fileName, FileHandle file, DCCParameters params) {
     DCC dcc = this.dcc;
     if (dcc == null) {
-      dcc = DCC.loadFromFile(file);
+      dcc = DCC.loadFromFile(file, frameCache);
     } else {
       this.dcc = null;
     }
@@ -52,8 +63,6 @@ public class DCCLoader extends AsynchronousAssetLoader<DCC, DCCLoader.DCCParamet
           if ((preload & (1 << d)) != 0) dcc.loadDirection(d);
         }
       }
-    } else {
-      dcc.loadDirections(false);
     }
 
     return dcc;
@@ -8,7 +8,9 @@ import com.badlogic.gdx.math.GridPoint2;
 import com.badlogic.gdx.utils.GdxRuntimeException;
 import com.badlogic.gdx.utils.IntMap;
 import com.badlogic.gdx.utils.StreamUtils;
+import com.riiablo.mpq.MPQFileHandle;
 import com.riiablo.util.BufferUtils;
+import com.riiablo.util.ByteBufferInputStream;
 
 import org.apache.commons.io.EndianUtils;
 import org.apache.commons.io.IOUtils;
@@ -17,6 +19,7 @@ import org.apache.commons.lang3.builder.ToStringBuilder;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 public class DS1 {
@@ -131,12 +134,26 @@ public class DS1 {
   private DS1() {}
 
   public static DS1 loadFromFile(FileHandle handle) {
+    if (handle instanceof MPQFileHandle) {
+      return loadFromBuffer(((MPQFileHandle) handle).readIntoThreadLocal());
+    }
+
     return loadFromStream(handle.read());
   }
 
+  /**
+   * Loads from the remaining bytes of {@code buffer}, which is not retained.
+   */
+  public static DS1 loadFromBuffer(ByteBuffer buffer) {
+    return load(new ByteBufferInputStream(buffer));
+  }
+
   public static DS1 loadFromStream(InputStream in) {
+    return load(IOUtils.buffer(in, 16384));
+  }
+
+  private static DS1 load(InputStream in) {
     try {
-      in = IOUtils.buffer(in, 16384);
       DS1 ds1 = new DS1().read(in);
       if (DEBUG) Gdx.app.debug(TAG, ds1.toString());
       if (ds1.version < 9 || 13 < ds1.version) {
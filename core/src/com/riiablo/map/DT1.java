@@ -12,7 +12,9 @@ import com.badlogic.gdx.utils.GdxRuntimeException;
 import com.badlogic.gdx.utils.StreamUtils;
 import com.riiablo.codec.Palette;
 import com.riiablo.graphics.PaletteIndexedPixmap;
+import com.riiablo.mpq.MPQFileHandle;
 import com.riiablo.util.BufferUtils;
+import com.riiablo.util.ByteBufferInputStream;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.Validate;
@@ -63,7 +65,22 @@ public class DT1 implements Disposable {
   }
 
   public static DT1 loadFromFile(FileHandle handle) {
-    return loadFromStream(handle.path(), handle.read());
+    return loadFromFile(handle.path(), handle);
+  }
+
+  public static DT1 loadFromFile(String fileName, FileHandle handle) {
+    if (handle instanceof MPQFileHandle) {
+      return loadFromBuffer(fileName, ((MPQFileHandle) handle).readIntoThreadLocal());
+    }
+
+    return loadFromStream(fileName, handle.read());
+  }
+
+  /**
+   * Loads from the remaining bytes of {@code buffer}, which is not retained.
+   */
+  public static DT1 loadFromBuffer(String fileName, ByteBuffer buffer) {
+    return loadFromStream(fileName, new ByteBufferInputStream(buffer));
   }
 
   public static DT1 loadFromStream(String fileName, InputStream in) {
@@ -18,14 +18,14 @@ public class DT1Loader extends AsynchronousAssetLoader<DT1, DT1Loader.DT1LoaderP
 
   @Override
   public void loadAsync(AssetManager assets, String fileName, FileHandle file, DT1LoaderParameters params) {
-    dt1 = DT1.loadFromStream(fileName, file.read());
+    dt1 = DT1.loadFromFile(fileName, file);
   }
 
   @Override
   public DT1 loadSync(AssetManager assets, String fileName, FileHandle file, DT1LoaderParameters params) {
     DT1 dt1 = this.dt1;
     if (dt1 == null) {
-      dt1 = DT1.loadFromStream(fileName, file.read());
+      dt1 = DT1.loadFromFile(fileName, file);
     } else {
       this.dt1 = null;
     }
@@ -65,8 +65,11 @@ public class MapLoader extends AsynchronousAssetLoader<Map, MapLoader.MapParamet
       }
     }
 
-    for (LvlTypes.Entry type : Riiablo.files.LvlTypes) {
-      if ((type.Act - 1) == params.act && type.Id <= 3) {
+    // loaded off the render thread, the shared array is not iterated with its iterator
+    Array<LvlTypes.Entry> types = Riiablo.files.LvlTypes.find("Act", params.act + 1);
+    for (int t = 0; t < types.size; t++) {
+      LvlTypes.Entry type = types.get(t);
+      if (type.Id <= 3) {
         for (int i = 0; type.File[i].charAt(0) != '0'; i++) {
           dependencies.add(new AssetDescriptor<>(Map.TILES_PATH + type.File[i], DT1.class));
         }
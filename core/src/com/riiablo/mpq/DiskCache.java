@@ -0,0 +1,142 @@
+package com.riiablo.mpq;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.files.FileHandle;
+import com.riiablo.util.CacheUtils;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of decompressed MPQ files on local disk, so that files only need to be decrypted and
+ * decompressed the first time they are read. Files are stored under their {@link #key(FileHandle) key}, which
+ * {@link com.riiablo.codec.FrameCache} and {@link com.riiablo.codec.excel.ExcelCache} share, and
+ * which includes a hash of the contents of the file, see {@link MPQ#crc}, so a patched file will
+ * miss instead of serving stale contents.
+ * Failing to read or write the cache is never fatal, the file is decoded from the archive instead.
+ * All methods are thread-safe.
+ */
+public class DiskCache {
+  private static final String TAG = "DiskCache";
+  private static final boolean DEBUG = !true;
+
+  private final FileHandle dir;
+
+  private final AtomicLong hits   = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong writes = new AtomicLong();
+
+  public DiskCache(FileHandle dir) {
+    this.dir = dir;
+  }
+
+  public FileHandle dir() {
+    return dir;
+  }
+
+  /**
+   * Returns the key which the contents of {@code handle} are cached under by every cache of
+   * files read from archives, or {@code null} if {@code handle} is not within an MPQ.
+   */
+  public static String key(FileHandle handle) {
+    if (!(handle instanceof MPQFileHandle)) return null;
+    MPQFileHandle mpqFile = (MPQFileHandle) handle;
+    MPQ.BlockTable.Block block = mpqFile.block != null ? mpqFile.block : mpqFile.mpq.getBlock(mpqFile.fileName);
+    return key(mpqFile.mpq, mpqFile.fileName, block);
+  }
+
+  static String key(MPQ mpq, String fileName, MPQ.BlockTable.Block block) {
+    return key(mpq.file.name(), fileName, mpq.crc(block));
+  }
+
+  /**
+   * Keys are {@code <archive name>/<file path>-<crc>}, with the path in lower case, where the CRC
+   * is a hash of the contents of the file.
+   */
+  static String key(String archive, String fileName, int crc) {
+    return archive + '/' + fileName.replace('\\', '/').toLowerCase() + '-' + String.format("%08x", crc);
+  }
+
+  File file(String key) {
+    return new File(dir.file(), key);
+  }
+
+  public ByteBuffer get(MPQ mpq, String fileName, MPQ.BlockTable.Block block) {
+    return get(key(mpq, fileName, block), block.FSize);
+  }
+
+  /**
+   * Returns the contents cached under {@code key}, see {@link CacheUtils#read(File)}, or
+   * {@code null} if there are not {@code size} bytes cached under it.
+   */
+  public ByteBuffer get(String key, int size) {
+    File file = file(key);
+    if (!file.isFile() || file.length() != size) {
+      misses.incrementAndGet();
+      return null;
+    }
+
+    try {
+      ByteBuffer buffer = CacheUtils.read(file);
+      hits.incrementAndGet();
+      if (DEBUG) Gdx.app.debug(TAG, "Read " + file);
+      return buffer;
+    } catch (IOException e) {
+      Gdx.app.error(TAG, "Unable to read " + file, e);
+      misses.incrementAndGet();
+      return null;
+    }
+  }
+
+  public void put(MPQ mpq, String fileName, MPQ.BlockTable.Block block, ByteBuffer data) {
+    put(key(mpq, fileName, block), data);
+  }
+
+  /**
+   * Writes the remaining bytes of {@code data} into the cache under {@code key}, replacing any
+   * contents already cached under it.
+   */
+  public void put(String key, ByteBuffer data) {
+    File file = file(key);
+    try {
+      CacheUtils.write(file, data);
+      writes.incrementAndGet();
+      if (DEBUG) Gdx.app.debug(TAG, "Wrote " + file);
+    } catch (IOException e) {
+      Gdx.app.error(TAG, "Unable to write " + file, e);
+    }
+  }
+
+  /**
+   * Deletes all cached files.
+   */
+  public void clear() {
+    dir.deleteDirectory();
+  }
+
+  public long hits() {
+    return hits.get();
+  }
+
+  public long misses() {
+    return misses.get();
+  }
+
+  public long writes() {
+    return writes.get();
+  }
+
+  @Override
+  public String toString() {
+    return new ToStringBuilder(this)
+        .append("dir", dir)
+        .append("hits", hits)
+        .append("misses", misses)
+        .append("writes", writes)
+        .toString();
+  }
+}
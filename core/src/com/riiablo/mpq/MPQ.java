@@ -2,39 +2,85 @@ package com.riiablo.mpq;
 
 import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.utils.Disposable;
 import com.badlogic.gdx.utils.GdxRuntimeException;
+import com.badlogic.gdx.utils.IntIntMap;
 import com.badlogic.gdx.utils.StreamUtils;
 import com.riiablo.mpq.util.Decryptor;
 import com.riiablo.util.BufferUtils;
+import com.riiablo.util.ByteBufferInputStream;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringEscapeUtils;
 import org.apache.commons.lang3.builder.ToStringBuilder;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
 
-public class MPQ {
+public class MPQ implements Disposable {
   private static final String TAG = MPQ.class.getSimpleName();
   private static final boolean DEBUG = !true;
 
+  private static final AtomicInteger NEXT_ID = new AtomicInteger();
+
+  /**
+   * Archives are mapped in segments of this size, since a single {@link MappedByteBuffer} cannot
+   * address more than {@link Integer#MAX_VALUE} bytes.
+   */
+  static final int  SEGMENT_SHIFT = 30;
+  static final int  SEGMENT_SIZE  = 1 << SEGMENT_SHIFT;
+  static final long SEGMENT_MASK  = SEGMENT_SIZE - 1;
+
   final FileHandle file;
   final Header     header;
   final HashTable  hashTable;
   final BlockTable blockTable;
 
-  private MPQ(FileHandle file, Header header, HashTable hashTable, BlockTable blockTable) {
+  /**
+   * Archive is opened once and shared by all readers -- reads against it are positional, so
+   * concurrent readers will not interfere with one another.
+   */
+  final RandomAccessFile raf;
+  final FileChannel      fc;
+
+  /**
+   * Read-only mapping of the entire archive, or {@code null} if this archive is not mapped.
+   */
+  final MappedByteBuffer[] mapping;
+
+  /**
+   * Identifies this archive within {@link SectorCache} keys.
+   */
+  final int id = NEXT_ID.getAndIncrement();
+
+  volatile SectorCache cache;
+  volatile DiskCache   diskCache;
+
+  private MPQ(FileHandle file, RandomAccessFile raf, MappedByteBuffer[] mapping,
+              Header header, HashTable hashTable, BlockTable blockTable) {
     this.file       = file;
+    this.raf        = raf;
+    this.fc         = raf.getChannel();
+    this.mapping    = mapping;
     this.header     = header;
     this.hashTable  = hashTable;
     this.blockTable = blockTable;
   }
 
+  @Override
+  public void dispose() {
+    StreamUtils.closeQuietly(raf);
+  }
+
   @Override
   public String toString() {
     return file.toString();
@@ -44,30 +90,69 @@ public class MPQ {
     return file;
   }
 
-  public boolean contains(String fileName) {
-    fileName = fileName.replaceAll("/", "\\\\");
-    return hashTable.contains(fileName);
+  public boolean isMapped() {
+    return mapping != null;
   }
 
-  public long length(String fileName) {
-    fileName = fileName.replaceAll("/", "\\\\");
-    HashTable.Entry entry = hashTable.getEntry(fileName);
-    if (entry == null) {
-      throw new GdxRuntimeException("File not found: " + fileName);
+  /**
+   * Sets the cache decompressed sectors of this archive are served from, or {@code null} to
+   * disable caching.
+   */
+  public void setSectorCache(SectorCache cache) {
+    this.cache = cache;
+  }
+
+  public SectorCache getSectorCache() {
+    return cache;
+  }
+
+  /**
+   * Sets the cache decompressed files of this archive are written to and served from, or
+   * {@code null} to always decode files from this archive.
+   */
+  public void setDiskCache(DiskCache diskCache) {
+    this.diskCache = diskCache;
+  }
+
+  public DiskCache getDiskCache() {
+    return diskCache;
+  }
+
+  /**
+   * Reads {@code dst.remaining()} bytes of this archive starting at {@code position} into
+   * {@code dst}. Reads are served from the mapping if this archive is mapped, otherwise a
+   * positional read is issued against the shared channel. Does not modify any shared state.
+   */
+  void readFully(long position, ByteBuffer dst) throws IOException {
+    if (mapping != null) {
+      while (dst.hasRemaining()) {
+        ByteBuffer segment = mapping[(int) (position >>> SEGMENT_SHIFT)].duplicate();
+        int offset = (int) (position & SEGMENT_MASK);
+        int length = Math.min(dst.remaining(), segment.limit() - offset);
+        if (length <= 0) throw new EOFException("position " + position + " is past the end of " + file);
+        segment.limit(offset + length);
+        segment.position(offset);
+        dst.put(segment);
+        position += length;
+      }
+    } else {
+      while (dst.hasRemaining()) {
+        int read = fc.read(dst, position);
+        if (read < 0) throw new EOFException("position " + position + " is past the end of " + file);
+        position += read;
+      }
     }
+  }
 
-    BlockTable.Block block = blockTable.get(entry.blockIndex);
-    assert block != null;
-    return block.FSize;
+  public boolean contains(String fileName) {
+    return hashTable.contains(fileName);
   }
 
-  public InputStream read(MPQFileHandle file) {
-    return read(file.fileName);
+  public long length(String fileName) {
+    return getBlock(fileName).FSize;
   }
 
-  public InputStream read(String fileName) {
-    fileName = fileName.replaceAll("/", "\\\\");
-    Gdx.app.log(TAG, "Reading " + fileName + "...");
+  BlockTable.Block getBlock(String fileName) {
     HashTable.Entry entry = hashTable.getEntry(fileName);
     if (DEBUG) Gdx.app.debug(TAG, "entry = " + Objects.toString(entry));
     if (entry == null) {
@@ -77,32 +162,175 @@ public class MPQ {
     final BlockTable.Block block = blockTable.get(entry.blockIndex);
     if (DEBUG) Gdx.app.debug(TAG, "block = " + Objects.toString(block));
     assert block != null;
+    return block;
+  }
+
+  public InputStream read(MPQFileHandle file) {
+    return read(file.fileName, file.block != null ? file.block : getBlock(file.fileName));
+  }
 
-    return new MPQInputStream(this, fileName, block);
+  public InputStream read(String fileName) {
+    return read(fileName, getBlock(fileName));
+  }
+
+  InputStream read(String fileName, BlockTable.Block block) {
+    Gdx.app.log(TAG, "Reading " + fileName + "...");
+    ByteBuffer cached = readCached(fileName, block);
+    if (cached == null) return new MPQInputStream(this, fileName, block);
+    // only mappings remain valid after the next read on this thread
+    if (!(cached instanceof MappedByteBuffer)) cached = ByteBuffer.wrap(BufferUtils.readRemaining(cached));
+    return new ByteBufferInputStream(cached);
   }
 
   public byte[] readBytes(MPQFileHandle file) {
-    return readBytes(file.fileName);
+    return readBytes(file.fileName, file.block != null ? file.block : getBlock(file.fileName));
   }
 
   public byte[] readBytes(String fileName) {
-    fileName = fileName.replaceAll("/", "\\\\");
+    return readBytes(fileName, getBlock(fileName));
+  }
+
+  byte[] readBytes(String fileName, BlockTable.Block block) {
     Gdx.app.log(TAG, "Reading " + fileName + "...");
-    HashTable.Entry entry = hashTable.getEntry(fileName);
-    if (DEBUG) Gdx.app.debug(TAG, "entry = " + Objects.toString(entry));
-    if (entry == null) {
-      throw new GdxRuntimeException("File not found: " + fileName);
+    ByteBuffer cached = readCached(fileName, block);
+    if (cached == null) return MPQInputStream.readBytes(this, fileName, block);
+    return BufferUtils.readRemaining(cached);
+  }
+
+  /**
+   * Decodes {@code file} directly into {@code dst}, see
+   * {@link MPQInputStream#readInto(MPQ, String, BlockTable.Block, ByteBuffer)}.
+   *
+   * @return the number of bytes written into {@code dst}
+   */
+  public int readInto(MPQFileHandle file, ByteBuffer dst) {
+    return readInto(file.fileName, file.block != null ? file.block : getBlock(file.fileName), dst);
+  }
+
+  public int readInto(String fileName, ByteBuffer dst) {
+    return readInto(fileName, getBlock(fileName), dst);
+  }
+
+  int readInto(String fileName, BlockTable.Block block, ByteBuffer dst) {
+    ByteBuffer cached = readCached(fileName, block);
+    if (cached == null) return MPQInputStream.readInto(this, fileName, block, dst);
+    if (dst.remaining() < block.FSize) {
+      throw new GdxRuntimeException("Buffer too small to read " + fileName + ": "
+          + dst.remaining() + " bytes remaining, " + block.FSize + " bytes required");
     }
 
-    final BlockTable.Block block = blockTable.get(entry.blockIndex);
-    if (DEBUG) Gdx.app.debug(TAG, "block = " + Objects.toString(block));
-    assert block != null;
+    dst.put(cached);
+    return block.FSize;
+  }
 
-    return MPQInputStream.readBytes(this, fileName, block);
+  /**
+   * Returns the contents of {@code block} from {@link #diskCache}, decoding and caching them first
+   * if they are not cached yet, or {@code null} if this archive has no disk cache. Hits are
+   * returned as {@link DiskCache#get(String, int)} does, so unless they are mapped, they are only
+   * valid until the next read on the calling thread. Misses wrap the decoded array.
+   */
+  ByteBuffer readCached(String fileName, BlockTable.Block block) {
+    final DiskCache diskCache = this.diskCache;
+    if (diskCache == null) return null;
+    ByteBuffer cached = diskCache.get(this, fileName, block);
+    if (cached != null) return cached;
+    ByteBuffer bytes = ByteBuffer.wrap(MPQInputStream.readBytes(this, fileName, block)).order(ByteOrder.LITTLE_ENDIAN);
+    diskCache.put(this, fileName, block, bytes);
+    return bytes;
+  }
+
+  /**
+   * CRC32 of each file by block index, read from the {@link #ATTRIBUTES} of this archive, or an
+   * empty array if it has none or they do not include CRCs.
+   */
+  private volatile int[] attributes;
+
+  /** CRC32 of the stored bytes of blocks without an attribute CRC, by block index */
+  private final IntIntMap hashes = new IntIntMap();
+
+  static final String ATTRIBUTES = "(attributes)";
+  static final int    ATTRIBUTE_CRC32 = 0x00000001;
+
+  /**
+   * Returns a hash of the contents of {@code block}, which changes whenever they do, even if the
+   * file is neither moved nor resized. This is its CRC32 from the {@link #ATTRIBUTES} of this
+   * archive if it has one, otherwise the CRC32 of its bytes as stored in this archive, which is
+   * only computed once per block.
+   */
+  int crc(BlockTable.Block block) {
+    final int[] attributes = attributes();
+    if (block.index < attributes.length && attributes[block.index] != 0) return attributes[block.index];
+    synchronized (hashes) {
+      if (hashes.containsKey(block.index)) return hashes.get(block.index, 0);
+    }
+
+    final CRC32 crc = new CRC32();
+    final byte[] bytes = new byte[Math.min(block.CSize, 1 << 16)];
+    final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    try {
+      for (long position = block.filePos, end = position + block.CSize; position < end; ) {
+        final int length = (int) Math.min(bytes.length, end - position);
+        buffer.clear();
+        buffer.limit(length);
+        readFully(position, buffer);
+        crc.update(bytes, 0, length);
+        position += length;
+      }
+    } catch (IOException e) {
+      throw new GdxRuntimeException("Unable to hash block " + block.index + " of " + file, e);
+    }
+
+    synchronized (hashes) {
+      hashes.put(block.index, (int) crc.getValue());
+    }
+
+    return (int) crc.getValue();
+  }
+
+  private int[] attributes() {
+    int[] attributes = this.attributes;
+    if (attributes == null) {
+      synchronized (hashes) {
+        attributes = this.attributes;
+        if (attributes == null) this.attributes = attributes = readAttributes();
+      }
+    }
+
+    return attributes;
+  }
+
+  /**
+   * The attributes are a version and flags, followed by a CRC32 for every entry of the block
+   * table if the {@link #ATTRIBUTE_CRC32} flag is set.
+   */
+  private int[] readAttributes() {
+    if (!contains(ATTRIBUTES)) return new int[0];
+    try {
+      ByteBuffer buffer = ByteBuffer
+          .wrap(MPQInputStream.readBytes(this, ATTRIBUTES, getBlock(ATTRIBUTES)))
+          .order(ByteOrder.LITTLE_ENDIAN);
+      buffer.getInt(); // version
+      int flags = buffer.getInt();
+      if ((flags & ATTRIBUTE_CRC32) == 0) return new int[0];
+      int[] attributes = new int[Math.min(blockTable.blocks.length, buffer.remaining() >> 2)];
+      buffer.asIntBuffer().get(attributes);
+      return attributes;
+    } catch (Throwable t) {
+      Gdx.app.error(TAG, "Unable to read " + ATTRIBUTES + " of " + file, t);
+      return new int[0];
+    }
   }
 
   public static MPQ loadFromFile(FileHandle file) {
-    Gdx.app.log(TAG, "Loading " + file.name() + "...");
+    return loadFromFile(file, false);
+  }
+
+  /**
+   * @param mapped whether or not the entire archive should be memory-mapped, in which case all
+   *               subsequent reads are served from the mapping instead of the file channel.
+   */
+  public static MPQ loadFromFile(FileHandle file, boolean mapped) {
+    Gdx.app.log(TAG, "Loading " + file.name() + (mapped ? " (mapped)..." : "..."));
     RandomAccessFile raf = null;
     try {
       raf = new RandomAccessFile(file.file(), "r");
@@ -128,14 +356,27 @@ public class MPQ {
 
       raf.seek(header.blockTableOffset);
       BlockTable blockTable = new BlockTable(header, fc);
-      return new MPQ(file, header, hashTable, blockTable);
+
+      MappedByteBuffer[] mapping = mapped ? map(fc) : null;
+      return new MPQ(file, raf, mapping, header, hashTable, blockTable);
     } catch (Exception e) {
-      throw new GdxRuntimeException("Couldn't load file: " + file, e);
-    } finally {
       StreamUtils.closeQuietly(raf);
+      throw new GdxRuntimeException("Couldn't load file: " + file, e);
     }
   }
 
+  static MappedByteBuffer[] map(FileChannel fc) throws IOException {
+    final long size = fc.size();
+    final int segments = (int) ((size + SEGMENT_SIZE - 1) >>> SEGMENT_SHIFT);
+    MappedByteBuffer[] mapping = new MappedByteBuffer[segments];
+    for (int i = 0; i < segments; i++) {
+      long position = (long) i << SEGMENT_SHIFT;
+      mapping[i] = fc.map(FileChannel.MapMode.READ_ONLY, position, Math.min(SEGMENT_SIZE, size - position));
+    }
+
+    return mapping;
+  }
+
   static class Header {
     static final int SIZE = 0x00000020;
     static final int DISK_SECTOR_SIZE = 0x00000200;
@@ -254,14 +495,14 @@ public class MPQ {
     }
 
     static class File {
-      static long key(String file) {
-        int key1 = Decryptor.HASH_TABLE_KEY1.hash(file);
-        int key2 = Decryptor.HASH_TABLE_KEY2.hash(file);
+      static long key(CharSequence file) {
+        int key1 = Decryptor.HASH_TABLE_KEY1.hashPath(file);
+        int key2 = Decryptor.HASH_TABLE_KEY2.hashPath(file);
         return ((long) key2 << Integer.SIZE) | (key1 & 0xFFFFFFFFL);
       }
 
-      static int offset(String file) {
-        return Decryptor.HASH_TABLE_OFFSET.hash(file);
+      static int offset(CharSequence file) {
+        return Decryptor.HASH_TABLE_OFFSET.hashPath(file);
       }
     }
     static class Entry {
@@ -348,7 +589,7 @@ public class MPQ {
 
       blocks = new Block[capacity];
       for (int i = 0; i < capacity; i++) {
-        blocks[i] = new Block(buffer);
+        blocks[i] = new Block(i, buffer);
       }
     }
 
@@ -369,12 +610,14 @@ public class MPQ {
       static final int FLAG_SECTOR_CRC    = 0x04000000;
       static final int FLAG_EXISTS        = 0x80000000;
 
+      final int  index;
       final long filePos;
       final int  CSize;
       final int  FSize;
       final int  flags;
 
-      Block(ByteBuffer in) {
+      Block(int index, ByteBuffer in) {
+        this.index = index;
         filePos = BufferUtils.readUnsignedInt(in);
         CSize   = in.getInt();
         FSize   = in.getInt();
@@ -403,6 +646,7 @@ public class MPQ {
       @Override
       public String toString() {
         return new ToStringBuilder(this)
+            .append("index", index)
             .append("filePos", "0x" + Long.toHexString(filePos))
             .append("CSize", CSize)
             .append("FSize", FSize)
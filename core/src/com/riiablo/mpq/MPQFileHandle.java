@@ -1,21 +1,42 @@
 package com.riiablo.mpq;
 
 import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.math.MathUtils;
 
 import org.apache.commons.io.FilenameUtils;
 
 import java.io.File;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 public class MPQFileHandle extends FileHandle {
   private static final String TAG = "MPQFileHandle";
 
+  private static final ThreadLocal<ByteBuffer> buffers = new ThreadLocal<ByteBuffer>() {
+    @Override
+    protected ByteBuffer initialValue() {
+      return ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+    }
+  };
+
   public final MPQ mpq;
   public final String fileName;
 
+  /**
+   * Block of {@link #fileName} within {@link #mpq} if it was already resolved, otherwise
+   * {@code null} and it will be looked up on demand.
+   */
+  final MPQ.BlockTable.Block block;
+
   public MPQFileHandle(MPQ mpq, String fileName) {
+    this(mpq, fileName, null);
+  }
+
+  MPQFileHandle(MPQ mpq, String fileName, MPQ.BlockTable.Block block) {
     this.mpq = mpq;
     this.fileName = fileName;
+    this.block = block;
   }
 
   @Override
@@ -28,9 +49,41 @@ public class MPQFileHandle extends FileHandle {
     return mpq.readBytes(this);
   }
 
+  /**
+   * Decodes this file directly into {@code dst}, starting at its current position.
+   *
+   * @return the number of bytes written into {@code dst}
+   */
+  public int readInto(ByteBuffer dst) {
+    return mpq.readInto(this, dst);
+  }
+
+  /**
+   * Decodes this file into a buffer owned by the calling thread, growing it if needed. The
+   * returned buffer is positioned at {@code 0} with its limit set to the size of the file. Its
+   * contents are only valid until the next read on the same thread, so it must not be retained.
+   * If {@link #mpq} has a {@link DiskCache}, the cached file is returned instead of being copied.
+   */
+  public ByteBuffer readIntoThreadLocal() {
+    ByteBuffer cached = mpq.readCached(fileName, block != null ? block : mpq.getBlock(fileName));
+    if (cached != null) return cached;
+
+    final int length = (int) length();
+    ByteBuffer buffer = buffers.get();
+    if (buffer.capacity() < length) {
+      buffer = ByteBuffer.allocate(MathUtils.nextPowerOfTwo(length)).order(ByteOrder.LITTLE_ENDIAN);
+      buffers.set(buffer);
+    }
+
+    buffer.clear();
+    readInto(buffer);
+    buffer.flip();
+    return buffer;
+  }
+
   @Override
   public boolean exists() {
-    return mpq.contains(fileName);
+    return block != null || mpq.contains(fileName);
   }
 
   @Override
@@ -40,7 +93,21 @@ public class MPQFileHandle extends FileHandle {
 
   @Override
   public long length() {
-    return mpq.length(fileName);
+    return block != null ? block.FSize : mpq.length(fileName);
+  }
+
+  /**
+   * Size of this file within {@link #mpq}, i.e., after compression.
+   */
+  public long compressedLength() {
+    return (block != null ? block : mpq.getBlock(fileName)).CSize;
+  }
+
+  /**
+   * Position of this file within {@link #mpq}, files can be read in this order to avoid seeking.
+   */
+  public long offset() {
+    return (block != null ? block : mpq.getBlock(fileName)).filePos;
   }
 
   @Override
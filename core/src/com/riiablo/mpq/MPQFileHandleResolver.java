@@ -3,11 +3,13 @@ package com.riiablo.mpq;
 import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.assets.loaders.FileHandleResolver;
 import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.Disposable;
 import com.riiablo.Riiablo;
 
 import java.util.concurrent.CopyOnWriteArrayList;
 
-public class MPQFileHandleResolver implements FileHandleResolver {
+public class MPQFileHandleResolver implements FileHandleResolver, Disposable {
   private static final String TAG = "MPQFileHandleResolver";
   private static final boolean DEBUG = !true;
 
@@ -28,6 +30,16 @@ public class MPQFileHandleResolver implements FileHandleResolver {
   }
 
   public MPQFileHandleResolver(FileHandle home) {
+    this(home, false);
+  }
+
+  /**
+   * @param mapped whether or not archives should be memory-mapped
+   *
+   * @see MPQ#loadFromFile(FileHandle, boolean)
+   */
+  public MPQFileHandleResolver(FileHandle home, boolean mapped) {
+    this.mapped = mapped;
     patch_d2 = add(home.child("patch_d2.mpq"));
     d2exp    = add(home.child("d2exp.mpq"));
     d2xmusic = add(home.child("d2xmusic.mpq"));
@@ -42,38 +54,132 @@ public class MPQFileHandleResolver implements FileHandleResolver {
   }
 
   private final CopyOnWriteArrayList<MPQ> mpqs = new CopyOnWriteArrayList<>();
+  private final boolean mapped;
+
+  /**
+   * Merged file index of {@link #mpqs}, rebuilt whenever an archive is added.
+   */
+  private volatile MPQIndex index = MPQIndex.EMPTY;
+
+  private SectorCache cache;
+  private DiskCache diskCache;
 
-  public MPQ add(MPQ mpq) {
+  /**
+   * External listfiles, in addition to the {@code (listfile)} of each archive.
+   */
+  private final CopyOnWriteArrayList<FileHandle> listfiles = new CopyOnWriteArrayList<>();
+
+  /**
+   * Directory tree of {@link #mpqs}, or {@code null} if it needs to be rebuilt.
+   */
+  private volatile MPQTree tree;
+
+  public synchronized MPQ add(MPQ mpq) {
+    if (cache != null) mpq.setSectorCache(cache);
+    if (diskCache != null) mpq.setDiskCache(diskCache);
     mpqs.add(mpq);
+    index = index.with(mpq);
+    tree = null;
     return mpq;
   }
 
   public MPQ add(FileHandle file) {
-    return add(MPQ.loadFromFile(file));
+    return add(MPQ.loadFromFile(file, mapped));
   }
 
-  public boolean contains(String fileName) {
+  /**
+   * Sets the sector cache shared by all current and future archives, or {@code null} to disable
+   * sector caching.
+   */
+  public synchronized void setSectorCache(SectorCache cache) {
+    this.cache = cache;
+    for (MPQ mpq : mpqs) mpq.setSectorCache(cache);
+  }
+
+  public synchronized SectorCache getSectorCache() {
+    return cache;
+  }
+
+  /**
+   * Sets the disk cache shared by all current and future archives, or {@code null} to disable
+   * caching decompressed files on disk.
+   */
+  public synchronized void setDiskCache(DiskCache diskCache) {
+    this.diskCache = diskCache;
+    for (MPQ mpq : mpqs) mpq.setDiskCache(diskCache);
+  }
+
+  public synchronized DiskCache getDiskCache() {
+    return diskCache;
+  }
+
+  /**
+   * Adds a listfile naming files which may be contained by these archives, for archives without
+   * a {@code (listfile)} or whose {@code (listfile)} is incomplete.
+   */
+  public synchronized void addListfile(FileHandle listfile) {
+    if (listfiles.addIfAbsent(listfile)) tree = null;
+  }
+
+  /**
+   * Returns the directory tree of all files named by the listfiles of these archives and those
+   * added with {@link #addListfile(FileHandle)}. The tree is built on first use, and again after
+   * archives or listfiles are added.
+   */
+  public MPQTree tree() {
+    MPQTree tree = this.tree;
+    if (tree == null) {
+      synchronized (this) {
+        tree = this.tree;
+        if (tree == null) this.tree = tree = buildTree();
+      }
+    }
+
+    return tree;
+  }
+
+  private MPQTree buildTree() {
+    Array<String> fileNames = new Array<>(String.class);
     for (MPQ mpq : mpqs) {
-      if (mpq.contains(fileName)) {
-        return true;
+      if (mpq.contains(MPQTree.LISTFILE)) {
+        MPQTree.readListfile(mpq.readBytes(MPQTree.LISTFILE), fileNames);
       }
     }
 
-    return false;
+    for (FileHandle listfile : listfiles) {
+      MPQTree.readListfile(listfile.readBytes(), fileNames);
+    }
+
+    MPQTree tree = MPQTree.build(index, fileNames);
+    Gdx.app.log(TAG, "Built " + tree + " from " + fileNames.size + " names");
+    return tree;
+  }
+
+  @Override
+  public synchronized void dispose() {
+    for (MPQ mpq : mpqs) mpq.dispose();
+    mpqs.clear();
+    index = MPQIndex.EMPTY;
+    tree = MPQTree.EMPTY;
+  }
+
+  public boolean contains(String fileName) {
+    return index.find(fileName) != -1;
   }
 
   @Override
   public FileHandle resolve(String fileName) {
     if (DEBUG) Gdx.app.debug(TAG, "Resolving " + fileName);
     if (fileName == null) return null;
-    for (MPQ mpq : mpqs) {
-      if (mpq.contains(fileName)) {
-        if (DEBUG) Gdx.app.debug(TAG, fileName + " found in " + mpq);
-        return new MPQFileHandle(mpq, fileName);
-      }
+    final MPQIndex index = this.index;
+    final int slot = index.find(fileName);
+    if (slot == -1) {
+      //Gdx.app.error(TAG, "Could not resolve " + fileName);
+      return null;
     }
 
-    //Gdx.app.error(TAG, "Could not resolve " + fileName);
-    return null;
+    MPQ mpq = index.mpqs[slot];
+    if (DEBUG) Gdx.app.debug(TAG, fileName + " found in " + mpq);
+    return new MPQFileHandle(mpq, fileName, index.blocks[slot]);
   }
 }
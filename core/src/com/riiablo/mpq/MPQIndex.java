@@ -0,0 +1,103 @@
+package com.riiablo.mpq;
+
+import com.badlogic.gdx.math.MathUtils;
+
+/**
+ * Merged view of the hash tables of several {@link MPQ} archives. Each file key maps directly to
+ * the block of the highest priority archive containing it, so resolving a file costs a single
+ * probe of an open-addressed table and allocates nothing. Instances are immutable, adding an
+ * archive creates a new index, with the added archive having the lowest priority.
+ */
+final class MPQIndex {
+  static final MPQIndex EMPTY = new MPQIndex(new long[1], new MPQ[1], new MPQ.BlockTable.Block[1], new short[1], 0);
+
+  final long[]                 keys;
+  final MPQ[]                  mpqs; // null if slot is empty
+  final MPQ.BlockTable.Block[] blocks;
+  final short[]                locales;
+  final int                    mask;
+  final int                    size;
+
+  private MPQIndex(long[] keys, MPQ[] mpqs, MPQ.BlockTable.Block[] blocks, short[] locales, int size) {
+    this.keys    = keys;
+    this.mpqs    = mpqs;
+    this.blocks  = blocks;
+    this.locales = locales;
+    this.mask    = keys.length - 1;
+    this.size    = size;
+  }
+
+  static long key(CharSequence fileName) {
+    return MPQ.HashTable.File.key(fileName);
+  }
+
+  private static int hash(long key) {
+    int h = (int) (key ^ (key >>> 32));
+    return h ^ (h >>> 16);
+  }
+
+  /**
+   * Returns the slot of {@code fileName}, or {@code -1} if no archive contains it.
+   */
+  int find(CharSequence fileName) {
+    return find(key(fileName));
+  }
+
+  int find(long key) {
+    for (int i = hash(key) & mask; mpqs[i] != null; i = (i + 1) & mask) {
+      if (keys[i] == key) return i;
+    }
+
+    return -1;
+  }
+
+  MPQIndex with(MPQ mpq) {
+    MPQ.HashTable.Entry[] entries = mpq.hashTable.entries;
+    int capacity = MathUtils.nextPowerOfTwo((size + entries.length) * 2);
+    long[] keys = new long[capacity];
+    MPQ[] mpqs = new MPQ[capacity];
+    MPQ.BlockTable.Block[] blocks = new MPQ.BlockTable.Block[capacity];
+    short[] locales = new short[capacity];
+    int size = 0;
+    for (int i = 0; i < this.keys.length; i++) {
+      if (this.mpqs[i] == null) continue;
+      if (put(keys, mpqs, blocks, locales, this.keys[i], this.mpqs[i], this.blocks[i], this.locales[i])) size++;
+    }
+
+    for (MPQ.HashTable.Entry entry : entries) {
+      if (entry.blockIndex < 0) continue; // UNUSED or DELETED
+      if (put(keys, mpqs, blocks, locales, entry.key, mpq, mpq.blockTable.get(entry.blockIndex), entry.locale)) size++;
+    }
+
+    return new MPQIndex(keys, mpqs, blocks, locales, size);
+  }
+
+  /**
+   * Entries from archives already in the index take precedence. Within the same archive, entries
+   * of the default locale take precedence, which matches {@link MPQ.HashTable#getIndex}.
+   *
+   * @return whether {@code key} was added to a new slot
+   */
+  private static boolean put(long[] keys, MPQ[] mpqs, MPQ.BlockTable.Block[] blocks, short[] locales,
+                             long key, MPQ mpq, MPQ.BlockTable.Block block, short locale) {
+    final int mask = keys.length - 1;
+    int i = hash(key) & mask;
+    for (; mpqs[i] != null; i = (i + 1) & mask) {
+      if (keys[i] == key) {
+        if (mpqs[i] == mpq && locale == MPQ.HashTable.Entry.DEFAULT_LOCALE
+            && locales[i] != MPQ.HashTable.Entry.DEFAULT_LOCALE) {
+          blocks[i] = block;
+          locales[i] = locale;
+        }
+
+        return false;
+      }
+    }
+
+    keys[i] = key;
+    mpqs[i] = mpq;
+    blocks[i] = block;
+    locales[i] = locale;
+    return true;
+  }
+}
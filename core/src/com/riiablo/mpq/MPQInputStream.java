@@ -1,23 +1,22 @@
 package com.riiablo.mpq;
 
 import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.math.MathUtils;
 import com.badlogic.gdx.utils.GdxRuntimeException;
-import com.badlogic.gdx.utils.StreamUtils;
 import com.riiablo.mpq.util.Decompressor;
 import com.riiablo.mpq.util.Decryptor;
 import com.riiablo.mpq.util.Exploder;
 import com.riiablo.util.BufferUtils;
 
 import org.apache.commons.io.FilenameUtils;
-import org.apache.commons.io.IOUtils;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.nio.channels.FileChannel;
 import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 public class MPQInputStream extends InputStream {
   private static final String TAG = "MPQInputStream";
@@ -25,7 +24,12 @@ public class MPQInputStream extends InputStream {
 
   private static final int[] ZERO_ARRAY = new int[] { 0 };
 
-  final FileChannel          fc;
+  /** files at least this large are decoded by {@link #readBytes} using multiple threads */
+  static final int PARALLEL_THRESHOLD = 1 << 20;
+  /** maximum number of sectors decoded serially by a single parallel task */
+  static final int PARALLEL_GRAIN = 8;
+
+  final MPQ                  mpq;
   final MPQ.BlockTable.Block block;
   final ByteBuffer           sector;
   final ByteBuffer           buffer;
@@ -36,20 +40,15 @@ public class MPQInputStream extends InputStream {
   final int sectorOffsets[];
 
   final int key;
+  long position;
   int curSector = 0;
   int finalSize = 0;
   int read = 0;
 
   public MPQInputStream(MPQ mpq, String fileName, MPQ.BlockTable.Block block) {
-    try {
-      RandomAccessFile raf = new RandomAccessFile(mpq.file.file(), "r");
-      fc = raf.getChannel();
-      fc.position(block.filePos);
-    } catch (Exception e) {
-      throw new GdxRuntimeException("Unable to read block: " + block, e);
-    }
-
+    this.mpq = mpq;
     this.block = block;
+    position = block.filePos;
     sectorSize = mpq.header.sectorSize;
     sectorCount = (block.FSize + sectorSize - 1) / sectorSize;
     sector = ByteBuffer.allocate(sectorSize).order(ByteOrder.LITTLE_ENDIAN);
@@ -77,7 +76,7 @@ public class MPQInputStream extends InputStream {
       sectorOffsets = new int[sectorCount + 1];
       ByteBuffer sectors = ByteBuffer.wrap(new byte[(sectorCount + 1) << 2]).order(ByteOrder.LITTLE_ENDIAN);
       try {
-        IOUtils.readFully(fc, sectors);
+        mpq.readFully(position, sectors);
         sectors.flip();
       } catch (IOException e) {
         throw new GdxRuntimeException("Unable to read sector offsets: " + block, e);
@@ -160,12 +159,19 @@ public class MPQInputStream extends InputStream {
       return;
     }
 
+    if (sectorOffsets != ZERO_ARRAY
+        && !block.hasFlag(MPQ.BlockTable.Block.FLAG_SINGLE_UNIT)
+        && readCachedSector()) {
+      return;
+    }
+
     if (block.hasFlag(MPQ.BlockTable.Block.FLAG_SINGLE_UNIT)) {
       if (DEBUG) Gdx.app.debug(TAG, "Reading as single unit...");
 
       assert sector.position() == 0;
       assert sector.limit() == block.CSize;
-      IOUtils.readFully(fc, sector);
+      mpq.readFully(position, sector);
+      position += sector.position();
       sector.flip();
 
       if (block.hasFlag(MPQ.BlockTable.Block.FLAG_ENCRYPTED)) {
@@ -184,14 +190,12 @@ public class MPQInputStream extends InputStream {
     } else if (block.hasFlag(MPQ.BlockTable.Block.FLAG_COMPRESSED)) {
       assert curSector < sectorCount;
       if (DEBUG) Gdx.app.debug(TAG, "Reading sector " + (curSector + 1) + " / " + sectorCount);
-      fc.position(block.filePos + sectorOffsets[curSector]);
-
       final int start = sectorOffsets[curSector];
       final int end   = sectorOffsets[curSector + 1];
       final int CSize = end - start;
       sector.clear();
       sector.limit(CSize);
-      IOUtils.readFully(fc, sector);
+      mpq.readFully(block.filePos + start, sector);
       sector.rewind();
 
       if (block.hasFlag(MPQ.BlockTable.Block.FLAG_ENCRYPTED)) {
@@ -206,20 +210,19 @@ public class MPQInputStream extends InputStream {
       Decompressor.decompress(sector, buffer, scratch, CSize, FSize);
       if (DEBUG) Gdx.app.debug(TAG, "Decompressed " + buffer.limit() + " bytes");
       buffer.rewind();
+      cacheSector();
 
       finalSize += sectorSize;
       curSector++;
     } else if (block.hasFlag(MPQ.BlockTable.Block.FLAG_IMPLODE)) {
       assert curSector < sectorCount;
       if (DEBUG) Gdx.app.debug(TAG, "Reading sector " + (curSector + 1) + " / " + sectorCount + " " + block.getFlags());
-      fc.position(block.filePos + sectorOffsets[curSector]);
-
       final int start = sectorOffsets[curSector];
       final int end = sectorOffsets[curSector + 1];
       final int CSize = end - start;
       sector.clear();
       sector.limit(CSize);
-      IOUtils.readFully(fc, sector);
+      mpq.readFully(block.filePos + start, sector);
       sector.rewind();
 
       if (block.hasFlag(MPQ.BlockTable.Block.FLAG_ENCRYPTED)) {
@@ -238,6 +241,7 @@ public class MPQInputStream extends InputStream {
       }
       if (DEBUG) Gdx.app.debug(TAG, "Exploded to " + buffer.position() + " bytes");
       buffer.rewind();
+      cacheSector();
 
       finalSize += sectorSize;
       curSector++;
@@ -248,7 +252,8 @@ public class MPQInputStream extends InputStream {
 
       final int FSize = Math.min(block.FSize - finalSize, sectorSize);
       buffer.rewind().limit(FSize);
-      IOUtils.readFully(fc, buffer);
+      mpq.readFully(position, buffer);
+      position += FSize;
       buffer.rewind();
 
       finalSize += sectorSize;
@@ -269,18 +274,58 @@ public class MPQInputStream extends InputStream {
     }
   }
 
+  /**
+   * Serves the current sector from the sector cache if it is cached.
+   */
+  private boolean readCachedSector() {
+    final SectorCache cache = mpq.cache;
+    if (cache == null) return false;
+    byte[] data = cache.get(SectorCache.key(mpq, block, curSector));
+    if (data == null) return false;
+    if (DEBUG) Gdx.app.debug(TAG, "Sector " + (curSector + 1) + " / " + sectorCount + " cached");
+    buffer.clear();
+    buffer.put(data);
+    buffer.flip();
+
+    finalSize += sectorSize;
+    curSector++;
+    return true;
+  }
+
+  private void cacheSector() {
+    final SectorCache cache = mpq.cache;
+    if (cache == null) return;
+    cache.put(SectorCache.key(mpq, block, curSector), Arrays.copyOf(buffer.array(), buffer.limit()));
+  }
+
   public static byte[] readBytes(MPQ mpq, String fileName, MPQ.BlockTable.Block block) {
-    RandomAccessFile raf = null;
-    try {
-      raf = new RandomAccessFile(mpq.file.file(), "r");
-      FileChannel fc = raf.getChannel();
-      fc.position(block.filePos);
+    final byte[] bytes = new byte[block.FSize];
+    readInto(mpq, fileName, block, ByteBuffer.wrap(bytes));
+    return bytes;
+  }
+
+  /**
+   * Decodes the contents of {@code block} into {@code dst}, starting at its current position, and
+   * advances its position by the size of the file. {@code dst} may be a heap or direct buffer and
+   * must have at least {@link MPQ.BlockTable.Block#FSize} bytes remaining. Working buffers are
+   * reused per thread, so repeated calls only allocate when the file is cached for the first time
+   * or is large enough to be decoded in parallel.
+   *
+   * @return the number of bytes written into {@code dst}
+   */
+  public static int readInto(MPQ mpq, String fileName, MPQ.BlockTable.Block block, ByteBuffer dst) {
+    if (dst.remaining() < block.FSize) {
+      throw new GdxRuntimeException("Buffer too small to read " + fileName + ": "
+          + dst.remaining() + " bytes remaining, " + block.FSize + " bytes required");
+    }
 
+    try {
       final int sectorSize = mpq.header.sectorSize;
       final int sectorCount = (block.FSize + sectorSize - 1) / sectorSize;
-      final ByteBuffer sector = ByteBuffer.allocate(sectorSize).order(ByteOrder.LITTLE_ENDIAN);
-      final ByteBuffer buffer = ByteBuffer.allocate(block.FSize).order(ByteOrder.LITTLE_ENDIAN);
-      final ByteBuffer scratch = ByteBuffer.allocate(sectorSize).order(ByteOrder.LITTLE_ENDIAN);
+      final Buffers buffers = Buffers.get(sectorSize);
+      final ByteBuffer sector = buffers.sector;
+      final ByteBuffer scratch = buffers.scratch;
+      final ByteBuffer buffer = BufferUtils.slice(dst, block.FSize).order(ByteOrder.LITTLE_ENDIAN);
 
       int tmp = 0;
       if (block.hasFlag(MPQ.BlockTable.Block.FLAG_ENCRYPTED)) {
@@ -294,7 +339,8 @@ public class MPQInputStream extends InputStream {
       final int key = tmp;
       if (block.hasFlag(MPQ.BlockTable.Block.FLAG_SINGLE_UNIT)) {
         if (DEBUG) Gdx.app.debug(TAG, "Reading as single unit...");
-        IOUtils.readFully(fc, sector);
+        sector.clear();
+        mpq.readFully(block.filePos, sector);
         sector.flip();
 
         if (block.hasFlag(MPQ.BlockTable.Block.FLAG_ENCRYPTED)) {
@@ -306,17 +352,13 @@ public class MPQInputStream extends InputStream {
         if (block.hasFlag(MPQ.BlockTable.Block.FLAG_COMPRESSED)) {
           if (DEBUG) Gdx.app.debug(TAG, "Decompressing...");
           Decompressor.decompress(sector, buffer, scratch, block.CSize, block.FSize);
-          assert buffer.position() == block.FSize;
-          buffer.flip();
         }
-
-        buffer.flip();
       } else if (block.hasFlag(MPQ.BlockTable.Block.FLAG_COMPRESSED) || block.hasFlag(MPQ.BlockTable.Block.FLAG_IMPLODE)) {
         if (DEBUG) Gdx.app.debug(TAG, "Populating sector offsets table");
-        final int[] sectorOffsets = new int[sectorCount + 1];
-        ByteBuffer sectors = ByteBuffer.wrap(new byte[(sectorCount + 1) << 2]).order(ByteOrder.LITTLE_ENDIAN);
+        final int[] sectorOffsets = buffers.sectorOffsets(sectorCount + 1);
+        ByteBuffer sectors = buffers.sectors((sectorCount + 1) << 2);
         try {
-          IOUtils.readFully(fc, sectors);
+          mpq.readFully(block.filePos, sectors);
           sectors.flip();
         } catch (IOException e) {
           throw new GdxRuntimeException("Unable to read sector offsets: " + block, e);
@@ -333,75 +375,199 @@ public class MPQInputStream extends InputStream {
         }
 
         sectorOffsets[sectorCount] = block.CSize;
-        if (DEBUG) Gdx.app.debug(TAG, "sector offsets = " + Arrays.toString(sectorOffsets));
-
-        int finalSize = 0;
-        for (int curSector = 0; curSector < sectorCount; curSector++) {
-          if (DEBUG) Gdx.app.debug(TAG, "Reading sector " + (curSector + 1) + " / " + sectorCount + " " + block.getFlags());
-          fc.position(block.filePos + sectorOffsets[curSector]);
-
-          final int start = sectorOffsets[curSector];
-          final int end = sectorOffsets[curSector + 1];
-          final int CSize = end - start;
-          sector.clear();
-          sector.limit(CSize);
-          IOUtils.readFully(fc, sector);
-          sector.rewind();
-
-          if (block.hasFlag(MPQ.BlockTable.Block.FLAG_ENCRYPTED)) {
-            if (DEBUG) Gdx.app.debug(TAG, "Decrypting sector...");
-            Decryptor.decrypt(key + curSector, sector);
-            sector.flip();
-          }
-
-          if (block.hasFlag(MPQ.BlockTable.Block.FLAG_COMPRESSED)) {
-            if (DEBUG) Gdx.app.debug(TAG, "Decompressing sector...");
-            final int FSize = Math.min(block.FSize - finalSize, sectorSize);
-            ByteBuffer slice = BufferUtils.slice(buffer, FSize);
-            Decompressor.decompress(sector, slice, scratch, CSize, FSize);
-            if (DEBUG) Gdx.app.debug(TAG, "Decompressed " + slice.limit() + " bytes");
-            buffer.position(buffer.position() + slice.limit());
-          } else {
-            assert block.hasFlag(MPQ.BlockTable.Block.FLAG_IMPLODE);
-            if (DEBUG) Gdx.app.debug(TAG, "Exploding sector...");
-            final int FSize = Math.min(block.FSize - finalSize, sectorSize);
-            ByteBuffer slice = BufferUtils.slice(buffer, FSize);
-            if (CSize == sectorSize) {
-              slice.put(sector);
-            } else {
-              Exploder.pkexplode(sector, slice);
-            }
-            if (DEBUG) Gdx.app.debug(TAG, "Exploded to " + slice.limit() + " bytes");
-            buffer.position(buffer.position() + slice.limit());
+        if (DEBUG) Gdx.app.debug(TAG, "sector offsets = " + Arrays.toString(Arrays.copyOf(sectorOffsets, sectorCount + 1)));
+
+        if (block.FSize >= PARALLEL_THRESHOLD && sectorCount > PARALLEL_GRAIN
+            && Runtime.getRuntime().availableProcessors() > 1) {
+          if (DEBUG) Gdx.app.debug(TAG, "Decoding " + sectorCount + " sectors in parallel");
+          pool().invoke(new SectorTask(mpq, block, key, sectorOffsets, buffer, 0, sectorCount));
+        } else {
+          for (int curSector = 0; curSector < sectorCount; curSector++) {
+            decodeSector(mpq, block, key, sectorOffsets, curSector, buffer, sector, scratch);
           }
-
-          finalSize += sectorSize;
         }
+      } else if (block.hasFlag(MPQ.BlockTable.Block.FLAG_EXISTS)
+             && !block.hasFlag(MPQ.BlockTable.Block.FLAG_ENCRYPTED)) {
+        assert block.CSize == block.FSize : "Shouldn't be compressed";
+        if (DEBUG) Gdx.app.debug(TAG, "Reading uncompressed block...");
+        mpq.readFully(block.filePos, buffer);
       } else {
         throw new UnsupportedOperationException("File has unsupported flags " + block.getFlags());
-        /*
-        if (DEBUG) Gdx.app.debug(TAG, "Reading as single unit...");
-        if (DEBUG) Gdx.app.debug(TAG, "Not single unit or compressed: " + block.FSize + " =? " + block.CSize);
-        IOUtils.readFully(fc, sector);
-        sector.flip();
+      }
 
-        if (block.hasFlag(MPQ.BlockTable.Block.FLAG_ENCRYPTED)) {
-          Gdx.app.log(TAG, "Decrypting sector...");
-          Decryptor.decrypt(key, sector);
-          sector.flip();
+      dst.position(dst.position() + block.FSize);
+      return block.FSize;
+    } catch (Exception e) {
+      throw new GdxRuntimeException("Unable to read file: " + fileName, e);
+    }
+  }
+
+  /**
+   * Reads, decrypts and decompresses sector {@code curSector} of a multi-sector block directly into
+   * its position within {@code dst}, relative to position {@code 0}. {@code sector} and {@code scratch} are working buffers of
+   * {@code sectorSize} bytes and must not be shared between threads.
+   */
+  private static void decodeSector(MPQ mpq, MPQ.BlockTable.Block block, int key, int[] sectorOffsets,
+      int curSector, ByteBuffer dst, ByteBuffer sector, ByteBuffer scratch) throws IOException {
+    final int sectorSize = mpq.header.sectorSize;
+    final int offset = curSector * sectorSize;
+    final int FSize = Math.min(block.FSize - offset, sectorSize);
+    final SectorCache cache = mpq.cache;
+    final long cacheKey = cache != null ? SectorCache.key(mpq, block, curSector) : 0;
+    final byte[] cached = cache != null ? cache.get(cacheKey) : null;
+    if (cached != null) {
+      if (DEBUG) Gdx.app.debug(TAG, "Sector " + (curSector + 1) + " cached");
+      ByteBuffer slice = dst.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+      slice.position(offset);
+      slice.put(cached, 0, FSize);
+      return;
+    }
+
+    if (DEBUG) Gdx.app.debug(TAG, "Reading sector " + (curSector + 1) + " " + block.getFlags());
+    final int start = sectorOffsets[curSector];
+    final int end = sectorOffsets[curSector + 1];
+    final int CSize = end - start;
+    sector.clear();
+    sector.limit(CSize);
+    mpq.readFully(block.filePos + start, sector);
+    sector.rewind();
+
+    if (block.hasFlag(MPQ.BlockTable.Block.FLAG_ENCRYPTED)) {
+      if (DEBUG) Gdx.app.debug(TAG, "Decrypting sector...");
+      Decryptor.decrypt(key + curSector, sector);
+      sector.flip();
+    }
+
+    ByteBuffer slice = dst.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    slice.position(offset);
+    slice = BufferUtils.slice(slice, FSize);
+    if (block.hasFlag(MPQ.BlockTable.Block.FLAG_COMPRESSED)) {
+      if (DEBUG) Gdx.app.debug(TAG, "Decompressing sector...");
+      Decompressor.decompress(sector, slice, scratch, CSize, FSize);
+    } else {
+      assert block.hasFlag(MPQ.BlockTable.Block.FLAG_IMPLODE);
+      if (DEBUG) Gdx.app.debug(TAG, "Exploding sector...");
+      if (CSize == sectorSize) {
+        slice.put(sector);
+      } else {
+        Exploder.pkexplode(sector, slice);
+      }
+    }
+
+    if (cache != null) {
+      final byte[] data = new byte[FSize];
+      slice.clear();
+      slice.get(data);
+      cache.put(cacheKey, data);
+    }
+  }
+
+  private static ForkJoinPool pool;
+
+  private static synchronized ForkJoinPool pool() {
+    if (pool == null) pool = new ForkJoinPool();
+    return pool;
+  }
+
+  /**
+   * Decodes a range of sectors, splitting it in halves until each task has at most
+   * {@link #PARALLEL_GRAIN} sectors. Sectors decode into disjoint ranges of {@code dst}, so tasks
+   * need no synchronization beyond the working buffers each leaf allocates for itself.
+   */
+  private static final class SectorTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    final MPQ                  mpq;
+    final MPQ.BlockTable.Block block;
+    final int                  key;
+    final int[]                sectorOffsets;
+    final ByteBuffer           dst;
+    final int                  from;
+    final int                  to;
+
+    SectorTask(MPQ mpq, MPQ.BlockTable.Block block, int key, int[] sectorOffsets, ByteBuffer dst, int from, int to) {
+      this.mpq = mpq;
+      this.block = block;
+      this.key = key;
+      this.sectorOffsets = sectorOffsets;
+      this.dst = dst;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from > PARALLEL_GRAIN) {
+        final int mid = (from + to) >>> 1;
+        invokeAll(
+            new SectorTask(mpq, block, key, sectorOffsets, dst, from, mid),
+            new SectorTask(mpq, block, key, sectorOffsets, dst, mid, to));
+        return;
+      }
+
+      final Buffers buffers = Buffers.get(mpq.header.sectorSize);
+      try {
+        for (int curSector = from; curSector < to; curSector++) {
+          decodeSector(mpq, block, key, sectorOffsets, curSector, dst, buffers.sector, buffers.scratch);
         }
+      } catch (IOException e) {
+        throw new GdxRuntimeException("Unable to read sectors " + from + ".." + to + ": " + block, e);
+      }
+    }
+  }
 
-        buffer.put(sector);
-        buffer.flip();
-        */
+  /**
+   * Working buffers reused by {@link #readInto} and {@link SectorTask} on the same thread.
+   */
+  private static final class Buffers {
+    static final ThreadLocal<Buffers> buffers = new ThreadLocal<Buffers>() {
+      @Override
+      protected Buffers initialValue() {
+        return new Buffers();
       }
+    };
 
-      assert buffer.limit() == block.FSize : "buffer.limit() = " + buffer.limit() + " not equal to block.FSize " + block.FSize;
-      return buffer.array();
-    } catch (Exception e) {
-      throw new GdxRuntimeException("Unable to read file: " + fileName, e);
-    } finally {
-      StreamUtils.closeQuietly(raf);
+    static Buffers get(int sectorSize) {
+      Buffers buffers = Buffers.buffers.get();
+      if (buffers.sector == null || buffers.sector.capacity() != sectorSize) {
+        buffers.sector = ByteBuffer.allocate(sectorSize).order(ByteOrder.LITTLE_ENDIAN);
+        buffers.scratch = ByteBuffer.allocate(sectorSize).order(ByteOrder.LITTLE_ENDIAN);
+      }
+
+      return buffers;
+    }
+
+    ByteBuffer sector;
+    ByteBuffer scratch;
+    ByteBuffer sectors = ByteBuffer.allocate(0);
+    int[]      sectorOffsets = new int[0];
+
+    /**
+     * Sector offset tables of more than this many entries are allocated for each read instead of
+     * being kept by the thread, so a single large file doesn't pin its tables for the lifetime of
+     * the thread.
+     */
+    static final int MAX_RETAINED_SECTORS = 1 << 12;
+
+    ByteBuffer sectors(int size) {
+      if (size > MAX_RETAINED_SECTORS << 2) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+      } else if (sectors.capacity() < size) {
+        sectors = ByteBuffer.allocate(MathUtils.nextPowerOfTwo(size)).order(ByteOrder.LITTLE_ENDIAN);
+      }
+
+      sectors.clear().limit(size);
+      return sectors;
+    }
+
+    int[] sectorOffsets(int size) {
+      if (size > MAX_RETAINED_SECTORS) {
+        return new int[size];
+      } else if (sectorOffsets.length < size) {
+        sectorOffsets = new int[MathUtils.nextPowerOfTwo(size)];
+      }
+
+      return sectorOffsets;
     }
   }
 }
@@ -0,0 +1,317 @@
+package com.riiablo.mpq;
+
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.ObjectMap;
+
+import org.apache.commons.io.FilenameUtils;
+
+import java.nio.charset.Charset;
+import java.util.Comparator;
+
+/**
+ * Directory tree of the files of several {@link MPQ} archives, built from listfiles since
+ * archives only store hashes of their file names. Supports bulk queries by prefix, glob and
+ * extension, returning handles which already carry the block of each file, so reading or planning
+ * loads for the results requires no further lookups. Paths are matched case-insensitively and
+ * {@code '/'} is treated the same as {@code '\\'}. Instances are immutable once built.
+ */
+public final class MPQTree {
+  private static final String TAG = "MPQTree";
+
+  static final String LISTFILE = "(listfile)";
+
+  private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+  static final MPQTree EMPTY = new MPQTree().finish();
+
+  private static final Comparator<MPQFileHandle> BY_NAME = new Comparator<MPQFileHandle>() {
+    @Override
+    public int compare(MPQFileHandle a, MPQFileHandle b) {
+      return a.fileName.compareToIgnoreCase(b.fileName);
+    }
+  };
+
+  private static final Comparator<Node> BY_NODE_NAME = new Comparator<Node>() {
+    @Override
+    public int compare(Node a, Node b) {
+      return a.name.compareTo(b.name);
+    }
+  };
+
+  final Node root = new Node("");
+  final ObjectMap<String, Array<MPQFileHandle>> extensions = new ObjectMap<>();
+  int size;
+
+  MPQTree() {}
+
+  /**
+   * Builds a tree of each name in {@code fileNames} contained by {@code index}. Names which are
+   * not in any archive are skipped, as are repeated names.
+   */
+  static MPQTree build(MPQIndex index, Iterable<String> fileNames) {
+    MPQTree tree = new MPQTree();
+    for (String fileName : fileNames) {
+      if (fileName.isEmpty()) continue;
+      int slot = index.find(fileName);
+      if (slot == -1) continue;
+      tree.add(new MPQFileHandle(index.mpqs[slot], fileName, index.blocks[slot]));
+    }
+
+    return tree.finish();
+  }
+
+  /**
+   * Adds the names in {@code listfile} to {@code out}. Names may be separated by line breaks or
+   * {@code ';'}, as in the {@code (listfile)} of an archive.
+   */
+  static void readListfile(byte[] listfile, Array<String> out) {
+    int start = 0;
+    for (int i = 0; i <= listfile.length; i++) {
+      if (i == listfile.length || listfile[i] == '\r' || listfile[i] == '\n' || listfile[i] == ';') {
+        if (i > start) out.add(new String(listfile, start, i - start, US_ASCII).trim());
+        start = i + 1;
+      }
+    }
+  }
+
+  static String normalize(String path) {
+    return path.replace('/', '\\').toLowerCase();
+  }
+
+  /**
+   * @return {@code false} if a file with the same path was already added
+   */
+  boolean add(MPQFileHandle handle) {
+    String path = normalize(handle.fileName);
+    Node node = root;
+    int start = 0;
+    for (int end; (end = path.indexOf('\\', start)) != -1; start = end + 1) {
+      if (end == start) continue; // empty component
+      String name = path.substring(start, end);
+      Node child = node.dirs.get(name);
+      if (child == null) {
+        child = new Node(name);
+        node.dirs.put(name, child);
+        node.children.add(child);
+      }
+
+      node = child;
+    }
+
+    String name = path.substring(start);
+    if (node.names.containsKey(name)) return false;
+    node.names.put(name, handle);
+    node.files.add(handle);
+
+    String extension = FilenameUtils.getExtension(name);
+    Array<MPQFileHandle> files = extensions.get(extension);
+    if (files == null) extensions.put(extension, files = new Array<>(MPQFileHandle.class));
+    files.add(handle);
+    size++;
+    return true;
+  }
+
+  MPQTree finish() {
+    root.sort();
+    for (Array<MPQFileHandle> files : extensions.values()) files.sort(BY_NAME);
+    return this;
+  }
+
+  /**
+   * Number of files in this tree.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns the file at {@code path}, or {@code null} if this tree does not contain it.
+   */
+  public MPQFileHandle get(String path) {
+    path = normalize(path);
+    int separator = path.lastIndexOf('\\');
+    Node node = find(path.substring(0, separator + 1));
+    return node != null ? node.names.get(path.substring(separator + 1)) : null;
+  }
+
+  /**
+   * Returns whether or not {@code path} is a directory within this tree.
+   */
+  public boolean isDirectory(String path) {
+    path = normalize(path);
+    return find(path.endsWith("\\") ? path : path + "\\") != null;
+  }
+
+  /**
+   * Returns the names of the subdirectories of {@code dir}, sorted.
+   */
+  public Array<String> directories(String dir) {
+    dir = normalize(dir);
+    Node node = find(dir.isEmpty() || dir.endsWith("\\") ? dir : dir + "\\");
+    Array<String> names = new Array<>(String.class);
+    if (node != null) for (int i = 0, s = node.children.size; i < s; i++) names.add(node.children.get(i).name);
+    return names;
+  }
+
+  public Array<MPQFileHandle> list(String prefix) {
+    return list(prefix, new Array<MPQFileHandle>(MPQFileHandle.class));
+  }
+
+  /**
+   * Adds all files whose path starts with {@code prefix} to {@code out}, sorted by directory then
+   * name. A prefix ending in a separator lists the entire directory, e.g.,
+   * {@code data\global\tiles\act1\} lists all files under that directory, while
+   * {@code data\global\tiles\act1\town\fl} also lists {@code floor.dt1}.
+   *
+   * @return {@code out}
+   */
+  public Array<MPQFileHandle> list(String prefix, Array<MPQFileHandle> out) {
+    prefix = normalize(prefix);
+    int separator = prefix.lastIndexOf('\\');
+    Node node = find(prefix.substring(0, separator + 1));
+    if (node == null) return out;
+    String name = prefix.substring(separator + 1);
+    for (int i = 0, s = node.files.size; i < s; i++) {
+      if (node.fileNames[i].startsWith(name)) out.add(node.files.get(i));
+    }
+
+    for (int i = 0, s = node.children.size; i < s; i++) {
+      Node child = node.children.get(i);
+      if (child.name.startsWith(name)) child.collect(out);
+    }
+
+    return out;
+  }
+
+  public Array<MPQFileHandle> glob(String pattern) {
+    return glob(pattern, new Array<MPQFileHandle>(MPQFileHandle.class));
+  }
+
+  /**
+   * Adds all files matching {@code pattern} to {@code out}. Within a path component, {@code *}
+   * matches any number of characters and {@code ?} matches a single character. A component of
+   * {@code **} matches any number of directories, e.g., {@code data\global\tiles\**\*.dt1}.
+   *
+   * @return {@code out}
+   */
+  public Array<MPQFileHandle> glob(String pattern, Array<MPQFileHandle> out) {
+    String[] parts = normalize(pattern).split("\\\\");
+    glob(root, parts, 0, out);
+    return out;
+  }
+
+  private static void glob(Node node, String[] parts, int i, Array<MPQFileHandle> out) {
+    String part = parts[i];
+    boolean last = i == parts.length - 1;
+    if (part.equals("**")) {
+      if (last) {
+        node.collect(out);
+      } else {
+        glob(node, parts, i + 1, out);
+        for (int j = 0, s = node.children.size; j < s; j++) glob(node.children.get(j), parts, i, out);
+      }
+    } else if (last) {
+      for (int j = 0, s = node.files.size; j < s; j++) {
+        if (matches(part, node.fileNames[j])) out.add(node.files.get(j));
+      }
+    } else if (part.indexOf('*') == -1 && part.indexOf('?') == -1) {
+      Node child = node.dirs.get(part);
+      if (child != null) glob(child, parts, i + 1, out);
+    } else {
+      for (int j = 0, s = node.children.size; j < s; j++) {
+        Node child = node.children.get(j);
+        if (matches(part, child.name)) glob(child, parts, i + 1, out);
+      }
+    }
+  }
+
+  static boolean matches(String pattern, String name) {
+    int p = 0, n = 0;
+    int star = -1, mark = 0;
+    while (n < name.length()) {
+      if (p < pattern.length() && (pattern.charAt(p) == '?' || pattern.charAt(p) == name.charAt(n))) {
+        p++;
+        n++;
+      } else if (p < pattern.length() && pattern.charAt(p) == '*') {
+        star = p++;
+        mark = n;
+      } else if (star != -1) {
+        p = star + 1;
+        n = ++mark;
+      } else {
+        return false;
+      }
+    }
+
+    while (p < pattern.length() && pattern.charAt(p) == '*') p++;
+    return p == pattern.length();
+  }
+
+  public Array<MPQFileHandle> extension(String extension) {
+    return extension(extension, new Array<MPQFileHandle>(MPQFileHandle.class));
+  }
+
+  /**
+   * Adds all files with {@code extension}, with or without a leading {@code '.'}, to {@code out},
+   * sorted by path.
+   *
+   * @return {@code out}
+   */
+  public Array<MPQFileHandle> extension(String extension, Array<MPQFileHandle> out) {
+    extension = extension.toLowerCase();
+    if (extension.startsWith(".")) extension = extension.substring(1);
+    Array<MPQFileHandle> files = extensions.get(extension);
+    if (files != null) out.addAll(files);
+    return out;
+  }
+
+  /**
+   * @param dir normalized path of a directory ending in a separator, or empty for the root
+   */
+  private Node find(String dir) {
+    Node node = root;
+    int start = 0;
+    for (int end; node != null && (end = dir.indexOf('\\', start)) != -1; start = end + 1) {
+      if (end == start) continue;
+      node = node.dirs.get(dir.substring(start, end));
+    }
+
+    return node;
+  }
+
+  @Override
+  public String toString() {
+    return TAG + "[files=" + size + ",extensions=" + extensions.size + "]";
+  }
+
+  static final class Node {
+    final String name;
+    final ObjectMap<String, Node> dirs = new ObjectMap<>();
+    final Array<Node> children = new Array<>(Node.class);
+    final ObjectMap<String, MPQFileHandle> names = new ObjectMap<>();
+    final Array<MPQFileHandle> files = new Array<>(MPQFileHandle.class);
+
+    /** normalized names of {@link #files}, set by {@link #sort()} */
+    String[] fileNames;
+
+    Node(String name) {
+      this.name = name;
+    }
+
+    void sort() {
+      children.sort(BY_NODE_NAME);
+      files.sort(BY_NAME);
+      fileNames = new String[files.size];
+      for (int i = 0; i < fileNames.length; i++) {
+        fileNames[i] = normalize(FilenameUtils.getName(files.get(i).fileName));
+      }
+
+      for (int i = 0, s = children.size; i < s; i++) children.get(i).sort();
+    }
+
+    void collect(Array<MPQFileHandle> out) {
+      out.addAll(files);
+      for (int i = 0, s = children.size; i < s; i++) children.get(i).collect(out);
+    }
+  }
+}
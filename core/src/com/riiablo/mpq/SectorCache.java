@@ -0,0 +1,144 @@
+package com.riiablo.mpq;
+
+import com.badlogic.gdx.utils.LongMap;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+/**
+ * LRU cache of decompressed MPQ sectors, bounded by the total number of bytes it holds. Sectors
+ * are keyed by (archive, block index, sector), see {@link #key(MPQ, MPQ.BlockTable.Block, int)}.
+ * Cached sectors are shared and must not be modified. All methods are thread-safe.
+ */
+public class SectorCache {
+  private final LongMap<Node> nodes = new LongMap<>();
+
+  /** sentinel of the circular LRU list -- head.next is the most recently used */
+  private final Node head = new Node(0, null);
+
+  private long budget;
+  private long size;
+
+  private long hits;
+  private long misses;
+  private long evictions;
+
+  public SectorCache(long budget) {
+    this.budget = budget;
+    head.prev = head.next = head;
+  }
+
+  static long key(MPQ mpq, MPQ.BlockTable.Block block, int sector) {
+    return ((long) (mpq.id & 0xFFFF) << 48) | ((long) (block.index & 0xFFFFFF) << 24) | (sector & 0xFFFFFF);
+  }
+
+  /**
+   * Returns the cached sector for {@code key}, or {@code null} if it is not cached.
+   */
+  public synchronized byte[] get(long key) {
+    Node node = nodes.get(key);
+    if (node == null) {
+      misses++;
+      return null;
+    }
+
+    hits++;
+    node.unlink();
+    node.linkAfter(head);
+    return node.data;
+  }
+
+  /**
+   * Caches {@code data} under {@code key}, evicting the least recently used sectors until the
+   * cache fits within its budget. {@code data} is owned by the cache afterwards.
+   */
+  public synchronized void put(long key, byte[] data) {
+    if (data.length > budget) return;
+    Node node = new Node(key, data);
+    Node prev = nodes.put(key, node);
+    if (prev != null) {
+      prev.unlink();
+      size -= prev.data.length;
+    }
+
+    node.linkAfter(head);
+    size += data.length;
+    trim();
+  }
+
+  public synchronized void setBudget(long budget) {
+    this.budget = budget;
+    trim();
+  }
+
+  public synchronized long getBudget() {
+    return budget;
+  }
+
+  public synchronized void clear() {
+    nodes.clear();
+    head.prev = head.next = head;
+    size = 0;
+  }
+
+  private void trim() {
+    while (size > budget) {
+      Node eldest = head.prev;
+      eldest.unlink();
+      nodes.remove(eldest.key);
+      size -= eldest.data.length;
+      evictions++;
+    }
+  }
+
+  public synchronized long size() {
+    return size;
+  }
+
+  public synchronized long hits() {
+    return hits;
+  }
+
+  public synchronized long misses() {
+    return misses;
+  }
+
+  public synchronized long evictions() {
+    return evictions;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return new ToStringBuilder(this)
+        .append("budget", budget)
+        .append("size", size)
+        .append("sectors", nodes.size)
+        .append("hits", hits)
+        .append("misses", misses)
+        .append("evictions", evictions)
+        .toString();
+  }
+
+  private static final class Node {
+    final long   key;
+    final byte[] data;
+    Node prev;
+    Node next;
+
+    Node(long key, byte[] data) {
+      this.key  = key;
+      this.data = data;
+    }
+
+    void linkAfter(Node node) {
+      prev = node;
+      next = node.next;
+      node.next.prev = this;
+      node.next = this;
+    }
+
+    void unlink() {
+      prev.next = next;
+      next.prev = prev;
+    }
+  }
+}
@@ -37,15 +37,15 @@ public class ADPCM {
     byte  stepIndex;
   }
 
-  private static final Channel[] state = new Channel[2];
-  static {
-    for (int i = 0; i < CHANNELS; i++) {
-      state[i] = new Channel();
-    }
-  }
-
   public static void decompress(ByteBuffer in, ByteBuffer out, int numChannels) {
     assert in.order() == ByteOrder.LITTLE_ENDIAN && out.order() == ByteOrder.LITTLE_ENDIAN : "in.order() = " + in.order() + "; out.order() = " + out.order();
+    assert numChannels <= CHANNELS : "numChannels(" + numChannels + ") > " + CHANNELS;
+
+    // channel state only lives for the duration of a single sector
+    final Channel[] state = new Channel[numChannels];
+    for (int i = 0; i < numChannels; i++) {
+      state[i] = new Channel();
+    }
 
     byte stepshift = (byte) (in.getShort() >>> Byte.SIZE);
     for (int i = 0; i < numChannels; i++) {
@@ -3,7 +3,6 @@ package com.riiablo.mpq.util;
 import com.badlogic.gdx.Gdx;
 
 import java.nio.ByteBuffer;
-import java.util.concurrent.atomic.AtomicReference;
 
 public class Decompressor {
   private Decompressor() {}
@@ -24,7 +23,16 @@ public class Decompressor {
 
   private static final byte ADPCM_MASK   = FLAG_ADPCM1C | FLAG_ADPCM2C;
 
-  private static AtomicReference<Huffman> huffman = new AtomicReference<>();
+  /**
+   * {@link FastHuffman} instances keep their tree between calls and are not thread-safe, so each
+   * decoding thread is given its own.
+   */
+  private static final ThreadLocal<FastHuffman> huffman = new ThreadLocal<FastHuffman>() {
+    @Override
+    protected FastHuffman initialValue() {
+      return new FastHuffman();
+    }
+  };
 
   public static void decompress(ByteBuffer sector, ByteBuffer buffer, ByteBuffer scratch, int CSize, int FSize) {
     if (CSize == FSize) {
@@ -60,13 +68,13 @@ public class Decompressor {
       }
 
       if ((compressionFlags & FLAG_HUFFMAN) == FLAG_HUFFMAN) {
-        huffman.compareAndSet(null, new Huffman());
+        FastHuffman huffman = Decompressor.huffman.get();
         if (flip) {
           sector.clear();
-          huffman.get().decompress(buffer, sector);
+          huffman.decompress(buffer, sector);
         } else {
           buffer.clear();
-          huffman.get().decompress(sector, buffer);
+          huffman.decompress(sector, buffer);
         }
 
         sector.rewind();
@@ -286,6 +286,28 @@ public class Decryptor {
 
       return seed1;
     }
+
+    /**
+     * Hashes {@code path} the same as {@link #hash(String)}, but treats {@code '/'} as
+     * {@code '\\'} and does not allocate. Only supports ASCII paths.
+     */
+    public int hashPath(CharSequence path) {
+      int seed1 = SEED1;
+      int seed2 = SEED2;
+      for (int i = 0, len = path.length(); i < len; i++) {
+        int ch = path.charAt(i);
+        if (ch == '/') {
+          ch = '\\';
+        } else if ('a' <= ch && ch <= 'z') {
+          ch -= 'a' - 'A';
+        }
+
+        seed1 = table[ch & 0xFF] ^ (seed1 + seed2);
+        seed2 = (ch & 0xFF) + seed1 + seed2 + (seed2 << 5) + 3;
+      }
+
+      return seed1;
+    }
   }
 
 }
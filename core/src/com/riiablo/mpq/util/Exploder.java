@@ -3,7 +3,9 @@ package com.riiablo.mpq.util;
 /*
   Taken from: https://github.com/horschi/OpenTeufel/blob/master/src/main/java/org/openteufel/file/mpq/explode/Exploder.java
 
-  Modifications: Removed unused variables, made the static arrays private and changed formatting, set pInPos to 1
+  Modifications: Removed unused variables, made the static arrays package-private and changed formatting, set pInPos to 1,
+  replaced the bit-by-bit code searches with lookup tables, the bit buffer with a 64-bit reservoir and the
+  sliding dictionary with matches copied directly out of the output
 
   *************
 
@@ -40,6 +42,7 @@ package com.riiablo.mpq.util;
 /* 06/29/03  1.00  First version                                             */
 
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 /*****************************************************************************/
 
@@ -47,12 +50,8 @@ public class Exploder {
     private static final int PK_LITERAL_SIZE_FIXED = 0; // Use fixed size literal bytes, used for binary data
     private static final int PK_LITERAL_SIZE_VARIABLE = 1; // Use variable size literal bytes, used for text
 
-    private static long TRUNCATE_VALUE(long value, int bits)  {
-        return ((value) & ((1 << (bits)) - 1));
-    }
-
     // Bit sequences used to represent literal bytes
-    private static short[] ChCode =
+    static final short[] ChCode =
         {
             0x0490, 0x0FE0, 0x07E0, 0x0BE0, 0x03E0, 0x0DE0, 0x05E0, 0x09E0,
             0x01E0, 0x00B8, 0x0062, 0x0EE0, 0x06E0, 0x0022, 0x0AE0, 0x02E0,
@@ -89,7 +88,7 @@ public class Exploder {
         };
 
     // Lengths of bit sequences used to represent literal bytes
-    private static byte[] ChBits =
+    static final byte[] ChBits =
         {
             0x0B, 0x0C, 0x0C, 0x0C, 0x0C, 0x0C, 0x0C, 0x0C, 0x0C, 0x08, 0x07, 0x0C, 0x0C, 0x07, 0x0C, 0x0C,
             0x0C, 0x0C, 0x0C, 0x0C, 0x0C, 0x0C, 0x0C, 0x0C, 0x0C, 0x0C, 0x0D, 0x0C, 0x0C, 0x0C, 0x0C, 0x0C,
@@ -110,32 +109,32 @@ public class Exploder {
         };
 
     // Bit sequences used to represent the base values of the copy length
-    private static byte[] LenCode =
+    static final byte[] LenCode =
         {
             0x05, 0x03, 0x01, 0x06, 0x0A, 0x02, 0x0C, 0x14, 0x04, 0x18, 0x08, 0x30, 0x10, 0x20, 0x40, 0x00
         };
 
     // Lengths of bit sequences used to represent the base values of the copy length
-    private static byte[] LenBits =
+    static final byte[] LenBits =
         {
             0x03, 0x02, 0x03, 0x03, 0x04, 0x04, 0x04, 0x05, 0x05, 0x05, 0x05, 0x06, 0x06, 0x06, 0x07, 0x07
         };
 
     // Base values used for the copy length
-    private static short[] LenBase =
+    static final short[] LenBase =
         {
             0x0002, 0x0003, 0x0004, 0x0005, 0x0006, 0x0007, 0x0008, 0x0009,
             0x000A, 0x000C, 0x0010, 0x0018, 0x0028, 0x0048, 0x0088, 0x0108
         };
 
     // Lengths of extra bits used to represent the copy length
-    private static byte[] ExLenBits =
+    static final byte[] ExLenBits =
         {
             0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07, 0x08
         };
 
     // Bit sequences used to represent the most significant 6 bits of the copy offset
-    private static byte[] OffsCode =
+    static final byte[] OffsCode =
         {
             0x03, 0x0D, 0x05, 0x19, 0x09, 0x11, 0x01, 0x3E, 0x1E, 0x2E, 0x0E, 0x36, 0x16, 0x26, 0x06, 0x3A,
             0x1A, 0x2A, 0x0A, 0x32, 0x12, 0x22, 0x42, 0x02, 0x7C, 0x3C, 0x5C, 0x1C, 0x6C, 0x2C, 0x4C, 0x0C,
@@ -145,7 +144,7 @@ public class Exploder {
         };
 
     // Lengths of bit sequences used to represent the most significant 6 bits of the copy offset
-    private static byte[] OffsBits =
+    static final byte[] OffsBits =
         {
             0x02, 0x04, 0x04, 0x05, 0x05, 0x05, 0x05, 0x06, 0x06, 0x06, 0x06, 0x06, 0x06, 0x06, 0x06, 0x06,
             0x06, 0x06, 0x06, 0x06, 0x06, 0x06, 0x07, 0x07, 0x07, 0x07, 0x07, 0x07, 0x07, 0x07, 0x07, 0x07,
@@ -153,215 +152,70 @@ public class Exploder {
             0x08, 0x08, 0x08, 0x08, 0x08, 0x08, 0x08, 0x08, 0x08, 0x08, 0x08, 0x08, 0x08, 0x08, 0x08, 0x08
         };
 
-    public static int pkexplode(ByteBuffer in, ByteBuffer out) {
-        if (in.remaining() < 4) {
-            throw new IllegalArgumentException("PK_ERR_INCOMPLETE_INPUT: Incomplete input");
-        }
-
-        // Get header from compressed data
-        byte nLitSize = in.get();
-        byte nDictSizeByte = in.get();
-
-        // Check for a valid compression type
-        if (nLitSize != PK_LITERAL_SIZE_FIXED && nLitSize != PK_LITERAL_SIZE_VARIABLE)
-            throw new IllegalArgumentException("PK_ERR_BAD_DATA: Invalid LitSize: " + nLitSize);
-
-        // Only dictionary sizes of 1024, 2048, and 4096 are allowed.
-        // The values 4, 5, and 6 correspond with those sizes
-        if (4 > nDictSizeByte || nDictSizeByte > 6)
-            throw new IllegalArgumentException("PK_ERR_BAD_DATA: Invalid DictSizeByte: " + nDictSizeByte);
-
-        // Store actual dictionary size
-        int nDictSize = 64 << nDictSizeByte;
-
-        // Initialize dictionary position
-        byte[] Dict = new byte[0x1000]; // Sliding dictionary used for compression and decompression
-        int pDictPos = 0;
-
-        // Initialize current dictionary size to zero
-        int nCurDictSize = 0;
 
-        // Get first 16 bits
-        byte nBits; // Number of bits in bit buffer
-        long nBitBuffer; // Stores bits until there are enough to output a byte of data
+    // Number of bits needed to decode any literal byte, length or offset code
+    private static final int CH_DECODE_BITS = 13;
+    private static final int LEN_DECODE_BITS = 7;
+    private static final int OFFS_DECODE_BITS = 8;
 
+    // Maps the next CH_DECODE_BITS bits to (bits << 8) | byte, -1 if no code matches
+    private static final short[] ChDecode = buildDecodeTable(ChCode, ChBits, 0xFFFF, CH_DECODE_BITS);
 
-        nBitBuffer = in.get() & 0xFFL;
-        nBitBuffer += (in.get() & 0xFFL) << 8;
-        nBits = 16;
+    // Maps the next LEN_DECODE_BITS bits to (bits << 8) | index into LenBase, -1 if no code matches
+    private static final short[] LenDecode = buildDecodeTable(LenCode, LenBits, 0xFF, LEN_DECODE_BITS);
 
-        // Decompress until output buffer is full
-        int i; // Index into tables
-        int nCopyLen;
-        while (out.hasRemaining()) {
+    // Maps the next OFFS_DECODE_BITS bits to (bits << 8) | offset high bits, -1 if no code matches
+    private static final short[] OffsDecode = buildDecodeTable(OffsCode, OffsBits, 0xFF, OFFS_DECODE_BITS);
 
-            // Fill bit buffer with at least 16 bits
-            while (nBits < 16) {
-                // If input buffer is empty before end of stream, buffer is incomplete
-                if (!in.hasRemaining()) {
-                    // Store the current size of output
-                    // nOutSize = pOutPos - pOutBuffer;
-                    throw new IllegalArgumentException("PK_ERR_INCOMPLETE_INPUT: Incomplete input");
-                }
-
-                nBitBuffer += (in.get() & 0xFF) << nBits;
-                nBits += 8;
+    private static short[] buildDecodeTable(Object codes, byte[] lengths, int codeMask, int tableBits) {
+        short[] table = new short[1 << tableBits];
+        Arrays.fill(table, (short) -1);
+        // Codes are matched in ascending order, so lower indexes are written last to take precedence
+        for (int i = lengths.length - 1; i >= 0; i--) {
+            int bits = lengths[i] & 0xFF;
+            int code = (codes instanceof short[] ? ((short[]) codes)[i] : ((byte[]) codes)[i]) & codeMask;
+            if (code >= 1 << bits) continue; // can never match
+            for (int j = code; j < table.length; j += 1 << bits) {
+                table[j] = (short) ((bits << 8) | i);
             }
+        }
 
-            // First bit is 1; copy from dictionary
-            if ((nBitBuffer & 1) != 0) {
-
-                // Remove first bit from bit buffer
-                nBitBuffer >>= 1;
-                nBits--;
-
-                // Find the base value for the copy length
-                for (i = 0; i <= 0x0F; i++) {
-                    if (TRUNCATE_VALUE(nBitBuffer, LenBits[i] & 0xFF) == (LenCode[i] & 0xFF))
-                        break;
-                }
-
-                // Remove value from bit buffer
-                nBitBuffer >>= LenBits[i] & 0xFF;
-                nBits -= LenBits[i] & 0xFF;
-
-                // Store the copy length
-                nCopyLen = (int) ((LenBase[i] & 0xFFFF) + TRUNCATE_VALUE(nBitBuffer, ExLenBits[i] & 0xFF)); // Length of data to copy from the dictionary
-
-                // Remove the extra bits from the bit buffer
-                nBitBuffer >>= ExLenBits[i] & 0xFF;
-                nBits -= ExLenBits[i] & 0xFF;
-
-                // If copy length is 519, the end of the stream has been reached
-                if (nCopyLen == 519)
-                    break;
-
-                // Fill bit buffer with at least 14 bits
-                while (nBits < 14) {
-                    // If input buffer is empty before end of stream, buffer is incomplete
-                    if (!in.hasRemaining()) {
-                        // Store the current size of output
-                        // nOutSize = pOutPos - pOutBuffer;
-                        throw new IllegalArgumentException("PK_ERR_INCOMPLETE_INPUT: Incomplete input");
-                    }
-
-                    nBitBuffer += (in.get() & 0xFF) << nBits;
-                    nBits += 8;
-                }
-
-                // Find most significant 6 bits of offset into the dictionary
-                for (i = 0; i <= 0x3F; i++) {
-                    if (TRUNCATE_VALUE(nBitBuffer, OffsBits[i] & 0xFF) == (OffsCode[i] & 0xFF))
-                        break;
-                }
-
-                // Remove value from bit buffer
-                nBitBuffer >>= OffsBits[i] & 0xFF;
-                nBits -= OffsBits[i] & 0xFF;
-
-                // If the copy length is 2, there are only two more bits in the dictionary
-                // offset; otherwise, there are 4, 5, or 6 bits left, depending on what
-                // the dictionary size is
-                int pCopyOffs; // Offset to data to copy from the dictionary
-                if (nCopyLen == 2) {
-
-                    // Store the exact offset to a byte in the dictionary
-                    pCopyOffs = (int) (pDictPos - 1 - ((i << 2) + (nBitBuffer & 0x03)));
-
-                    // Remove the rest of the dictionary offset from the bit buffer
-                    nBitBuffer >>= 2;
-                    nBits -= 2;
-                } else {
-
-                    // Store the exact offset to a byte in the dictionary
-                    pCopyOffs = (int) (pDictPos - 1 - ((i << nDictSizeByte) + TRUNCATE_VALUE(nBitBuffer, nDictSizeByte)));
-
-                    // Remove the rest of the dictionary offset from the bit buffer
-                    nBitBuffer >>= nDictSizeByte;
-                    nBits -= nDictSizeByte;
-                }
-
-                // While there are still bytes left, copy bytes from the dictionary
-                while (nCopyLen-- > 0) {
-
-                    // If output buffer has become full, stop immediately!
-                    if (!out.hasRemaining())
-                        throw new IllegalArgumentException("PK_ERR_BUFFER_TOO_SMALL: Output buffer is full: " + out.position() + " / " + out.limit());
-
-
-                    // Check whether the offset is a valid one into the dictionary
-                    while (pCopyOffs < 0)
-                        pCopyOffs += nCurDictSize;
-                    while (pCopyOffs >= nCurDictSize)
-                        pCopyOffs -= nCurDictSize;
-
-                    // Copy the byte from the dictionary and add it to the end of the dictionary
-                    // *pDictPos++ = *pOutPos++ = *pCopyOffs++;
-                    byte b = Dict[pCopyOffs++];
-                    out.put(b);
-                    Dict[pDictPos++] = b;
-
-                    // If the dictionary is not full yet, increment the current dictionary size
-                    if (nCurDictSize < nDictSize)
-                        nCurDictSize++;
-
-                    // If the current end of the dictionary is past the end of the buffer,
-                    // wrap around back to the start
-                    if (pDictPos >= nDictSize)
-                        pDictPos = 0;
-                }
-            }
-
-            // First bit is 0; literal byte
-            else {
-
-                // Fixed size literal byte
-                if (nLitSize == PK_LITERAL_SIZE_FIXED) {
-
-                    // Copy the byte and add it to the end of the dictionary
-                    // *pDictPos++ = *pOutPos++ = (byte)(nBitBuffer >> 1);
-                    byte b = (byte) (nBitBuffer >> 1);
-                    out.put(b);
-                    Dict[pDictPos++] = b;
-
-                    // Remove the byte from the bit buffer
-                    nBitBuffer >>= 9;
-                    nBits -= 9;
-                }
-
-                // Variable size literal byte
-                else {
-
-                    // Remove the first bit from the bit buffer
-                    nBitBuffer >>= 1;
-                    nBits--;
-
-                    // Find the actual byte from the bit sequence
-                    for (i = 0; i <= 0xFF; i++) {
-                        if (TRUNCATE_VALUE(nBitBuffer, ChBits[i] & 0xFF) == (ChCode[i] & 0xFFFF))
-                            break;
-                    }
-
-                    // Copy the byte and add it to the end of the dictionary
-                    // *pDictPos++ = *pOutPos++ = (byte)i;
-                    byte b = (byte) i;
-                    out.put(b);
-                    Dict[pDictPos++] = b;
+        return table;
+    }
 
-                    // Remove the byte from the bit buffer
-                    nBitBuffer >>= ChBits[i] & 0xFF;
-                    nBits -= ChBits[i] & 0xFF;
-                }
+    /**
+     * Explodes the remaining bytes of {@code in} into {@code out}, starting with the literal size
+     * and dictionary size header bytes. Returns the position of {@code out} afterwards.
+     */
+    public static int pkexplode(ByteBuffer in, ByteBuffer out) {
+        if (in.remaining() < 4) {
+            throw new IllegalArgumentException("PK_ERR_INCOMPLETE_INPUT: Incomplete input");
+        }
 
-                // If the dictionary is not full yet, increment the current dictionary size
-                if (nCurDictSize < nDictSize)
-                    nCurDictSize++;
+        byte[] src;
+        int srcPos, srcEnd;
+        if (in.hasArray()) {
+            src = in.array();
+            srcPos = in.arrayOffset() + in.position();
+            srcEnd = in.arrayOffset() + in.limit();
+        } else {
+            src = new byte[in.remaining()];
+            in.duplicate().get(src);
+            srcPos = 0;
+            srcEnd = src.length;
+        }
 
-                // If the current end of the dictionary is past the end of the buffer,
-                // wrap around back to the start
-                if (pDictPos >= nDictSize)
-                    pDictPos = 0;
-            }
+        if (out.hasArray()) {
+            int offset = out.arrayOffset();
+            long result = explode(src, srcPos, srcEnd, out.array(), offset + out.position(), offset + out.limit(), -offset);
+            in.position(in.position() + (int) (result >>> 32) - srcPos);
+            out.position((int) result - offset);
+        } else {
+            byte[] dst = new byte[out.remaining()];
+            int position = out.position();
+            long result = explode(src, srcPos, srcEnd, dst, 0, dst.length, position);
+            in.position(in.position() + (int) (result >>> 32) - srcPos);
+            out.put(dst, 0, (int) result);
         }
 
         return out.position();
@@ -373,13 +227,22 @@ public class Exploder {
         if (pInBuffer.length < 4)
             throw new IllegalArgumentException("PK_ERR_INCOMPLETE_INPUT: Incomplete input");
 
-        int pOutPos = pOutBufferOffs;
         // This is 1 because in an mpq-sector, the first byte is the compression type flag
-        int pInPos = 1;
+        return (int) explode(pInBuffer, 1, pInBuffer.length, pOutBuffer, pOutBufferOffs, pOutBuffer.length, 0);
+    }
 
+    /**
+     * Explodes {@code in[inPos..inEnd)} into {@code out[outStart..outEnd)}. Matches are copied from
+     * the output itself, which always holds the whole dictionary because it starts out empty.
+     * {@code reportOffset} is added to output indexes reported in exceptions.
+     *
+     * @return {@code (inPos << 32) | outPos}, where {@code inPos} is the index after the last input
+     *         byte any bits were consumed from
+     */
+    private static long explode(byte[] in, int inPos, int inEnd, byte[] out, int outStart, int outEnd, int reportOffset) {
         // Get header from compressed data
-        byte nLitSize = pInBuffer[pInPos++];
-        byte nDictSizeByte = pInBuffer[pInPos++];
+        byte nLitSize = in[inPos++];
+        byte nDictSizeByte = in[inPos++];
 
         // Check for a valid compression type
         if (nLitSize != PK_LITERAL_SIZE_FIXED && nLitSize != PK_LITERAL_SIZE_VARIABLE)
@@ -390,193 +253,145 @@ public class Exploder {
         if (4 > nDictSizeByte || nDictSizeByte > 6)
             throw new IllegalArgumentException("PK_ERR_BAD_DATA: Invalid DictSizeByte: " + nDictSizeByte);
 
-        // Store actual dictionary size
-        int nDictSize = 64 << nDictSizeByte;
-
-        // Initialize dictionary position
-        byte[] Dict = new byte[0x1000]; // Sliding dictionary used for compression and decompression
-        int pDictPos = 0;
-
-        // Initialize current dictionary size to zero
-        int nCurDictSize = 0;
-
-        // Get first 16 bits
-        byte nBits; // Number of bits in bit buffer
-        long nBitBuffer; // Stores bits until there are enough to output a byte of data
+        final int nDictSize = 64 << nDictSizeByte;
+        final int nDictMask = (1 << nDictSizeByte) - 1;
+        final boolean variable = nLitSize == PK_LITERAL_SIZE_VARIABLE;
 
-        nBitBuffer = pInBuffer[pInPos++] & 0xFFL;
-        nBitBuffer += (pInBuffer[pInPos++] & 0xFFL) << 8;
-        nBits = 16;
+        // Bits are consumed from the low end of the reservoir, bytes are added above nBits
+        long nBitBuffer = 0;
+        int nBits = 0;
 
-        // Decompress until output buffer is full
-        int i; // Index into tables
-        int nCopyLen;
-        while (pOutPos < pOutBuffer.length) {
+        int pOutPos = outStart;
+        while (pOutPos < outEnd) {
 
             // Fill bit buffer with at least 16 bits
-            while (nBits < 16) {
-                // If input buffer is empty before end of stream, buffer is incomplete
-                if (pInPos >= pInBuffer.length) {
-                    // Store the current size of output
-                    // nOutSize = pOutPos - pOutBuffer;
-                    throw new IllegalArgumentException("PK_ERR_INCOMPLETE_INPUT: Incomplete input");
+            if (nBits < 16) {
+                while (nBits <= 56 && inPos < inEnd) {
+                    nBitBuffer |= (in[inPos++] & 0xFFL) << nBits;
+                    nBits += 8;
                 }
 
-                nBitBuffer += (pInBuffer[pInPos++] & 0xFF) << nBits;
-                nBits += 8;
+                // If input buffer is empty before end of stream, buffer is incomplete
+                if (nBits < 16)
+                    throw new IllegalArgumentException("PK_ERR_INCOMPLETE_INPUT: Incomplete input");
             }
 
             // First bit is 1; copy from dictionary
             if ((nBitBuffer & 1) != 0) {
 
-                // Remove first bit from bit buffer
-                nBitBuffer >>= 1;
-                nBits--;
-
                 // Find the base value for the copy length
-                for (i = 0; i <= 0x0F; i++) {
-                    if (TRUNCATE_VALUE(nBitBuffer, LenBits[i] & 0xFF) == (LenCode[i] & 0xFF))
-                        break;
-                }
+                int entry = LenDecode[(int) (nBitBuffer >>> 1) & ((1 << LEN_DECODE_BITS) - 1)];
+                if (entry < 0)
+                    throw new IllegalArgumentException("PK_ERR_BAD_DATA: Invalid length code");
 
-                // Remove value from bit buffer
-                nBitBuffer >>= LenBits[i] & 0xFF;
-                nBits -= LenBits[i] & 0xFF;
+                int i = entry & 0xFF;
+                int bits = 1 + (entry >>> 8);
+                nBitBuffer >>>= bits;
+                nBits -= bits;
 
                 // Store the copy length
-                nCopyLen = (int) ((LenBase[i] & 0xFFFF) + TRUNCATE_VALUE(nBitBuffer, ExLenBits[i] & 0xFF)); // Length of data to copy from the dictionary
-
-                // Remove the extra bits from the bit buffer
-                nBitBuffer >>= ExLenBits[i] & 0xFF;
-                nBits -= ExLenBits[i] & 0xFF;
+                int exBits = ExLenBits[i];
+                int nCopyLen = LenBase[i] + ((int) nBitBuffer & ((1 << exBits) - 1));
+                nBitBuffer >>>= exBits;
+                nBits -= exBits;
 
                 // If copy length is 519, the end of the stream has been reached
                 if (nCopyLen == 519)
                     break;
 
                 // Fill bit buffer with at least 14 bits
-                while (nBits < 14) {
-                    // If input buffer is empty before end of stream, buffer is incomplete
-                    if (pInPos >= pInBuffer.length) {
-                        // Store the current size of output
-                        // nOutSize = pOutPos - pOutBuffer;
-                        throw new IllegalArgumentException("PK_ERR_INCOMPLETE_INPUT: Incomplete input");
+                if (nBits < 14) {
+                    while (nBits <= 56 && inPos < inEnd) {
+                        nBitBuffer |= (in[inPos++] & 0xFFL) << nBits;
+                        nBits += 8;
                     }
 
-                    nBitBuffer += (pInBuffer[pInPos++] & 0xFF) << nBits;
-                    nBits += 8;
+                    if (nBits < 14)
+                        throw new IllegalArgumentException("PK_ERR_INCOMPLETE_INPUT: Incomplete input");
                 }
 
                 // Find most significant 6 bits of offset into the dictionary
-                for (i = 0; i <= 0x3F; i++) {
-                    if (TRUNCATE_VALUE(nBitBuffer, OffsBits[i] & 0xFF) == (OffsCode[i] & 0xFF))
-                        break;
-                }
+                entry = OffsDecode[(int) nBitBuffer & ((1 << OFFS_DECODE_BITS) - 1)];
+                if (entry < 0)
+                    throw new IllegalArgumentException("PK_ERR_BAD_DATA: Invalid offset code");
 
-                // Remove value from bit buffer
-                nBitBuffer >>= OffsBits[i] & 0xFF;
-                nBits -= OffsBits[i] & 0xFF;
+                bits = entry >>> 8;
+                nBitBuffer >>>= bits;
+                nBits -= bits;
 
                 // If the copy length is 2, there are only two more bits in the dictionary
                 // offset; otherwise, there are 4, 5, or 6 bits left, depending on what
                 // the dictionary size is
-                int pCopyOffs; // Offset to data to copy from the dictionary
+                int nOffs;
                 if (nCopyLen == 2) {
-
-                    // Store the exact offset to a byte in the dictionary
-                    pCopyOffs = (int) (pDictPos - 1 - ((i << 2) + (nBitBuffer & 0x03)));
-
-                    // Remove the rest of the dictionary offset from the bit buffer
-                    nBitBuffer >>= 2;
+                    nOffs = ((entry & 0xFF) << 2) | ((int) nBitBuffer & 0x03);
+                    nBitBuffer >>>= 2;
                     nBits -= 2;
                 } else {
-
-                    // Store the exact offset to a byte in the dictionary
-                    pCopyOffs = (int) (pDictPos - 1 - ((i << nDictSizeByte) + TRUNCATE_VALUE(nBitBuffer, nDictSizeByte)));
-
-                    // Remove the rest of the dictionary offset from the bit buffer
-                    nBitBuffer >>= nDictSizeByte;
+                    nOffs = ((entry & 0xFF) << nDictSizeByte) | ((int) nBitBuffer & nDictMask);
+                    nBitBuffer >>>= nDictSizeByte;
                     nBits -= nDictSizeByte;
                 }
 
-                // While there are still bytes left, copy bytes from the dictionary
-                while (nCopyLen-- > 0) {
-
-                    // If output buffer has become full, stop immediately!
-                    if (pOutPos >= pOutBuffer.length)
-                        throw new IllegalArgumentException("PK_ERR_BUFFER_TOO_SMALL: Output buffer is full: " + pOutPos + " / " + pOutBuffer.length);
-
-
-                    // Check whether the offset is a valid one into the dictionary
-                    while (pCopyOffs < 0)
-                        pCopyOffs += nCurDictSize;
-                    while (pCopyOffs >= nCurDictSize)
-                        pCopyOffs -= nCurDictSize;
-
-                    // Copy the byte from the dictionary and add it to the end of the dictionary
-                    // *pDictPos++ = *pOutPos++ = *pCopyOffs++;
-                    Dict[pDictPos++] = pOutBuffer[pOutPos++] = Dict[pCopyOffs++];
-
-                    // If the dictionary is not full yet, increment the current dictionary size
-                    if (nCurDictSize < nDictSize)
-                        nCurDictSize++;
-
-                    // If the current end of the dictionary is past the end of the buffer,
-                    // wrap around back to the start
-                    if (pDictPos >= nDictSize)
-                        pDictPos = 0;
-                }
-            }
-
-            // First bit is 0; literal byte
-            else {
-
-                // Fixed size literal byte
-                if (nLitSize == PK_LITERAL_SIZE_FIXED) {
-
-                    // Copy the byte and add it to the end of the dictionary
-                    // *pDictPos++ = *pOutPos++ = (byte)(nBitBuffer >> 1);
-                    Dict[pDictPos++] = pOutBuffer[pOutPos++] = (byte) (nBitBuffer >> 1);
-
-                    // Remove the byte from the bit buffer
-                    nBitBuffer >>= 9;
-                    nBits -= 9;
+                // Distance back from the output position to the first byte to copy. Offsets past
+                // the start of a partially filled dictionary wrap around within the bytes written
+                // so far, the same as the original ring buffer implementation.
+                int nWritten = pOutPos - outStart;
+                int nDist;
+                if (nOffs < nWritten && nOffs < nDictSize) {
+                    nDist = nOffs + 1;
+                } else if (nWritten == 0) {
+                    throw new IllegalArgumentException("PK_ERR_BAD_DATA: Copy from empty dictionary");
+                } else {
+                    int pCopyOffs = (nWritten - 1 - nOffs) % nWritten;
+                    if (pCopyOffs < 0) pCopyOffs += nWritten;
+                    nDist = nWritten - pCopyOffs;
                 }
 
-                // Variable size literal byte
-                else {
-
-                    // Remove the first bit from the bit buffer
-                    nBitBuffer >>= 1;
-                    nBits--;
+                // If output buffer becomes full, copy what fits and stop
+                int nAvailable = outEnd - pOutPos;
+                boolean truncated = nCopyLen > nAvailable;
+                if (truncated) nCopyLen = nAvailable;
 
-                    // Find the actual byte from the bit sequence
-                    for (i = 0; i <= 0xFF; i++) {
-                        if (TRUNCATE_VALUE(nBitBuffer, ChBits[i] & 0xFF) == (ChCode[i] & 0xFFFF))
-                            break;
+                int pCopyPos = pOutPos - nDist;
+                int pCopyEnd = pOutPos + nCopyLen;
+                if (nDist == 1) {
+                    Arrays.fill(out, pOutPos, pCopyEnd, out[pCopyPos]);
+                    pOutPos = pCopyEnd;
+                } else {
+                    // Overlapping copies repeat the last nDist bytes, which doubles the run that
+                    // can be copied in one go after every copy
+                    while (pOutPos < pCopyEnd) {
+                        int nChunk = Math.min(pOutPos - pCopyPos, pCopyEnd - pOutPos);
+                        System.arraycopy(out, pCopyPos, out, pOutPos, nChunk);
+                        pOutPos += nChunk;
                     }
-
-                    // Copy the byte and add it to the end of the dictionary
-                    // *pDictPos++ = *pOutPos++ = (byte)i;
-                    Dict[pDictPos++] = pOutBuffer[pOutPos++] = (byte) i;
-
-                    // Remove the byte from the bit buffer
-                    nBitBuffer >>= ChBits[i] & 0xFF;
-                    nBits -= ChBits[i] & 0xFF;
                 }
 
-                // If the dictionary is not full yet, increment the current dictionary size
-                if (nCurDictSize < nDictSize)
-                    nCurDictSize++;
+                if (truncated)
+                    throw new IllegalArgumentException("PK_ERR_BUFFER_TOO_SMALL: Output buffer is full: "
+                        + (pOutPos + reportOffset) + " / " + (outEnd + reportOffset));
+            }
 
-                // If the current end of the dictionary is past the end of the buffer,
-                // wrap around back to the start
-                if (pDictPos >= nDictSize)
-                    pDictPos = 0;
+            // First bit is 0; literal byte
+            else if (variable) {
+                int entry = ChDecode[(int) (nBitBuffer >>> 1) & ((1 << CH_DECODE_BITS) - 1)];
+                if (entry < 0)
+                    throw new IllegalArgumentException("PK_ERR_BAD_DATA: Invalid literal code");
+
+                out[pOutPos++] = (byte) entry;
+                int bits = 1 + (entry >>> 8);
+                nBitBuffer >>>= bits;
+                nBits -= bits;
+            } else {
+                out[pOutPos++] = (byte) (nBitBuffer >>> 1);
+                nBitBuffer >>>= 9;
+                nBits -= 9;
             }
         }
 
-        return pOutPos;
+        // Bytes still entirely in the reservoir were never consumed
+        inPos -= nBits >>> 3;
+        return ((long) inPos << 32) | pOutPos;
     }
-
 }
@@ -0,0 +1,491 @@
+package com.riiablo.mpq.util;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Adaptive Huffman decoder producing the same output as {@link Huffman}, with the tree kept in
+ * flat int arrays instead of linked {@code Node} objects.
+ * <p>
+ * Codes are decoded {@value #TABLE_BITS} bits at a time through a lookup table built from the
+ * current tree. Any change to the shape of the tree invalidates the table. Until it is rebuilt,
+ * codes are decoded by walking the tree bit by bit. The table is only rebuilt once the bits walked
+ * since the last change exceed the cost of rebuilding it, so streams that keep changing the tree
+ * don't pay for tables they never use. Streams using compression type {@code 0} adjust the tree
+ * after almost every symbol and mostly walk the tree. All other types only change the tree when a
+ * new value is added and mostly decode through the table.
+ * <p>
+ * Instances reuse their arrays across calls and are not thread-safe, use one instance per
+ * decoding thread.
+ */
+public class FastHuffman {
+  static final int TABLE_BITS = 8;
+  static final int TABLE_SIZE = 1 << TABLE_BITS;
+
+  /** number of bits walked without the lookup table before it is rebuilt */
+  static final int REBUILD_THRESHOLD = TABLE_SIZE;
+
+  static final int NIL = -1;
+  static final int INTERNAL = -1;
+
+  static final int END_OF_STREAM = 0x100;
+  static final int NEW_VALUE     = 0x101;
+
+  // nodes
+  int[] parent;
+  int[] child; // child[(node << 1) | bit]
+  int[] next;
+  int[] prev;
+  int[] value; // INTERNAL for branch nodes
+  int[] probability;
+  int   size;
+  int   root = NIL;
+
+  // probability -> last node in the list with that probability, see Huffman.sorted2
+  long[] keys;    // bit set of probabilities present
+  long[] summary; // bit set of non-zero words of keys
+  int[]  tail;
+  int    maxKey;
+
+  // lookup table, entry = node | (bits << 24)
+  final int[] table = new int[TABLE_SIZE];
+  boolean tableValid;
+  int     walked;
+
+  // bit reservoir
+  ByteBuffer source;
+  long bitBuffer;
+  int  bitCount;
+  long bitsRead;
+  long bitsAvailable;
+
+  public FastHuffman() {
+    allocateNodes(1 << 10);
+    allocateKeys(1 << 13);
+  }
+
+  private void allocateNodes(int capacity) {
+    parent      = new int[capacity];
+    child       = new int[capacity << 1];
+    next        = new int[capacity];
+    prev        = new int[capacity];
+    value       = new int[capacity];
+    probability = new int[capacity];
+  }
+
+  private void allocateKeys(int capacity) {
+    keys    = new long[capacity >>> 6];
+    summary = new long[(keys.length + 63) >>> 6];
+    tail    = new int[capacity];
+  }
+
+  private void growNodes() {
+    final int capacity = parent.length << 1;
+    parent      = Arrays.copyOf(parent, capacity);
+    child       = Arrays.copyOf(child, capacity << 1);
+    next        = Arrays.copyOf(next, capacity);
+    prev        = Arrays.copyOf(prev, capacity);
+    value       = Arrays.copyOf(value, capacity);
+    probability = Arrays.copyOf(probability, capacity);
+  }
+
+  private void growKeys(int key) {
+    int capacity = tail.length;
+    while (capacity <= key) capacity <<= 1;
+    keys    = Arrays.copyOf(keys, capacity >>> 6);
+    summary = Arrays.copyOf(summary, (keys.length + 63) >>> 6);
+    tail    = Arrays.copyOf(tail, capacity);
+  }
+
+  int newNode() {
+    if (size == parent.length) growNodes();
+    return size++;
+  }
+
+  /*
+   * Sorted probability map. Equivalent to the TreeMap<Integer, Node> used by Huffman, with keys
+   * stored in a two-level bit set so ceiling lookups only scan a handful of words.
+   */
+
+  int get(int key) {
+    if (key >= tail.length) return NIL;
+    return (keys[key >>> 6] & (1L << key)) != 0 ? tail[key] : NIL;
+  }
+
+  void put(int key, int node) {
+    if (key >= tail.length) growKeys(key);
+    final int word = key >>> 6;
+    keys[word] |= 1L << key;
+    summary[word >>> 6] |= 1L << word;
+    tail[key] = node;
+    if (key > maxKey) maxKey = key;
+  }
+
+  void remove(int key) {
+    if (key >= tail.length) return;
+    final int word = key >>> 6;
+    if ((keys[word] &= ~(1L << key)) == 0) {
+      summary[word >>> 6] &= ~(1L << word);
+    }
+  }
+
+  /**
+   * Returns the node mapped to the smallest key greater than or equal to {@code key}, or
+   * {@link #NIL} if there is no such key.
+   */
+  int ceiling(int key) {
+    if (key >= tail.length) return NIL;
+    int word = key >>> 6;
+    long bits = keys[word] & (-1L << key);
+    if (bits != 0) return tail[(word << 6) + Long.numberOfTrailingZeros(bits)];
+
+    word++;
+    int index = word >>> 6;
+    if (index >= summary.length) return NIL;
+    long words = summary[index] & (-1L << word);
+    while (words == 0) {
+      if (++index >= summary.length) return NIL;
+      words = summary[index];
+    }
+
+    word = (index << 6) + Long.numberOfTrailingZeros(words);
+    return tail[(word << 6) + Long.numberOfTrailingZeros(keys[word])];
+  }
+
+  void clearKeys() {
+    final int words = (maxKey >>> 6) + 1;
+    Arrays.fill(keys, 0, words, 0L);
+    Arrays.fill(summary, 0, (words + 63) >>> 6, 0L);
+    maxKey = 0;
+  }
+
+  /*
+   * Tree and list operations, see Huffman.Node
+   */
+
+  void treeSwap(int node, int with) {
+    final int nodeParent = parent[node];
+    final int withParent = parent[with];
+    if (nodeParent == withParent) {
+      final int i = nodeParent << 1;
+      final int temp = child[i];
+      child[i] = child[i | 1];
+      child[i | 1] = temp;
+    } else {
+      final int i = withParent << 1;
+      if (child[i] == with) child[i] = node;
+      else child[i | 1] = node;
+      final int j = nodeParent << 1;
+      if (child[j] == node) child[j] = with;
+      else child[j | 1] = with;
+    }
+
+    parent[node] = withParent;
+    parent[with] = nodeParent;
+  }
+
+  void insertAfter(int node, int where) {
+    prev[node] = where;
+    next[node] = next[where];
+    next[where] = node;
+    prev[next[node]] = node;
+  }
+
+  void listSwap(int node, int with) {
+    if (next[node] == with) {
+      next[node] = next[with];
+      next[with] = node;
+      prev[with] = prev[node];
+      prev[node] = with;
+
+      next[prev[with]] = with;
+      prev[next[node]] = node;
+    } else if (prev[node] == with) {
+      prev[node] = prev[with];
+      prev[with] = node;
+      next[with] = next[node];
+      next[node] = with;
+
+      prev[next[with]] = with;
+      next[prev[node]] = node;
+    } else {
+      int temp = prev[node];
+      prev[node] = prev[with];
+      prev[with] = temp;
+
+      temp = next[node];
+      next[node] = next[with];
+      next[with] = temp;
+
+      next[prev[node]] = node;
+      prev[next[node]] = node;
+
+      next[prev[with]] = with;
+      prev[next[with]] = with;
+    }
+  }
+
+  void insertNode(int node) {
+    final int current = ceiling(probability[node]);
+    if (current != NIL) {
+      insertAfter(node, current);
+    } else {
+      if (root != NIL) {
+        insertAfter(node, prev[root]);
+      } else {
+        prev[node] = next[node] = node;
+      }
+
+      root = node;
+    }
+
+    put(probability[node], node);
+  }
+
+  int addValueToTree(int newValue) {
+    // create leaf node
+    final int node = newNode();
+    value[node] = newValue;
+    probability[node] = 0;
+    child[node << 1] = NIL;
+    child[(node << 1) | 1] = NIL;
+
+    insertNode(node);
+
+    // create branch node
+    final int node2 = newNode();
+    final int child1 = prev[root];
+    final int child2 = prev[child1];
+
+    value[node2] = INTERNAL;
+    probability[node2] = probability[child1] + probability[child2];
+    child[node2 << 1] = child1;
+    child[(node2 << 1) | 1] = child2;
+    parent[node2] = parent[child2];
+
+    insertAfter(node2, prev[child2]);
+
+    // insert into tree
+    final int i = parent[node2] << 1;
+    if (child[i] == child2) child[i] = node2;
+    else child[i | 1] = node2;
+
+    parent[child1] = node2;
+    parent[child2] = node2;
+
+    treeChanged();
+    return node;
+  }
+
+  void incrementProbability(int node) {
+    while (node != NIL) {
+      int p = probability[node];
+      if (get(p) == node) {
+        if (p == probability[prev[node]]) put(p, prev[node]);
+        else remove(p);
+      }
+
+      probability[node] = ++p;
+
+      final int current = ceiling(p);
+      final int where = current != NIL ? next[current] : root;
+      if (where != node) {
+        listSwap(node, where);
+        treeSwap(node, where);
+        if (probability[where] != probability[next[where]]) {
+          put(probability[where], where);
+        }
+
+        treeChanged();
+      }
+
+      put(p, node);
+      node = parent[node];
+    }
+  }
+
+  void buildTree(int type) {
+    final byte[] probabilities = Huffman.PROBABILITY_TABLES[type];
+
+    // destroy any existing tree
+    size = 0;
+    root = NIL;
+    clearKeys();
+
+    // generate leaves
+    for (int i = 0; i < 0x102; i++) {
+      final int prob = probabilities[i] & 0xFF;
+      if (prob == 0) continue;
+
+      final int node = newNode();
+      value[node] = i;
+      probability[node] = prob;
+      child[node << 1] = NIL;
+      child[(node << 1) | 1] = NIL;
+
+      insertNode(node);
+    }
+
+    // generate tree
+    int current = prev[root];
+    while (current != root) {
+      final int node = newNode();
+      final int child1 = current;
+      final int child2 = current = prev[current];
+
+      parent[child1] = node;
+      parent[child2] = node;
+
+      value[node] = INTERNAL;
+      probability[node] = probability[child1] + probability[child2];
+      child[node << 1] = child1;
+      child[(node << 1) | 1] = child2;
+      insertNode(node);
+
+      current = prev[current];
+    }
+
+    parent[root] = NIL;
+    treeChanged();
+  }
+
+  void treeChanged() {
+    tableValid = false;
+    walked = 0;
+  }
+
+  /**
+   * Fills the entries of all codes starting with the {@code depth} bits of {@code code} reaching
+   * {@code node}.
+   */
+  private void buildTable(int node, int code, int depth) {
+    if (value[node] != INTERNAL || depth == TABLE_BITS) {
+      final int entry = node | (depth << 24);
+      for (int i = code; i < TABLE_SIZE; i += 1 << depth) table[i] = entry;
+      return;
+    }
+
+    buildTable(child[node << 1], code, depth + 1);
+    buildTable(child[(node << 1) | 1], code | (1 << depth), depth + 1);
+  }
+
+  /*
+   * Bit reservoir, bits are consumed starting with the least significant bit of each byte
+   */
+
+  private void setSource(ByteBuffer source) {
+    this.source = source;
+    bitBuffer = 0;
+    bitCount = 0;
+    bitsRead = 0;
+    bitsAvailable = (long) source.remaining() << 3;
+  }
+
+  /**
+   * Fills the reservoir with at least 49 bits, padding with zeros past the end of the source.
+   * Reading padding is detected by {@link #checkUnderflow()}.
+   */
+  private void refill() {
+    final ByteBuffer source = this.source;
+    while (bitCount <= 48) {
+      if (source.hasRemaining()) bitBuffer |= (source.get() & 0xFFL) << bitCount;
+      bitCount += 8;
+    }
+  }
+
+  private int peekBits(int bits) {
+    if (bitCount < bits) refill();
+    return (int) bitBuffer & ((1 << bits) - 1);
+  }
+
+  private void skipBits(int bits) {
+    bitBuffer >>>= bits;
+    bitCount -= bits;
+    bitsRead += bits;
+  }
+
+  private int getBits(int bits) {
+    final int result = peekBits(bits);
+    skipBits(bits);
+    return result;
+  }
+
+  private void checkUnderflow() {
+    if (bitsRead > bitsAvailable) throw new BufferUnderflowException();
+  }
+
+  private int decodeSymbol() {
+    int node;
+    if (tableValid) {
+      final int entry = table[peekBits(TABLE_BITS)];
+      skipBits(entry >>> 24);
+      node = entry & 0xFFFFFF;
+    } else if (walked >= REBUILD_THRESHOLD) {
+      buildTable(root, 0, 0);
+      tableValid = true;
+      final int entry = table[peekBits(TABLE_BITS)];
+      skipBits(entry >>> 24);
+      node = entry & 0xFFFFFF;
+    } else {
+      node = root;
+    }
+
+    final int[] value = this.value;
+    final int[] child = this.child;
+    if (value[node] == INTERNAL) {
+      if (bitCount < 32) refill();
+      long bits = bitBuffer;
+      int length = 0;
+      do {
+        node = child[(node << 1) | ((int) bits & 1)];
+        bits >>>= 1;
+        if (++length == bitCount) {
+          skipBits(length);
+          refill();
+          bits = bitBuffer;
+          length = 0;
+        }
+      } while (value[node] == INTERNAL);
+      skipBits(length);
+      walked += length;
+    }
+
+    checkUnderflow();
+    return node;
+  }
+
+  public void decompress(ByteBuffer in, ByteBuffer out) {
+    final int start = in.position();
+    setSource(in);
+    try {
+      final int type = getBits(8);
+      checkUnderflow();
+      buildTree(type);
+
+      final boolean adjustProbability = type == 0;
+      for (;;) {
+        int current = decodeSymbol();
+        if (value[current] == NEW_VALUE) {
+          final int newValue = getBits(8);
+          checkUnderflow();
+          current = addValueToTree(newValue);
+          incrementProbability(current);
+          if (!adjustProbability) incrementProbability(current);
+        } else if (value[current] == END_OF_STREAM) {
+          break;
+        }
+
+        out.put((byte) value[current]);
+
+        if (adjustProbability) {
+          incrementProbability(current);
+        }
+      }
+    } finally {
+      // only count bytes whose bits were consumed, as if read one byte at a time
+      in.position(start + (int) Math.min((bitsRead + 7) >>> 3, bitsAvailable >>> 3));
+      this.source = null;
+    }
+  }
+}
@@ -4,6 +4,10 @@ import java.nio.ByteBuffer;
 import java.util.Map;
 import java.util.TreeMap;
 
+/**
+ * Adaptive Huffman decoder. Instances reuse their node pool across calls and are not thread-safe,
+ * use one instance per decoding thread.
+ */
 public class Huffman {
   private static class Node {
     Node parent;
@@ -268,7 +272,7 @@ public class Huffman {
     root.parent = null;
   }
 
-  synchronized void decompress(ByteBuffer in, ByteBuffer out) {
+  void decompress(ByteBuffer in, ByteBuffer out) {
     setSource(in);
     byte type = (byte) getBits(8);
     buildTree(type);
@@ -298,7 +302,7 @@ public class Huffman {
 
   }
 
-  private static final byte[][] PROBABILITY_TABLES = {
+  static final byte[][] PROBABILITY_TABLES = {
       // Data for compression type 0x00
       {
           0x0A, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00,
@@ -7,10 +7,16 @@ import java.nio.ByteBuffer;
 public class JZLib {
   private JZLib() {}
 
-  private static Inflater inflater = new Inflater();
+  private static final ThreadLocal<Inflater> inflaters = new ThreadLocal<Inflater>() {
+    @Override
+    protected Inflater initialValue() {
+      return new Inflater();
+    }
+  };
 
   public static void inflate(ByteBuffer in, ByteBuffer out, int FSize) {
     assert out.remaining() == FSize;
+    final Inflater inflater = inflaters.get();
     final int CSize = in.remaining();
     inflater.init();
     inflater.setInput(in.array(), in.arrayOffset(), CSize, false);
@@ -109,9 +109,11 @@ public class QuestsPanel extends WidgetGroup implements Disposable {
     @SuppressWarnings("unchecked")
     Array<Quests.Entry>[] quests = (Array<Quests.Entry>[]) new Array[5];
     for (int i = 0; i < quests.length; i++) quests[i] = new Array<>(6);
-    for (Quests.Entry quest : Riiablo.files.quests) {
-      if (quest.visible) {
-        quests[quest.act].add(quest);
+    for (int act = 0; act < quests.length; act++) {
+      for (Quests.Entry quest : Riiablo.files.quests.find("act", act)) {
+        if (quest.visible) {
+          quests[act].add(quest);
+        }
       }
     }
     Comparator<Quests.Entry> comparator = new Comparator<Quests.Entry>() {
@@ -86,9 +86,11 @@ public class WaygatePanel extends WidgetGroup implements Disposable {
     @SuppressWarnings("unchecked")
     Array<Levels.Entry>[] waypoints = (Array<Levels.Entry>[]) new Array[5];
     for (int i = 0; i < waypoints.length; i++) waypoints[i] = new Array<>(9);
-    for (Levels.Entry level : Riiablo.files.Levels) {
-      if (level.Waypoint != 0xFF) {
-        waypoints[level.Act].add(level);
+    for (int act = 0; act < waypoints.length; act++) {
+      for (Levels.Entry level : Riiablo.files.Levels.find("Act", act)) {
+        if (level.Waypoint != 0xFF) {
+          waypoints[act].add(level);
+        }
       }
     }
     Comparator<Levels.Entry> comparator = new Comparator<Levels.Entry>() {
@@ -0,0 +1,98 @@
+package com.riiablo.util;
+
+import com.badlogic.gdx.math.MathUtils;
+import com.badlogic.gdx.utils.StreamUtils;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads and writes the entries of the caches kept on local disk, e.g.,
+ * {@link com.riiablo.mpq.DiskCache}.
+ */
+public class CacheUtils {
+  private CacheUtils() {}
+
+  /**
+   * Entries of at most this many bytes are read into a buffer owned by the calling thread, larger
+   * ones are mapped, which bounds the buffer each thread keeps.
+   */
+  public static final int MAX_BUFFERED = 1 << 20;
+
+  private static final ThreadLocal<ByteBuffer> buffers = new ThreadLocal<ByteBuffer>() {
+    @Override
+    protected ByteBuffer initialValue() {
+      return ByteBuffer.allocate(1 << 16);
+    }
+  };
+
+  /**
+   * Returns the contents of {@code file} as a little-endian buffer positioned at {@code 0}. Files
+   * of up to {@link #MAX_BUFFERED} bytes are read into a buffer owned by the calling thread, which
+   * is only valid until the next read on the same thread. Larger files are returned as read-only
+   * mappings, which remain valid once the file is closed.
+   */
+  public static ByteBuffer read(File file) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      final FileChannel channel = raf.getChannel();
+      final long length = channel.size();
+      if (length > MAX_BUFFERED) {
+        return channel.map(FileChannel.MapMode.READ_ONLY, 0, length).order(ByteOrder.LITTLE_ENDIAN);
+      }
+
+      ByteBuffer buffer = buffers.get();
+      if (buffer.capacity() < length) {
+        buffer = ByteBuffer.allocate(MathUtils.nextPowerOfTwo((int) length));
+        buffers.set(buffer);
+      }
+
+      buffer.clear();
+      buffer.limit((int) length);
+      while (buffer.hasRemaining()) {
+        if (channel.read(buffer) < 0) throw new EOFException(file + " was truncated while reading");
+      }
+
+      buffer.flip();
+      return buffer.order(ByteOrder.LITTLE_ENDIAN);
+    } finally {
+      StreamUtils.closeQuietly(raf);
+    }
+  }
+
+  /**
+   * Writes the remaining bytes of {@code data} into {@code file}, replacing it. The bytes are
+   * written under a temporary name first and then renamed, so concurrent readers never see partial
+   * contents. {@code data} is not modified.
+   */
+  public static void write(File file, ByteBuffer data) throws IOException {
+    File parent = file.getParentFile();
+    if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+      throw new IOException("Unable to create " + parent);
+    }
+
+    File tmp = new File(parent, file.getName() + "." + Thread.currentThread().getId() + ".tmp");
+    FileOutputStream out = null;
+    try {
+      out = new FileOutputStream(tmp);
+      FileChannel channel = out.getChannel();
+      ByteBuffer src = data.duplicate();
+      while (src.hasRemaining()) channel.write(src);
+      out.close();
+      out = null;
+      // renameTo does not replace an existing file on every platform, e.g., a stale entry
+      if (!tmp.renameTo(file) && !(file.delete() && tmp.renameTo(file))) {
+        throw new IOException("Unable to rename " + tmp + " to " + file);
+      }
+    } finally {
+      StreamUtils.closeQuietly(out);
+      if (tmp.exists()) tmp.delete();
+    }
+  }
+}
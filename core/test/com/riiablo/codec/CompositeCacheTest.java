@@ -0,0 +1,267 @@
+package com.riiablo.codec;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.graphics.Color;
+import com.badlogic.gdx.graphics.GL20;
+import com.badlogic.gdx.graphics.Pixmap;
+import com.badlogic.gdx.graphics.g2d.TextureRegion;
+import com.badlogic.gdx.utils.GdxNativesLoader;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import com.riiablo.codec.util.BBox;
+import com.riiablo.codec.util.Spans;
+import com.riiablo.graphics.BlendMode;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class CompositeCacheTest {
+  static final int NUM_DIRECTIONS = 8;
+
+  static GL20 gl, gl20;
+
+  /** composites are uploaded as textures, so GL calls are stubbed out */
+  @BeforeClass
+  public static void setUpGl() {
+    GdxNativesLoader.load();
+    gl = Gdx.gl;
+    gl20 = Gdx.gl20;
+    Gdx.gl = Gdx.gl20 = (GL20) Proxy.newProxyInstance(GL20.class.getClassLoader(), new Class<?>[] { GL20.class }, new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) {
+        Class<?> type = method.getReturnType();
+        if (type == int.class) return 0;
+        if (type == boolean.class) return false;
+        if (type == float.class) return 0f;
+        return null;
+      }
+    });
+  }
+
+  @AfterClass
+  public static void tearDownGl() {
+    Gdx.gl = gl;
+    Gdx.gl20 = gl20;
+  }
+
+  /**
+   * COF with a torso and a head layer and a single frame per direction. The head is drawn over
+   * the torso in even read directions and under it in odd ones.
+   */
+  static COF cof() {
+    final int numLayers = 2, numFrames = 1;
+    ByteBuffer buffer = ByteBuffer.allocate(28 + numLayers * 9 + numFrames + NUM_DIRECTIONS * numFrames * numLayers)
+        .order(ByteOrder.LITTLE_ENDIAN);
+    buffer.put((byte) numLayers).put((byte) numFrames).put((byte) NUM_DIRECTIONS).put((byte) 20);
+    buffer.putInt(0).putInt(0).putInt(1).putInt(0).putInt(1).putShort((short) 256).putShort((short) 0);
+    for (byte component : new byte[] { COF.Component.TR, COF.Component.HD }) {
+      buffer.put(component).put((byte) 1).put((byte) 1).put((byte) 0).put((byte) 0).put("hth".getBytes()).put((byte) 0);
+    }
+
+    buffer.put((byte) 0);
+    for (int d = 0; d < NUM_DIRECTIONS; d++) {
+      if ((d & 1) == 0) {
+        buffer.put(COF.Component.TR).put(COF.Component.HD);
+      } else {
+        buffer.put(COF.Component.HD).put(COF.Component.TR);
+      }
+    }
+
+    return COF.loadFromStream(new ByteArrayInputStream(buffer.array()));
+  }
+
+  /**
+   * Layers whose torso fills {@code (0,0)-(1,1)} with {@code 10 + d} and whose head covers
+   * {@code (1,1)} with {@code 50 + d}, where {@code d} is the direction of the frame.
+   */
+  static Animation.Layer[] layers() {
+    Animation.Layer[] layers = new Animation.Layer[COF.Component.NUM_COMPONENTS];
+    layers[COF.Component.TR] = new Animation.Layer(new SolidDC(10, 0, 0, 2, 2));
+    layers[COF.Component.HD] = new Animation.Layer(new SolidDC(50, 1, 1, 1, 1));
+    return layers;
+  }
+
+  /** draws each layer by itself, in the same way as {@link Animation#draw} does */
+  static byte[] drawLayers(COF cof, Animation.Layer[] layers, int direction, int f, BBox box) {
+    int readDir = DC.Direction.toReadDir(direction, cof.getNumDirections());
+    byte[] dst = new byte[box.width * box.height];
+    for (int l = 0; l < cof.getNumLayers(); l++) {
+      Animation.Layer layer = layers[cof.getLayerOrder(readDir, f, l)];
+      if (layer == null) continue;
+      BBox src = layer.dc.getBox(direction, f);
+      byte[] pixels = layer.dc.getFrame(direction, f).spans.toArray();
+      for (int y = 0; y < src.height; y++) {
+        for (int x = 0; x < src.width; x++) {
+          byte pixel = pixels[y * src.width + x];
+          if (pixel != 0) dst[(src.yMin - box.yMin + y) * box.width + src.xMin - box.xMin + x] = pixel;
+        }
+      }
+    }
+
+    return dst;
+  }
+
+  @Test
+  public void keysMatchSameComponents() {
+    DC torso = new DecodeServiceTest.FakeDC(8, 8);
+    DC head = new DecodeServiceTest.FakeDC(8, 8);
+    Animation.Layer[] a = new Animation.Layer[COF.Component.NUM_COMPONENTS];
+    Animation.Layer[] b = new Animation.Layer[COF.Component.NUM_COMPONENTS];
+    a[COF.Component.TR] = new Animation.Layer(torso);
+    a[COF.Component.HD] = new Animation.Layer(head);
+    b[COF.Component.TR] = new Animation.Layer(torso);
+    b[COF.Component.HD] = new Animation.Layer(head);
+
+    CompositeCache.Key key = new CompositeCache.Key().set(null, a, 3);
+    assertEquals(key, new CompositeCache.Key().set(null, b, 3));
+    assertEquals(key.hashCode(), new CompositeCache.Key().set(null, b, 3).hashCode());
+    assertNotEquals(key, new CompositeCache.Key().set(null, b, 4));
+
+    b[COF.Component.HD] = new Animation.Layer(new DecodeServiceTest.FakeDC(8, 8));
+    assertNotEquals(key, new CompositeCache.Key().set(null, b, 3));
+  }
+
+  @Test
+  public void composeMatchesLayers() {
+    COF cof = cof();
+    Animation.Layer[] layers = layers();
+    for (int d = 0; d < NUM_DIRECTIONS; d++) {
+      int readDir = DC.Direction.toReadDir(d, NUM_DIRECTIONS);
+      assertNotEquals(d, readDir);
+      BBox box = CompositeCache.bounds(cof, layers, d);
+      byte[] composite = new byte[box.width * box.height];
+      CompositeCache.compose(cof, layers, d, readDir, 0, box, composite);
+      assertArrayEquals("direction " + d, drawLayers(cof, layers, d, 0, box), composite);
+      // frames are those of d, the head is only on top in even read directions
+      assertEquals(10 + d, composite[0]);
+      assertEquals((readDir & 1) == 0 ? 50 + d : 10 + d, composite[3]);
+    }
+  }
+
+  @Test
+  public void composableRequiresDecodedOpaqueLayers() {
+    COF cof = cof();
+    Animation.Layer[] layers = layers();
+    int d = 0, readDir = DC.Direction.toReadDir(d, NUM_DIRECTIONS);
+    assertNull(CompositeCache.composable(cof, layers, d));
+    decode(layers, d);
+    assertSame(layers[COF.Component.TR], CompositeCache.composable(cof, layers, d));
+    assertNull(CompositeCache.composable(cof, layers, readDir));
+
+    layers[COF.Component.HD].setAlpha(0.5f);
+    assertNull(CompositeCache.composable(cof, layers, d));
+    layers[COF.Component.HD].setBlendMode(BlendMode.LUMINOSITY, Color.WHITE);
+    assertNull(CompositeCache.composable(cof, layers, d));
+  }
+
+  @Test
+  public void buildsWithinBuildBudget() {
+    COF cof = cof();
+    Animation.Layer[] layers = layers();
+    CompositeCache cache = new CompositeCache(1 << 20, 1);
+    try {
+      cache.update();
+      CompositeCache.Composite composite = cache.get(cof, layers, 0, DC.Direction.toReadDir(0, NUM_DIRECTIONS));
+      assertNotNull(composite);
+      assertEquals(2, composite.box.width);
+      assertEquals(2, composite.box.height);
+      assertNull(cache.get(cof, layers, 2, DC.Direction.toReadDir(2, NUM_DIRECTIONS)));
+      assertSame(composite, cache.get(cof, layers, 0, DC.Direction.toReadDir(0, NUM_DIRECTIONS)));
+      assertEquals(1, cache.size());
+
+      cache.update();
+      assertNotNull(cache.get(cof, layers, 2, DC.Direction.toReadDir(2, NUM_DIRECTIONS)));
+      assertEquals(2, cache.size());
+    } finally {
+      cache.dispose();
+    }
+  }
+
+  @Test
+  public void evictsCompositesNotDrawnThisFrame() {
+    COF cof = cof();
+    Animation.Layer[] layers = layers();
+    // each composite is 2x2, so only one fits
+    CompositeCache cache = new CompositeCache(4, 2);
+    try {
+      cache.update();
+      CompositeCache.Composite first = cache.get(cof, layers, 0, DC.Direction.toReadDir(0, NUM_DIRECTIONS));
+      assertNotNull(cache.get(cof, layers, 2, DC.Direction.toReadDir(2, NUM_DIRECTIONS)));
+      assertEquals(2, cache.size());
+      assertEquals(8, cache.used());
+
+      cache.update();
+      assertSame(first, cache.get(cof, layers, 0, DC.Direction.toReadDir(0, NUM_DIRECTIONS)));
+      assertNotNull(cache.get(cof, layers, 4, DC.Direction.toReadDir(4, NUM_DIRECTIONS)));
+      assertEquals(2, cache.size());
+      assertSame(first, cache.get(cof, layers, 0, DC.Direction.toReadDir(0, NUM_DIRECTIONS)));
+
+      cache.setBudget(0);
+      assertEquals(0, cache.size());
+      assertEquals(0, cache.used());
+    } finally {
+      cache.dispose();
+    }
+  }
+
+  static void decode(Animation.Layer[] layers, int d) {
+    for (Animation.Layer layer : layers) {
+      if (layer != null) layer.regions[d] = new TextureRegion[layer.numFrames];
+    }
+  }
+
+  /** DC whose every frame is a solid rectangle of index {@code index + d} */
+  static class SolidDC extends DC {
+    final Frame[] frames = new Frame[NUM_DIRECTIONS];
+
+    SolidDC(int index, int x, int y, int width, int height) {
+      for (int d = 0; d < NUM_DIRECTIONS; d++) {
+        byte[] pixels = new byte[width * height];
+        Arrays.fill(pixels, (byte) (index + d));
+        Frame frame = frames[d] = new Frame() {};
+        frame.width = width;
+        frame.height = height;
+        frame.box = new BBox();
+        frame.box.xMin = x;
+        frame.box.yMin = y;
+        frame.box.xMax = x + width - 1;
+        frame.box.yMax = y + height - 1;
+        frame.box.width = width;
+        frame.box.height = height;
+        frame.spans = Spans.encode(pixels, width, height);
+      }
+    }
+
+    @Override public int getNumDirections() { return NUM_DIRECTIONS; }
+    @Override public Direction getDirection(int d) { return null; }
+    @Override public int getNumFramesPerDir() { return 1; }
+    @Override public Frame getFrame(int d, int f) { return frames[d]; }
+    @Override public BBox getBox() { return null; }
+    @Override public BBox getBox(int d) { return frames[d].box; }
+    @Override public BBox getBox(int d, int f) { return frames[d].box; }
+    @Override public boolean isLoaded(int d) { return true; }
+    @Override public void loadDirection(int d, boolean combineFrames) {}
+    @Override public void loadDirections(boolean combineFrames) {}
+    @Override public TextureRegion getTexture(int d, int i) { return null; }
+    @Override public boolean isPreloaded(int d) { return true; }
+    @Override public void preloadDirection(int d, boolean combineFrames) {}
+    @Override public void preloadDirections(boolean combineFrames) {}
+    @Override public Pixmap getPixmap(int d, int f) { return null; }
+    @Override public void dispose() {}
+  }
+}
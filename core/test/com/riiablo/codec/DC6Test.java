@@ -0,0 +1,128 @@
+package com.riiablo.codec;
+
+import com.badlogic.gdx.ApplicationAdapter;
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.backends.headless.HeadlessApplication;
+import com.badlogic.gdx.backends.headless.HeadlessApplicationConfiguration;
+import com.badlogic.gdx.graphics.Pixmap;
+import com.badlogic.gdx.utils.GdxRuntimeException;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class DC6Test {
+  @BeforeClass
+  public static void setUp() {
+    new HeadlessApplication(new ApplicationAdapter() {}, new HeadlessApplicationConfiguration());
+  }
+
+  @AfterClass
+  public static void tearDown() {
+    if (Gdx.app != null) Gdx.app.exit();
+  }
+
+  /** rows are stored bottom-up: {@code 1, 2} over {@code 0, 3} */
+  static final byte[] FRAME = { 0x02, 1, 2, (byte) 0x80, (byte) 0x81, 0x01, 3, (byte) 0x80 };
+
+  /** DC6 with {@code numDirections} directions of a single 2x2 frame each */
+  static DC6 dc6(int numDirections) {
+    final int frameSize = DC6.Frame.SIZE + FRAME.length;
+    ByteBuffer buffer = ByteBuffer.allocate(DC6.Header.SIZE + numDirections * (4 + frameSize))
+        .order(ByteOrder.LITTLE_ENDIAN);
+    buffer.putInt(6).putInt(1).putInt(0).putInt(0xEEEEEEEE).putInt(numDirections).putInt(1);
+    for (int d = 0; d < numDirections; d++) {
+      buffer.putInt(DC6.Header.SIZE + numDirections * 4 + d * frameSize);
+    }
+
+    for (int d = 0; d < numDirections; d++) {
+      buffer.putInt(0).putInt(2).putInt(2).putInt(0).putInt(0).putInt(0).putInt(0).putInt(FRAME.length);
+      buffer.put(FRAME);
+    }
+
+    return DC6.loadFromStream(new ByteArrayInputStream(buffer.array()));
+  }
+
+  static byte[] pixels(Pixmap pixmap) {
+    ByteBuffer pixels = pixmap.getPixels();
+    byte[] dst = new byte[pixels.remaining()];
+    pixels.duplicate().get(dst);
+    return dst;
+  }
+
+  @Test
+  public void pixmapsAreExpandedOnDemand() {
+    DC6 dc6 = dc6(2);
+    try {
+      assertNull(dc6.frames[0][0].pixmap);
+      assertNull(dc6.frames[1][0].pixmap);
+
+      Pixmap pixmap = dc6.getPixmap(0, 0);
+      assertArrayEquals(new byte[] { 0, 3, 1, 2 }, pixels(pixmap));
+      assertSame(pixmap, dc6.getPixmap(0, 0));
+      assertNull(dc6.frames[1][0].pixmap);
+
+      dc6.releasePixmaps(0);
+      assertNull(dc6.frames[0][0].pixmap);
+      assertArrayEquals(new byte[] { 0, 3, 1, 2 }, pixels(dc6.getPixmap(0, 0)));
+    } finally {
+      dc6.dispose();
+    }
+  }
+
+  @Test
+  public void releasesPreloadedDirections() {
+    DC6 dc6 = dc6(2);
+    try {
+      dc6.preloadDirection(1);
+      assertNotNull(dc6.pixmaps[1]);
+      assertSame(dc6.frames[1][0].pixmap, dc6.pixmaps[1][0]);
+
+      dc6.releasePixmaps(1);
+      assertNull(dc6.pixmaps[1]);
+      assertNull(dc6.frames[1][0].pixmap);
+    } finally {
+      dc6.dispose();
+    }
+  }
+
+  @Test
+  public void directionsAreLockedSeparately() throws Exception {
+    final DC6 dc6 = dc6(2);
+    try {
+      Thread other = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          dc6.getPixmap(1, 0);
+          dc6.releasePixmaps(1);
+        }
+      });
+
+      synchronized (dc6.locks[0]) {
+        other.start();
+        other.join(5000);
+      }
+
+      assertFalse(other.isAlive());
+    } finally {
+      dc6.dispose();
+    }
+  }
+
+  @Test(expected = GdxRuntimeException.class)
+  public void disposedPixmapsAreNotRecreated() {
+    DC6 dc6 = dc6(1);
+    dc6.dispose();
+    dc6.getPixmap(0, 0);
+  }
+}
@@ -0,0 +1,304 @@
+package com.riiablo.codec;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import com.riiablo.util.HexUtils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class DCCTest {
+  static final int SIGNATURE = 0x74;
+  static final int VERSION   = 6;
+
+  /**
+   * DCCs of 2 directions and the frames the original decoder decoded them into, as the pixels of
+   * each frame of each direction in turn.
+   */
+  static final String[][] GOLDEN = {
+      {
+          "740602010000000100000000000000170000005e00000000000000406626c0024001c0fe7f000000"
+          + "00c0b9b3d17fb441a73154030deb0f504c785d10b8c98034df2949d3ab9868da9aa9d11d2b8fbf03"
+          + "afe11c6b7448ed729f0e78a24214000000004066260002400180ffbffe7f000008df51c4ea45174e"
+          + "76297c7db197628869a3cda3d2ec4ea9cbace64e70e19b0edf0b57311ef947da2abdc912b0e001",
+          "0e0a1f1f33331b113636030a35350a11111b080336271f0e0a351b1b11083627270e1f1f0a110808"
+          + "33273604350e0e0a1b081b33360404",
+          "174224421324133e17171717241b2424422442251b3e3e3e172425251b24243e252524243e13133e",
+      },
+      {
+          "7406020100000001000000000000001700000059000000000000004066264001400200ff7f010000"
+          + "00a8c6a34f2d935891b84077be4d1553bccfd5e651743b7e61a70954e881e301ca72d20f1f3895ef"
+          + "58f146a1a79a184f1d000000004166260003c00280fe3f02000000480000600038326da1de2a6d93"
+          + "3e9d7b50d0c3d4f5ee7399241cf7d82adbe2a69a676665b89f8bf33d9c202400ffc171420d722e2c"
+          + "44680d6cc035d8feafdb0fbd8e0fdf28aa744340c170fcedaed25c7702ca1748119e9acd813744d1"
+          + "69b0d58eb1",
+          "18392020205918183918395918202059201839181f00001f1f1800001f181818001f181f001f0000"
+          + "1800000000",
+          "121200123c3c3c004c1c351c00000012003c3c7c351c3535000012123c3c7c0035644c1c12120012"
+          + "3c7c7c7c641c4c4c1e451e453e483e007c00f8002a7b7b7b003e003e7cf8f8002a2a7b1e48350048"
+          + "007c00f81e45457b48480048f87cf87c0dab0d0026262610000000000d00000d1310391300000000"
+          + "abab00002639101300000000",
+      },
+      {
+          "740602030000000100000000000000170000009c00000000000000426626c001000100ff7fff3f05"
+          + "000480ffff02000b000c00fcff060010000002007a959bcc853f45bdda89da34a3e59ed60c9a047d"
+          + "a64e1711730f73a752c5553871197b156cc299a76198e89fdcf182de98962dfba3f50b690a07e241"
+          + "88f03bba21f94732034b269076a386c60630eee37da39a07ad3e5af7b2fe29899ae26e7300000000"
+          + "41662600028001c0ffffffbf04000280fefffeff09000900fdff04004000e001008001e0b25c0b34"
+          + "b7f48324eba73d0592bfe8e1bf7f23a7b9eea47acbf78a51779c5cc6bd1b1e9727b94858a23445c6"
+          + "d86f7540dd4a60092bbb9160db085b382792fd3800df88b5675dcd3b85be719068476ba758c5f60c"
+          + "5d49e5242a6868879ee6ca89ba928d76cd42c1b39b1829",
+          "101010100f2a2a00000000000000101010102a10000000000000000000002a0f0900000000000010"
+          + "10101009100900000000000000000000000000000000000000000000000000000000000000000000"
+          + "00000000000000000000000000000000000000000000000000000000000000000000000000000000"
+          + "00000000000000000000000000000000000000000000000000000000000000000000000000000000"
+          + "000000000000000000",
+          "00000000000000000000000000000000000000000000000000000000000000000000000000000000"
+          + "0000000000000000000000000000002f00000000210429292100000046000000001a290404040000"
+          + "002f0000000004291a292100000013000000001a211a21290000007e0e3b0b3b2f2f134545000000"
+          + "56133b3b0e2f13451d2f000000713b130b0e1345454545000000710b0e133b1d2f45132f00000000"
+          + "000000000000000000",
+          "00000000000000000000000000090900101010101645451d000009091a092a16162a1d456d000009"
+          + "1a00102a0f0f10451d350000130e130e0000000000000000002f2f132f0000000000000000002f0e"
+          + "0e0e0000000000000000000e1a2f2f000000000000000000000000000e1d161d0000000000000000"
+          + "001616071d00000000000000000016161d0700000000000000000016071607000000000000000000"
+          + "0e160e070000000000",
+          "000055580000000088e800000f5500000000e8490000585800000000f6490000552a000000008849"
+          + "000093b10000000000000000b1f70000000000000000000000000000000000000000000000000000"
+          + "000000000000000000000000000000000000000000000000000000000000",
+          "00000000000000000000000000000000000000000000000000000000000000000058484800485300"
+          + "f7f7f7002d0008000000320ff73200202d000000320032000020082d000000000000000000000000"
+          + "000000000000000000000000000000000000000000000000000000000000",
+          "000000000000000000000000000000000000000058005858254949252500580058002f4925252f00"
+          + "f9f7000f2d20312020000ff9f70f2014202031000ff70ff92d202d1431000f0f00f920202d142d00"
+          + "32084a08004400e90000164a4a32e9cbe944e900324a4a08cb44cbe9e900",
+      },
+  };
+
+  @Test
+  public void decodesGoldenFrames() {
+    for (int i = 0; i < GOLDEN.length; i++) {
+      DCC dcc = DCC.loadFromBuffer(ByteBuffer.wrap(HexUtils.decode(GOLDEN[i][0])));
+      assertEquals(GOLDEN[i].length - 1, dcc.getNumDirections() * dcc.getNumFramesPerDir());
+      for (int d = 0, j = 1; d < dcc.getNumDirections(); d++) {
+        dcc.preloadDirection(d);
+        for (int f = 0; f < dcc.getNumFramesPerDir(); f++) {
+          assertNotNull(dcc.frames[d][f].spans);
+          assertArrayEquals("dcc " + i + " direction " + d + " frame " + f,
+              HexUtils.decode(GOLDEN[i][j++]), dcc.frames[d][f].spans.toArray());
+        }
+      }
+    }
+  }
+
+  @Test
+  public void decodingOnlyAllocatesFrames() {
+    ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+    com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+    Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+    threads.setThreadAllocatedMemoryEnabled(true);
+
+    byte[] data = randomDCC(new Random(0x37), 32, 16);
+    DCC[] dccs = new DCC[33];
+    for (int i = 0; i < dccs.length; i++) dccs[i] = DCC.loadFromBuffer(ByteBuffer.wrap(data));
+
+    // grows the decoder of this thread to the largest direction
+    dccs[0].preloadDirections();
+
+    long threadId = Thread.currentThread().getId();
+    long start = threads.getThreadAllocatedBytes(threadId);
+    for (int i = 1; i < dccs.length; i++) {
+      DCC dcc = dccs[i];
+      for (int d = 0, s = dcc.getNumDirections(); d < s; d++) dcc.preloadDirection(d);
+    }
+    long allocated = threads.getThreadAllocatedBytes(threadId) - start;
+
+    long expected = 0;
+    int directions = 0, frames = 0;
+    for (int i = 1; i < dccs.length; i++) {
+      DCC dcc = dccs[i];
+      for (int d = 0; d < dcc.getNumDirections(); d++, directions++) {
+        for (int f = 0; f < dcc.getNumFramesPerDir(); f++, frames++) {
+          expected += dcc.frames[d][f].spans.footprint();
+        }
+      }
+    }
+
+    long garbage = allocated - expected;
+    // array headers are larger without compressed oops
+    assertTrue("decoding " + directions + " directions allocated " + garbage + " bytes besides frames",
+        garbage < 16L * frames);
+  }
+
+  /**
+   * Generates a DCC whose directions are filled with random bit streams. Each direction is first
+   * decoded from streams which are longer than needed, then the streams are cut to the bits which
+   * were consumed, so the result is a valid DCC which exercises every branch of the decoder. Frames all overlap the origin, so later frames reuse cells of earlier
+   * ones.
+   */
+  static byte[] randomDCC(Random random, int numDirections, int framesPerDir) {
+    byte[][] directions = new byte[numDirections][];
+    for (int d = 0; d < numDirections; d++) {
+      directions[d] = randomDirection(random, framesPerDir);
+    }
+
+    return dcc(framesPerDir, directions);
+  }
+
+  static byte[] dcc(int framesPerDir, byte[][] directions) {
+    int offset = DCC.Header.SIZE + (directions.length << 2);
+    int size = offset;
+    for (byte[] dir : directions) size += dir.length;
+    ByteBuffer buffer = ByteBuffer.allocate(size).order(java.nio.ByteOrder.LITTLE_ENDIAN);
+    buffer.put((byte) SIGNATURE).put((byte) VERSION).put((byte) directions.length);
+    buffer.putInt(framesPerDir).putInt(1).putInt(0);
+    for (byte[] dir : directions) {
+      buffer.putInt(offset);
+      offset += dir.length;
+    }
+
+    for (byte[] dir : directions) buffer.put(dir);
+    return buffer.array();
+  }
+
+  static byte[] randomDirection(Random random, int framesPerDir) {
+    for (;;) {
+      DirectionSpec spec = DirectionSpec.random(random, framesPerDir);
+      byte[] data = dcc(framesPerDir, new byte[][] { spec.write() });
+      DCC dcc = DCC.loadFromBuffer(ByteBuffer.wrap(data));
+      DCC.Direction dir = dcc.directions[0];
+      DCC.Decoder.get().decode(dir, dcc.frames[0]);
+      spec.equalCellBits = dir.equalCellBitStream.tell();
+      spec.pixelMaskBits = dir.pixelMaskBitStream.tell();
+      spec.encodingTypeBits = dir.encodingTypeBitStream.tell();
+      spec.rawPixelCodesBits = dir.rawPixelCodesBitStream.tell();
+      spec.pixelCodeBits = dir.pixelCodeAndDisplacementBitStream.tell();
+      if (spec.isValid()) return spec.write();
+    }
+  }
+
+  static final class DirectionSpec {
+    static final int STREAM_BITS = 1 << 18;
+
+    int    flags;
+    int[]  xMin, yMin, width, height, flip;
+    byte[] pixelValues = new byte[Palette.COLORS / Byte.SIZE];
+
+    byte[] equalCell, pixelMask, encodingType, rawPixelCodes, pixelCodes;
+    long   equalCellBits, pixelMaskBits, encodingTypeBits, rawPixelCodesBits, pixelCodeBits;
+
+    static DirectionSpec random(Random random, int framesPerDir) {
+      DirectionSpec spec = new DirectionSpec();
+      spec.flags = random.nextInt(4);
+      spec.xMin = new int[framesPerDir];
+      spec.yMin = new int[framesPerDir];
+      spec.width = new int[framesPerDir];
+      spec.height = new int[framesPerDir];
+      spec.flip = new int[framesPerDir];
+      for (int f = 0; f < framesPerDir; f++) {
+        spec.xMin[f] = -1 - random.nextInt(24);
+        spec.yMin[f] = -1 - random.nextInt(24);
+        spec.width[f] = 24 + random.nextInt(25);
+        spec.height[f] = 24 + random.nextInt(25);
+        spec.flip[f] = random.nextInt(2);
+      }
+
+      random.nextBytes(spec.pixelValues);
+      spec.equalCell = randomBytes(random, STREAM_BITS);
+      spec.pixelMask = randomBytes(random, STREAM_BITS);
+      spec.encodingType = randomBytes(random, STREAM_BITS);
+      spec.rawPixelCodes = randomBytes(random, STREAM_BITS);
+      spec.pixelCodes = randomBytes(random, STREAM_BITS);
+      spec.equalCellBits = (spec.flags & DCC.Direction.CompressEqualCells) != 0 ? STREAM_BITS : 0;
+      spec.pixelMaskBits = STREAM_BITS;
+      if ((spec.flags & DCC.Direction.HasRawPixelEncoding) != 0) {
+        spec.encodingTypeBits = spec.rawPixelCodesBits = STREAM_BITS;
+      }
+
+      spec.pixelCodeBits = STREAM_BITS;
+      return spec;
+    }
+
+    static byte[] randomBytes(Random random, int bits) {
+      byte[] bytes = new byte[bits / Byte.SIZE];
+      random.nextBytes(bytes);
+      return bytes;
+    }
+
+    boolean isValid() {
+      if ((flags & DCC.Direction.CompressEqualCells) != 0 && equalCellBits == 0) return false;
+      if ((flags & DCC.Direction.HasRawPixelEncoding) != 0 && (encodingTypeBits == 0 || rawPixelCodesBits == 0)) return false;
+      return pixelCodeBits > 0;
+    }
+
+    byte[] write() {
+      BitWriter out = new BitWriter();
+      out.write(0, 32); // outsizeCoded
+      out.write(flags, 2);
+      out.write(0, 4); // variable0Bits
+      out.write(9, 4); // widthBits, 16 bits
+      out.write(9, 4); // heightBits
+      out.write(9, 4); // xOffsetBits
+      out.write(9, 4); // yOffsetBits
+      out.write(0, 4); // optionalBytesBits
+      out.write(0, 4); // codedBytesBits
+      for (int f = 0; f < xMin.length; f++) {
+        out.write(width[f], 16);
+        out.write(height[f], 16);
+        out.write(xMin[f], 16);
+        out.write(flip[f] != 0 ? yMin[f] : yMin[f] + height[f] - 1, 16);
+        out.write(flip[f], 1);
+      }
+
+      if ((flags & DCC.Direction.CompressEqualCells) != 0) out.write(equalCellBits, 20);
+      out.write(pixelMaskBits, 20);
+      if ((flags & DCC.Direction.HasRawPixelEncoding) != 0) {
+        out.write(encodingTypeBits, 20);
+        out.write(rawPixelCodesBits, 20);
+      }
+
+      out.write(pixelValues, pixelValues.length * Byte.SIZE);
+      out.write(equalCell, equalCellBits);
+      out.write(pixelMask, pixelMaskBits);
+      out.write(encodingType, encodingTypeBits);
+      out.write(rawPixelCodes, rawPixelCodesBits);
+      out.write(pixelCodes, pixelCodeBits);
+      return out.toByteArray();
+    }
+  }
+
+  /** LSB-first bit writer, the inverse of {@link com.riiablo.codec.util.BitStream} */
+  static final class BitWriter {
+    byte[] buffer = new byte[256];
+    long   bits;
+
+    void writeBit(int bit) {
+      int index = (int) (bits >>> 3);
+      if (index == buffer.length) buffer = Arrays.copyOf(buffer, buffer.length << 1);
+      if (bit != 0) buffer[index] |= 1 << (bits & 7);
+      bits++;
+    }
+
+    void write(long value, int n) {
+      for (int i = 0; i < n; i++) writeBit((int) (value >>> i) & 1);
+    }
+
+    void write(byte[] src, long n) {
+      for (long i = 0; i < n; i++) writeBit((src[(int) (i >>> 3)] >>> (i & 7)) & 1);
+    }
+
+    byte[] toByteArray() {
+      return Arrays.copyOf(buffer, (int) ((bits + 7) >>> 3));
+    }
+  }
+}
@@ -0,0 +1,140 @@
+package com.riiablo.codec;
+
+import com.badlogic.gdx.graphics.Pixmap;
+import com.badlogic.gdx.graphics.g2d.TextureRegion;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.riiablo.codec.util.BBox;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+public class DecodeServiceTest {
+  DecodeService service;
+
+  @Before
+  public void setUp() {
+    service = new DecodeService(2, 8);
+  }
+
+  @After
+  public void tearDown() {
+    service.dispose();
+  }
+
+  @Test
+  public void decodesOnWorkersAndUploadsWithinBudget() throws InterruptedException {
+    FakeDC a = new FakeDC(4, 5);
+    FakeDC b = new FakeDC(4, 5);
+    assertFalse(service.request(a, 0));
+    assertFalse(service.request(a, 0));
+    assertFalse(service.request(a, 1));
+    assertFalse(service.request(b, 2));
+    await(3);
+
+    assertNotSame(Thread.currentThread(), a.decodedBy);
+    assertEquals(1, a.decodes[0]);
+    assertFalse(a.isLoaded(0));
+
+    // each direction is 5 frames, so the budget of 8 is spent after 2 directions
+    assertEquals(10, service.update());
+    assertEquals(5, service.update());
+    assertEquals(0, service.update());
+    assertTrue(service.request(a, 0));
+    assertTrue(service.request(a, 1));
+    assertTrue(service.request(b, 2));
+    assertEquals(15, service.uploaded());
+  }
+
+  @Test
+  public void unlimitedBudgetUploadsEverything() throws InterruptedException {
+    service.setUploadBudget(0);
+    FakeDC dc = new FakeDC(8, 16);
+    for (int d = 0; d < 8; d++) assertFalse(service.request(dc, d));
+    await(8);
+    assertEquals(8 * 16, service.update());
+    for (int d = 0; d < 8; d++) assertTrue(dc.isLoaded(d));
+  }
+
+  @Test
+  public void cancelledDirectionsAreNeverUploaded() throws InterruptedException {
+    FakeDC a = new FakeDC(4, 5);
+    FakeDC b = new FakeDC(4, 5);
+    assertFalse(service.request(a, 0));
+    assertFalse(service.request(b, 0));
+    await(2);
+
+    service.cancel(a);
+    assertFalse(service.isPending(a));
+    assertTrue(service.isPending(b));
+    assertEquals(5, service.update());
+    assertFalse(a.isLoaded(0));
+    assertTrue(b.isLoaded(0));
+
+    // requested again once cancelled
+    assertFalse(service.request(a, 0));
+    assertTrue(service.isPending(a));
+  }
+
+  void await(int directions) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 10000;
+    while (service.decoded() < directions) {
+      assertTrue("timed out", System.currentTimeMillis() < deadline);
+      Thread.sleep(1);
+    }
+  }
+
+  static class FakeDC extends DC {
+    final int numDirections;
+    final int numFrames;
+    final int[] decodes;
+    final boolean[] preloaded;
+    final boolean[] loaded;
+    volatile Thread decodedBy;
+
+    FakeDC(int numDirections, int numFrames) {
+      this.numDirections = numDirections;
+      this.numFrames = numFrames;
+      decodes = new int[numDirections];
+      preloaded = new boolean[numDirections];
+      loaded = new boolean[numDirections];
+    }
+
+    @Override public int getNumDirections() { return numDirections; }
+    @Override public Direction getDirection(int d) { return null; }
+    @Override public int getNumFramesPerDir() { return numFrames; }
+    @Override public Frame getFrame(int d, int f) { return null; }
+    @Override public BBox getBox() { return null; }
+    @Override public BBox getBox(int d) { return null; }
+    @Override public BBox getBox(int d, int f) { return null; }
+    @Override public boolean isLoaded(int d) { return loaded[d]; }
+    @Override public void loadDirections(boolean combineFrames) {}
+    @Override public TextureRegion getTexture(int d, int i) { return null; }
+    @Override public void preloadDirections(boolean combineFrames) {}
+    @Override public Pixmap getPixmap(int d, int f) { return null; }
+    @Override public void dispose() {}
+
+    @Override
+    public void loadDirection(int d, boolean combineFrames) {
+      assertTrue(preloaded[d]);
+      loaded[d] = true;
+    }
+
+    @Override
+    public boolean isPreloaded(int d) {
+      return preloaded[d];
+    }
+
+    @Override
+    public synchronized void preloadDirection(int d, boolean combineFrames) {
+      decodedBy = Thread.currentThread();
+      decodes[d]++;
+      preloaded[d] = true;
+    }
+  }
+}
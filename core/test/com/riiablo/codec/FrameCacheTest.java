@@ -0,0 +1,95 @@
+package com.riiablo.codec;
+
+import com.badlogic.gdx.files.FileHandle;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FrameCacheTest {
+  static final String KEY = "d2data.mpq/data/global/test.dcc-00000000";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  FrameCache cache;
+
+  @Before
+  public void setUp() {
+    cache = new FrameCache(new FileHandle(folder.getRoot()));
+  }
+
+  @Test
+  public void warmStartSkipsDecoding() {
+    byte[] data = DCCTest.randomDCC(new Random(0x15), 8, 12);
+    DCC cold = load(data);
+    cold.preloadDirections();
+    assertEquals(8, cache.writes());
+    assertEquals(8, cache.misses());
+
+    DCC warm = load(data);
+    warm.preloadDirections();
+    assertEquals(8, cache.hits());
+    assertEquals(8, cache.writes());
+    for (int d = 0; d < warm.getNumDirections(); d++) {
+      assertTrue(warm.isPreloaded(d));
+      // the compressed bit streams are released without having been read
+      assertNull(warm.directions[d].equalCellBitStream);
+      for (int f = 0; f < warm.getNumFramesPerDir(); f++) {
+        assertArrayEquals("direction " + d + " frame " + f,
+            cold.frames[d][f].spans.toArray(), warm.frames[d][f].spans.toArray());
+      }
+    }
+  }
+
+  @Test
+  public void staleEntriesAreDecoded() {
+    Random random = new Random(0x16);
+    load(DCCTest.randomDCC(random, 1, 8)).preloadDirections();
+
+    byte[] data = DCCTest.randomDCC(random, 1, 8);
+    DCC dcc = load(data);
+    dcc.preloadDirections();
+    assertEquals(0, cache.hits());
+    assertEquals(2, cache.writes());
+
+    DCC expected = DCC.loadFromBuffer(ByteBuffer.wrap(data));
+    expected.preloadDirections();
+    for (int f = 0; f < dcc.getNumFramesPerDir(); f++) {
+      assertArrayEquals(expected.frames[0][f].spans.toArray(), dcc.frames[0][f].spans.toArray());
+    }
+  }
+
+  @Test
+  public void truncatedEntriesAreIgnored() {
+    byte[] data = DCCTest.randomDCC(new Random(0x17), 1, 4);
+    DCC dcc = load(data);
+    dcc.preloadDirections();
+    FileHandle entry = new FileHandle(cache.file(KEY, 0));
+    byte[] bytes = entry.readBytes();
+    entry.writeBytes(Arrays.copyOf(bytes, bytes.length - 1), false);
+
+    DCC reload = load(data);
+    reload.preloadDirections();
+    assertEquals(0, cache.hits());
+    for (int f = 0; f < dcc.getNumFramesPerDir(); f++) {
+      assertArrayEquals(dcc.frames[0][f].spans.toArray(), reload.frames[0][f].spans.toArray());
+    }
+  }
+
+  DCC load(byte[] data) {
+    DCC dcc = DCC.loadFromBuffer(ByteBuffer.wrap(data));
+    dcc.setFrameCache(cache, KEY);
+    return dcc;
+  }
+}
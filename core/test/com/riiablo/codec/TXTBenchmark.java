@@ -0,0 +1,73 @@
+package com.riiablo.codec;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Measures the time and the bytes allocated loading a table with {@link TXT}, then reading it as
+ * {@link com.riiablo.codec.excel.Excel} would: every cell once, the few text columns as strings
+ * and the others as numbers. The table is as large as
+ * MonStats.txt, 700 rows of 250 columns, mostly small numbers and empty cells.
+ * <p>
+ * Allocations are measured with {@link com.sun.management.ThreadMXBean}, so this must be run on
+ * HotSpot.
+ *
+ * <pre>java com.riiablo.codec.TXTBenchmark [iterations]</pre>
+ */
+public class TXTBenchmark {
+  private static final int ROWS    = 700;
+  private static final int COLUMNS = 250;
+  /** every STRINGS-th column is read as text */
+  private static final int STRINGS = 16;
+
+  public static void main(String[] args) {
+    final int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+
+    Random random = new Random(0);
+    StringBuilder builder = new StringBuilder(ROWS * COLUMNS * 3);
+    for (int c = 0; c < COLUMNS; c++) builder.append(c > 0 ? "\t" : "").append("column").append(c);
+    builder.append("\r\n");
+    for (int r = 0; r < ROWS; r++) {
+      for (int c = 0; c < COLUMNS; c++) {
+        if (c > 0) builder.append('\t');
+        if (c % STRINGS == 0) {
+          builder.append("text").append(r);
+        } else if (random.nextBoolean()) {
+          builder.append(random.nextInt(random.nextBoolean() ? 2 : 1000));
+        }
+      }
+      builder.append("\r\n");
+    }
+
+    byte[] bytes = builder.toString().getBytes(StandardCharsets.US_ASCII);
+    run(bytes, iterations); // warm up
+    long[] tokenized = run(bytes, iterations);
+    System.out.printf("time:      TXT %7.3f ms/load%n", tokenized[0] / 1e6);
+    System.out.printf("allocated: TXT %7d KiB/load%n", tokenized[1] >> 10);
+  }
+
+  /**
+   * @return nanoseconds and bytes allocated per load
+   */
+  private static long[] run(byte[] bytes, int iterations) {
+    com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    final long thread = Thread.currentThread().getId();
+    long checksum = 0;
+    long allocated = threads.getThreadAllocatedBytes(thread);
+    long start = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      TXT txt = TXT.loadFromBytes(bytes);
+      for (int r = 0, rows = txt.getRows(); r < rows; r++) {
+        for (int c = 0; c < COLUMNS; c++) {
+          checksum += c % STRINGS == 0 ? txt.getString(r, c).length() : txt.getInt(r, c);
+        }
+      }
+    }
+
+    long elapsed = System.nanoTime() - start;
+    allocated = threads.getThreadAllocatedBytes(thread) - allocated;
+    if (checksum == 42) System.out.print("");
+    return new long[] { elapsed / iterations, allocated / iterations };
+  }
+}
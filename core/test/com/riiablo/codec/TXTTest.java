@@ -0,0 +1,243 @@
+package com.riiablo.codec;
+
+import com.badlogic.gdx.utils.Array;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class TXTTest {
+  static final String[] NUMBERS = {
+      "", "0", "1", "-1", "+1", "-", "+", "--1", "1-", " 1", "1 ", "01", "007", "x", "1x", "1.5",
+      "127", "128", "-128", "-129", "255", "32767", "32768", "-32768", "-32769",
+      "2147483647", "2147483648", "-2147483648", "-2147483649",
+      "9223372036854775807", "9223372036854775808", "-9223372036854775808", "-9223372036854775809",
+      "99999999999999999999", "é", "2", "3", "4", "y",
+  };
+
+  /**
+   * What the original implementation read each of {@link #NUMBERS} as: a byte, a short, an int
+   * and a long.
+   */
+  static final long[][] NUMBER_VALUES = {
+      { 0, 0, 0, 0L }, // ""
+      { 0, 0, 0, 0L }, // "0"
+      { 1, 1, 1, 1L }, // "1"
+      { -1, -1, -1, -1L }, // "-1"
+      { 1, 1, 1, 1L }, // "+1"
+      { 0, 0, 0, 0L }, // "-"
+      { 0, 0, 0, 0L }, // "+"
+      { 0, 0, 0, 0L }, // "--1"
+      { 0, 0, 0, 0L }, // "1-"
+      { 0, 0, 0, 0L }, // " 1"
+      { 0, 0, 0, 0L }, // "1 "
+      { 1, 1, 1, 1L }, // "01"
+      { 7, 7, 7, 7L }, // "007"
+      { 0, 0, 0, 0L }, // "x"
+      { 0, 0, 0, 0L }, // "1x"
+      { 0, 0, 0, 0L }, // "1.5"
+      { 127, 127, 127, 127L }, // "127"
+      { 0, 128, 128, 128L }, // "128"
+      { -128, -128, -128, -128L }, // "-128"
+      { 0, -129, -129, -129L }, // "-129"
+      { 0, 255, 255, 255L }, // "255"
+      { 0, 32767, 32767, 32767L }, // "32767"
+      { 0, 0, 32768, 32768L }, // "32768"
+      { 0, -32768, -32768, -32768L }, // "-32768"
+      { 0, 0, -32769, -32769L }, // "-32769"
+      { 0, 0, 2147483647, 2147483647L }, // "2147483647"
+      { 0, 0, 0, 2147483648L }, // "2147483648"
+      { 0, 0, -2147483648, -2147483648L }, // "-2147483648"
+      { 0, 0, 0, -2147483649L }, // "-2147483649"
+      { 0, 0, 0, 9223372036854775807L }, // "9223372036854775807"
+      { 0, 0, 0, 0L }, // "9223372036854775808"
+      { 0, 0, 0, -9223372036854775808L }, // "-9223372036854775808"
+      { 0, 0, 0, 0L }, // "-9223372036854775809"
+      { 0, 0, 0, 0L }, // "99999999999999999999"
+      { 0, 0, 0, 0L }, // "é"
+      { 2, 2, 2, 2L }, // "2"
+      { 3, 3, 3, 3L }, // "3"
+      { 4, 4, 4, 4L }, // "4"
+      { 0, 0, 0, 0L }, // "y"
+  };
+
+  static byte[] bytes(String str) {
+    return str.getBytes(StandardCharsets.ISO_8859_1);
+  }
+
+  static String[] columns(String... names) {
+    return names;
+  }
+
+  static String[] row(String... cells) {
+    return cells;
+  }
+
+  /** cells are read as US-ASCII, so characters past it are read as replacement characters */
+  static String read(String cell) {
+    StringBuilder builder = new StringBuilder(cell.length());
+    for (int i = 0; i < cell.length(); i++) {
+      char c = cell.charAt(i);
+      builder.append(c < 0x80 ? c : '\uFFFD');
+    }
+
+    return builder.toString();
+  }
+
+  /**
+   * Asserts that {@code str} is tokenized into {@code rows} under {@code columns}, where
+   * {@code columns[i]} is the name looked up as column {@code i}, or {@code null} if it is a
+   * duplicate name. Cells are given as written and compared as {@link #read read}, and also as
+   * numbers if they are one of {@link #NUMBERS}.
+   */
+  static void assertTokenized(String str, String[] columns, String[]... rows) {
+    TXT actual = TXT.loadFromBytes(bytes(str));
+    assertEquals(str, rows.length, actual.getRows());
+    int numColumns = 0;
+    for (int col = 0; col < columns.length; col++) {
+      if (columns[col] == null) continue;
+      assertEquals(columns[col], col, actual.getColumnId(columns[col]));
+      numColumns++;
+    }
+
+    assertEquals(str, numColumns, actual.getColumns());
+    for (int row = 0; row < rows.length; row++) {
+      for (int col = 0; col < columns.length; col++) {
+        String cell = "row " + row + " col " + col + " of " + str;
+        assertEquals(cell, read(rows[row][col]), actual.getString(row, col));
+        int number = Arrays.asList(NUMBERS).indexOf(rows[row][col]);
+        if (number == -1) continue;
+        long[] values = NUMBER_VALUES[number];
+        assertEquals(cell, values[0], actual.getByte(row, col));
+        assertEquals(cell, values[1], actual.getShort(row, col));
+        assertEquals(cell, values[2], actual.getInt(row, col));
+        assertEquals(cell, values[3], actual.getLong(row, col));
+      }
+    }
+  }
+
+  @Test
+  public void parsesNumbersAsNumberUtils() {
+    StringBuilder builder = new StringBuilder("name\tvalue\n");
+    String[][] rows = new String[NUMBERS.length][];
+    for (int i = 0; i < NUMBERS.length; i++) {
+      builder.append("row\t").append(NUMBERS[i]).append('\n');
+      rows[i] = row("row", NUMBERS[i]);
+    }
+
+    assertTokenized(builder.toString(), columns("name", "value"), rows);
+  }
+
+  @Test
+  public void splitsLinesAsBufferedReader() {
+    assertTokenized("a\tb\n1\t2",
+        columns("a", "b"),
+        row("1", "2"));
+    assertTokenized("a\tb\r\n1\t2\r\n3\t4\r\n",
+        columns("a", "b"),
+        row("1", "2"),
+        row("3", "4"));
+    assertTokenized("a\tb\r1\t2\r3\t4\r",
+        columns("a", "b"),
+        row("1", "2"),
+        row("3", "4"));
+    assertTokenized("a\tb\n\n1\t2\n\r\n3\t4\n\n",
+        columns("a", "b"),
+        row("1", "2"),
+        row("3", "4"));
+    assertTokenized("a\n\n1\r\r\n2\n",
+        columns("a"),
+        row(""),
+        row("1"),
+        row(""),
+        row("2"));
+    assertTokenized("a\n",
+        columns("a"));
+    assertTokenized("a",
+        columns("a"));
+  }
+
+  @Test
+  public void countsCrLfAsOneLine() {
+    TXT txt = TXT.loadFromBytes(bytes("a\tb\r\n1\t2\r\n3\t4\r\n"));
+    assertEquals(2, txt.getRows());
+    assertEquals(4 * 3, txt.cells.length);
+    assertEquals(4 * 3, TXT.loadFromBytes(bytes("a\tb\r1\t2\n3\t4\r\n")).cells.length);
+  }
+
+  @Test
+  public void skipsRowsWithoutEveryColumn() {
+    assertTokenized("a\tb\tc\n1\t2\n1\t2\t3\n1\t2\t3\t4\n\t\t\n",
+        columns("a", "b", "c"),
+        row("1", "2", "3"),
+        row("", "", ""));
+    assertTokenized("a\tb\t\t\n1\t2\n1\t2\t\t\n",
+        columns("a", "b"),
+        row("1", "2"));
+  }
+
+  @Test
+  public void columnsAreCaseInsensitive() {
+    assertTokenized("Name\tNAME\tValue\nx\ty\t1\n",
+        columns("name", null, "value"),
+        row("x", "y", "1"));
+    TXT txt = TXT.loadFromBytes(bytes("Name\tNAME\tValue\nx\ty\t1\n"));
+    assertEquals(0, txt.getColumnId("name"));
+    assertEquals(2, txt.getColumnId("VALUE"));
+    assertEquals(-1, txt.getColumnId("missing"));
+    assertEquals("x", txt.getRowName(0));
+    assertNull(txt.getString(0, -1));
+    assertEquals(0, txt.getInt(0, -1));
+  }
+
+  @Test
+  public void tokenizesRandomTables() {
+    Random random = new Random(0);
+    String[] terminators = { "\n", "\r\n", "\r" };
+    for (int t = 0; t < 64; t++) {
+      StringBuilder builder = new StringBuilder();
+      int columns = 1 + random.nextInt(6);
+      String[] names = new String[columns];
+      for (int c = 0; c < columns; c++) {
+        names[c] = "col" + c;
+        builder.append(c > 0 ? "\t" : "").append(names[c]);
+      }
+      builder.append('\n');
+      Array<String[]> rows = new Array<>(String[].class);
+      for (int r = random.nextInt(32); r > 0; r--) {
+        int cells = columns + (random.nextInt(8) == 0 ? random.nextInt(3) - 1 : 0);
+        String[] row = new String[Math.max(cells, 1)];
+        Arrays.fill(row, "");
+        for (int c = 0; c < cells; c++) {
+          if (c > 0) builder.append('\t');
+          builder.append(row[c] = NUMBERS[random.nextInt(NUMBERS.length)]);
+        }
+        String terminator = terminators[random.nextInt(terminators.length)];
+        // an empty line ended by \n after a line ended by \r is part of its \r\n
+        boolean merged = cells <= 0 && terminator.equals("\n") && builder.charAt(builder.length() - 1) == '\r';
+        builder.append(terminator);
+        // rows without every column are skipped, an empty line is a single empty cell
+        if (row.length == columns && !merged) rows.add(row);
+      }
+
+      assertTokenized(builder.toString(), names, rows.toArray());
+    }
+  }
+
+  @Test
+  public void loadFromBufferCopiesRemaining() {
+    ByteBuffer buffer = ByteBuffer.wrap(bytes("xxxa\tb\n1\t2\n"));
+    buffer.position(3);
+    TXT txt = TXT.loadFromBuffer(buffer);
+    assertEquals(3, buffer.position());
+    buffer.put(7, (byte) '9');
+    assertEquals(1, txt.getRows());
+    assertEquals(1, txt.getInt(0, 0));
+  }
+}
@@ -0,0 +1,165 @@
+package com.riiablo.codec;
+
+import com.badlogic.gdx.graphics.g2d.TextureRegion;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class TransformCacheTest {
+  @BeforeClass
+  public static void setUpGl() {
+    CompositeCacheTest.setUpGl();
+  }
+
+  @AfterClass
+  public static void tearDownGl() {
+    CompositeCacheTest.tearDownGl();
+  }
+
+  /** colormap whose table {@code i} maps index {@code k} to {@code k + i} */
+  static Index shiftingIndex() {
+    byte[] data = new byte[(Index.INDEXES - 1) * Palette.COLORS];
+    for (int i = 1; i < Index.INDEXES; i++) {
+      for (int k = 0; k < Palette.COLORS; k++) {
+        data[(i - 1) * Palette.COLORS + k] = (byte) (k + i);
+      }
+    }
+
+    return Index.loadFromStream(new ByteArrayInputStream(data));
+  }
+
+  @Test
+  public void remapMatchesColormap() {
+    Index colormap = shiftingIndex();
+    byte[] src = new byte[Palette.COLORS];
+    for (int k = 0; k < src.length; k++) src[k] = (byte) k;
+    for (int id = 1; id < Index.INDEXES; id++) {
+      byte[] dst = new byte[src.length];
+      TransformCache.remap(src, dst, colormap.get(id));
+      assertEquals(0, dst[0]);
+      for (int k = 1; k < src.length; k++) {
+        assertEquals("index " + k + " of colormap " + id, colormap.get(id)[k], dst[k]);
+      }
+    }
+  }
+
+  @Test
+  public void remapKeepsTransparentPixels() {
+    byte[] transform = new byte[Palette.COLORS];
+    for (int k = 0; k < transform.length; k++) transform[k] = (byte) (255 - k);
+    byte[] src = { 0, 1, 0, (byte) 200, (byte) 255, 0 };
+    byte[] dst = new byte[src.length];
+    TransformCache.remap(src, dst, transform);
+    assertArrayEquals(new byte[] { 0, (byte) 254, 0, 55, 0, 0 }, dst);
+  }
+
+  @Test
+  public void remapFirstTableIsIdentity() {
+    Index colormap = shiftingIndex();
+    byte[] src = { 0, 7, 8, 9, (byte) 128 };
+    byte[] dst = new byte[src.length];
+    TransformCache.remap(src, dst, colormap.get(0));
+    assertArrayEquals(src, dst);
+  }
+
+  @Test
+  public void remapLeavesBufferPositions() {
+    ByteBuffer src = ByteBuffer.wrap(new byte[] { 1, 2, 3, 4 });
+    ByteBuffer dst = ByteBuffer.allocate(4);
+    src.position(2);
+    byte[] transform = new byte[Palette.COLORS];
+    for (int k = 0; k < transform.length; k++) transform[k] = (byte) (k * 2);
+    TransformCache.remap(src, dst, 4, transform);
+    assertEquals(2, src.position());
+    assertEquals(0, dst.position());
+    assertArrayEquals(new byte[] { 2, 4, 6, 8 }, dst.array());
+  }
+
+  @Test
+  public void keysMatchSameVariant() {
+    DC dc = new DecodeServiceTest.FakeDC(8, 8);
+    Index colormap = shiftingIndex();
+    TransformCache.Key key = new TransformCache.Key().set(dc, 1, 2, colormap, 3);
+    assertEquals(key, new TransformCache.Key().set(dc, 1, 2, colormap, 3));
+    assertEquals(key.hashCode(), new TransformCache.Key().set(dc, 1, 2, colormap, 3).hashCode());
+    assertNotEquals(key, new TransformCache.Key().set(dc, 1, 3, colormap, 3));
+    assertNotEquals(key, new TransformCache.Key().set(dc, 1, 2, colormap, 4));
+    assertNotEquals(key, new TransformCache.Key().set(dc, 1, 2, shiftingIndex(), 3));
+    assertNotEquals(key, new TransformCache.Key().set(new DecodeServiceTest.FakeDC(8, 8), 1, 2, colormap, 3));
+  }
+
+  @Test
+  public void untintedFramesAreNotCached() {
+    DC dc = new DecodeServiceTest.FakeDC(8, 8);
+    TransformCache cache = new TransformCache(1 << 20, 1);
+    assertNull(cache.get(dc, 0, 0, null, 3));
+    assertNull(cache.get(dc, 0, 0, shiftingIndex(), 0));
+    assertEquals(0, cache.size());
+
+    TransformCache disabled = new TransformCache(0, 1);
+    assertNull(disabled.get(dc, 0, 0, shiftingIndex(), 3));
+  }
+
+  @Test
+  public void variantsShareTheirPage() {
+    DC dc = new CompositeCacheTest.SolidDC(10, 0, 0, 4, 4);
+    Index colormap = shiftingIndex();
+    TransformCache cache = new TransformCache(1 << 20, 8);
+    try {
+      cache.update();
+      TextureRegion a = cache.get(dc, 0, 0, colormap, 1);
+      TextureRegion b = cache.get(dc, 1, 0, colormap, 2);
+      assertNotNull(a);
+      assertNotNull(b);
+      assertSame(a.getTexture(), b.getTexture());
+      assertEquals(4, b.getRegionWidth());
+      assertEquals(4, b.getRegionHeight());
+      assertNotEquals(a.getRegionX() + "," + a.getRegionY(), b.getRegionX() + "," + b.getRegionY());
+      assertSame(a, cache.get(dc, 0, 0, colormap, 1));
+      assertEquals(2, cache.size());
+      assertEquals(1, cache.numPages());
+
+      cache.remove(dc);
+      assertEquals(0, cache.size());
+      assertEquals(0, cache.used());
+    } finally {
+      cache.dispose();
+    }
+  }
+
+  @Test
+  public void evictsPagesNotDrawnThisFrame() {
+    DC dc = new CompositeCacheTest.SolidDC(10, 0, 0, 4, 4);
+    Index colormap = shiftingIndex();
+    // a single page fits a single padded variant
+    TransformCache cache = new TransformCache(5, 25, 8);
+    try {
+      cache.update();
+      assertNotNull(cache.get(dc, 0, 0, colormap, 1));
+      assertNull(cache.get(dc, 1, 0, colormap, 1));
+
+      cache.update();
+      assertNotNull(cache.get(dc, 1, 0, colormap, 1));
+      assertEquals(1, cache.size());
+      assertEquals(1, cache.numPages());
+
+      cache.setBudget(0);
+      assertEquals(0, cache.size());
+      assertEquals(0, cache.numPages());
+      assertNull(cache.get(dc, 1, 0, colormap, 1));
+    } finally {
+      cache.dispose();
+    }
+  }
+}
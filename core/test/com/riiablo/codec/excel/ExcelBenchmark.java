@@ -0,0 +1,86 @@
+package com.riiablo.codec.excel;
+
+import com.badlogic.gdx.utils.IntArray;
+import com.riiablo.codec.TXT;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Measures the time spent parsing tables with {@link Excel#parse}, which populates entries
+ * through {@link RowBinder}. Tables are generated with the columns of {@link MonStats} and
+ * {@link Skills}, the widest tables, and as many rows as their vanilla counterparts. Loading the
+ * same tables from their {@link ExcelCache} snapshots is measured as well.
+ *
+ * <pre>java com.riiablo.codec.excel.ExcelBenchmark [iterations]</pre>
+ */
+public class ExcelBenchmark {
+  public static void main(String[] args) throws Exception {
+    final int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+    benchmark("MonStats", MonStats.class, ExcelTest.syntheticBytes(MonStats.Entry.class, 700), iterations);
+    benchmark("Skills  ", Skills.class, ExcelTest.syntheticBytes(Skills.Entry.class, 360), iterations);
+  }
+
+  private static void benchmark(String name, Class<? extends Excel> excelClass, byte[] bytes, int iterations) throws Exception {
+    final TXT txt = TXT.loadFromBytes(bytes);
+    run(excelClass, txt, iterations); // warm up
+    double binderTime = run(excelClass, txt, iterations);
+    System.out.printf("%s: RowBinder %7.3f ms/parse%n", name, binderTime);
+
+    IntArray rows = new IntArray(), ids = new IntArray();
+    Excel excel = Excel.parse(txt, excelClass, Excel.<String>emptySet(), rows, ids);
+    ByteBuffer snapshot = ExcelCache.write(txt, excel, Excel.<String>emptySet(), rows, ids);
+    snapshot(excelClass, snapshot, iterations); // warm up
+    tokenize(excelClass, bytes, iterations);
+    double snapshotTime = snapshot(excelClass, snapshot, iterations);
+    double tokenizeTime = tokenize(excelClass, bytes, iterations);
+    System.out.printf("%s: TXT       %7.3f ms/load, snapshot  %7.3f ms/load (%.2fx), %d bytes%n",
+        name, tokenizeTime, snapshotTime, tokenizeTime / snapshotTime, snapshot.limit());
+  }
+
+  /**
+   * @return milliseconds per load, tokenizing and parsing the table
+   */
+  private static double tokenize(Class<? extends Excel> excelClass, byte[] bytes, int iterations) {
+    long checksum = 0;
+    long start = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      checksum += Excel.parse(TXT.loadFromBytes(bytes), excelClass).size();
+    }
+
+    long elapsed = System.nanoTime() - start;
+    if (checksum == 42) System.out.print("");
+    return elapsed / 1e6 / iterations;
+  }
+
+  /**
+   * @return milliseconds per load
+   */
+  private static double snapshot(Class<? extends Excel> excelClass, ByteBuffer snapshot, int iterations) {
+    long checksum = 0;
+    long start = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      ByteBuffer buffer = snapshot.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+      checksum += ExcelCache.read(buffer, excelClass, Excel.<String>emptySet()).size();
+    }
+
+    long elapsed = System.nanoTime() - start;
+    if (checksum == 42) System.out.print("");
+    return elapsed / 1e6 / iterations;
+  }
+
+  /**
+   * @return milliseconds per parse
+   */
+  private static double run(Class<? extends Excel> excelClass, TXT txt, int iterations) {
+    long checksum = 0;
+    long start = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      checksum += Excel.parse(txt, excelClass).size();
+    }
+
+    long elapsed = System.nanoTime() - start;
+    if (checksum == 42) System.out.print("");
+    return elapsed / 1e6 / iterations;
+  }
+}
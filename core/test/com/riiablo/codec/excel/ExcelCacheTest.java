@@ -0,0 +1,216 @@
+package com.riiablo.codec.excel;
+
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.utils.IntArray;
+import com.badlogic.gdx.utils.ObjectSet;
+import com.riiablo.codec.TXT;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ExcelCacheTest {
+  static final String KEY = "d2exp.mpq/data/global/excel/values.txt-00000000";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  ExcelCache cache;
+
+  @Before
+  public void setUp() {
+    cache = new ExcelCache(new FileHandle(folder.getRoot()));
+  }
+
+  static TXT txt(String str) {
+    return TXT.loadFromBuffer(ByteBuffer.wrap(str.getBytes(StandardCharsets.US_ASCII)));
+  }
+
+  static ByteBuffer snapshot(TXT txt, Class<? extends Excel> excelClass, ObjectSet<String> ignore) {
+    IntArray rows = new IntArray(), ids = new IntArray();
+    Excel excel = Excel.parse(txt, excelClass, ignore, rows, ids);
+    ByteBuffer buffer = ExcelCache.write(txt, excel, ignore, rows, ids);
+    return ByteBuffer.wrap(buffer.array(), 0, buffer.limit()).slice().order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  static <T extends Excel> void assertRoundTrips(TXT txt, Class<T> excelClass, ObjectSet<String> ignore) throws Exception {
+    T expected = Excel.parse(txt, excelClass, ignore);
+    T actual = ExcelCache.read(snapshot(txt, excelClass, ignore), excelClass, ignore);
+    assertNotNull(actual);
+    ExcelTest.assertEntriesEqual(expected, actual);
+    assertEquals(expected.STRING_TO_ID.size, actual.STRING_TO_ID.size);
+    for (Object key : expected.STRING_TO_ID.keys()) {
+      assertEquals(expected.index((String) key), actual.index((String) key));
+    }
+  }
+
+  @Test
+  public void roundTripsMonStats() throws Exception {
+    assertRoundTrips(ExcelTest.synthetic(MonStats.Entry.class, 64), MonStats.class, Excel.<String>emptySet());
+  }
+
+  @Test
+  public void roundTripsSkills() throws Exception {
+    assertRoundTrips(ExcelTest.synthetic(Skills.Entry.class, 64), Skills.class, Excel.<String>emptySet());
+  }
+
+  @Test
+  public void roundTripsIgnoredRowsAndDuplicateKeys() throws Exception {
+    TXT txt = txt("name\tvalue\nExpansion\t1\nrow1\t2\nrow1\t3\nrow2\t\n\t4\n");
+    assertRoundTrips(txt, ExcelLoaderTest.Values.class, Excel.EXPANSION);
+    Values values = ExcelCache.read(snapshot(txt, Values.class, Excel.EXPANSION), Values.class, Excel.EXPANSION);
+    assertEquals(4, values.size());
+    assertEquals(12, values.get("row1").value);
+    assertEquals("", values.get(3).name);
+  }
+
+  @Test
+  public void putIsReplayedOnParsedValues() throws Exception {
+    TXT txt = txt("name\tvalue\na\t1\nb\t2\n");
+    Values parsed = Excel.parse(txt, Values.class);
+    Values cached = ExcelCache.read(snapshot(txt, Values.class, Excel.<String>emptySet()), Values.class, Excel.<String>emptySet());
+    assertEquals(11, parsed.get("a").value);
+    assertEquals(11, cached.get("a").value);
+    assertEquals(12, cached.get("b").value);
+    assertEquals(2, cached.puts);
+    assertSame(cached.get("a").name, cached.get("a").name);
+  }
+
+  @Test
+  public void indexesAreBuilt() {
+    TXT txt = txt(ExcelTest.INDEXED);
+    ExcelTest.Indexed cached = ExcelCache.read(snapshot(txt, ExcelTest.Indexed.class, Excel.<String>emptySet()), ExcelTest.Indexed.class, Excel.<String>emptySet());
+    assertEquals("[a, c]", cached.find("act", 1).toString());
+    assertEquals("[a, b, d]", cached.find("type", "weap").toString());
+  }
+
+  @Test
+  public void stringsArePooled() {
+    TXT txt = txt("name\tvalue\ta\tb\nx\t1\tsame\tsame\ny\t2\tsame\tsame\n");
+    Pooled pooled = ExcelCache.read(snapshot(txt, Pooled.class, Excel.<String>emptySet()), Pooled.class, Excel.<String>emptySet());
+    assertSame(pooled.get("x").strings[0], pooled.get("y").strings[1]);
+  }
+
+  @Test
+  public void differentSchemaMisses() {
+    TXT txt = txt("name\tvalue\nExpansion\t1\nrow1\t2\n");
+    ByteBuffer snapshot = snapshot(txt, Values.class, Excel.EXPANSION);
+    assertNull(ExcelCache.read(snapshot.duplicate().order(ByteOrder.LITTLE_ENDIAN), Values.class, Excel.<String>emptySet()));
+    assertNull(ExcelCache.read(snapshot.duplicate().order(ByteOrder.LITTLE_ENDIAN), Pooled.class, Excel.EXPANSION));
+    assertNotNull(ExcelCache.read(snapshot.duplicate().order(ByteOrder.LITTLE_ENDIAN), Values.class, Excel.EXPANSION));
+  }
+
+  @Test
+  public void corruptSnapshotsMiss() {
+    TXT txt = ExcelTest.synthetic(Skills.Entry.class, 16);
+    ByteBuffer snapshot = snapshot(txt, Skills.class, Excel.<String>emptySet());
+    for (int size = 0; size < snapshot.limit(); size += 1 + size / 2) {
+      ByteBuffer truncated = snapshot.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+      truncated.limit(size);
+      assertNull("truncated to " + size, ExcelCache.read(truncated, Skills.class, Excel.<String>emptySet()));
+    }
+
+    ByteBuffer padded = ByteBuffer.allocate(snapshot.limit() + 1).order(ByteOrder.LITTLE_ENDIAN);
+    padded.put(snapshot.duplicate()).put((byte) 0).flip();
+    assertNull(ExcelCache.read(padded, Skills.class, Excel.<String>emptySet()));
+
+    ByteBuffer badString = ByteBuffer.allocate(snapshot.limit()).order(ByteOrder.LITTLE_ENDIAN);
+    badString.put(snapshot.duplicate()).flip();
+    // number of strings
+    badString.putInt(5 << 2, Integer.MAX_VALUE);
+    assertNull(ExcelCache.read(badString, Skills.class, Excel.<String>emptySet()));
+  }
+
+  @Test
+  public void warmStartSkipsParsing() {
+    TXT txt = txt("name\tvalue\na\t1\nb\t2\n");
+    assertNull(cache.read(KEY, Values.class, Excel.<String>emptySet()));
+    assertEquals(1, cache.misses());
+
+    IntArray rows = new IntArray(), ids = new IntArray();
+    Values parsed = Excel.parse(txt, Values.class, Excel.<String>emptySet(), rows, ids);
+    cache.write(KEY, txt, parsed, Excel.<String>emptySet(), rows, ids);
+    assertEquals(1, cache.writes());
+
+    Values cached = cache.read(KEY, Values.class, Excel.<String>emptySet());
+    assertNotNull(cached);
+    assertEquals(1, cache.hits());
+    assertEquals(12, cached.get("b").value);
+
+    cache.clear();
+    assertNull(cache.read(KEY, Values.class, Excel.<String>emptySet()));
+  }
+
+  @Test
+  public void schemasAreCachedSeparately() {
+    TXT txt = txt("name\tvalue\nExpansion\t1\nrow1\t2\n");
+    write(txt, Values.class, Excel.EXPANSION);
+    write(txt, Values.class, Excel.<String>emptySet());
+    assertEquals(2, cache.writes());
+    assertEquals(1, cache.read(KEY, Values.class, Excel.EXPANSION).size());
+    assertEquals(2, cache.read(KEY, Values.class, Excel.<String>emptySet()).size());
+  }
+
+  @Test
+  public void invalidSnapshotsAreReplaced() throws IOException {
+    File file = cache.file(KEY, ExcelCache.schema(Values.class, Excel.<String>emptySet()));
+    assertTrue(file.getParentFile().mkdirs());
+    FileOutputStream out = new FileOutputStream(file);
+    out.write(new byte[] { 1, 2, 3, 4 });
+    out.close();
+    assertNull(cache.read(KEY, Values.class, Excel.<String>emptySet()));
+
+    TXT txt = txt("name\tvalue\na\t1\nb\t2\n");
+    write(txt, Values.class, Excel.<String>emptySet());
+    assertEquals(1, cache.writes());
+    assertNotNull(cache.read(KEY, Values.class, Excel.<String>emptySet()));
+  }
+
+  void write(TXT txt, Class<? extends Excel> excelClass, ObjectSet<String> ignore) {
+    IntArray rows = new IntArray(), ids = new IntArray();
+    Excel excel = Excel.parse(txt, excelClass, ignore, rows, ids);
+    cache.write(KEY, txt, excel, ignore, rows, ids);
+  }
+
+  /** adds 10 to every value as it is put */
+  public static class Values extends Excel<Values.Entry> {
+    int puts;
+
+    @Override
+    protected void put(int id, Entry value) {
+      super.put(id, value);
+      value.value += 10;
+      puts++;
+    }
+
+    public static class Entry extends Excel.Entry {
+      @Key
+      @Column public String name;
+      @Column public int    value;
+    }
+  }
+
+  public static class Pooled extends Excel<Pooled.Entry> {
+    public static class Entry extends Excel.Entry {
+      @Key
+      @Column public String   name;
+      @Column public int      value;
+      @Column(values = { "a", "b" })
+      public String[] strings;
+    }
+  }
+}
@@ -0,0 +1,120 @@
+package com.riiablo.codec.excel;
+
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.utils.GdxRuntimeException;
+import com.badlogic.gdx.utils.ObjectSet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ExcelLoaderTest {
+  ForkJoinPool pool;
+  File dir;
+
+  @Before
+  public void setUp() throws IOException {
+    pool = new ForkJoinPool(4);
+    dir = File.createTempFile("excel", "");
+    dir.delete();
+    dir.mkdirs();
+  }
+
+  @After
+  public void tearDown() {
+    pool.shutdownNow();
+    new FileHandle(dir).deleteDirectory();
+  }
+
+  FileHandle table(String name, int rows) {
+    StringBuilder builder = new StringBuilder("name\tvalue\n");
+    for (int i = 0; i < rows; i++) builder.append(i == 0 ? "Expansion" : "row" + i).append('\t').append(i).append('\n');
+    FileHandle handle = new FileHandle(new File(dir, name + ".txt"));
+    handle.writeString(builder.toString(), false, "US-ASCII");
+    return handle;
+  }
+
+  @Test
+  public void loadsEveryTable() {
+    ExcelLoader loader = new ExcelLoader(pool);
+    ExcelLoader.Table[] tables = new ExcelLoader.Table[16];
+    for (int i = 0; i < tables.length; i++) {
+      tables[i] = loader.add(Values.class, table("values" + i, 8 + i), Excel.EXPANSION);
+    }
+
+    loader.start().finish();
+    for (int i = 0; i < tables.length; i++) {
+      Values values = (Values) tables[i].excel();
+      assertEquals(7 + i, values.size());
+      assertEquals(3, values.get("row3").value);
+      assertTrue(tables[i].readTime() >= 0);
+      assertTrue(tables[i].parseTime() >= 0);
+      assertTrue(tables[i].loadedAfter() <= loader.time());
+    }
+  }
+
+  @Test
+  public void linksAfterDependencies() {
+    ExcelLoader loader = new ExcelLoader(pool);
+    final ExcelLoader.Table<Values> parent = loader.add(Values.class, table("parent", 64), ObjectSet.<String>with());
+    final Values[] linked = new Values[1];
+    ExcelLoader.Table<Values> child = loader.add(new ExcelLoader.Table<Values>(
+        Values.class, table("child", 4), Excel.<String>emptySet(), parent) {
+      @Override
+      protected void link(Values excel) {
+        assertNotNull(parent.excel);
+        linked[0] = parent.excel();
+      }
+    });
+
+    loader.start().finish();
+    assertNotNull(child.excel());
+    assertSame(parent.excel(), linked[0]);
+    assertTrue(child.loadedAfter() >= parent.loadedAfter());
+  }
+
+  @Test
+  public void failuresPropagateToDependents() {
+    ExcelLoader loader = new ExcelLoader(pool);
+    ExcelLoader.Table<Values> missing = loader.add(Values.class, new FileHandle(new File(dir, "missing.txt")));
+    ExcelLoader.Table<Values> dependent = loader.add(Values.class, table("dependent", 4), Excel.<String>emptySet(), missing);
+    ExcelLoader.Table<Values> independent = loader.add(Values.class, table("independent", 4));
+    loader.start();
+    assertNotNull(independent.excel());
+    try {
+      dependent.excel();
+      fail("dependent of a missing table was loaded");
+    } catch (GdxRuntimeException expected) {}
+
+    try {
+      loader.finish();
+      fail("missing table was loaded");
+    } catch (GdxRuntimeException expected) {}
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void dependenciesMustBeAddedFirst() {
+    ExcelLoader loader = new ExcelLoader(pool);
+    ExcelLoader.Table<Values> other = new ExcelLoader.Table<>(Values.class, table("other", 1), Excel.<String>emptySet());
+    loader.add(Values.class, table("values", 1), Excel.<String>emptySet(), other);
+  }
+
+  public static class Values extends Excel<Values.Entry> {
+    public static class Entry extends Excel.Entry {
+      @Key
+      @Column
+      public String name;
+      @Column public int value;
+    }
+  }
+}
@@ -0,0 +1,242 @@
+package com.riiablo.codec.excel;
+
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.ObjectIntMap;
+import com.badlogic.gdx.utils.ObjectSet;
+import com.riiablo.codec.TXT;
+
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ExcelTest {
+  /**
+   * Generates a table with {@code rows} rows and a column for every column name of
+   * {@code entryClass}. Booleans are {@code 0} or {@code 1}, other numbers are small enough to fit
+   * into a byte, except the primary key which is the row number, and strings are unique.
+   */
+  static TXT synthetic(Class<? extends Excel.Entry> entryClass, int rows) {
+    return TXT.loadFromBytes(syntheticBytes(entryClass, rows));
+  }
+
+  static byte[] syntheticBytes(Class<? extends Excel.Entry> entryClass, int rows) {
+    RowBinder binder = RowBinder.get(entryClass);
+    Array<String> names = new Array<>();
+    ObjectIntMap<String> kinds = new ObjectIntMap<>();
+    ObjectSet<String> keys = new ObjectSet<>();
+    for (RowBinder.Column column : binder.columns) {
+      if (column.names == null) continue;
+      for (String name : column.names) {
+        String key = name.toLowerCase();
+        if (kinds.containsKey(key)) continue;
+        kinds.put(key, column.kind);
+        names.add(key);
+        if (column.field.equals(binder.primaryKey)) keys.add(key);
+      }
+    }
+
+    StringBuilder builder = new StringBuilder(names.size * rows * 4);
+    for (int c = 0; c < names.size; c++) builder.append(c == 0 ? "" : "\t").append(names.get(c));
+    builder.append('\n');
+    for (int i = 0; i < rows; i++) {
+      for (int c = 0; c < names.size; c++) {
+        if (c > 0) builder.append('\t');
+        String name = names.get(c);
+        switch (kinds.get(name, -1)) {
+          case RowBinder.STRING:
+          case RowBinder.STRING_ARRAY:
+            builder.append(c == 0 ? "row" : "s").append(i).append('_').append(c);
+            break;
+          case RowBinder.BOOLEAN:
+          case RowBinder.BOOLEAN_ARRAY:
+            builder.append((i + c) & 1);
+            break;
+          default:
+            builder.append(keys.contains(name) ? i : (i * 13 + c) % 100);
+        }
+      }
+
+      builder.append('\n');
+    }
+
+    return builder.toString().getBytes(StandardCharsets.US_ASCII);
+  }
+
+  /**
+   * Returns a checksum of the value of every column of {@code entry}, so that the golden values
+   * of wide tables stay small.
+   */
+  static int checksum(Excel.Entry entry) throws Exception {
+    RowBinder binder = RowBinder.get(entry.getClass());
+    Array<String> values = new Array<>();
+    for (RowBinder.Column column : binder.columns) {
+      Field field = column.field;
+      values.add(field.getName() + "=" + Arrays.deepToString(new Object[] { field.get(entry) }));
+    }
+
+    // fields are not returned in any particular order
+    values.sort();
+    CRC32 crc = new CRC32();
+    for (String value : values) crc.update(value.getBytes(StandardCharsets.UTF_8));
+    return (int) crc.getValue();
+  }
+
+  static void assertMatchesGolden(Class<? extends Excel<?>> excelClass, int[] golden) throws Exception {
+    Class<? extends Excel.Entry> entryClass = Excel.getEntryClass(excelClass);
+    Excel<?> actual = Excel.parse(synthetic(entryClass, golden.length), excelClass);
+    assertEquals(golden.length, actual.size());
+    for (int id = 0; id < golden.length; id++) {
+      Excel.Entry entry = actual.get(id);
+      assertNotNull("entry " + id, entry);
+      assertEquals("entry " + id, golden[id], checksum(entry));
+    }
+  }
+
+  static void assertEntriesEqual(Excel expected, Excel actual) throws Exception {
+    assertEquals(expected.size(), actual.size());
+    RowBinder binder = RowBinder.get(Excel.getEntryClass(expected.getClass()));
+    for (int id : expected.entries.keys().toArray().toArray()) {
+      Object e = expected.get(id), a = actual.get(id);
+      assertNotNull("entry " + id, a);
+      for (RowBinder.Column column : binder.columns) {
+        Field field = column.field;
+        assertTrue(field.getName() + " of entry " + id,
+            Objects.deepEquals(field.get(e), field.get(a)));
+      }
+    }
+  }
+
+  /** checksums of the entries the original parser populated from 64 synthetic rows of MonStats */
+  static final int[] MONSTATS = {
+      0x7EA54E8D, 0xF0725327, 0x5ACAF3B9, 0xFCF15D95, 0x6C0F12CA, 0x222DD21F,
+      0xDE476E36, 0x9D5D2280, 0x101D51CB, 0x17164C8B, 0x089C0073, 0x379DFF6F,
+      0x2D75C63C, 0x02B7DB6F, 0xD1C3EA0E, 0x593B4E78, 0x2339D1B5, 0x7077BE44,
+      0xF7B9596E, 0x3582E2C3, 0x13891D09, 0x7C53D83C, 0xA228E6D7, 0x096255A8,
+      0xDC496256, 0x1324A9E8, 0x11810CBF, 0x531EF76C, 0x0D89495C, 0x642341CC,
+      0x86D31528, 0x8BA4B935, 0xDC104A25, 0xE9C2CE2E, 0x6966B7F7, 0x00A0A868,
+      0xCE391169, 0x6C5E3375, 0x9863C0A4, 0x81BAEE97, 0x5B9C9470, 0xBCBABFD9,
+      0x19C182E1, 0x9418DF23, 0xA751F336, 0x9818B343, 0xEC1F7861, 0x81F9D6D5,
+      0x5C798B8D, 0x9F79A18E, 0x997F0945, 0x6B54BF4F, 0x016FC9EE, 0xA6AB75D0,
+      0xFDE9FB7B, 0x308D6010, 0x26DE47FA, 0x3FD6A9A6, 0x31B2AFBD, 0x114E55FF,
+      0x83805DF7, 0x0F02B99E, 0xC5A488BC, 0xB14A2E8E,
+  };
+
+  /** checksums of the entries the original parser populated from 64 synthetic rows of Skills */
+  static final int[] SKILLS = {
+      0x3B40FA65, 0xF0D21B81, 0x04BECEA9, 0x2614BCCF, 0xE2410257, 0xF88FFEA9,
+      0x5FA1DA82, 0xD26048EA, 0x77F0E137, 0x44EC8BB2, 0xBADFE86A, 0x7A0796BC,
+      0x78C9E1ED, 0x14244B1C, 0x3D80B5AE, 0x3EC74D2E, 0x33327E00, 0x7D8BAC9C,
+      0x77086D71, 0xC994FA9D, 0x052E2A96, 0xDC521681, 0xB4D865CD, 0x93047F66,
+      0x6A9F56D2, 0x3F66626F, 0xF9D47599, 0x5FFE5976, 0xD4954D68, 0x27A63083,
+      0xDA168A5B, 0x6200A58A, 0xBC4B5EA8, 0x53E10955, 0x8524B2A8, 0x743B51DD,
+      0x862C7C6D, 0x6401AB6A, 0x81368F82, 0xD193C9AB, 0x486F5563, 0xF45B43DB,
+      0x2FE2B881, 0xCA46E561, 0x403D73F7, 0x058D4E78, 0xD2971C48, 0x3FE8B5BD,
+      0x1DA32190, 0x1F25AD3E, 0xA21E3937, 0x3A3D9015, 0x30CAE17D, 0xEA8499B3,
+      0xC4152B00, 0x142DBD16, 0xB932F30E, 0xE87346F3, 0x2FA7E83A, 0x551C8B26,
+      0x961EDC98, 0x543F667D, 0xEC7C98A0, 0x9710D302,
+  };
+
+  @Test
+  public void bindsMonStatsLikeGolden() throws Exception {
+    assertMatchesGolden(MonStats.class, MONSTATS);
+  }
+
+  @Test
+  public void bindsSkillsLikeGolden() throws Exception {
+    assertMatchesGolden(Skills.class, SKILLS);
+  }
+
+  @Test
+  public void bindersAreCached() {
+    assertTrue(RowBinder.get(Skills.Entry.class) == RowBinder.get(Skills.Entry.class));
+  }
+
+  @Test
+  public void missingColumnsAreLeftUnset() {
+    TXT txt = TXT.loadFromBuffer(ByteBuffer.wrap("Id\nfirst\nsecond\n".getBytes(StandardCharsets.US_ASCII)));
+    MonStats monstats = Excel.parse(txt, MonStats.class);
+    assertEquals(2, monstats.size());
+    MonStats.Entry entry = monstats.get("second");
+    assertEquals("second", entry.Id);
+    assertEquals(0, entry.hcIdx);
+    assertNull(entry.BaseId);
+  }
+
+  static final String INDEXED = "name\tact\tlevel\ttype1\ttype2\ttag1\ttag2\n"
+      + "a\t1\t5\tarmo\tweap\tx\tx\n"
+      + "b\t2\t5\tweap\t\ty\tz\n"
+      + "c\t1\t6\tarmo\tarmo\t\t\n"
+      + "d\t3\t5\tmisc\tweap\tz\t\n";
+
+  @Test
+  public void findsEntriesByIndexedColumns() {
+    Indexed indexed = Excel.parse(TXT.loadFromBytes(INDEXED.getBytes(StandardCharsets.US_ASCII)), Indexed.class);
+    assertEquals("[a, c]", indexed.find("act", 1).toString());
+    assertEquals("[b]", indexed.find("act", 2).toString());
+    assertEquals(0, indexed.find("act", 4).size);
+    assertEquals("[a, b, d]", indexed.find("level", (byte) 5).toString());
+    assertEquals("[a, b, d]", indexed.find("level", 5).toString());
+    assertEquals("[a, c]", indexed.find("type", "armo").toString());
+    assertEquals("[a, b, d]", indexed.find("type", "weap").toString());
+    assertEquals("[a]", indexed.find("tags", "x").toString());
+    assertEquals("[b, d]", indexed.find("tags", "z").toString());
+    assertEquals("d", indexed.first("type", "misc").name);
+    assertNull(indexed.first("type", "ring"));
+    assertEquals("[d, a, c]", indexed.find("type", Array.with("misc", "armo", "ring"), new Array<Indexed.Entry>()).toString());
+    Array<Indexed.Entry> dst = indexed.find("type", Array.with("misc"), new Array<Indexed.Entry>());
+    assertEquals("[d, a, b]", indexed.find("type", Array.with("weap", "misc"), dst).toString());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void findRequiresIndex() {
+    Indexed indexed = Excel.parse(TXT.loadFromBytes(INDEXED.getBytes(StandardCharsets.US_ASCII)), Indexed.class);
+    indexed.find("name", "a");
+  }
+
+  @Test
+  public void entriesPutTwiceAreIndexedOnce() {
+    Indexed indexed = Excel.parse(TXT.loadFromBytes(INDEXED.getBytes(StandardCharsets.US_ASCII)), Indexed.class);
+    assertTrue(indexed.get(Indexed.ALIAS) == indexed.get("c"));
+    assertEquals("[a, c]", indexed.find("act", 1).toString());
+  }
+
+  public static class Indexed extends Excel<Indexed.Entry> {
+    static final int ALIAS = 100;
+
+    @Override
+    protected void init() {
+      put(ALIAS, get("c"));
+    }
+
+    public static class Entry extends Excel.Entry {
+      @Override
+      public String toString() {
+        return name;
+      }
+
+      @Key
+      @Column public String name;
+      @Excel.Entry.Indexed
+      @Column public int    act;
+      @Excel.Entry.Indexed
+      @Column public byte   level;
+      @Excel.Entry.Indexed("type")
+      @Column public String type1;
+      @Excel.Entry.Indexed("type")
+      @Column public String type2;
+      @Excel.Entry.Indexed
+      @Column(format = "tag%d", startIndex = 1, endIndex = 3)
+      public String tags[];
+    }
+  }
+}
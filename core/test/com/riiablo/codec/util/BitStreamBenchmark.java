@@ -0,0 +1,55 @@
+package com.riiablo.codec.util;
+
+import java.util.Random;
+
+/**
+ * Measures the read throughput of {@link BitStream} for the read patterns of the codecs using
+ * it: 2 and 4 bit reads as when decoding DCC pixels, mixed widths up to 31 bits as when parsing
+ * items, and single bits.
+ *
+ * <pre>java com.riiablo.codec.util.BitStreamBenchmark [iterations]</pre>
+ */
+public class BitStreamBenchmark {
+  private static final int SIZE = 1 << 20;
+
+  public static void main(String[] args) {
+    final int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+
+    Random random = new Random(0);
+    byte[] buffer = new byte[SIZE + Long.SIZE];
+    random.nextBytes(buffer);
+
+    int[] pixels = new int[SIZE];
+    for (int i = 0; i < pixels.length; i++) pixels[i] = random.nextBoolean() ? 2 : 4;
+    int[] items = new int[SIZE / 4];
+    for (int i = 0; i < items.length; i++) items[i] = 1 + random.nextInt(31);
+    int[] bits = new int[SIZE * 4];
+    for (int i = 0; i < bits.length; i++) bits[i] = 1;
+
+    benchmark("pixels", buffer, pixels, iterations);
+    benchmark("items ", buffer, items, iterations);
+    benchmark("bits  ", buffer, bits, iterations);
+  }
+
+  private static void benchmark(String name, byte[] buffer, int[] widths, int iterations) {
+    run(buffer, widths, iterations); // warm up
+    double rate = run(buffer, widths, iterations);
+    System.out.printf("%s: BitStream %7.1f M reads/s%n", name, rate);
+  }
+
+  /**
+   * @return millions of reads per second
+   */
+  private static double run(byte[] buffer, int[] widths, int iterations) {
+    long checksum = 0;
+    long start = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      BitStream bitStream = new BitStream(buffer);
+      for (int width : widths) checksum += bitStream.readUnsigned31OrLess(width);
+    }
+
+    long elapsed = System.nanoTime() - start;
+    if (checksum == 42) System.out.print("");
+    return (double) widths.length * iterations / (elapsed / 1e3);
+  }
+}
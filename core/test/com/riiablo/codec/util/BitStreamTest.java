@@ -0,0 +1,238 @@
+package com.riiablo.codec.util;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class BitStreamTest {
+  /**
+   * What the original implementation returned for the reads of {@link #assertMatchesGolden}: the
+   * position of the stream and of the buffer before every operation, followed by the value read
+   * if it was a read, for every buffer.
+   */
+  static final long[][] GOLDEN = {
+      {
+          0, 0, 0, 2, 2, 8, 8, 1,
+          9, 9, 0, 12, 12, 149, 20, 20,
+          77, 27, 27, 0, 3, 3764058, 22, 25,
+          9, 27, 30, 194806, 46, 49, 184, 54,
+          57, 0, 1, 7, 8, 7, 8, 0,
+          7, 8, 28, 29, 2, 30, 31, 11,
+          34, 35, 34, 35, 480357, 55, 56, 54,
+          57, 110, 113, 27, 27, 26, 33, 33,
+          -67, 41, 41, 1595853285, 73, 73, 0, 76,
+          76, 407, 85, 85, 1, 86, 86, 6764,
+          99, 99, -149186, 118, 118, 60044, 136, 136,
+          5185008, 159, 159, 0, 160, 160, 55, 167,
+          167, 168, 168, -202384, 188, 188, 24, 193,
+          193, 200, 200, -31591387, 230, 230, 0, 230,
+          230, 330, 330, 365, 365,
+      },
+      {
+          0, 0, 0, 0, 8, 4, 4, 8,
+          8, 132190747, 37, 37, 8, 44, 44, 0,
+          4, 0, 4, 4, 8, -24, 10, 14,
+          10, 14, 1, 11, 15, 11, 19, 23,
+          4, 24, 28, 79, 31, 35, 86, 90,
+          1, 87, 91, 92, 96, 92, 96, -105630,
+          110, 114, 17, 116, 120, 16, 121, 125,
+          121, 125, 58515, 142, 146, 0, 143, 147,
+          143, 147, 0, 144, 148, 5, 151, 155,
+          151, 155, 151, 155, 11, 156, 160, 44,
+          44, 11, 48, 48, 0, 49, 49, 0,
+          51, 51, 61, 57, 57, 0, 58, 58,
+          1, 59, 59, -4809152, 83, 83, 14, 87,
+          87, 145, 145, 188, 188, 0, 188, 188,
+          221, 221, 0, 0, 70, 70, 3, 74,
+          74, 8142189, 99, 99, 104, 104, 0, 105,
+          105, 0, 1, 17, 18, 1, 18, 19,
+          5, 22, 23, 17438, 37, 38, 1, 38,
+          39, 618695878, 69, 70, 105, 105, 169, 169,
+          1, 172, 172, 1, 174, 174, 0, 175,
+          175, 9, 179, 179, 3, 187, 187, 0,
+          188, 188, 3569029, 210, 210, 362559, 229, 229,
+          327, 239, 239, 103, 246, 246, 248, 248,
+          0, 248, 248, 0, 249, 249, 256, 256,
+          385, 385, 4, 392, 392, 0, 0, 60,
+          60, 74, 74, 80, 80, 392, 392, 392,
+          392, 0, 0, 1, 1, 1, 8, 8,
+          119, 15, 15, 16, 16, 11, 21, 21,
+          0, 5, 21, 21, 28, 26, 26, 48,
+          48, 392, 392, 1, 393, 393, 1, 395,
+          395, 400, 400, 1, 401, 401, 27, 406,
+          406, 1, 407, 407, 1, 408, 408, 0,
+          408, 408, 1, 409, 409, 5, 414, 414,
+          7486846, 437, 437, 0, 437, 437, 18, 445,
+          445, 486, 486,
+      },
+      {
+          0, 0, 0, 0, 3692, 13, 13, 0,
+          14, 14, 0, 16, 16, 174, 174, 0,
+          175, 175, 0, 176, 176, 176, 176, -32,
+          182, 182, 0, 183, 183, -5, 190, 190,
+          -1061122885, 222, 222, 0, 222, 222, 0, 6,
+          2, 8, 222, 222, 10842, 236, 236, 0,
+          237, 237, 35907034, 264, 264, 0, 265, 265,
+          7278616, 288, 288, 318, 318,
+      },
+      {
+          0, 0, 178, 178, 0, 179, 179, 7,
+          182, 182, 24, 187, 187, 28, 194, 194,
+          0, 195, 195, 24, 200, 200, 3937178, 222,
+          222, 7, 225, 225, 308, 308, 4874580, 333,
+          333, 8, 337, 337, 344, 344, 397, 397,
+      },
+      {
+          0, 0, 11147127, 25, 25,
+      },
+      {
+          0, 0,
+      },
+      {
+          0, 0, 1, 2, 2, 8, 8, 0,
+          0, 8, 8, 0, 9, 9, 0, 1,
+          9, 9, 4260, 22, 22, 3, 26, 26,
+          20, 31, 31, 0, 7, 31, 31, 110,
+          110, 181, 181,
+      },
+      {
+          0, 0, 3, 3, 3, 0, 7, 7,
+          20554811, 36, 36, 6020, 53, 53, 92, 61,
+          61, 0, 62, 62, 41192, 80, 80, 80,
+          80, 80, 80, 210, 88, 88, 0, 88,
+          88, 109078061, 116, 116, 723301627, 148, 148, 11,
+          152, 152, 567, 166, 166, 19, 171, 171,
+          0, 172, 172, 484655396, 201, 201, 236, 236,
+          8475415, 262, 262,
+      },
+  };
+
+  @Test
+  public void matchesGoldenVectors() {
+    Random random = new Random(0);
+    for (int i = 0; i < GOLDEN.length; i++) {
+      byte[] buffer = new byte[1 + random.nextInt(64)];
+      random.nextBytes(buffer);
+      long seed = random.nextLong();
+      int read = assertMatchesGolden(new Random(seed), new BitStream(buffer), GOLDEN[i], 0, 0);
+      assertEquals("buffer " + i, GOLDEN[i].length, read);
+    }
+  }
+
+  /**
+   * Performs random reads on {@code bitStream}, comparing the results to {@code golden} starting
+   * at {@code index}.
+   *
+   * @return index of the first value of {@code golden} which was not compared
+   */
+  private static int assertMatchesGolden(Random random, BitStream bitStream, long[] golden, int index, int depth) {
+    final long end = bitStream.bufferSizeInBits();
+    for (;;) {
+      long remaining = end - bitStream.bitPositionInBuffer();
+      assertEquals("value " + index, golden[index++], bitStream.tell());
+      assertEquals("value " + index, golden[index++], bitStream.bitPositionInBuffer());
+      if (remaining <= 32) return index;
+      switch (random.nextInt(8)) {
+        case 0:
+          assertEquals("value " + index, golden[index++], bitStream.readBoolean() ? 1 : 0);
+          break;
+        case 1: {
+          int bits = random.nextInt(33);
+          assertEquals("value " + index, golden[index++], (int) bitStream.readUnsigned(bits));
+          break;
+        }
+        case 2: {
+          int bits = 1 + random.nextInt(32);
+          assertEquals("value " + index, golden[index++], bitStream.readSigned(bits));
+          break;
+        }
+        case 3: {
+          int bits = random.nextInt((int) Math.min(remaining - 1, 200));
+          bitStream.skip(bits);
+          break;
+        }
+        case 4:
+          bitStream.alignToByte();
+          break;
+        case 5: {
+          long available = bitStream.sizeInBits() - bitStream.tell();
+          if (depth < 2 && available > 1) {
+            long bits = 1 + random.nextInt((int) available - 1);
+            long seed = random.nextLong();
+            index = assertMatchesGolden(new Random(seed), bitStream.createSubView(bits), golden, index, depth + 1);
+          }
+          break;
+        }
+        default: {
+          int bits = random.nextInt(9);
+          assertEquals("value " + index, golden[index++], bitStream.readUnsigned8OrLess(bits));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void readsUpTo64Bits() {
+    Random random = new Random(1);
+    byte[] buffer = new byte[4096];
+    random.nextBytes(buffer);
+    BitStream bitStream = new BitStream(buffer);
+    BitStream bits = new BitStream(buffer);
+    while (bitStream.bitPositionInBuffer() + 64 <= buffer.length * 8L) {
+      int n = 1 + random.nextInt(64);
+      long expected = 0;
+      for (int i = 0; i < n; i++) expected |= (long) bits.readBit() << i;
+      assertEquals(expected, bitStream.readUnsigned(n));
+    }
+  }
+
+  @Test
+  public void readsToEndOfBuffer() {
+    byte[] buffer = { (byte) 0x81, 0x42, 0x24, 0x18, (byte) 0xFF };
+    BitStream bitStream = new BitStream(buffer);
+    assertEquals(0x18244281L, bitStream.readUnsigned(29));
+    assertEquals(0x0, bitStream.readUnsigned(3));
+    assertEquals(0xFF, bitStream.readUnsigned8OrLess(8));
+    assertEquals(40, bitStream.tell());
+  }
+
+  @Test(expected = ArrayIndexOutOfBoundsException.class)
+  public void throwsPastEndOfBuffer() {
+    BitStream bitStream = new BitStream(new byte[3]);
+    bitStream.readUnsigned(20);
+    bitStream.readUnsigned(5);
+  }
+
+  @Test
+  public void reverseReadsFromLastByte() {
+    Random random = new Random(2);
+    for (int i = 0; i < 100; i++) {
+      byte[] buffer = new byte[1 + random.nextInt(256)];
+      random.nextBytes(buffer);
+      ReverseBitStream bitStream = new ReverseBitStream(buffer, buffer.length * 8);
+      long position = 0, end = buffer.length * 8L;
+      while (position < end) {
+        int n = (int) Math.min(end - position, random.nextInt(65));
+        if (random.nextInt(8) == 0) {
+          if (position + n < end) {
+            bitStream.skip(n);
+            position += n;
+          }
+          continue;
+        }
+
+        long expected = 0;
+        for (int b = 0; b < n; b++, position++) {
+          int index = buffer.length - 1 - (int) (position >>> 3);
+          int bit = (buffer[index] >>> (7 - (position & 7))) & 1;
+          expected |= (long) bit << b;
+        }
+
+        assertEquals(expected, bitStream.readUnsigned(n));
+        assertEquals(position, bitStream.tell());
+      }
+    }
+  }
+}
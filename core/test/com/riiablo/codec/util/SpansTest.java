@@ -0,0 +1,164 @@
+package com.riiablo.codec.util;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SpansTest {
+  static final byte[] IMAGE = {
+      0, 0, 0, 0, 0,
+      0, 3, 4, 0, 5,
+      0, 0, 0, 0, 0,
+      6, 0, 0, 0, 7,
+  };
+
+  /** image which is transparent where {@code random} says so, opaque runs of varying length */
+  static byte[] random(Random random, int width, int height) {
+    byte[] src = new byte[width * height];
+    for (int i = 0; i < src.length; i++) {
+      if (random.nextInt(3) > 0) src[i] = (byte) (1 + random.nextInt(255));
+    }
+
+    return src;
+  }
+
+  @Test
+  public void encodesOnlyOpaquePixels() {
+    Spans spans = Spans.encode(IMAGE, 5, 4);
+    assertEquals(4, spans.numSpans());
+    assertEquals(5, spans.numPixels());
+    assertArrayEquals(IMAGE, spans.toArray());
+  }
+
+  @Test
+  public void expandsRandomImages() {
+    Random random = new Random(0x20);
+    for (int i = 0; i < 32; i++) {
+      int width = 1 + random.nextInt(64), height = 1 + random.nextInt(64);
+      byte[] src = random(random, width, height);
+      Spans spans = Spans.encode(src, width, height);
+      assertArrayEquals(src, spans.toArray());
+
+      // stale contents are overwritten
+      ByteBuffer dst = ByteBuffer.allocate(src.length);
+      for (int j = 0; j < src.length; j++) dst.put(j, (byte) 0xFF);
+      spans.expand(dst);
+      assertEquals(0, dst.position());
+      assertArrayEquals(src, dst.array());
+    }
+  }
+
+  @Test
+  public void getMatchesImage() {
+    Random random = new Random(0x21);
+    byte[] src = random(random, 37, 11);
+    Spans spans = Spans.encode(src, 37, 11);
+    for (int y = 0; y < 11; y++) {
+      for (int x = 0; x < 37; x++) {
+        assertEquals(src[y * 37 + x] & 0xFF, spans.get(x, y));
+        assertEquals(src[y * 37 + x] != 0, spans.contains(x, y));
+      }
+    }
+  }
+
+  @Test
+  public void outsidePixelsAreTransparent() {
+    Spans spans = Spans.encode(IMAGE, 5, 4);
+    assertFalse(spans.contains(-1, 1));
+    assertFalse(spans.contains(5, 3));
+    assertFalse(spans.contains(0, -1));
+    assertFalse(spans.contains(0, 4));
+    assertTrue(spans.contains(4, 3));
+  }
+
+  @Test
+  public void emptyImagesHaveNoSpans() {
+    Spans spans = Spans.encode(new byte[12], 4, 3);
+    assertEquals(0, spans.numSpans());
+    assertEquals(0, spans.numPixels());
+    assertArrayEquals(new byte[12], spans.toArray());
+  }
+
+  @Test
+  public void blitOverwritesNonZeroIndexes() {
+    byte[] dst = {
+        1, 1, 1, 1,
+        1, 1, 1, 1,
+        1, 1, 1, 1,
+    };
+    byte[] src = {
+        0, 5,
+        6, 0,
+    };
+    Spans.encode(src, 2, 2).blit(dst, 4, 1, 1, null);
+    assertArrayEquals(new byte[] {
+        1, 1, 1, 1,
+        1, 1, 5, 1,
+        1, 6, 1, 1,
+    }, dst);
+  }
+
+  @Test
+  public void blitAppliesTransform() {
+    byte[] transform = new byte[256];
+    for (int i = 0; i < transform.length; i++) transform[i] = (byte) (255 - i);
+    byte[] dst = new byte[4];
+    byte[] src = { 0, 1, (byte) 200, 0 };
+    Spans.encode(src, 2, 2).blit(dst, 2, 0, 0, transform);
+    assertArrayEquals(new byte[] { 0, (byte) 254, 55, 0 }, dst);
+  }
+
+  @Test
+  public void sparseFramesAreSmaller() {
+    byte[] src = new byte[128 * 128];
+    for (int y = 32; y < 96; y++) {
+      for (int x = 48; x < 80; x++) src[y * 128 + x] = 1;
+    }
+
+    Spans spans = Spans.encode(src, 128, 128);
+    assertTrue(spans.footprint() * 4 < src.length);
+  }
+
+  @Test
+  public void readsWhatWasWritten() {
+    Spans spans = Spans.encode(random(new Random(0x22), 23, 17), 23, 17);
+    ByteBuffer buffer = ByteBuffer.allocate(spans.size()).order(ByteOrder.LITTLE_ENDIAN);
+    spans.write(buffer);
+    assertFalse(buffer.hasRemaining());
+    buffer.flip();
+
+    Spans read = Spans.read(buffer, 23, 17, spans.numSpans(), spans.numPixels());
+    assertNotNull(read);
+    assertFalse(buffer.hasRemaining());
+    assertArrayEquals(spans.toArray(), read.toArray());
+  }
+
+  @Test
+  public void invalidEncodingsAreRejected() {
+    Spans spans = Spans.encode(IMAGE, 5, 4);
+    ByteBuffer buffer = ByteBuffer.allocate(spans.size()).order(ByteOrder.LITTLE_ENDIAN);
+    spans.write(buffer);
+
+    buffer.rewind();
+    assertNull(Spans.read(buffer, 4, 4, spans.numSpans(), spans.numPixels()));
+    buffer.rewind();
+    assertNull(Spans.read(buffer, 5, 4, spans.numSpans() + 1, spans.numPixels()));
+    buffer.rewind();
+    assertNull(Spans.read(buffer, 5, 4, spans.numSpans(), spans.numPixels() - 1));
+
+    // second span of row 1 overlapping the first
+    int second = (5 + 2) << 2;
+    buffer.putInt(second, (1 << 16) | 1);
+    buffer.rewind();
+    assertNull(Spans.read(buffer, 5, 4, spans.numSpans(), spans.numPixels()));
+  }
+}
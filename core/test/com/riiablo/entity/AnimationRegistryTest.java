@@ -0,0 +1,146 @@
+package com.riiablo.entity;
+
+import com.badlogic.gdx.assets.AssetDescriptor;
+import com.badlogic.gdx.assets.AssetLoaderParameters;
+import com.badlogic.gdx.assets.AssetManager;
+import com.badlogic.gdx.assets.loaders.FileHandleResolver;
+import com.badlogic.gdx.assets.loaders.SynchronousAssetLoader;
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.utils.Array;
+import com.riiablo.codec.DCC;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class AnimationRegistryTest {
+  AssetManager assets;
+  CountingLoader loader;
+
+  @Before
+  public void setUp() {
+    FileHandleResolver resolver = new FileHandleResolver() {
+      @Override
+      public FileHandle resolve(String fileName) {
+        return new FileHandle(fileName);
+      }
+    };
+
+    assets = new AssetManager(resolver);
+    assets.setLoader(DCC.class, loader = new CountingLoader(resolver));
+  }
+
+  @After
+  public void tearDown() {
+    assets.dispose();
+  }
+
+  @Test
+  public void keysAreDistinctPerComponent() {
+    AnimationRegistry registry = new AnimationRegistry(assets, 0);
+    long key = registry.key(Entity.Type.MON, "FA", (byte) 1, "HTH", COMPONENT_TR, 1);
+    assertEquals(key, registry.key(Entity.Type.MON, "FA", (byte) 1, "HTH", COMPONENT_TR, 1));
+    assertNotEquals(key, registry.key(Entity.Type.MON, "FA", (byte) 1, "HTH", COMPONENT_TR, 2));
+    assertNotEquals(key, registry.key(Entity.Type.MON, "FA", (byte) 1, "1HS", COMPONENT_TR, 1));
+    assertNotEquals(key, registry.key(Entity.Type.MON, "FA", (byte) 2, "HTH", COMPONENT_TR, 1));
+    assertNotEquals(key, registry.key(Entity.Type.MON, "FA", (byte) 1, "HTH", COMPONENT_HD, 1));
+    assertNotEquals(key, registry.key(Entity.Type.MON, "SK", (byte) 1, "HTH", COMPONENT_TR, 1));
+    assertNotEquals(key, registry.key(Entity.Type.PLR, "FA", (byte) 1, "HTH", COMPONENT_TR, 1));
+  }
+
+  @Test
+  public void pathsMatchComponents() {
+    assertEquals("data\\global\\MONSTERS\\FA\\TR\\FATRLITNUHTH.dcc",
+        AnimationRegistry.path(Entity.Type.MON, "FA", (byte) 1, "HTH", COMPONENT_TR, 1));
+  }
+
+  @Test
+  public void loadsSharedOnce() {
+    AnimationRegistry registry = new AnimationRegistry(assets, 0);
+    DCC a = registry.acquire(Entity.Type.MON, "FA", (byte) 1, "HTH", COMPONENT_TR, 1);
+    DCC b = registry.acquire(Entity.Type.MON, "FA", (byte) 1, "HTH", COMPONENT_TR, 1);
+    assertNotNull(a);
+    assertSame(a, b);
+    assertEquals(1, loader.loads);
+    assertEquals(1, assets.getReferenceCount("data/global/MONSTERS/FA/TR/FATRLITNUHTH.dcc"));
+    assertEquals(2, registry.refs(registry.key(Entity.Type.MON, "FA", (byte) 1, "HTH", COMPONENT_TR, 1)));
+  }
+
+  @Test
+  public void unloadsAfterLastRelease() {
+    AnimationRegistry registry = new AnimationRegistry(assets, 2);
+    String path = "data\\global\\missiles\\fireball.dcc";
+    String fileName = "data/global/missiles/fireball.dcc"; // as normalized by the asset manager
+    registry.acquire(path);
+    registry.acquire(path);
+    long key = registry.key(path);
+
+    registry.release(key);
+    registry.update();
+    registry.update();
+    assertTrue(assets.isLoaded(fileName));
+
+    registry.release(key);
+    registry.update();
+    assertTrue(assets.isLoaded(fileName));
+    registry.update();
+    assertFalse(assets.isLoaded(fileName));
+    assertEquals(0, registry.size());
+  }
+
+  @Test
+  public void reacquiringCancelsUnload() {
+    AnimationRegistry registry = new AnimationRegistry(assets, 1);
+    String path = "data\\global\\missiles\\fireball.dcc";
+    String fileName = "data/global/missiles/fireball.dcc";
+    DCC dcc = registry.acquire(path);
+    registry.release(registry.key(path));
+    assertSame(dcc, registry.acquire(path));
+    registry.update();
+    registry.update();
+    assertTrue(assets.isLoaded(fileName));
+    assertEquals(1, loader.loads);
+  }
+
+  static final int COMPONENT_HD = 0;
+  static final int COMPONENT_TR = 1;
+
+  /** a valid dcc without any directions */
+  static byte[] emptyDCC() {
+    ByteBuffer buffer = ByteBuffer.allocate(15).order(ByteOrder.LITTLE_ENDIAN);
+    buffer.put((byte) 0x74).put((byte) 6).put((byte) 0);
+    buffer.putInt(1).putInt(1).putInt(0);
+    return buffer.array();
+  }
+
+  static final class CountingLoader extends SynchronousAssetLoader<DCC, CountingLoader.Parameters> {
+    int loads;
+
+    CountingLoader(FileHandleResolver resolver) {
+      super(resolver);
+    }
+
+    @Override
+    public DCC load(AssetManager assets, String fileName, FileHandle file, Parameters params) {
+      loads++;
+      return DCC.loadFromBuffer(ByteBuffer.wrap(emptyDCC()));
+    }
+
+    @Override
+    public Array<AssetDescriptor> getDependencies(String fileName, FileHandle file, Parameters params) {
+      return null;
+    }
+
+    static class Parameters extends AssetLoaderParameters<DCC> {}
+  }
+}
@@ -0,0 +1,156 @@
+package com.riiablo.graphics;
+
+import com.badlogic.gdx.utils.Array;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class AtlasPackerTest {
+  @Test
+  public void packsWithoutOverlapping() {
+    Random random = new Random(0x16);
+    AtlasPacker<Integer> packer = new AtlasPacker<>(256, 256, 4, 1);
+    Array<AtlasPacker.Entry<Integer>> entries = new Array<>();
+    for (int i = 0;; i++) {
+      int numRects = 1 + random.nextInt(16);
+      int[] widths = new int[numRects], heights = new int[numRects];
+      for (int r = 0; r < numRects; r++) {
+        widths[r] = 1 + random.nextInt(64);
+        heights[r] = 1 + random.nextInt(64);
+      }
+
+      AtlasPacker.Entry<Integer> entry = packer.pack(i, widths, heights);
+      if (entry == null) break;
+      assertEquals(numRects, entry.size());
+      entries.add(entry);
+    }
+
+    assertEquals(4, packer.pages().size);
+    for (AtlasPacker.Page<Integer> page : packer.pages()) {
+      boolean[] pixels = new boolean[256 * 256];
+      long used = 0;
+      for (AtlasPacker.Entry<Integer> entry : entries) {
+        if (entry.page() != page) continue;
+        assertFalse(entry.isEvicted());
+        for (int r = 0; r < entry.size(); r++) {
+          int w = entry.width(r) + 1, h = entry.height(r) + 1;
+          assertTrue(entry.x(r) >= 0 && entry.x(r) + w <= 256);
+          assertTrue(entry.y(r) >= 0 && entry.y(r) + h <= 256);
+          for (int y = entry.y(r); y < entry.y(r) + h; y++) {
+            for (int x = entry.x(r); x < entry.x(r) + w; x++) {
+              assertFalse("overlap at " + x + "," + y, pixels[y * 256 + x]);
+              pixels[y * 256 + x] = true;
+            }
+          }
+
+          used += w * h;
+        }
+      }
+
+      assertEquals(used, page.used());
+    }
+  }
+
+  @Test
+  public void rectsLargerThanPageAreRejected() {
+    AtlasPacker<String> packer = new AtlasPacker<>(64, 64, 1, 1);
+    assertNull(packer.pack("wide", new int[] {64}, new int[] {8}));
+    assertNull(packer.pack("total", new int[] {32, 32, 32, 32}, new int[] {32, 32, 32, 32}));
+    assertEquals(0, packer.pages().size);
+    assertNotNull(packer.pack("fits", new int[] {63}, new int[] {63}));
+  }
+
+  @Test
+  public void evictsLeastRecentlyUsedPage() {
+    final Array<String> evicted = new Array<>();
+    AtlasPacker<String> packer = new AtlasPacker<>(64, 64, 2, 0);
+    packer.setListener(new AtlasPacker.Listener<String>() {
+      @Override
+      public void evicted(AtlasPacker.Entry<String> entry) {
+        evicted.add(entry.owner());
+      }
+
+      @Override
+      public void discarded(AtlasPacker.Page<String> page) {}
+    });
+
+    AtlasPacker.Entry<String> a = packer.pack("a", new int[] {64}, new int[] {64});
+    packer.update();
+    AtlasPacker.Entry<String> b = packer.pack("b", new int[] {64}, new int[] {64});
+    packer.update();
+    packer.touch(a);
+    packer.update();
+
+    AtlasPacker.Entry<String> c = packer.pack("c", new int[] {32}, new int[] {32});
+    assertNotNull(c);
+    assertTrue(b.isEvicted());
+    assertFalse(a.isEvicted());
+    assertSame(b.page(), c.page());
+    assertEquals(1, evicted.size);
+    assertEquals("b", evicted.first());
+  }
+
+  @Test
+  public void entriesUsedThisFrameAreNotEvicted() {
+    AtlasPacker<String> packer = new AtlasPacker<>(64, 64, 1, 0);
+    AtlasPacker.Entry<String> a = packer.pack("a", new int[] {64}, new int[] {64});
+    assertNull(packer.pack("b", new int[] {16}, new int[] {16}));
+    assertFalse(a.isEvicted());
+
+    packer.update();
+    assertNotNull(packer.pack("b", new int[] {16}, new int[] {16}));
+    assertTrue(a.isEvicted());
+  }
+
+  @Test
+  public void emptyPagesAreReused() {
+    AtlasPacker<String> packer = new AtlasPacker<>(64, 64, 1, 0);
+    AtlasPacker.Entry<String> a = packer.pack("a", new int[] {32}, new int[] {64});
+    AtlasPacker.Entry<String> b = packer.pack("b", new int[] {32}, new int[] {64});
+    assertSame(a.page(), b.page());
+    packer.remove(a);
+    // space is only reclaimed once the whole page is empty
+    assertNull(packer.pack("c", new int[] {32}, new int[] {64}));
+    packer.remove(b);
+    assertEquals(0, packer.used());
+    assertNotNull(packer.pack("c", new int[] {64}, new int[] {64}));
+  }
+
+  @Test
+  public void loweringBudgetDiscardsPages() {
+    final Array<AtlasPacker.Page<String>> discarded = new Array<>();
+    AtlasPacker<String> packer = new AtlasPacker<>(64, 64, 3, 0);
+    packer.setListener(new AtlasPacker.Listener<String>() {
+      @Override
+      public void evicted(AtlasPacker.Entry<String> entry) {}
+
+      @Override
+      public void discarded(AtlasPacker.Page<String> page) {
+        discarded.add(page);
+      }
+    });
+
+    AtlasPacker.Entry<String> a = packer.pack("a", new int[] {64}, new int[] {64});
+    packer.update();
+    AtlasPacker.Entry<String> b = packer.pack("b", new int[] {64}, new int[] {64});
+    packer.update();
+    AtlasPacker.Entry<String> c = packer.pack("c", new int[] {64}, new int[] {64});
+    packer.update();
+    packer.touch(a);
+
+    packer.setMaxPages(1);
+    assertEquals(1, packer.pages().size);
+    assertEquals(2, discarded.size);
+    assertTrue(b.isEvicted());
+    assertTrue(c.isEvicted());
+    assertFalse(a.isEvicted());
+  }
+}
@@ -0,0 +1,80 @@
+package com.riiablo.mpq;
+
+import com.badlogic.gdx.files.FileHandle;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.util.Random;
+
+import com.riiablo.util.BufferUtils;
+import com.riiablo.util.CacheUtils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DiskCacheTest {
+  static final String KEY = DiskCache.key("d2data.mpq", "data\\global\\Test.bin", 0x1234);
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  DiskCache cache;
+
+  @Before
+  public void setUp() {
+    cache = new DiskCache(new FileHandle(folder.getRoot()));
+  }
+
+  static byte[] random(long seed, int size) {
+    byte[] bytes = new byte[size];
+    new Random(seed).nextBytes(bytes);
+    return bytes;
+  }
+
+  @Test
+  public void keysAreLowerCasePaths() {
+    assertEquals("d2data.mpq/data/global/test.bin-00001234", KEY);
+  }
+
+  @Test
+  public void roundTrips() {
+    byte[] small = random(0x09, 1000);
+    cache.put(KEY, ByteBuffer.wrap(small));
+    ByteBuffer buffer = cache.get(KEY, small.length);
+    assertFalse(buffer instanceof MappedByteBuffer);
+    assertArrayEquals(small, BufferUtils.readRemaining(buffer));
+
+    String key = DiskCache.key("d2data.mpq", "data\\global\\large.bin", 0);
+    byte[] large = random(0x0A, CacheUtils.MAX_BUFFERED + 1);
+    cache.put(key, ByteBuffer.wrap(large));
+    buffer = cache.get(key, large.length);
+    assertTrue(buffer instanceof MappedByteBuffer);
+    assertArrayEquals(large, BufferUtils.readRemaining(buffer));
+
+    assertEquals(2, cache.hits());
+    assertEquals(2, cache.writes());
+    assertEquals(0, cache.misses());
+  }
+
+  @Test
+  public void staleEntriesMiss() {
+    byte[] stale = random(0x0B, 100);
+    cache.put(KEY, ByteBuffer.wrap(stale));
+    assertNull(cache.get(KEY, stale.length + 1));
+    assertNull(cache.get(DiskCache.key("d2data.mpq", "data\\global\\Test.bin", 0x4321), stale.length));
+    assertEquals(2, cache.misses());
+
+    byte[] data = random(0x0C, 101);
+    cache.put(KEY, ByteBuffer.wrap(data));
+    assertArrayEquals(data, BufferUtils.readRemaining(cache.get(KEY, data.length)));
+    assertEquals(1, cache.hits());
+  }
+}
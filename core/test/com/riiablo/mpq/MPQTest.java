@@ -0,0 +1,131 @@
+package com.riiablo.mpq;
+
+import com.badlogic.gdx.ApplicationAdapter;
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.backends.headless.HeadlessApplication;
+import com.badlogic.gdx.backends.headless.HeadlessApplicationConfiguration;
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.utils.StreamUtils;
+
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class MPQTest {
+  private static final int THREADS    = 16;
+  private static final int ITERATIONS = 8;
+
+  /**
+   * Covers imploded (excel, dc6), uncompressed (palette) and huffman + adpcm compressed (wav)
+   * sectors.
+   */
+  private static final String[] FILES = {
+      "data\\global\\excel\\monstats.txt",
+      "data\\global\\excel\\skills.txt",
+      "data\\global\\palette\\ACT1\\pal.dat",
+      "data\\global\\ui\\FrontEnd\\TitleScreen.dc6",
+      "data\\global\\sfx\\cursor\\button.wav",
+      "data\\global\\sfx\\cursor\\select.wav",
+      "data\\global\\sfx\\cursor\\windowopen.wav",
+  };
+
+  private static MPQFileHandleResolver mpqs;
+
+  @BeforeClass
+  public static void setUp() {
+    FileHandle home = new FileHandle(System.getProperty("user.home")).child("diablo");
+    Assume.assumeTrue("D2 MPQs not found in " + home, home.child("d2data.mpq").exists());
+
+    HeadlessApplicationConfiguration config = new HeadlessApplicationConfiguration();
+    new HeadlessApplication(new ApplicationAdapter() {}, config);
+    mpqs = new MPQFileHandleResolver(home, true);
+  }
+
+  @AfterClass
+  public static void tearDown() {
+    if (mpqs != null) mpqs.dispose();
+    if (Gdx.app != null) Gdx.app.exit();
+  }
+
+  @Test
+  public void testConcurrentDecode() throws Exception {
+    final long[] expected = new long[FILES.length];
+    for (int i = 0; i < FILES.length; i++) {
+      expected[i] = checksum(mpqs.resolve(FILES[i]).readBytes());
+    }
+
+    final CountDownLatch start = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+    try {
+      List<Future<long[]>> results = new ArrayList<>(THREADS);
+      for (int t = 0; t < THREADS; t++) {
+        final int offset = t;
+        results.add(executor.submit(new Callable<long[]>() {
+          @Override
+          public long[] call() throws Exception {
+            start.await();
+            long[] checksums = new long[FILES.length];
+            for (int i = 0; i < ITERATIONS; i++) {
+              for (int j = 0; j < FILES.length; j++) {
+                // stagger threads so that different files are decoded at the same time
+                int f = (offset + j) % FILES.length;
+                FileHandle handle = mpqs.resolve(FILES[f]);
+                long checksum = (i & 1) == 0
+                    ? checksum(handle.readBytes())
+                    : checksum(handle.read());
+                if (i > 0 && checksums[f] != checksum) {
+                  throw new AssertionError(FILES[f] + " decoded differently on iteration " + i);
+                }
+
+                checksums[f] = checksum;
+              }
+            }
+
+            return checksums;
+          }
+        }));
+      }
+
+      start.countDown();
+      for (Future<long[]> result : results) {
+        assertArrayEquals(expected, result.get());
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static long checksum(byte[] bytes) {
+    CRC32 crc = new CRC32();
+    crc.update(bytes);
+    return crc.getValue();
+  }
+
+  private static long checksum(InputStream in) throws IOException {
+    try {
+      CRC32 crc = new CRC32();
+      byte[] buffer = new byte[1024];
+      for (int read; (read = in.read(buffer)) != -1;) {
+        crc.update(buffer, 0, read);
+      }
+
+      return crc.getValue();
+    } finally {
+      StreamUtils.closeQuietly(in);
+    }
+  }
+}
@@ -0,0 +1,86 @@
+package com.riiablo.mpq;
+
+import com.badlogic.gdx.utils.Array;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class MPQTreeTest {
+  private static final String[] FILES = {
+      "data\\global\\tiles\\ACT1\\Town\\floor.dt1",
+      "data\\global\\tiles\\act1\\town\\fence.dt1",
+      "data\\global\\tiles\\act1\\town\\townN1.ds1",
+      "data\\global\\tiles\\act1\\outdoors\\bridge.dt1",
+      "data\\global\\tiles\\act2\\town\\floor.dt1",
+      "data/global/excel/armor.txt",
+      "(listfile)",
+  };
+
+  private static MPQTree tree;
+
+  @BeforeClass
+  public static void setup() {
+    tree = new MPQTree();
+    for (String file : FILES) assertTrue(tree.add(new MPQFileHandle(null, file)));
+    assertFalse(tree.add(new MPQFileHandle(null, "DATA\\GLOBAL\\EXCEL\\ARMOR.TXT")));
+    tree.finish();
+  }
+
+  private static String names(Array<MPQFileHandle> files) {
+    StringBuilder builder = new StringBuilder();
+    for (MPQFileHandle file : files) builder.append(file.name().toLowerCase()).append(' ');
+    return builder.toString().trim();
+  }
+
+  @Test
+  public void get() {
+    assertEquals(FILES.length, tree.size());
+    assertSame(FILES[0], tree.get("DATA/GLOBAL/TILES/act1/town/FLOOR.DT1").fileName);
+    assertSame(FILES[6], tree.get("(listfile)").fileName);
+    assertNull(tree.get("data\\global\\tiles\\act1\\town"));
+    assertTrue(tree.isDirectory("data\\global\\tiles\\act1\\town"));
+    assertTrue(tree.isDirectory("data/global/tiles/"));
+    assertFalse(tree.isDirectory("data\\global\\tiles\\act3"));
+    assertEquals("[act1, act2]", tree.directories("data\\global\\tiles").toString());
+  }
+
+  @Test
+  public void list() {
+    assertEquals("bridge.dt1 fence.dt1 floor.dt1 townn1.ds1", names(tree.list("data\\global\\tiles\\act1\\")));
+    assertEquals("fence.dt1 floor.dt1", names(tree.list("data\\global\\tiles\\act1\\town\\f")));
+    assertEquals("bridge.dt1 fence.dt1 floor.dt1 townn1.ds1 floor.dt1", names(tree.list("data\\global\\tiles\\act")));
+    assertEquals(FILES.length, tree.list("").size);
+    assertEquals(0, tree.list("data\\global\\tiles\\act3\\").size);
+  }
+
+  @Test
+  public void glob() {
+    assertEquals("fence.dt1 floor.dt1", names(tree.glob("data\\global\\tiles\\act1\\town\\*.dt1")));
+    assertEquals("floor.dt1 floor.dt1", names(tree.glob("data\\global\\tiles\\act?\\town\\floor.*")));
+    assertEquals("bridge.dt1 fence.dt1 floor.dt1 floor.dt1", names(tree.glob("data\\**\\*.dt1")));
+    assertEquals("armor.txt", names(tree.glob("**\\armor.txt")));
+    assertEquals("townn1.ds1", names(tree.glob("data/global/tiles/**/TOWN*")));
+    assertEquals(0, tree.glob("data\\*\\floor.dt1").size);
+  }
+
+  @Test
+  public void extension() {
+    assertEquals("bridge.dt1 fence.dt1 floor.dt1 floor.dt1", names(tree.extension("dt1")));
+    assertEquals("armor.txt", names(tree.extension(".TXT")));
+    assertEquals("(listfile)", names(tree.extension("")));
+    assertEquals(0, tree.extension("dcc").size);
+  }
+
+  @Test
+  public void readListfile() {
+    Array<String> names = new Array<>();
+    MPQTree.readListfile("a\\b.txt\r\nc.txt;d.txt\n\ne.txt".getBytes(), names);
+    assertEquals("[a\\b.txt, c.txt, d.txt, e.txt]", names.toString());
+  }
+}
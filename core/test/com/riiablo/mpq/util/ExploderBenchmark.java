@@ -0,0 +1,53 @@
+package com.riiablo.mpq.util;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Measures the decoding throughput of {@link Exploder} on imploded sectors of text with variable
+ * size literals and of binary data with fixed size literals.
+ *
+ * <pre>java com.riiablo.mpq.util.ExploderBenchmark [iterations]</pre>
+ */
+public class ExploderBenchmark {
+  private static final int SECTOR_SIZE = 4096;
+  private static final int SECTORS     = 64;
+
+  public static void main(String[] args) {
+    final int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+
+    Random random = new Random(0);
+    for (int litSize = 0; litSize <= 1; litSize++) {
+      byte[][] sectors = new byte[SECTORS][];
+      for (int i = 0; i < SECTORS; i++) {
+        byte[] data = litSize == 0
+            ? ExploderTest.runs(random, SECTOR_SIZE)
+            : HuffmanTest.text(random, SECTOR_SIZE);
+        sectors[i] = ExploderTest.implode(data, litSize, 6);
+      }
+
+      run(sectors, iterations); // warm up
+      double rate = run(sectors, iterations);
+      System.out.printf("%s literals: Exploder %7.1f MB/s%n", litSize == 0 ? "fixed   " : "variable", rate);
+    }
+  }
+
+  /**
+   * @return decoded megabytes per second
+   */
+  private static double run(byte[][] sectors, int iterations) {
+    ByteBuffer out = ByteBuffer.allocate(SECTOR_SIZE);
+    long bytes = 0;
+    long start = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      for (byte[] sector : sectors) {
+        out.clear();
+        Exploder.pkexplode(ByteBuffer.wrap(sector), out);
+        bytes += out.position();
+      }
+    }
+
+    long elapsed = System.nanoTime() - start;
+    return bytes / (elapsed / 1e9) / (1 << 20);
+  }
+}
@@ -0,0 +1,213 @@
+package com.riiablo.mpq.util;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import com.riiablo.util.HexUtils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class ExploderTest {
+  private static final int SECTOR_SIZE = 4096;
+
+  /**
+   * Greedy PKWare implode using the code tables of {@link Exploder}, producing streams with
+   * literals, short and long matches and overlapping runs.
+   */
+  static byte[] implode(byte[] data, int litSize, int dictSizeByte) {
+    final int dictSize = 64 << dictSizeByte;
+    BitWriter out = new BitWriter();
+    out.out.write(litSize);
+    out.out.write(dictSizeByte);
+    for (int i = 0; i < data.length;) {
+      int best = 0, bestDist = 0;
+      for (int dist = 1, max = Math.min(i, dictSize); dist <= max; dist++) {
+        int len = 0;
+        while (i + len < data.length && len < 518 && data[i + len - dist] == data[i + len]) len++;
+        if (len > best && !(len == 2 && dist > 256)) {
+          best = len;
+          bestDist = dist;
+          if (best == 518) break;
+        }
+      }
+
+      if (best >= 2) {
+        out.write(1, 1);
+        writeLength(out, best);
+        int offs = bestDist - 1;
+        if (best == 2) {
+          out.write(Exploder.OffsCode[offs >> 2] & 0xFF, Exploder.OffsBits[offs >> 2]);
+          out.write(offs & 3, 2);
+        } else {
+          out.write(Exploder.OffsCode[offs >> dictSizeByte] & 0xFF, Exploder.OffsBits[offs >> dictSizeByte]);
+          out.write(offs & ((1 << dictSizeByte) - 1), dictSizeByte);
+        }
+
+        i += best;
+      } else {
+        out.write(0, 1);
+        int b = data[i] & 0xFF;
+        if (litSize == 0) {
+          out.write(b, 8);
+        } else {
+          out.write(Exploder.ChCode[b] & 0xFFFF, Exploder.ChBits[b]);
+        }
+
+        i++;
+      }
+    }
+
+    out.write(1, 1);
+    writeLength(out, 519);
+    return out.toByteArray();
+  }
+
+  private static void writeLength(BitWriter out, int len) {
+    int i = Exploder.LenBase.length - 1;
+    while (Exploder.LenBase[i] > len) i--;
+    out.write(Exploder.LenCode[i] & 0xFF, Exploder.LenBits[i]);
+    out.write(len - Exploder.LenBase[i], Exploder.ExLenBits[i]);
+  }
+
+  private static final class BitWriter {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    int value, bits;
+
+    void write(int value, int bits) {
+      this.value |= (value & ((1 << bits) - 1)) << this.bits;
+      this.bits += bits;
+      while (this.bits >= 8) {
+        out.write(this.value & 0xFF);
+        this.value >>>= 8;
+        this.bits -= 8;
+      }
+    }
+
+    byte[] toByteArray() {
+      if (bits > 0) write(0, 8 - bits);
+      return out.toByteArray();
+    }
+  }
+
+  static byte[] runs(Random random, int length) {
+    byte[] data = new byte[length];
+    for (int i = 0; i < length;) {
+      int run = Math.min(1 + random.nextInt(40), length - i);
+      if (random.nextBoolean()) {
+        Arrays.fill(data, i, i + run, (byte) random.nextInt(4));
+      } else {
+        for (int j = 0; j < run; j++) data[i + j] = (byte) random.nextInt(0x100);
+      }
+
+      i += run;
+    }
+
+    return data;
+  }
+
+  static byte[][] samples(Random random) {
+    byte[] noise = new byte[SECTOR_SIZE];
+    random.nextBytes(noise);
+    return new byte[][] {
+        HuffmanTest.text(random, SECTOR_SIZE),
+        runs(random, SECTOR_SIZE),
+        noise,
+        new byte[SECTOR_SIZE],
+        HuffmanTest.text(random, 37),
+    };
+  }
+
+  @Test
+  public void roundTrip() {
+    Random random = new Random(0);
+    for (int litSize = 0; litSize <= 1; litSize++) {
+      for (int dictSizeByte = 4; dictSizeByte <= 6; dictSizeByte++) {
+        for (byte[] data : samples(random)) {
+          byte[] imploded = implode(data, litSize, dictSizeByte);
+          ByteBuffer out = ByteBuffer.allocate(data.length);
+          assertEquals(data.length, Exploder.pkexplode(ByteBuffer.wrap(imploded), out));
+          assertArrayEquals(data, out.array());
+
+          ByteBuffer direct = ByteBuffer.allocateDirect(data.length + 8);
+          direct.position(8);
+          assertEquals(data.length + 8, Exploder.pkexplode(ByteBuffer.wrap(imploded), direct));
+          byte[] copy = new byte[data.length];
+          direct.position(8);
+          direct.get(copy);
+          assertArrayEquals(data, copy);
+
+          byte[] sector = new byte[imploded.length + 1];
+          System.arraycopy(imploded, 0, sector, 1, imploded.length);
+          byte[] array = new byte[data.length + 3];
+          assertEquals(array.length, Exploder.pkexplode(sector, array, 3));
+          assertArrayEquals(data, Arrays.copyOfRange(array, 3, array.length));
+        }
+      }
+    }
+  }
+
+  /**
+   * Streams of random bytes and what the original implementation exploded them into, at most
+   * {@link #GOLDEN_SIZE} bytes, or {@code null} if it rejected them.
+   */
+  static final String[][] GOLDEN = {
+      { "0105b8196f0efb6892f94d68fccc2c35f0b84609e5f12c55dd",
+        null },
+      { "00061827ba5bb5f67e1bda28b4049bf0e4aed78db15d7bf2fc0c34e9a99de4ef3bc2b17c8137ad6598",
+        null },
+      { "0105765e24e9a88173724dddfb04b01dcceb",
+        null },
+      { "0104d40a47902028e61cfdc243d9d160",
+        null },
+      { "010672a4862fae47f56f745addac9e9af670ac27490f82d9b2b9e45dac29945ad20c4090acfa3f99aedcd93d58a2c64ae6d69b04",
+        "757575757575757575757575757575757575757575757575757575757575757575756f75757575757575757575757575" },
+      { "0005481c0d2adf8b52744cc610a4e4d5d8a7754ef91dccbe09ea6ee1d6b9955e10fd61a1ab5d178e7ffacbed12",
+        "244724472447244724291d244724470829244724291d244724082924472447082924ca472447b3244724d424291d2447" },
+      { "0005c4aabe6a0bf00f5f2b6dd698eb7823ea8a6612c912101e2867beb3df168c4cad",
+        "62626262626262626262626262f0626262addad6ccaddad6ccadda626275addad6ccadda62adda62adda62adda62ad02" },
+      { "0005ae911305de71b9e13d74f6a466d4518e4078ef13179adb5e7273ec7c50a3eeff8e7c0d78a9",
+        "d7e4a2e0d7e4a2e0d737ded737ded7d737de37ded737ded737ded7de37ded7efded737ded72e9aded7e4a2e0d7de37de" },
+      { "000422f0f615c75580e23344a91451944af9aa3abb417a855b66d14df8d45668427e375fb2abed5589ad6cdbb9264c23998e9cced0",
+        "11bc11bc11bc1111bc11bc11bc1111bc11bc11bc80f111bc11bc80f111bc951180f111bc95118011bc95118011bc9511" },
+      { "01062aee307a1c47ff7ba275a54fa41de3b4e9dbfd2ef4b0b485f1187bc4585976999334b616673aa4370b6547d5e72a79e88256",
+        "73307330733032616f307330307330307330307330307473303073302d616f3073307330307473303073306f30736f30" },
+      { "0104b2199191350aad35a6d1f79d355c8bbd73bfb569ed1822b53e616217f9395f83921b48a21c7614b91ac4558c44ee5fb67235523e",
+        "756c756c756c756c756c756c756c756c756c756c756c6c756c756c75666c6c756c7566646c75616c7575667566756c75" },
+      { "010410f6db436de77101f53c24ba4ee71e2404747568e3beb791287b404cc88cc9e2d410982d6974b8d9db",
+        "7676767676767676727272767272e1767272e170646f644fe176724964737272727645767272767272e1707520824462" },
+      { "010596b7eab1a89c0ac4b6d3e47b424ad2bf5b62068fe514c7df8ea874f87ec53e886c3a299efd5b308d963dae6a669a",
+        "6920696920696920696920696920696967c5692072756969202d706f20696920696e4e54612072756969202d706f2042" },
+      { "0006c0a1af23b77874526ce2bf849e5845be50a88405c008fcc6ada42305db1b05605b",
+        "e0e8e8e86e6e6e6e6e6e6e6e6e6e6e6e6e6e6e6e6e6e6e6e6e6e6e6e6e6e426e6e6e455f1495580023f86e6e6e6e6ed2" },
+      { "010644c410114b284835102f20fe2e139cef6906e3b8dcadcc70ede7274ed8391589",
+        "0d0a5f555f555f555f555f70555f555f70555f7055555f555f70555f7055555f555f7055555f70555f555f705f555f72" },
+      { "01063e0df82c242c19347de69836f1883cebc672a484f0a64c29ccca086b8c0cd39e5381f67e77532f457d20eb61",
+        "202020202020202020202020202020202020202020202020596f20596f2062650a202020205420202062650a6b202020" },
+  };
+
+  static final int GOLDEN_SIZE = 48;
+
+  @Test
+  public void matchesGoldenVectors() {
+    for (int i = 0; i < GOLDEN.length; i++) {
+      byte[] in = HexUtils.decode(GOLDEN[i][0]);
+      ByteBuffer actual = ByteBuffer.allocate(GOLDEN_SIZE);
+      try {
+        Exploder.pkexplode(ByteBuffer.wrap(in), actual);
+        if (GOLDEN[i][1] == null) fail("exploded " + actual.position() + " bytes of rejected stream " + i);
+      } catch (IllegalArgumentException t) {
+        assertNull("stream " + i + ": " + t.getMessage(), GOLDEN[i][1]);
+        continue;
+      }
+
+      assertArrayEquals("stream " + i, HexUtils.decode(GOLDEN[i][1]), Arrays.copyOf(actual.array(), actual.position()));
+    }
+  }
+}
@@ -0,0 +1,82 @@
+package com.riiablo.mpq.util;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Compares the decoding throughput of {@link FastHuffman} against {@link Huffman} on sectors of
+ * text for the adaptive type {@code 0}, and values following the initial probabilities of the
+ * other types.
+ *
+ * <pre>java com.riiablo.mpq.util.HuffmanBenchmark [iterations] [types...]</pre>
+ */
+public class HuffmanBenchmark {
+  private static final int SECTOR_SIZE = 4096;
+  private static final int SECTORS     = 64;
+
+  public static void main(String[] args) {
+    final int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+    int[] types = {0, 1, 2, 3, 4, 5, 6, 7, 8};
+    if (args.length > 1) {
+      types = new int[args.length - 1];
+      for (int i = 1; i < args.length; i++) types[i - 1] = Integer.parseInt(args[i]);
+    }
+
+    Random random = new Random(0);
+    HuffmanEncoder encoder = new HuffmanEncoder();
+    for (int type : types) {
+      byte[][] sectors = new byte[SECTORS][];
+      for (int i = 0; i < SECTORS; i++) {
+        byte[] data = type == 0
+            ? HuffmanTest.text(random, SECTOR_SIZE)
+            : HuffmanTest.weighted(random, type, SECTOR_SIZE);
+        sectors[i] = encoder.encode(type, data);
+      }
+
+      final Huffman reference = new Huffman();
+      final FastHuffman huffman = new FastHuffman();
+      Decoder referenceDecoder = new Decoder() {
+        @Override
+        public void decompress(ByteBuffer in, ByteBuffer out) {
+          reference.decompress(in, out);
+        }
+      };
+      Decoder fastDecoder = new Decoder() {
+        @Override
+        public void decompress(ByteBuffer in, ByteBuffer out) {
+          huffman.decompress(in, out);
+        }
+      };
+
+      run(referenceDecoder, sectors, iterations); // warm up
+      run(fastDecoder, sectors, iterations);
+      double referenceRate = run(referenceDecoder, sectors, iterations);
+      double fastRate = run(fastDecoder, sectors, iterations);
+      System.out.printf("type %d: Huffman %7.1f MB/s, FastHuffman %7.1f MB/s (%.2fx)%n",
+          type, referenceRate, fastRate, fastRate / referenceRate);
+    }
+  }
+
+  private interface Decoder {
+    void decompress(ByteBuffer in, ByteBuffer out);
+  }
+
+  /**
+   * @return decoded megabytes per second
+   */
+  private static double run(Decoder decoder, byte[][] sectors, int iterations) {
+    ByteBuffer out = ByteBuffer.allocate(SECTOR_SIZE);
+    long bytes = 0;
+    long start = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      for (byte[] sector : sectors) {
+        out.clear();
+        decoder.decompress(ByteBuffer.wrap(sector), out);
+        bytes += out.position();
+      }
+    }
+
+    long elapsed = System.nanoTime() - start;
+    return bytes / (elapsed / 1e9) / (1 << 20);
+  }
+}
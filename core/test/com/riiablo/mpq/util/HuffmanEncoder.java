@@ -0,0 +1,79 @@
+package com.riiablo.mpq.util;
+
+import java.io.ByteArrayOutputStream;
+
+import static com.riiablo.mpq.util.FastHuffman.END_OF_STREAM;
+import static com.riiablo.mpq.util.FastHuffman.NEW_VALUE;
+import static com.riiablo.mpq.util.FastHuffman.NIL;
+
+/**
+ * Encodes data by driving the adaptive tree of a {@link FastHuffman} exactly as its decoder does.
+ * Only used to produce test data, the output is validated by decoding it with {@link Huffman}.
+ */
+class HuffmanEncoder {
+  private final FastHuffman model = new FastHuffman();
+  private final int[] code = new int[1 << 12];
+
+  private ByteArrayOutputStream out;
+  private long bitBuffer;
+  private int  bitCount;
+
+  byte[] encode(int type, byte[] data) {
+    out = new ByteArrayOutputStream(data.length + 16);
+    bitBuffer = 0;
+    bitCount = 0;
+
+    writeBits(type, 8);
+    model.buildTree(type);
+
+    final boolean adjustProbability = type == 0;
+    for (byte b : data) {
+      final int value = b & 0xFF;
+      int node = find(value);
+      if (node == NIL) {
+        writeCode(find(NEW_VALUE));
+        writeBits(value, 8);
+        node = model.addValueToTree(value);
+        model.incrementProbability(node);
+        if (!adjustProbability) model.incrementProbability(node);
+      } else {
+        writeCode(node);
+      }
+
+      if (adjustProbability) {
+        model.incrementProbability(node);
+      }
+    }
+
+    writeCode(find(END_OF_STREAM));
+    if (bitCount > 0) writeBits(0, 8 - bitCount);
+    return out.toByteArray();
+  }
+
+  private int find(int value) {
+    for (int i = 0; i < model.size; i++) {
+      if (model.value[i] == value) return i;
+    }
+
+    return NIL;
+  }
+
+  private void writeCode(int node) {
+    int length = 0;
+    for (int parent; (parent = model.parent[node]) != NIL; node = parent) {
+      code[length++] = model.child[(parent << 1) | 1] == node ? 1 : 0;
+    }
+
+    while (length > 0) writeBits(code[--length], 1);
+  }
+
+  private void writeBits(int value, int bits) {
+    bitBuffer |= (long) value << bitCount;
+    bitCount += bits;
+    while (bitCount >= 8) {
+      out.write((int) bitBuffer & 0xFF);
+      bitBuffer >>>= 8;
+      bitCount -= 8;
+    }
+  }
+}
@@ -0,0 +1,145 @@
+package com.riiablo.mpq.util;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class HuffmanTest {
+  private static final int TYPES       = 9;
+  private static final int SECTOR_SIZE = 4096;
+
+  /**
+   * Text with a skewed byte distribution, like the excel tables.
+   */
+  static byte[] text(Random random, int length) {
+    final String alphabet = "\t\r\n 0123456789abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ";
+    byte[] data = new byte[length];
+    for (int i = 0; i < length; i++) {
+      int index = (int) (Math.abs(random.nextGaussian()) * alphabet.length() / 3);
+      data[i] = (byte) alphabet.charAt(Math.min(index, alphabet.length() - 1));
+    }
+
+    return data;
+  }
+
+  /**
+   * Small deltas around zero, like the output of the ADPCM encoder.
+   */
+  static byte[] samples(Random random, int length) {
+    byte[] data = new byte[length];
+    for (int i = 0; i < length; i++) {
+      data[i] = (byte) (random.nextGaussian() * 12);
+    }
+
+    return data;
+  }
+
+  /**
+   * Values drawn from the initial probabilities of {@code type}, with the occasional value not in
+   * the table, which is the kind of data each table was designed for.
+   */
+  static byte[] weighted(Random random, int type, int length) {
+    byte[] probabilities = Huffman.PROBABILITY_TABLES[type];
+    int[] cumulative = new int[0x100];
+    int total = 0;
+    for (int i = 0; i < cumulative.length; i++) cumulative[i] = total += probabilities[i] & 0xFF;
+
+    byte[] data = new byte[length];
+    for (int i = 0; i < length; i++) {
+      if (total == 0 || random.nextInt(100) == 0) {
+        data[i] = (byte) random.nextInt(0x100);
+        continue;
+      }
+
+      int target = random.nextInt(total);
+      int value = 0;
+      while (cumulative[value] <= target) value++;
+      data[i] = (byte) value;
+    }
+
+    return data;
+  }
+
+  static byte[] noise(Random random, int length) {
+    byte[] data = new byte[length];
+    random.nextBytes(data);
+    return data;
+  }
+
+  private static byte[] decode(Huffman huffman, byte[] encoded, int capacity) {
+    ByteBuffer out = ByteBuffer.allocate(capacity);
+    huffman.decompress(ByteBuffer.wrap(encoded), out);
+    return Arrays.copyOf(out.array(), out.position());
+  }
+
+  private static byte[] decode(FastHuffman huffman, byte[] encoded, int capacity) {
+    ByteBuffer out = ByteBuffer.allocate(capacity);
+    huffman.decompress(ByteBuffer.wrap(encoded), out);
+    return Arrays.copyOf(out.array(), out.position());
+  }
+
+  @Test
+  public void roundTrip() {
+    Random random = new Random(0x2F);
+    HuffmanEncoder encoder = new HuffmanEncoder();
+    Huffman reference = new Huffman();
+    FastHuffman huffman = new FastHuffman();
+    for (int type = 0; type < TYPES; type++) {
+      for (int length : new int[] {0, 1, 17, 600, SECTOR_SIZE}) {
+        for (byte[] data : new byte[][] {
+            text(random, length), samples(random, length), weighted(random, type, length),
+            noise(random, length)}) {
+          byte[] encoded = encoder.encode(type, data);
+          String message = "type " + type + ", length " + length;
+          assertArrayEquals(message, data, decode(reference, encoded, SECTOR_SIZE));
+          assertArrayEquals(message, data, decode(huffman, encoded, SECTOR_SIZE));
+        }
+      }
+    }
+  }
+
+  /**
+   * Random streams exercise arbitrary paths through both trees, including malformed input.
+   */
+  @Test
+  public void matchesReferenceOnRandomInput() {
+    Random random = new Random(0x3A);
+    Huffman reference = new Huffman();
+    FastHuffman huffman = new FastHuffman();
+    for (int i = 0; i < 20000; i++) {
+      byte[] in = noise(random, 1 + random.nextInt(512));
+      in[0] = (byte) random.nextInt(TYPES);
+      int capacity = random.nextInt(4) == 0 ? random.nextInt(64) : SECTOR_SIZE;
+
+      ByteBuffer expected = ByteBuffer.allocate(capacity);
+      ByteBuffer expectedIn = ByteBuffer.wrap(in);
+      Class<?> expectedError = null;
+      try {
+        reference.decompress(expectedIn, expected);
+      } catch (RuntimeException e) {
+        expectedError = e.getClass();
+        reference = new Huffman();
+      }
+
+      ByteBuffer actual = ByteBuffer.allocate(capacity);
+      ByteBuffer actualIn = ByteBuffer.wrap(in);
+      Class<?> actualError = null;
+      try {
+        huffman.decompress(actualIn, actual);
+      } catch (RuntimeException e) {
+        actualError = e.getClass();
+      }
+
+      String message = "stream " + i + ", type " + in[0];
+      assertEquals(message, expectedError != null, actualError != null);
+      assertEquals(message, expected.position(), actual.position());
+      assertArrayEquals(message, expected.array(), actual.array());
+      if (expectedError == null) assertEquals(message, expectedIn.position(), actualIn.position());
+    }
+  }
+}
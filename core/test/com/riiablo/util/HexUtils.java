@@ -0,0 +1,30 @@
+package com.riiablo.util;
+
+/**
+ * Converts the golden vectors checked into tests from and to hex strings.
+ */
+public class HexUtils {
+  private HexUtils() {}
+
+  private static final char[] DIGITS = "0123456789abcdef".toCharArray();
+
+  public static byte[] decode(String hex) {
+    if ((hex.length() & 1) != 0) throw new IllegalArgumentException("Odd number of digits: " + hex);
+    byte[] bytes = new byte[hex.length() >> 1];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = (byte) Integer.parseInt(hex.substring(i << 1, (i << 1) + 2), 16);
+    }
+
+    return bytes;
+  }
+
+  public static String encode(byte[] bytes) {
+    char[] hex = new char[bytes.length << 1];
+    for (int i = 0; i < bytes.length; i++) {
+      hex[i << 1] = DIGITS[(bytes[i] >>> 4) & 0xF];
+      hex[(i << 1) + 1] = DIGITS[bytes[i] & 0xF];
+    }
+
+    return new String(hex);
+  }
+}
@@ -1020,25 +1020,24 @@ public class MPQViewer {
 
       BufferedReader reader = null;
       try {
-        //if (options_useExternalList.isChecked()) {
-          reader = Gdx.files.internal(ASSETS + "(listfile)").reader(4096);
-        //} else {
-        //  try {
-        //    reader = new BufferedReader(new InputStreamReader((new ByteArrayInputStream(mpq.readBytes("(listfile)")))));
-        //  } catch (Throwable t) {
-        //    reader = Gdx.files.internal(ASSETS + "(listfile)").reader(4096);
-        //  }
-        //}
-
-        Node root = new Node(new VisLabel("root"));
+        final FileHandle listfile = Gdx.files.internal(ASSETS + "(listfile)");
         final boolean checkExisting = options_checkExisting.isChecked();
-
-        String fileName;
-        while ((fileName = reader.readLine()) != null) {
-          if (checkExisting && !Riiablo.mpqs.contains(fileName)) {
-            continue;
+        Array<String> fileNames = new Array<>(String.class);
+        if (checkExisting) {
+          // tree only contains files which exist within the archives
+          Riiablo.mpqs.addListfile(listfile);
+          for (MPQFileHandle handle : Riiablo.mpqs.tree().list("")) {
+            fileNames.add(handle.fileName);
           }
+        } else {
+          reader = listfile.reader(4096);
+          for (String fileName; (fileName = reader.readLine()) != null;) {
+            fileNames.add(fileName);
+          }
+        }
 
+        Node root = new Node(new VisLabel("root"));
+        for (String fileName : fileNames) {
           String path = FilenameUtils.getPathNoEndSeparator(fileName).toLowerCase();
           treeify(fileTreeNodes, root, path);
 
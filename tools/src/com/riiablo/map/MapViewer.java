@@ -35,6 +35,7 @@ import com.riiablo.codec.FontTBL;
 import com.riiablo.codec.Palette;
 import com.riiablo.codec.StringTBLs;
 import com.riiablo.codec.TXT;
+import com.riiablo.entity.AnimationRegistry;
 import com.riiablo.entity.Engine;
 import com.riiablo.entity.Entity;
 import com.riiablo.entity.Player;
@@ -128,6 +129,7 @@ public class MapViewer extends ApplicationAdapter {
     Riiablo.colors = new Colors();
     Riiablo.textures = new Textures();
     Riiablo.string = new StringTBLs(resolver);
+    Riiablo.animations = new AnimationRegistry(assets, 0);
     Riiablo.cofs = new COFs(assets);//COFD2.loadFromFile(resolver.resolve("data\\global\\cmncof_a1.d2"));
 
     ShaderProgram.pedantic = false;
@@ -48,6 +48,7 @@ import com.riiablo.codec.Index;
 import com.riiablo.codec.Palette;
 import com.riiablo.codec.StringTBLs;
 import com.riiablo.codec.TXT;
+import com.riiablo.entity.AnimationRegistry;
 import com.riiablo.entity.Engine;
 import com.riiablo.entity.Entity;
 import com.riiablo.entity.Player;
@@ -121,6 +122,7 @@ public class WallAggregatorTool extends ApplicationAdapter {
     Riiablo.textures = new Textures();
     Riiablo.string = new StringTBLs(Riiablo.mpqs);
     Riiablo.palettes = new Palettes(Riiablo.assets);
+    Riiablo.animations = new AnimationRegistry(Riiablo.assets, 0);
     Riiablo.cofs = new COFs(Riiablo.assets);//COFD2.loadFromFile(resolver.resolve("data\\global\\cmncof_a1.d2"));
 
     batch = new SpriteBatch();